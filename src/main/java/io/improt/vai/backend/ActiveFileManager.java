@@ -16,6 +16,8 @@ import javax.swing.SwingUtilities; // Added for SwingUtilities.invokeLater
  */
 public class ActiveFileManager {
 
+    private static final String[] BINARY_EXTENSIONS = {"png", "jpg", "jpeg", "mp3", "wav", "mp4"};
+
     private List<File> enabledFiles = new ArrayList<>();
     private final List<File> dynamicFiles = new ArrayList<>();
 
@@ -174,15 +176,29 @@ public class ActiveFileManager {
         this.enabledFiles.add(file);
     }
 
+    /**
+     * The files whose content goes into the next prompt: enabled files, then dynamic ones.
+     */
+    public List<File> getContextFiles() {
+        return concatenateWithoutDuplicates();
+    }
+
     /**
      * Formats the enabled files into a structured string representation.
      *
      * @return The formatted string of enabled files.
      */
     public String formatEnabledFiles() {
+        return formatEnabledFiles(Collections.emptySet());
+    }
+
+    /**
+     * Formats the enabled files, leaving out {@code omitted}.
+     *
+     * @return The formatted string of enabled files.
+     */
+    public String formatEnabledFiles(Collection<File> omitted) {
         StringBuilder sb = new StringBuilder();
-        Path workspacePath = Paths.get(this.currentWorkspace.getAbsolutePath());
-        String[] binaryExtensions = {"png", "jpg", "jpeg", "mp3", "wav", "mp4"};
 
         List<File> actives = this.concatenateWithoutDuplicates();
 
@@ -193,26 +209,11 @@ public class ActiveFileManager {
         }
 
         for (File file : actives) {
-            String extension = "";
-            boolean isBinary = false;
-
-            int dotIndex = file.getName().lastIndexOf('.');
-            if (dotIndex != -1 && dotIndex < file.getName().length() - 1) {
-                extension = file.getName().substring(dotIndex + 1).toLowerCase();
+            if (omitted.contains(file)) {
+                continue;
             }
-
-            for (String binaryExt : binaryExtensions) {
-                if (extension.equals(binaryExt)) {
-                    isBinary = true;
-                    break;
-                }
-            }
-
-            Path relativePath = workspacePath.relativize(Paths.get(file.getAbsolutePath()));
-
-            sb.append("== ").append(relativePath).append(" ==\n");
-            if (!isBinary) {
-                sb.append("```").append(extension).append("\n");
+            sb.append(formatHeader(file));
+            if (!isAttachment(file)) {
                 sb.append(FileUtils.readFileToString(file));
                 sb.append("\n```\n");
             } else {
@@ -222,6 +223,37 @@ public class ActiveFileManager {
         return sb.toString();
     }
 
+    /**
+     * The text framing a file's content in the prompt: its relative path and, for text files, the opening fence.
+     */
+    public String formatHeader(File file) {
+        Path workspacePath = Paths.get(this.currentWorkspace.getAbsolutePath());
+        Path relativePath = workspacePath.relativize(Paths.get(file.getAbsolutePath()));
+        String header = "== " + relativePath + " ==\n";
+        return isAttachment(file) ? header : header + "```" + extensionOf(file) + "\n";
+    }
+
+    /**
+     * Whether the file is sent as an attachment rather than inlined as text.
+     */
+    public static boolean isAttachment(File file) {
+        String extension = extensionOf(file);
+        for (String binaryExt : BINARY_EXTENSIONS) {
+            if (extension.equals(binaryExt)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String extensionOf(File file) {
+        int dotIndex = file.getName().lastIndexOf('.');
+        if (dotIndex != -1 && dotIndex < file.getName().length() - 1) {
+            return file.getName().substring(dotIndex + 1).toLowerCase();
+        }
+        return "";
+    }
+
     /**
      * Adds a listener to be notified when enabledFiles changes.
      *
@@ -6,6 +6,7 @@ import io.improt.vai.llm.providers.impl.IModelProvider;
 import io.improt.vai.llm.*;
 import io.improt.vai.util.FileUtils;
 import io.improt.vai.mapping.SubWorkspace; 
+import io.improt.vai.mapping.WorkspaceMapper;
 import io.improt.vai.util.Constants;
 
 import javax.imageio.ImageIO;
@@ -203,6 +204,11 @@ public class App {
      * Finalizes the process of opening a new directory as the workspace.
      */
     private void finalizeOpenProject(File directory) {
+        File previousWorkspace = this.currentWorkspace;
+        if (previousWorkspace != null && !previousWorkspace.getAbsoluteFile().equals(directory.getAbsoluteFile())) {
+            // Stop watching the workspace being left, or every workspace ever opened keeps a watcher thread.
+            WorkspaceMapper.release(previousWorkspace);
+        }
         this.currentWorkspace = directory;
 
         this.subWorkspaces = FileUtils.loadSubWorkspaces(this.currentWorkspace); 
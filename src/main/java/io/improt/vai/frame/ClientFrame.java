@@ -15,8 +15,13 @@ import io.improt.vai.frame.dialogs.ResizableMessageHistoryDialog;
 import io.improt.vai.llm.SmartSubworkspaceCreator;
 import io.improt.vai.mapping.SubWorkspace; 
 import io.improt.vai.llm.Tasks; 
+import io.improt.vai.llm.chat.ChatLLMHandler;
+import io.improt.vai.llm.chat.ChatWindow;
+import io.improt.vai.llm.chat.session.ChatSession;
+import io.improt.vai.llm.chat.session.ChatSessionStore;
 import io.improt.vai.llm.providers.impl.IModelProvider;
 import io.improt.vai.llm.providers.openai.OpenAIClientBase;
+import io.improt.vai.llm.race.ModelRace;
 import io.improt.vai.mapping.WorkspaceMapper; // Added import
 import io.improt.vai.util.AudioUtils;
 import io.improt.vai.util.FileUtils;
@@ -34,10 +39,15 @@ import java.awt.datatransfer.*;
 import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import javax.swing.BorderFactory;
 import javax.swing.Timer;
 import java.io.ByteArrayOutputStream;
@@ -131,7 +141,7 @@ public class ClientFrame extends JFrame implements ActiveFilesPanel.FileSelectio
                 JOptionPane.showMessageDialog(ClientFrame.this, "Please open a workspace first.", "No Workspace", JOptionPane.WARNING_MESSAGE);
                 return;
             }
-            WorkspaceMapper workspaceMapper = new WorkspaceMapper(currentWorkspace);
+            WorkspaceMapper workspaceMapper = WorkspaceMapper.forWorkspace(currentWorkspace);
             workspaceMapper.mapAllOutdated(ClientFrame.this);
         });
         contextMenu.add(updateAllMappingsItem);
@@ -266,6 +276,12 @@ public class ClientFrame extends JFrame implements ActiveFilesPanel.FileSelectio
         });
         bottomPanel.add(modelCombo);
 
+        JCheckBox raceCheckBox = new JCheckBox("Race", ModelRace.getInstance().isEnabled());
+        raceCheckBox.setOpaque(false);
+        raceCheckBox.setToolTipText("Also send code requests to " + String.join(", ", ModelRace.getInstance().getRacers())
+                + " and keep the first usable answer");
+        raceCheckBox.addActionListener(e -> ModelRace.getInstance().setEnabled(raceCheckBox.isSelected()));
+        bottomPanel.add(raceCheckBox);
 
         JButton submitButton = createSubmitButton();
         bottomPanel.add(submitButton);
@@ -560,8 +576,14 @@ public class ClientFrame extends JFrame implements ActiveFilesPanel.FileSelectio
     private JButton createSubmitButton() {
         JButton submitButton = new JButton("Submit");
         submitButton.addActionListener(e -> {
-            this.submit(null);
+            if (ClientFrame.isModelRunning) {
+                this.cancelSubmit();
+            } else {
+                // Shift-click asks for a fresh answer rather than a cached one.
+                this.submit(null, (e.getModifiers() & ActionEvent.SHIFT_MASK) != 0);
+            }
         });
+        submitButton.setToolTipText("Shift-click to skip the response cache");
         return submitButton;
     }
 
@@ -635,6 +657,7 @@ public class ClientFrame extends JFrame implements ActiveFilesPanel.FileSelectio
         JMenuItem clearRecentFilesItem = new JMenuItem("Clear Recent Files");
         JMenuItem hack = new JMenuItem("Test Berzfad"); 
         JMenuItem messages = new JMenuItem("Messages");
+        JMenuItem chatSessions = new JMenuItem("Chat Sessions...");
 
         clearRecentFilesItem.addActionListener(e -> {
             int confirmation = JOptionPane.showConfirmDialog(this, "Are you sure you want to clear all recent files?", "Confirm Clear", JOptionPane.YES_NO_OPTION);
@@ -659,9 +682,42 @@ public class ClientFrame extends JFrame implements ActiveFilesPanel.FileSelectio
             });
         });
         
+        chatSessions.addActionListener(e -> resumeChatSession());
+
         recentActiveFilesMenu.add(clearRecentFilesItem);
         recentActiveFilesMenu.add(hack);
         recentActiveFilesMenu.add(messages);
+        recentActiveFilesMenu.add(chatSessions);
+    }
+
+    /** Lets the user pick a saved chat session and reopens it in a chat window. */
+    private void resumeChatSession() {
+        List<ChatSessionStore.SessionInfo> sessions = ChatSessionStore.getInstance().list();
+        if (sessions.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "There are no saved chat sessions.", "Chat Sessions", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        String[] labels = new String[sessions.size()];
+        for (int i = 0; i < labels.length; i++) {
+            ChatSessionStore.SessionInfo info = sessions.get(i);
+            labels[i] = dateFormat.format(new Date(info.getUpdated())) + "  " + info.getTitle()
+                    + "  (" + info.getMessageCount() + " messages)";
+        }
+        Object choice = JOptionPane.showInputDialog(this, "Resume a chat session:", "Chat Sessions",
+                JOptionPane.PLAIN_MESSAGE, null, labels, labels[0]);
+        if (choice == null) {
+            return;
+        }
+        ChatSessionStore.SessionInfo info = sessions.get(Arrays.asList(labels).indexOf(choice));
+        ChatSession session = ChatSessionStore.getInstance().open(info.getId());
+        if (session == null) {
+            return;
+        }
+        ChatWindow chatWindow = new ChatWindow(new ChatLLMHandler(info.getModel(), session));
+        chatWindow.populateInitialChatHistory();
+        chatWindow.setLocationRelativeTo(this);
+        chatWindow.setVisible(true);
     }
 
     private String formatProjectName(String path) {
@@ -762,6 +818,7 @@ public class ClientFrame extends JFrame implements ActiveFilesPanel.FileSelectio
         getRootPane().getActionMap().put("submitAction", new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
+                if (ClientFrame.isModelRunning) return; // Cancelling takes a deliberate click.
                 submitButton.doClick();
             }
         });
@@ -840,13 +897,24 @@ public class ClientFrame extends JFrame implements ActiveFilesPanel.FileSelectio
                 List<CreatePlanDialog.ExternalSubWorkspaceSelection> selectedExternalSubWorkspaces = planDialog.getSelectedExternalSubWorkspaces();
                 
                 Tasks tasks = new Tasks();
-                boolean contextMapped = tasks.queryRepositoryMap(planText, selectedLocalSubworkspaceNames, selectedExternalSubWorkspaces);
-
-                if (contextMapped) {
-                    statusBarLabel.setText("Context files updated based on plan. Review and submit.");
-                } else {
-                    statusBarLabel.setText("Plan processed. Context may not have changed.");
-                }
+                CompletableFuture<Boolean> plan = tasks.queryRepositoryMapAsync(planText, selectedLocalSubworkspaceNames, selectedExternalSubWorkspaces);
+                statusBarLabel.setText("Finding context files for the plan...");
+                markRunning(plan);
+
+                plan.whenComplete((contextMapped, error) -> SwingUtilities.invokeLater(() -> {
+                    clearRunning();
+                    if (plan.isCancelled()) {
+                        statusBarLabel.setText("Plan cancelled.");
+                    } else if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        cause.printStackTrace();
+                        statusBarLabel.setText("Plan failed: " + cause.getMessage());
+                    } else if (contextMapped) {
+                        statusBarLabel.setText("Context files updated based on plan. Review and submit.");
+                    } else {
+                        statusBarLabel.setText("Plan processed. Context may not have changed.");
+                    }
+                }));
             } else {
                 statusBarLabel.setText("Plan creation cancelled or plan was empty.");
             }
@@ -855,63 +923,88 @@ public class ClientFrame extends JFrame implements ActiveFilesPanel.FileSelectio
 
 
     public static boolean isModelRunning = false;
+    private CompletableFuture<?> runningSubmission;
+
     public void submit(Runnable onComplete) {
+        submit(onComplete, false);
+    }
+
+    public void submit(Runnable onComplete, boolean bypassCache) {
         if (isModelRunning) {
             System.out.println("Ignoring submit -- model is currently running.");
             return;
         }
-        this.submitButton.setEnabled(false);
-        ClientFrame.isModelRunning = true; 
-
-        new Thread(() -> {
-            try {
-                String model = (String) modelCombo.getSelectedItem();
-                if (model == null) {
-                    System.out.println("Must select a model");
-                    return;
-                }
-                String prompt = textArea.getText();
-
-                IModelProvider provider = backend.getLLMProvider(model);
-                ReasoningEffort reasoningEffort = null;
-
-                if (provider instanceof OpenAIClientBase) {
-                    if (((OpenAIClientBase) provider).supportsReasoningEffort()) {
-                        int sliderValue = reasoningSlider.getValue();
-                        switch(sliderValue) {
-                            case 0:
-                                reasoningEffort = ReasoningEffort.LOW;
-                                break;
-                            case 2:
-                                reasoningEffort = ReasoningEffort.HIGH;
-                                break;
-                            default:
-                                reasoningEffort = ReasoningEffort.MEDIUM;
-                        }
-                    }
-                    App.getInstance().setReasoningEffort(reasoningEffort);
+        String model = (String) modelCombo.getSelectedItem();
+        if (model == null) {
+            System.out.println("Must select a model");
+            return;
+        }
+        String prompt = textArea.getText();
+
+        IModelProvider provider = backend.getLLMProvider(model);
+        ReasoningEffort reasoningEffort = null;
+
+        if (provider instanceof OpenAIClientBase) {
+            if (((OpenAIClientBase) provider).supportsReasoningEffort()) {
+                int sliderValue = reasoningSlider.getValue();
+                switch(sliderValue) {
+                    case 0:
+                        reasoningEffort = ReasoningEffort.LOW;
+                        break;
+                    case 2:
+                        reasoningEffort = ReasoningEffort.HIGH;
+                        break;
+                    default:
+                        reasoningEffort = ReasoningEffort.MEDIUM;
                 }
+            }
+            App.getInstance().setReasoningEffort(reasoningEffort);
+        }
 
-                final String finalModel = model;
-                final String finalPrompt = prompt;
-                Runnable retryAction = () -> App.getInstance().getLLM().submitRequest(finalModel, finalPrompt);
+        CompletableFuture<Void> submission = App.getInstance().getLLM().submitRequestAsync(model, prompt, bypassCache);
+        markRunning(submission);
+        submission.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            clearRunning();
 
-                App.getInstance().getLLM().submitRequest(model, prompt); 
+            if (error == null) {
                 if (onComplete != null) {
-                    SwingUtilities.invokeLater(onComplete); 
+                    onComplete.run();
                 }
-            } catch (RuntimeException ex) {
-                ex.printStackTrace();
-                String currentModel = (String) modelCombo.getSelectedItem(); 
-                String currentPrompt = textArea.getText(); 
-                Runnable actualRetryAction = () -> App.getInstance().getLLM().submitRequest(currentModel, currentPrompt);
-                SwingUtilities.invokeLater(() -> showLLMErrorPopup("2 LLM Error: " + ex.getMessage(), actualRetryAction));
-
-            } finally {
-                 ClientFrame.isModelRunning = false; 
-                 SwingUtilities.invokeLater(() -> this.submitButton.setEnabled(true)); 
+            } else if (submission.isCancelled()) {
+                statusBarLabel.setText("Request cancelled.");
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                cause.printStackTrace();
+                Runnable retryAction = () -> App.getInstance().getLLM().submitRequest(model, prompt);
+                showLLMErrorPopup("2 LLM Error: " + cause.getMessage(), retryAction);
             }
-        }).start();
+        }));
+    }
+
+    /**
+     * While a model operation runs, the submit button cancels it instead.
+     */
+    private void markRunning(CompletableFuture<?> operation) {
+        ClientFrame.isModelRunning = true;
+        runningSubmission = operation;
+        this.submitButton.setText("Cancel");
+    }
+
+    private void clearRunning() {
+        ClientFrame.isModelRunning = false;
+        runningSubmission = null;
+        this.submitButton.setText("Submit");
+    }
+
+    /**
+     * Aborts the running model operation, including its HTTP call.
+     */
+    public void cancelSubmit() {
+        CompletableFuture<?> submission = runningSubmission;
+        if (submission != null) {
+            System.out.println("Cancelling running model request.");
+            submission.cancel(true);
+        }
     }
 
     public void appendLLMPrompt(String s) {
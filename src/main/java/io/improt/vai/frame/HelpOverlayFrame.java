@@ -2,6 +2,7 @@ package io.improt.vai.frame;
 
 import io.improt.vai.backend.App;
 import io.improt.vai.llm.chat.ChatLLMHandler;
+import io.improt.vai.llm.chat.session.ChatSessionStore;
 import io.improt.vai.llm.chat.ChatMessage;
 import io.improt.vai.llm.chat.ChatWindow;
 import io.improt.vai.llm.chat.content.ChatMessageUserType;
@@ -421,7 +422,7 @@ public class HelpOverlayFrame extends JFrame {
             }
         }
 
-        ChatLLMHandler chatHandler = new ChatLLMHandler(effectiveModelName);
+        ChatLLMHandler chatHandler = new ChatLLMHandler(effectiveModelName, ChatSessionStore.getInstance().create(effectiveModelName));
 
         chatHandler.addMessage(new ChatMessage(ChatMessageUserType.SYSTEM, new TextContent(
                 "You're \"Ada,\" a legendary engineer in a challenge chat booth. Respond briefly, ensuring correctness and completeness. " +
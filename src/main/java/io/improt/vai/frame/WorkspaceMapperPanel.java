@@ -1,12 +1,16 @@
 package io.improt.vai.frame;
 
 import io.improt.vai.backend.App;
+import io.improt.vai.mapping.MappingSearchIndex;
 import io.improt.vai.mapping.WorkspaceMapper;
 import io.improt.vai.mapping.WorkspaceMapper.ClassMapping;
 import io.improt.vai.mapping.SubWorkspace; 
 import io.improt.vai.util.FileUtils;
+import io.improt.vai.util.WorkspaceScanner;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.tree.*;
@@ -14,10 +18,11 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class WorkspaceMapperPanel extends JPanel {
 
@@ -26,6 +31,17 @@ public class WorkspaceMapperPanel extends JPanel {
     private final JTable mappingTable;
     private final MappingTableModel tableModel;
     private final JButton updateAllButton;
+    private JTextField mappingSearchField;
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+    // Mapper updates arrive from watcher and worker threads; coalesce them into one table refresh on the EDT.
+    private final WorkspaceMapper.MappingsChangeListener mappingsChangeListener = () -> {
+        if (refreshQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                refreshQueued.set(false);
+                refreshMappingTable();
+            });
+        }
+    };
 
     // Components for SubWorkspace Management
     private JList<SubWorkspace> subWorkspaceList;
@@ -57,7 +73,7 @@ public class WorkspaceMapperPanel extends JPanel {
             return;
         }
 
-        this.workspaceMapper = new WorkspaceMapper(workspaceDir);
+        this.workspaceMapper = WorkspaceMapper.forWorkspace(workspaceDir);
         this.tableModel = new MappingTableModel();
 
 
@@ -109,7 +125,7 @@ public class WorkspaceMapperPanel extends JPanel {
                         );
                         if (confirm == JOptionPane.YES_OPTION) {
                             workspaceMapper.mapDirectory(file, owner); 
-                            // Dialog handles its own updates; table will refresh via timer or after dialog closes
+                            // Dialog handles its own updates; the table refreshes as each mapping lands
                         }
                     }
                 } else if (SwingUtilities.isRightMouseButton(e)) { 
@@ -155,12 +171,34 @@ public class WorkspaceMapperPanel extends JPanel {
         updateAllButton.addActionListener(e -> {
             Window owner = SwingUtilities.getWindowAncestor(WorkspaceMapperPanel.this);
             workspaceMapper.mapAllOutdated(owner);
-            // Dialog handles its own updates; table will refresh via timer or after dialog closes
+            // Dialog handles its own updates; the table refreshes as each mapping lands
+        });
+
+        mappingSearchField = new JTextField();
+        mappingSearchField.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        mappingSearchField.setToolTipText("Search mapping summaries and paths. Quote words to match a phrase.");
+        mappingSearchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { refreshMappingTable(); }
+            @Override public void removeUpdate(DocumentEvent e) { refreshMappingTable(); }
+            @Override public void changedUpdate(DocumentEvent e) { refreshMappingTable(); }
         });
+        JPanel searchPanel = new JPanel(new BorderLayout(5, 0));
+        searchPanel.add(new JLabel("Search:"), BorderLayout.WEST);
+        searchPanel.add(mappingSearchField, BorderLayout.CENTER);
+
+        JCheckBox autoRemapCheckBox = new JCheckBox("Auto-remap changed files", workspaceMapper.isAutoRemapEnabled());
+        autoRemapCheckBox.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        autoRemapCheckBox.setToolTipText("Queue tracked files for remapping at low priority as soon as they change on disk.");
+        autoRemapCheckBox.addActionListener(e -> workspaceMapper.setAutoRemapEnabled(autoRemapCheckBox.isSelected()));
+
+        JPanel mappingButtonsPanel = new JPanel(new BorderLayout());
+        mappingButtonsPanel.add(autoRemapCheckBox, BorderLayout.WEST);
+        mappingButtonsPanel.add(updateAllButton, BorderLayout.CENTER);
 
         JPanel mappingManagementPanel = new JPanel(new BorderLayout());
+        mappingManagementPanel.add(searchPanel, BorderLayout.NORTH);
         mappingManagementPanel.add(tableScrollPane, BorderLayout.CENTER);
-        mappingManagementPanel.add(updateAllButton, BorderLayout.SOUTH);
+        mappingManagementPanel.add(mappingButtonsPanel, BorderLayout.SOUTH);
 
         JSplitPane topSplitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, treeScrollPane, mappingManagementPanel);
         topSplitPane.setDividerLocation(350);
@@ -233,15 +271,45 @@ public class WorkspaceMapperPanel extends JPanel {
 
         refreshMappingTable();
         refreshSubWorkspaceList();
-        
-        Timer mappingRefreshTimer = new Timer(2000, evt -> refreshMappingTable()); // Periodically refresh table
-        mappingRefreshTimer.start();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (workspaceMapper != null) {
+            workspaceMapper.addMappingsChangeListener(mappingsChangeListener);
+            refreshMappingTable();
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        if (workspaceMapper != null) {
+            workspaceMapper.removeMappingsChangeListener(mappingsChangeListener);
+        }
+        super.removeNotify();
     }
 
     private void refreshMappingTable() {
         if (workspaceMapper == null || tableModel == null) return;
-        List<ClassMapping> mappings = workspaceMapper.getMappings();
-        tableModel.setMappingData(mappings);
+        String query = mappingSearchField != null ? mappingSearchField.getText().trim() : "";
+        if (query.isEmpty()) {
+            tableModel.setMappingData(workspaceMapper.getMappings(), true);
+            return;
+        }
+        // Ranked results from the local index, best match first.
+        Map<String, ClassMapping> byPath = new HashMap<>();
+        for (ClassMapping cm : workspaceMapper.getMappings()) {
+            byPath.put(cm.getPath(), cm);
+        }
+        List<ClassMapping> results = new ArrayList<>();
+        for (MappingSearchIndex.SearchHit hit : workspaceMapper.search(query, 200)) {
+            ClassMapping cm = byPath.get(hit.getPath());
+            if (cm != null) {
+                results.add(cm);
+            }
+        }
+        tableModel.setMappingData(results, false);
     }
 
     private void refreshSubWorkspaceList() {
@@ -440,10 +508,10 @@ public class WorkspaceMapperPanel extends JPanel {
                  }
             }
         } else if (fileOrDir.isDirectory()) {
-            File[] children = fileOrDir.listFiles();
-            if (children != null) {
-                for (File child : children) {
-                    collectFiles(child, collectedFiles); 
+            for (WorkspaceScanner.ScannedFile scanned : WorkspaceScanner.forMappableFiles().scan(fileOrDir)) {
+                File child = scanned.toFile();
+                if (!collectedFiles.contains(child)) {
+                    collectedFiles.add(child);
                 }
             }
         }
@@ -484,27 +552,48 @@ public class WorkspaceMapperPanel extends JPanel {
         }
     }
 
-    private DefaultMutableTreeNode createTreeNodes(File file) {
-        DefaultMutableTreeNode node = new DefaultMutableTreeNode(file); 
-        if (file.isDirectory()) {
-            File[] children = file.listFiles();
-            if (children != null) {
-                List<File> fileList = Arrays.stream(children)
-                    .filter(child -> child.isDirectory() || WorkspaceMapper.hasValidExtension(child.getName().toLowerCase()))
-                    .collect(Collectors.toList());
-                fileList.sort((f1, f2) -> {
-                    if (f1.isDirectory() && !f2.isDirectory()) return -1;
-                    if (!f1.isDirectory() && f2.isDirectory()) return 1;
-                    return f1.getName().compareToIgnoreCase(f2.getName());
-                });
-                for (File child : fileList) {
-                    node.add(createTreeNodes(child));
-                }
-            }
+    private DefaultMutableTreeNode createTreeNodes(File workspaceDir) {
+        // Built from the shared scanner, so the tree skips the same directories and .gitignore'd paths as the mapper.
+        File root = workspaceDir.getAbsoluteFile();
+        DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(root);
+        Map<File, DefaultMutableTreeNode> directoryNodes = new HashMap<>();
+        directoryNodes.put(root, rootNode);
+        for (WorkspaceScanner.ScannedFile scanned : WorkspaceScanner.forMappableFiles().scan(root)) {
+            File file = scanned.toFile();
+            directoryNodeFor(file.getParentFile(), directoryNodes).add(new DefaultMutableTreeNode(file));
+        }
+        sortTreeNodes(rootNode);
+        return rootNode;
+    }
+
+    private DefaultMutableTreeNode directoryNodeFor(File dir, Map<File, DefaultMutableTreeNode> directoryNodes) {
+        DefaultMutableTreeNode node = directoryNodes.get(dir);
+        if (node == null) {
+            node = new DefaultMutableTreeNode(dir);
+            directoryNodes.put(dir, node);
+            directoryNodeFor(dir.getParentFile(), directoryNodes).add(node);
         }
         return node;
     }
 
+    private void sortTreeNodes(DefaultMutableTreeNode node) {
+        List<DefaultMutableTreeNode> children = new ArrayList<>();
+        for (int i = 0; i < node.getChildCount(); i++) {
+            children.add((DefaultMutableTreeNode) node.getChildAt(i));
+        }
+        // Directory nodes always have children here, so isLeaf() tells files from directories without touching the disk.
+        children.sort((n1, n2) -> {
+            if (!n1.isLeaf() && n2.isLeaf()) return -1;
+            if (n1.isLeaf() && !n2.isLeaf()) return 1;
+            return ((File) n1.getUserObject()).getName().compareToIgnoreCase(((File) n2.getUserObject()).getName());
+        });
+        node.removeAllChildren();
+        for (DefaultMutableTreeNode child : children) {
+            node.add(child);
+            sortTreeNodes(child);
+        }
+    }
+
 
     private void showTreeContextMenu(MouseEvent e, File file) {
         JPopupMenu popup = new JPopupMenu();
@@ -598,9 +687,9 @@ public class WorkspaceMapperPanel extends JPanel {
         private final String[] columns = {"Relative Path", "Mapping Status"};
         private List<ClassMapping> data = new ArrayList<>();
 
-        public void setMappingData(List<ClassMapping> mappings) {
+        public void setMappingData(List<ClassMapping> mappings, boolean sortByPath) {
             File workspace = App.getInstance().getCurrentWorkspace();
-            if (workspace != null) {
+            if (sortByPath && workspace != null) {
                  mappings.sort((cm1, cm2) -> {
                     String path1 = getRelativePath(cm1.getPath(), workspace);
                     String path2 = getRelativePath(cm2.getPath(), workspace);
@@ -646,7 +735,7 @@ public class WorkspaceMapperPanel extends JPanel {
                     File workspace = App.getInstance().getCurrentWorkspace();
                     return getRelativePath(cm.getPath(), workspace);
                 case 1:
-                    if (cm.getMapping() == null || cm.getMapping().isEmpty()) {
+                    if (!cm.hasMapping()) {
                         return "Unmapped";
                     } else if (!cm.isUpToDate()) {
                         return "Outdated";
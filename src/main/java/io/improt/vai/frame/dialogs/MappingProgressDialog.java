@@ -71,6 +71,18 @@ public class MappingProgressDialog extends JDialog implements MappingProgressLis
         updateStatusLabel();
     }
 
+    /**
+     * Adds a file after construction, for batches that are discovered while mapping is already under way.
+     */
+    public void addQueuedFile(String absolutePath) {
+        totalFilesToProcess.incrementAndGet();
+        SwingUtilities.invokeLater(() -> {
+            filePathToIndexMap.put(absolutePath, fileListModel.getSize());
+            fileListModel.addElement(getRelativePath(absolutePath) + " - Queued");
+            updateStatusLabel();
+        });
+    }
+
     private String getRelativePath(String absolutePath) {
         if (workspaceRoot != null && absolutePath.startsWith(workspaceRoot.getAbsolutePath())) {
             String rel = workspaceRoot.toURI().relativize(new File(absolutePath).toURI()).getPath();
@@ -1,14 +1,21 @@
 package io.improt.vai.llm;
 
+import io.improt.vai.backend.ActiveFileManager;
 import io.improt.vai.backend.App;
 import io.improt.vai.backend.plugin.PluginManager;
 import io.improt.vai.backend.plugin.AbstractPlugin;
 import io.improt.vai.frame.ClientFrame;
 import io.improt.vai.frame.dialogs.RepairDialog;
 import io.improt.vai.llm.providers.impl.IModelProvider;
+import io.improt.vai.llm.providers.impl.SegmentedPrompt;
+import io.improt.vai.llm.providers.runtime.ProviderRuntime;
+import io.improt.vai.llm.providers.runtime.ResponseCache;
+import io.improt.vai.llm.race.ModelRace;
+import io.improt.vai.llm.tokens.PromptBudget;
 import io.improt.vai.util.*;
 
 import javax.swing.*;
+import java.awt.Font;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -17,8 +24,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -73,6 +87,24 @@ public class LLMInteraction {
         }
     }
 
+    /**
+     * Runs {@link #submitRequest} off the calling thread. Cancelling the future aborts the model call in flight;
+     * files already written from the stream stay written. With {@code bypassCache} the model is asked again even if
+     * the same request has a cached response.
+     */
+    public CompletableFuture<Void> submitRequestAsync(String model, String userRequest, boolean bypassCache) {
+        return ProviderRuntime.getInstance().supplyAsync(() -> {
+            if (bypassCache) {
+                try (ResponseCache.Bypass ignored = ResponseCache.bypass()) {
+                    submitRequest(model, userRequest);
+                }
+            } else {
+                submitRequest(model, userRequest);
+            }
+            return null;
+        });
+    }
+
     /**
      * Submits a request to the LLM provider with the specified model, description, and (optionally) reasoning effort.
      *
@@ -109,13 +141,23 @@ public class LLMInteraction {
             PROMPT_TEMPLATE = defaultPrompt;
         }
 
-        String prompt = PROMPT_TEMPLATE
-                .replace("<REPLACEME_WITH_REQUEST>", userRequest)
-                .replace("<REPLACEME_WITH_STRUCTURE>", structure)
-                .replace("<REPLACEME_WITH_FILES>", app.getActiveFileManager().formatEnabledFiles())
-                .replace("<REPLACEME_WITH_OS>", System.getProperty("os.name"))
-                .replace("<REPLACEME_WITH_FEATURES>", buildFeaturesBlock())
-                .replace("<REPLACEME_WITH_ADDL_INFO>", app.popAdditionalData());
+        // Stable parts form the prefix providers can cache across repeated requests on the same context;
+        // the per-request parts come last.
+        Map<String, String> stableValues = new HashMap<>();
+        stableValues.put("OS", System.getProperty("os.name"));
+        stableValues.put("FEATURES", buildFeaturesBlock());
+        stableValues.put("STRUCTURE", structure);
+        Map<String, String> dynamicValues = new HashMap<>();
+        dynamicValues.put("REQUEST", userRequest);
+        dynamicValues.put("ADDL_INFO", app.popAdditionalData());
+
+        List<File> omitted = checkContextWindow(llmProvider, PROMPT_TEMPLATE, stableValues, dynamicValues, userRequest);
+        if (omitted == null) {
+            return;
+        }
+        stableValues.put("FILES", app.getActiveFileManager().formatEnabledFiles(omitted));
+        SegmentedPrompt segmentedPrompt = SegmentedPrompt.fromTemplate(PROMPT_TEMPLATE, stableValues, dynamicValues);
+        String prompt = segmentedPrompt.render();
 
         System.out.println("=== LLM PROMPT ===");
         System.out.println(prompt);
@@ -126,7 +168,20 @@ public class LLMInteraction {
         // For non-text files (images, audio), we'll pass them separately.
         List<File> filesForContext = this.getMedia();
 
-        String response = llmProvider.request(prompt, userRequest, filesForContext); // Pass the reasoningEffort parameter.
+        ModelRace race = ModelRace.getInstance();
+        if (race.isEnabled()) {
+            List<IModelProvider> racers = race.selectRacers(llmProvider, app.getLLMRegistry());
+            if (racers.size() > 1) {
+                submitRaced(race, racers, prompt, userRequest, filesForContext);
+                return;
+            }
+        }
+
+        // Blocks are written as soon as their !EOF arrives, while the rest of the response is still streaming.
+        ResponseWriter writer = new ResponseWriter();
+        BerzfadParser.StreamingParser parser = new BerzfadParser.StreamingParser(writer::write);
+        TrimmedFeed feed = new TrimmedFeed(parser);
+        String response = llmProvider.streamRequest(segmentedPrompt, userRequest, filesForContext, feed);
         System.out.println("=== LLM RESPONSE ===");
         System.out.println(response);
         System.out.println("====================");
@@ -136,15 +191,99 @@ public class LLMInteraction {
             return;
         }
 
-        // Trim leading and trailing whitespaces
-        response = response.trim();
-        this.handleCodeResponse(response);
+        try {
+            parser.finish();
+            System.out.println("Parsed '" + parser.getParsedCount() + "' files while streaming...");
+        } catch (Exception e) {
+            // Nothing could be parsed; go through the repair flow as with a complete response.
+            this.handleCodeResponse(response.trim());
+        }
 
         // Refresh the directory tree
         app.getClient().getProjectPanel().refreshTree(app.getCurrentWorkspace());
         // GPTODO: We need to refresh the file viewer as well.
     }
 
+    /**
+     * Races the request across several models and writes the winner's files. Racers answer in full rather than
+     * streaming, since only one response may be written.
+     */
+    private void submitRaced(ModelRace race, List<IModelProvider> racers, String prompt, String userRequest, List<File> files) {
+        CompletableFuture<ModelRace.Result> running = race.run(racers, prompt, userRequest, files);
+        ModelRace.Result result;
+        try {
+            result = running.get();
+        } catch (InterruptedException e) {
+            running.cancel(true);
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+
+        System.out.println("=== LLM RESPONSE ===");
+        System.out.println(result.getResponse());
+        System.out.println("====================");
+        if (result.getResponse() == null) {
+            return;
+        }
+        this.handleCodeResponse(result.getResponse().trim());
+        app.getClient().getProjectPanel().refreshTree(app.getCurrentWorkspace());
+    }
+
+    /**
+     * Estimates the prompt against the model's context window before anything is sent. When it does not fit, the
+     * user can leave out the largest files, send it anyway, or cancel. Attachments are priced differently by each
+     * provider and are not estimated.
+     *
+     * @return The files to leave out of the prompt, or null to cancel the request.
+     */
+    private List<File> checkContextWindow(IModelProvider provider, String template, Map<String, String> stableValues,
+                                          Map<String, String> dynamicValues, String userRequest) {
+        ActiveFileManager fileManager = app.getActiveFileManager();
+        Path workspace = app.getCurrentWorkspace().toPath();
+        PromptBudget budget = new PromptBudget(provider)
+                .addSection("Instructions", template)
+                .addSection("Features", stableValues.get("FEATURES"))
+                .addSection("Structure", stableValues.get("STRUCTURE"))
+                .addSection("Request", dynamicValues.get("REQUEST") + "\n" + userRequest)
+                .addSection("Additional info", dynamicValues.get("ADDL_INFO"));
+        for (File file : fileManager.getContextFiles()) {
+            if (!ActiveFileManager.isAttachment(file)) {
+                budget.addFile(workspace.relativize(file.toPath()).toString(), file, fileManager.formatHeader(file) + "\n```\n");
+            }
+        }
+        System.out.println(budget.describe(10));
+        if (budget.fits()) {
+            return Collections.emptyList();
+        }
+
+        List<File> trim = budget.planTrim();
+        StringBuilder message = new StringBuilder("The prompt is larger than ").append(provider.getFriendlyName())
+                .append(" accepts.\n\n").append(budget.describe(10));
+        if (!trim.isEmpty()) {
+            message.append("\nTrimming leaves out ").append(trim.size()).append(" of the largest files (~")
+                    .append(String.format("%,d", budget.tokensOf(trim))).append(" tokens)")
+                    .append(budget.getTotal() - budget.tokensOf(trim) <= budget.getLimit() ? "." : ", which is still not enough.");
+        }
+        JTextArea text = new JTextArea(message.toString());
+        text.setEditable(false);
+        text.setOpaque(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        String[] options = trim.isEmpty()
+                ? new String[]{"Send anyway", "Cancel"}
+                : new String[]{"Trim largest files", "Send anyway", "Cancel"};
+        int choice = JOptionPane.showOptionDialog(mainWindow, text, "Context Window Exceeded", JOptionPane.DEFAULT_OPTION,
+                JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+        String chosen = choice >= 0 ? options[choice] : "Cancel";
+        if (chosen.equals("Trim largest files")) {
+            System.out.println("Leaving out of the prompt: " + trim);
+            return trim;
+        }
+        return chosen.equals("Send anyway") ? Collections.emptyList() : null;
+    }
+
     @NotNull
     private List<File> getMedia() {
         List<File> filesForContext = this.app.getActiveFileManager().getEnabledFiles(); // Get all enabled files. You can filter if needed.
@@ -188,27 +327,27 @@ public class LLMInteraction {
      * @param parsedFiles The list of parsed FileContent objects.
      */
     private void processParsedFiles(List<BerzfadParser.FileContent> parsedFiles) {
-        try {
-            File vaiDir = FileUtils.getWorkspaceVaiDir(this.app.getCurrentWorkspace());
-            File backupDirectory = new File(vaiDir, Constants.VAI_BACKUP_DIR + "/" + getNextIncrementalBackupNumber());
-
-            while (backupDirectory.exists()) {
-                backupDirectory = new File(vaiDir, Constants.VAI_BACKUP_DIR + "/" + getNextIncrementalBackupNumber());
-            }
-
-            if (!backupDirectory.mkdirs()) {
-                JOptionPane.showMessageDialog(null, "Failed to create backup directory: " + backupDirectory.getAbsolutePath());
-                return;
-            }
+        System.out.println("Parsed '" + parsedFiles.size() + "' files...");
+        ResponseWriter writer = new ResponseWriter();
+        for (BerzfadParser.FileContent fileContent : parsedFiles) {
+            writer.write(fileContent);
+        }
+    }
 
-            Path workspacePath = Paths.get(this.app.getCurrentWorkspace().getAbsolutePath());
-            System.out.println("Parsed '" + parsedFiles.size() + "' files...");
+    /**
+     * Writes the files of one response into the workspace, backing up what they replace.
+     * All files of a response share one backup directory, created when the first file is written.
+     */
+    private class ResponseWriter {
+        private File backupDirectory;
+        private boolean backupFailed;
 
-            for (BerzfadParser.FileContent fileContent : parsedFiles) {
+        void write(BerzfadParser.FileContent fileContent) {
+            try {
                 if (fileContent.getFileName().trim().isEmpty()) {
                     System.out.println(fileContent.toString());
                     System.out.println("[SEVERE] File parsed had no filename!?");
-                    continue;
+                    return;
                 }
 
                 String fileName = fileContent.getFileName();
@@ -217,17 +356,22 @@ public class LLMInteraction {
 
                 // Plugins
                 if (pluginManager.passResponse(fileName, fileType, newContents)) {
-                    continue;
+                    return;
+                }
+
+                if (!ensureBackupDirectory()) {
+                    return;
                 }
 
                 System.out.println("Writing to " + fileName);
 
+                Path workspacePath = Paths.get(app.getCurrentWorkspace().getAbsolutePath());
                 File targetFile = new File(workspacePath + "/" + fileName);
 
                 // Security Check: Ensure the target file is within the project directory
                 boolean securityValidation = VaiUtils.doSecurityValidation(targetFile, newContents);
                 if (!securityValidation) {
-                    continue;
+                    return;
                 }
 
                 File backupFile = new File(backupDirectory.getAbsolutePath() + "/" + fileName);
@@ -268,11 +412,72 @@ public class LLMInteraction {
 
                 // Launch diff tool (meld)
                 MeldLauncher.launchMeld(backupFile.toPath(), targetFile.toPath());
+            } catch (Exception e) {
+                // Popup a message saying it failed.
+                JOptionPane.showMessageDialog(null, "Failed to handle parsed files: " + e.getMessage());
+                throw new RuntimeException(e);
             }
-        } catch (Exception e) {
-            // Popup a message saying it failed.
-            JOptionPane.showMessageDialog(null, "Failed to handle parsed files: " + e.getMessage());
-            throw new RuntimeException(e);
+        }
+
+        private boolean ensureBackupDirectory() {
+            if (backupDirectory != null) {
+                return true;
+            }
+            if (backupFailed) {
+                return false;
+            }
+            File vaiDir = FileUtils.getWorkspaceVaiDir(app.getCurrentWorkspace());
+            File candidate = new File(vaiDir, Constants.VAI_BACKUP_DIR + "/" + getNextIncrementalBackupNumber());
+
+            while (candidate.exists()) {
+                candidate = new File(vaiDir, Constants.VAI_BACKUP_DIR + "/" + getNextIncrementalBackupNumber());
+            }
+
+            if (!candidate.mkdirs()) {
+                backupFailed = true;
+                JOptionPane.showMessageDialog(null, "Failed to create backup directory: " + candidate.getAbsolutePath());
+                return false;
+            }
+            backupDirectory = candidate;
+            return true;
+        }
+    }
+
+    /**
+     * Feeds a streamed response to the parser as if it had been trimmed first, like a blocking response is:
+     * leading whitespace is dropped and trailing whitespace is held back until more text follows it.
+     */
+    private static class TrimmedFeed implements Consumer<String> {
+        private final BerzfadParser.StreamingParser parser;
+        private final StringBuilder pendingWhitespace = new StringBuilder();
+        private boolean started;
+
+        TrimmedFeed(BerzfadParser.StreamingParser parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public void accept(String chunk) {
+            int end = chunk.length();
+            while (end > 0 && chunk.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (end == 0) {
+                if (started) {
+                    pendingWhitespace.append(chunk);
+                }
+                return;
+            }
+            int begin = 0;
+            if (!started) {
+                while (chunk.charAt(begin) <= ' ') {
+                    begin++;
+                }
+                started = true;
+            }
+            parser.feed(pendingWhitespace + chunk.substring(begin, end));
+            pendingWhitespace.setLength(0);
+            pendingWhitespace.append(chunk, end, chunk.length());
         }
     }
 
@@ -19,7 +19,7 @@ public class LLMRegistry {
     private final List<IModelProvider> modelList = new ArrayList<>();
 
     public void registerModels() {
-//        register(new GeminiProvider());
+        register(new GeminiProvider());
         register(new FourOProvider());
         register(new GPT4oSearchProvider());
         register(new GPT41Provider());
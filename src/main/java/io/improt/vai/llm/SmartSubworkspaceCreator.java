@@ -6,6 +6,7 @@ import io.improt.vai.frame.dialogs.SmartSubworkspaceDialog;
 import io.improt.vai.mapping.SubWorkspace;
 import io.improt.vai.mapping.WorkspaceMapper;
 import io.improt.vai.util.FileUtils;
+import io.improt.vai.util.WorkspaceScanner;
 
 import javax.swing.*;
 import java.io.File;
@@ -47,7 +48,7 @@ public class SmartSubworkspaceCreator {
         }
 
         // Gather repository map data
-        WorkspaceMapper workspaceMapper = new WorkspaceMapper(appInstance.getCurrentWorkspace());
+        WorkspaceMapper workspaceMapper = WorkspaceMapper.forWorkspace(appInstance.getCurrentWorkspace());
         String repositoryMapContext = workspaceMapper.getAllMappingsConcatenated();
 
         if (repositoryMapContext.trim().isEmpty()) {
@@ -124,7 +125,9 @@ public class SmartSubworkspaceCreator {
 
                     if (rawPath.endsWith("/")) { // It's a directory
                         if (f.isDirectory()) {
-                            collectFilesRecursively(f, uniqueAbsoluteFilePaths);
+                            for (WorkspaceScanner.ScannedFile scanned : WorkspaceScanner.forMappableFiles().scan(f)) {
+                                uniqueAbsoluteFilePaths.add(scanned.toFile().getAbsolutePath());
+                            }
                         } else {
                              System.err.println("LLM suggested directory path does not exist or is not a directory: " + f.getAbsolutePath());
                         }
@@ -211,24 +214,4 @@ public class SmartSubworkspaceCreator {
         }
         return name;
     }
-    
-    private void collectFilesRecursively(File directory, Set<String> collectedPaths) {
-        File[] files = directory.listFiles();
-        if (files == null) return;
-
-        for (File file : files) {
-            if (file.isDirectory()) {
-                // Potentially add ignored directories logic from WorkspaceMapper here if needed
-                String dirName = file.getName().toLowerCase();
-                 if (dirName.equals(".git") || dirName.equals(".idea") || dirName.equals(".vscode") || dirName.equals("node_modules") || dirName.equals("target") || dirName.equals("build") || dirName.equals(".vai")) {
-                    continue;
-                }
-                collectFilesRecursively(file, collectedPaths);
-            } else if (file.isFile()) {
-                if (WorkspaceMapper.hasValidExtension(file.getName())) {
-                    collectedPaths.add(file.getAbsolutePath());
-                }
-            }
-        }
-    }
 }
\ No newline at end of file
@@ -4,30 +4,41 @@ import com.openai.models.ReasoningEffort;
 import io.improt.vai.backend.App;
 import io.improt.vai.frame.dialogs.CreatePlanDialog;
 import io.improt.vai.llm.providers.GeminiProProvider;
+import io.improt.vai.mapping.RepositoryMapBuilder;
 import io.improt.vai.mapping.WorkspaceMapper;
 import io.improt.vai.mapping.SubWorkspace;
 import io.improt.vai.util.FileUtils;
 import org.jetbrains.annotations.NotNull;
 
+import javax.swing.*;
+
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 public class Tasks {
 
-    public boolean queryRepositoryMap(String request,
-                                      List<String> activeLocalSubworkspaceNames,
-                                      List<CreatePlanDialog.ExternalSubWorkspaceSelection> externalSelections) {
+    /**
+     * Asks the model which files the request needs, then (on the EDT) lets the user approve them into the context.
+     * The map is assembled on the calling thread; only the model call runs in the background. Cancelling the
+     * returned future aborts that call.
+     *
+     * @return Completes with whether the plan was processed (false if there is no workspace or the dialog was cancelled).
+     */
+    public CompletableFuture<Boolean> queryRepositoryMapAsync(String request,
+                                                             List<String> activeLocalSubworkspaceNames,
+                                                             List<CreatePlanDialog.ExternalSubWorkspaceSelection> externalSelections) {
         App app = App.getInstance();
         if (app.getCurrentWorkspace() == null) {
             System.out.println("[Tasks::queryRepositoryMap] No current workspace. Cannot query repository map.");
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
 
-        WorkspaceMapper currentProjectMapper = new WorkspaceMapper(app.getCurrentWorkspace());
+        WorkspaceMapper currentProjectMapper = WorkspaceMapper.forWorkspace(app.getCurrentWorkspace());
         List<WorkspaceMapper.ClassMapping> combinedMappings = new ArrayList<>();
         String mappingsString;
 
@@ -36,7 +47,7 @@ public class Tasks {
 
         if (!specificLocalSubWorkspacesSelected && !externalSubWorkspacesSelected) {
             // No specific subworkspaces (local or external) selected, use all mappings from current project
-            mappingsString = currentProjectMapper.getAllMappingsConcatenated();
+            mappingsString = currentProjectMapper.buildRepositoryMap(request, RepositoryMapBuilder.DEFAULT_TOKEN_BUDGET);
             System.out.println("[Tasks::queryRepositoryMap] No active subworkspaces (local or external) selected. Using all available mappings from the current project.");
         } else {
             // Collect mappings from selected local subworkspaces
@@ -93,7 +104,10 @@ public class Tasks {
                  mappingsString = ""; // Selected subworkspaces were empty or contained no valid files
                  System.out.println("[Tasks::queryRepositoryMap] Selected subworkspaces (local or external) resulted in no mappings. Using empty context.");
             } else {
-                 mappingsString = WorkspaceMapper.getConcatenatedMappingsForClassMappingList(combinedMappings, app.getCurrentWorkspace());
+                 mappingsString = new RepositoryMapBuilder(combinedMappings, app.getCurrentWorkspace())
+                         .withQuery(request)
+                         .withRecentFiles(FileUtils.loadRecentlyActiveFiles(app.getCurrentWorkspace()))
+                         .build();
                  System.out.println("[Tasks::queryRepositoryMap] Using mappings from " + combinedMappings.size() + " files in selected local/external subworkspaces.");
             }
         }
@@ -108,11 +122,22 @@ public class Tasks {
         System.out.println(systemMessage + "\n\n\n\n");
         System.out.println(mappingsString);
 
-        String response = llmProvider.request(systemMessage, mappingsString, null);
-
+        // The request parameters, reasoning effort included, are built before requestAsync returns.
+        CompletableFuture<String> modelCall = llmProvider.requestAsync(systemMessage, mappingsString, null);
 
         app.setReasoningEffort(originalReasoningEffort); // Restore original reasoning effort
 
+        CompletableFuture<Boolean> result = modelCall.thenApplyAsync(Tasks::applySuggestedContext, SwingUtilities::invokeLater);
+        result.whenComplete((processed, error) -> {
+            if (result.isCancelled()) {
+                modelCall.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private static boolean applySuggestedContext(String response) {
+        App app = App.getInstance();
         List<String> filePaths = getFilePaths(response);
         String addlDetails = getAdditionalDetails(response);
 
@@ -9,6 +9,8 @@ import io.improt.vai.llm.chat.content.TextContent;
 // import io.improt.vai.util.UICommons; // Not strictly needed here anymore
 import javax.swing.*;
 import javax.swing.event.HyperlinkEvent;
+import javax.swing.text.Element;
+import javax.swing.text.html.HTMLDocument;
 import javax.swing.text.html.HTMLEditorKit;
 import javax.swing.text.html.StyleSheet;
 import java.awt.*;
@@ -22,6 +24,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Objects;
+import java.util.regex.Pattern;
 
 /**
  * A chat bubble component displaying text (Markdown rendered) or images.
@@ -46,15 +49,29 @@ public class ChatBubble extends JPanel {
     private static final int BUBBLE_ARC = 25; // Roundness
     private static final int MAX_BUBBLE_WIDTH_PX = 450; // Max width in pixels before wrapping aggressively
     private static final Insets PADDING = new Insets(10, 14, 10, 14); // Generous padding
+    private static final String TAIL_ID = "tail";
+    /** A top-level bullet or ordered list item marker. */
+    private static final Pattern LIST_ITEM = Pattern.compile("([-*+]|\\d{1,9}[.)])(\\s|$)");
+    private static final Pattern REFERENCE_DEFINITION = Pattern.compile(" {0,3}\\[[^\\]]+\\]:\\s*\\S+.*");
 
     private final boolean isImage;
     private final boolean isUser;
     private JEditorPane textPane; // For text/markdown content
     private JLabel imageLabel;    // For image content
     private JButton copyButton;
-    private String rawMessage = ""; // Store raw markdown/text
+    private final StringBuilder rawMessage = new StringBuilder(); // Store raw markdown/text; appended to while streaming
     private ChatMessage associatedMessage;
 
+    // Incremental rendering of streamed text
+    /** Characters of rawMessage rendered once into the frozen blocks ahead of the tail element. */
+    private int frozenLength;
+    /** Link reference definitions in the frozen text, and all those the frozen blocks were rendered with. */
+    private String frozenDefinitions = "";
+    private String renderedDefinitions = "";
+    /** Streamed text not yet rendered, and whether a render is queued on the EDT; guarded by pendingText. */
+    private final StringBuilder pendingText = new StringBuilder();
+    private boolean flushQueued;
+
     // Flexmark (Markdown to HTML)
     private static final Parser parser;
     private static final HtmlRenderer renderer;
@@ -113,8 +130,6 @@ public class ChatBubble extends JPanel {
     }
 
     private void initTextBubble(String markdownMessage, boolean isUser) {
-        this.rawMessage = markdownMessage;
-
         textPane = new JEditorPane();
         textPane.setEditorKit(kit);
         textPane.setEditable(false);
@@ -229,9 +244,8 @@ public class ChatBubble extends JPanel {
     }
 
     private void copyRawMessageToClipboard() {
-        if (rawMessage == null) return;
         Toolkit.getDefaultToolkit().getSystemClipboard().setContents(
-                new StringSelection(rawMessage),
+                new StringSelection(rawMessage.toString()),
                 null
         );
         // Visual feedback
@@ -250,26 +264,32 @@ public class ChatBubble extends JPanel {
     }
 
 
-    /** Renders Markdown to HTML and updates the JEditorPane. Must run on EDT. */
+    /**
+     * Renders Markdown to HTML and replaces the JEditorPane's content. Runs on the EDT. The document keeps the
+     * closed blocks ahead of a tail element holding the block still being written, so appends only re-render the tail.
+     * The two are rendered separately, each with every link reference definition in the message.
+     */
     private void renderMarkdown(String markdown) {
         if (textPane == null) return;
-        this.rawMessage = markdown; // Update raw message whenever rendering
+        // Update raw message whenever rendering
+        rawMessage.setLength(0);
+        rawMessage.append(markdown);
 
         Runnable renderTask = () -> {
             try {
-                com.vladsch.flexmark.util.ast.Node document = parser.parse(markdown);
-                String htmlContent = renderer.render(document);
-                // Construct the full HTML for JEditorPane, CSS is now handled by HTMLEditorKit's StyleSheet
-                // No need for inline <style> block anymore
-                String fullHtml = "<html><head></head><body>" + htmlContent + "</body></html>";
+                int closed = closedBlocksEnd(markdown, 0);
+                String frozen = markdown.substring(0, closed);
+                String definitions = referenceDefinitions(markdown);
+                String fullHtml = "<html><head></head><body>" + toHtml(frozen, definitions)
+                        + "<div id=\"" + TAIL_ID + "\">" + toHtml(markdown.substring(closed), definitions) + "</div></body></html>";
                 textPane.setText(fullHtml);
+                frozenLength = closed;
+                frozenDefinitions = referenceDefinitions(frozen);
+                renderedDefinitions = definitions;
                 // Reset caret position to avoid potential scrolling issues after update
                 textPane.setCaretPosition(0);
                 // Crucial: Revalidate the bubble after text change to update size
                 revalidate();
-                 if (getParent() != null) {
-                     getParent().revalidate(); // Revalidate parent container (the Box)
-                 }
             } catch (Exception e) {
                 // Log error, display fallback text
                 System.err.println("Error rendering Markdown: " + e.getMessage());
@@ -285,6 +305,142 @@ public class ChatBubble extends JPanel {
         }
     }
 
+    /**
+     * Renders the text appended since the last render. Blocks that closed in the meantime are rendered once and
+     * inserted ahead of the tail element; only the still-open last block is re-rendered. A link reference definition
+     * arriving after frozen blocks that may use it re-renders the whole message. Runs on the EDT.
+     */
+    private void renderAppended() {
+        HTMLDocument document = (HTMLDocument) textPane.getDocument();
+        Element tail = document.getElement(TAIL_ID);
+        if (tail == null) {
+            renderMarkdown(rawMessage.toString());
+            return;
+        }
+        try {
+            String open = rawMessage.substring(frozenLength);
+            String definitions = frozenDefinitions + referenceDefinitions(open);
+            if (!definitions.equals(renderedDefinitions) && rawMessage.lastIndexOf("[", frozenLength - 1) >= 0) {
+                renderMarkdown(rawMessage.toString());
+                return;
+            }
+            renderedDefinitions = definitions;
+            int closed = closedBlocksEnd(rawMessage, frozenLength);
+            if (closed > frozenLength) {
+                String frozen = rawMessage.substring(frozenLength, closed);
+                document.insertBeforeStart(tail, toHtml(frozen, definitions));
+                frozenDefinitions += referenceDefinitions(frozen);
+                frozenLength = closed;
+                open = rawMessage.substring(closed);
+            }
+            String openHtml = toHtml(open, definitions);
+            document.setInnerHTML(document.getElement(TAIL_ID), openHtml.isEmpty() ? "<p></p>" : openHtml);
+            revalidate();
+        } catch (Exception e) {
+            System.err.println("Error rendering appended Markdown: " + e.getMessage());
+            renderMarkdown(rawMessage.toString());
+        }
+    }
+
+    /**
+     * Renders one part of a message. {@code definitions} (link reference definitions from anywhere in the message)
+     * are appended so references resolve across parts; definitions render to nothing.
+     */
+    private static String toHtml(String markdown, String definitions) {
+        if (markdown.trim().isEmpty()) return "";
+        return renderer.render(parser.parse(definitions.isEmpty() ? markdown : markdown + "\n\n" + definitions));
+    }
+
+    /**
+     * The single-line link reference definitions ({@code [label]: url}) in {@code markdown} outside fenced code,
+     * one per line.
+     */
+    static String referenceDefinitions(String markdown) {
+        StringBuilder definitions = new StringBuilder();
+        String fence = null;
+        for (String line : markdown.split("\n")) {
+            String trimmed = line.trim();
+            if (fence != null) {
+                if (trimmed.startsWith(fence) && trimmed.replace(fence.substring(0, 1), "").isEmpty()) {
+                    fence = null;
+                }
+            } else if (fenceOf(trimmed) != null) {
+                fence = fenceOf(trimmed);
+            } else if (REFERENCE_DEFINITION.matcher(line).matches()) {
+                definitions.append(trimmed).append('\n');
+            }
+        }
+        return definitions.toString();
+    }
+
+    /**
+     * The end of the last top-level Markdown block in {@code markdown} known to be complete, scanning from
+     * {@code from}, which must be a block start. A block is complete once a blank line outside a fenced code block
+     * is followed by a line starting in the first column; indented lines may still continue a list item. A list is
+     * kept whole while its items continue after blank lines, since a list split in two would be numbered anew.
+     */
+    static int closedBlocksEnd(CharSequence markdown, int from) {
+        int closed = from;
+        String fence = null;
+        boolean sawBlank = false;
+        boolean started = false;
+        boolean inList = false;
+        int lineStart = from;
+        while (lineStart < markdown.length()) {
+            int lineEnd = indexOfNewline(markdown, lineStart);
+            if (lineEnd < 0) {
+                // An unfinished line may still become a fence, a list item or a continuation; it starts the open block at most.
+                if (fence == null && sawBlank && !inList && !Character.isWhitespace(markdown.charAt(lineStart))) {
+                    closed = lineStart;
+                }
+                break;
+            }
+            String line = markdown.subSequence(lineStart, lineEnd).toString();
+            String trimmed = line.trim();
+            if (fence != null) {
+                if (trimmed.startsWith(fence) && trimmed.replace(fence.substring(0, 1), "").isEmpty()) {
+                    fence = null;
+                }
+            } else if (trimmed.isEmpty()) {
+                sawBlank = true;
+            } else {
+                boolean listItem = LIST_ITEM.matcher(line).lookingAt();
+                if (!started) {
+                    started = true;
+                    inList = listItem;
+                } else if (sawBlank && !Character.isWhitespace(line.charAt(0)) && !(inList && listItem)) {
+                    closed = lineStart;
+                    inList = listItem;
+                }
+                sawBlank = false;
+                String opening = fenceOf(trimmed);
+                if (opening != null && line.length() - line.replaceAll("^ +", "").length() <= 3) {
+                    fence = opening;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return closed;
+    }
+
+    private static int indexOfNewline(CharSequence text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    /** The fence a line opens (three or more backticks or tildes), or null. */
+    private static String fenceOf(String trimmed) {
+        char c = trimmed.isEmpty() ? 0 : trimmed.charAt(0);
+        if (c != '`' && c != '~') return null;
+        int length = 0;
+        while (length < trimmed.length() && trimmed.charAt(length) == c) {
+            length++;
+        }
+        return length >= 3 ? trimmed.substring(0, length) : null;
+    }
+
     /** Converts StyleSheet rules to a String for inline styling (basic implementation).
      * @deprecated Inline styles are no longer needed as HTMLEditorKit uses the StyleSheet directly.
      */
@@ -295,10 +451,31 @@ public class ChatBubble extends JPanel {
         return "";
     }
 
-    /** Appends text snippet and re-renders. Assumes called on EDT. */
+    /**
+     * Appends a streamed snippet and renders it on the EDT. The stream already batches snippets per frame; snippets
+     * arriving while a render is still queued are simply rendered with it. Safe to call from any thread.
+     */
     public void appendText(String snippet) {
-        if (isImage || textPane == null) return;
-        renderMarkdown(this.rawMessage + snippet); // Re-render with appended text
+        if (isImage || textPane == null || snippet == null || snippet.isEmpty()) return;
+        synchronized (pendingText) {
+            pendingText.append(snippet);
+            if (flushQueued) return;
+            flushQueued = true;
+        }
+        SwingUtilities.invokeLater(this::flushPendingText);
+    }
+
+    /** Renders any appended text not rendered yet. Runs on the EDT. */
+    public void flushPendingText() {
+        String appended;
+        synchronized (pendingText) {
+            appended = pendingText.toString();
+            pendingText.setLength(0);
+            flushQueued = false;
+        }
+        if (appended.isEmpty()) return;
+        rawMessage.append(appended);
+        renderAppended();
     }
 
 
@@ -5,11 +5,15 @@ import com.openai.models.chat.completions.ChatCompletionCreateParams;
 import io.improt.vai.backend.App;
 import io.improt.vai.llm.chat.content.ChatMessageUserType;
 import io.improt.vai.llm.chat.content.TextContent;
+import io.improt.vai.llm.chat.session.ChatSession;
 import io.improt.vai.llm.providers.impl.IModelProvider;
 import io.improt.vai.llm.providers.O3MiniProvider;
 import io.improt.vai.llm.providers.openai.utils.Messages;
+import io.improt.vai.llm.tokens.TokenCounter;
+import io.improt.vai.mapping.RepositoryMapBuilder;
 import io.improt.vai.mapping.WorkspaceMapper;
-import io.improt.vai.util.stream.ISnippetAction;
+import io.improt.vai.util.stream.SnippetStream;
+import io.improt.vai.util.stream.StreamListener;
 
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
@@ -24,19 +28,52 @@ import java.util.List;
  */
 public class ChatLLMHandler {
     private final List<ChatMessage> conversationHistory = new ArrayList<>();
+    private final ConversationCompactor compactor =
+            new ConversationCompactor(App.getInstance().getLLMProvider(ConversationCompactor.configuredSummarizer()));
     private String selectedModel;
+    /**
+     * The latest !askrepo question and the repository map built for it (once it is first sent), sent before it while
+     * it is in the history.
+     */
+    private ChatMessage repoQuestion;
+    private String repoContext;
+    /** Where the conversation is persisted, or null if it is kept in memory only. */
+    private final ChatSession session;
 
     public ChatLLMHandler(String selectedModel) {
+        this(selectedModel, null);
+    }
+
+    /**
+     * A handler whose conversation is persisted to {@code session}, starting with the messages it was opened with.
+     */
+    public ChatLLMHandler(String selectedModel, ChatSession session) {
         this.selectedModel = selectedModel;
+        this.session = session;
+        if (session != null) {
+            conversationHistory.addAll(session.getMessages());
+        }
     }
 
     /**
-     * Adds a new message to the conversation history.
+     * Adds a new message to the conversation history. A user message containing {@code !askrepo} has the command
+     * removed before it is stored, and gets repository context when it is next sent.
      *
      * @param message The chat message to add.
      */
     public void addMessage(ChatMessage message) {
+        if (message.getMessageType() == ChatMessageUserType.USER && message.getContent() instanceof TextContent) {
+            String text = message.getContent().toString();
+            if (text.contains("!askrepo")) {
+                ((TextContent) message.getContent()).setText(text.replace("!askrepo", ""));
+                repoQuestion = message;
+                repoContext = null;
+            }
+        }
         conversationHistory.add(message);
+        if (session != null) {
+            session.append(message);
+        }
     }
 
     /**
@@ -50,6 +87,22 @@ public class ChatLLMHandler {
 
     public void setSelectedModel(String model) {
         this.selectedModel = model;
+        if (session != null) {
+            session.setModel(model);
+        }
+    }
+
+    public ChatSession getSession() {
+        return session;
+    }
+
+    /**
+     * Flushes the session's index entry, if the conversation is persisted.
+     */
+    public void close() {
+        if (session != null) {
+            session.close();
+        }
     }
 
     public String getSelectedModel() {
@@ -70,7 +123,7 @@ public class ChatLLMHandler {
             return;
         }
 
-        List<ChatMessage> historyForRequest = prepareHistoryForRequest();
+        List<ChatMessage> historyForRequest = prepareHistoryForRequest(provider);
         String response = provider.chatRequest(historyForRequest);
 
         System.out.println("=== CHATLLM RESPONSE (Blocking) ===");
@@ -87,57 +140,53 @@ public class ChatLLMHandler {
      * Runs the model request in a streaming manner with the current history.
      * Handles the !askrepo command to inject repository context.
      *
-     * @param streamAction The action to perform for each received snippet.
-     * @param onComplete   A Runnable to execute when the streaming is complete.
+     * @param listener Receives the streamed response and its complete, error or cancel signal.
+     * @return The stream; cancelling it aborts the request.
      * @throws Exception if initiating the stream request fails.
      */
-    public void streamModelResponse(ISnippetAction streamAction, Runnable onComplete) throws Exception {
+    public SnippetStream streamModelResponse(StreamListener listener) throws Exception {
         IModelProvider provider = App.getInstance().getLLMProvider(selectedModel);
         if (this.conversationHistory.isEmpty()) {
             System.out.println("Conversation history empty!");
-            if (onComplete != null) onComplete.run(); // Ensure completion callback if history is empty
-            return;
+            SnippetStream empty = SnippetStream.open(listener);
+            empty.complete();
+            return empty;
         }
 
-        List<ChatMessage> historyForRequest = prepareHistoryForRequest();
+        List<ChatMessage> historyForRequest = prepareHistoryForRequest(provider);
         System.out.println("Starting stream request...");
-        provider.streamChatRequest(historyForRequest, streamAction, onComplete);
+        return provider.streamChatRequest(historyForRequest, listener);
     }
 
     /**
      * Prepares the conversation history for sending to the model.
-     * Handles the !askrepo command by injecting repository context if present.
+     * Handles the !askrepo command by building repository context for the latest question. Only the most recent
+     * context is kept, so follow-up questions still see it without a copy being sent per !askrepo. The history is
+     * then compacted to the model's budget by the {@link ConversationCompactor}.
      *
      * @return The list of ChatMessages to send to the model.
      */
-    private List<ChatMessage> prepareHistoryForRequest() {
-        boolean includeRepoContext = false;
-        if (!this.conversationHistory.isEmpty()) {
-            ChatMessage latestMessage = this.conversationHistory.get(this.conversationHistory.size() - 1);
-            if (latestMessage.getContent() instanceof TextContent) {
-                String msg = latestMessage.getContent().toString();
-                if (msg.contains("!askrepo")) {
-                    // Modify the last message to remove the command before sending
-                    ((TextContent) latestMessage.getContent()).setText(msg.replace("!askrepo", ""));
-                    includeRepoContext = true;
-                }
-            }
+    private List<ChatMessage> prepareHistoryForRequest(IModelProvider provider) {
+        if (repoQuestion != null && repoContext == null) {
+            String question = repoQuestion.getContent().toString();
+            WorkspaceMapper mapper = WorkspaceMapper.forWorkspace(App.getInstance().getCurrentWorkspace());
+            repoContext = "Here is my repository context:\n"
+                    + mapper.buildRepositoryMap(question, RepositoryMapBuilder.DEFAULT_TOKEN_BUDGET);
         }
 
-        List<ChatMessage> historyToSend;
-        if (includeRepoContext) {
-            historyToSend = new ArrayList<>();
-            WorkspaceMapper mapper = new WorkspaceMapper(App.getInstance().getCurrentWorkspace());
-            String mappings = mapper.getAllMappingsConcatenated();
-            // Inject context as a *user* message right before the actual user message that contained !askrepo
-             if (conversationHistory.size() > 1) {
-                 historyToSend.addAll(conversationHistory.subList(0, conversationHistory.size() - 1));
-             }
-             historyToSend.add(new ChatMessage(ChatMessageUserType.USER, new TextContent("Here is my repository context:\n" + mappings)));
-             // Add the modified last user message
-             historyToSend.add(conversationHistory.get(conversationHistory.size()-1));
-        } else {
-            historyToSend = new ArrayList<>(conversationHistory);
+        int questionIndex = repoQuestion != null ? conversationHistory.indexOf(repoQuestion) : -1;
+        int reserved = questionIndex >= 0
+                ? TokenCounter.getInstance().count(repoContext, provider.getTokenEncoding()) : 0;
+        ConversationCompactor.Compacted compacted = compactor.compact(conversationHistory, provider, reserved);
+        int position = questionIndex >= 0 ? compacted.indexOf(questionIndex) : -1;
+        if (reserved > 0 && position < 0) {
+            // The question itself did not fit, so neither does its context; give its room back to the history.
+            compacted = compactor.compact(conversationHistory, provider, 0);
+        }
+        List<ChatMessage> historyToSend = new ArrayList<>(compacted.getMessages());
+        if (position >= 0) {
+            // Inject context as a *user* message right before the question that asked for it
+            historyToSend.add(position, new ChatMessage(ChatMessageUserType.USER, new TextContent(repoContext)));
         }
         return historyToSend;
     }
@@ -150,6 +199,13 @@ public class ChatLLMHandler {
      */
     public void removeMessage(ChatMessage message) {
         conversationHistory.remove(message);
+        if (session != null) {
+            session.remove(message);
+        }
+        if (message == repoQuestion) {
+            repoQuestion = null;
+            repoContext = null;
+        }
     }
     
     // Removed streamAlive, doPaste, and killStream as they were related to keyboard mode.
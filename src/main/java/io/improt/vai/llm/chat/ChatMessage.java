@@ -15,9 +15,16 @@ public class ChatMessage {
     private final Date timestamp;
 
     public ChatMessage(ChatMessageUserType messageType, IChatContent content) {
+        this(messageType, content, new Date());
+    }
+
+    /**
+     * A message sent at {@code timestamp}, e.g. one restored from a saved session.
+     */
+    public ChatMessage(ChatMessageUserType messageType, IChatContent content, Date timestamp) {
         this.messageType = messageType;
         this.content = content;
-        this.timestamp = new Date();
+        this.timestamp = timestamp;
     }
 
     public ChatMessageUserType getMessageType() {
@@ -1,41 +1,74 @@
 package io.improt.vai.llm.chat;
 
+import io.improt.vai.llm.chat.content.ImageContent;
+
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
- * A panel that displays chat bubbles vertically, aligning user bubbles to the right
- * and assistant/image bubbles to the left. Uses BoxLayout for stacking.
- * Relies on the bubble component itself (ChatBubble with CSS max-width)
- * to constrain its width.
+ * A virtualized chat transcript: user bubbles aligned right, assistant/image bubbles left.
+ *
+ * Only bubbles in or near the viewport exist as components. The rest are kept as their messages plus a cached
+ * height (measured when last shown, or estimated from the text), so long conversations cost memory and layout
+ * time for what is on screen, not for their whole length. Bubbles scrolled well out of view are released along
+ * with their HTML documents and rebuilt from their messages when they come back. When a height above the
+ * viewport turns out different from its estimate, the view is shifted by the difference so the visible
+ * content does not jump. Each entry keeps its top offset, so a scroll finds the visible entries by binary search
+ * instead of walking the whole transcript.
  */
-public class ChatPanel extends JPanel {
-    private final Box verticalBox;
-    private final JPanel wrapperPanel; // Panel to hold the verticalBox
+public class ChatPanel extends JPanel implements Scrollable {
     private static final Color BG_DARK = new Color(43, 43, 43); // Match ChatWindow background
-    private final List<Component> bubbles = new ArrayList<>(); // Keep track of added bubbles
+    private static final int GAP = 12; // Vertical spacing between bubbles
+    private static final int PADDING = 15;
+    private static final int ESTIMATED_LINE_HEIGHT = 20;
+    private static final int ESTIMATED_CHARS_PER_LINE = 60;
+    private static final int ESTIMATED_IMAGE_HEIGHT = 220;
 
-    public ChatPanel() {
-        setLayout(new BorderLayout()); // Main layout remains BorderLayout
-        setOpaque(true);
-        setBackground(BG_DARK);
+    private final List<Entry> entries = new ArrayList<>();
+    /** Entries whose bubble currently exists, in no particular order. */
+    private final Set<Entry> materialized = new LinkedHashSet<>();
+    private int totalHeight = 2 * PADDING;
+    private JViewport viewport;
+    private boolean laying;
 
-        verticalBox = Box.createVerticalBox();
+    /** One transcript item: its message, whether it is right-aligned, and its bubble while materialized. */
+    private static final class Entry {
+        final ChatMessage message;
+        final boolean isUser;
+        JComponent component;
+        /** Offset of the entry's top edge, kept in step with the heights above it. */
+        int top;
+        /** Height as last measured or estimated. */
+        int height;
+        /** The width the component was last measured at, or -1 if it has not been. */
+        int measuredWidth = -1;
+        /** Components added without a message (and the streaming bubble) cannot be rebuilt, so are never released. */
+        boolean pinned;
 
-        // Wrapper panel to control the horizontal alignment and width of the verticalBox
-        wrapperPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 0, 0)); // Center the box horizontally
-        wrapperPanel.setOpaque(true);
-        wrapperPanel.setBackground(BG_DARK); // Match background
-        wrapperPanel.add(verticalBox);
+        Entry(ChatMessage message, boolean isUser) {
+            this.message = message;
+            this.isUser = isUser;
+        }
+    }
 
-        // Add wrapperPanel to the NORTH of the BorderLayout. This allows the verticalBox
-        // to grow downwards naturally, while FlowLayout keeps it centered horizontally.
-        add(wrapperPanel, BorderLayout.NORTH);
+    public ChatPanel() {
+        setLayout(null); // Laid out by doLayout()
+        setOpaque(true);
+        setBackground(BG_DARK);
+    }
 
-        // Add some padding around the entire chat area
-        setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+    /**
+     * Adds a message to the transcript; its bubble is only built once it scrolls into view.
+     */
+    public void addMessage(ChatMessage message, boolean isUser) {
+        Entry entry = new Entry(message, isUser);
+        entry.height = estimateHeight(message);
+        append(entry);
     }
 
     /**
@@ -55,124 +88,289 @@ public class ChatPanel extends JPanel {
      * @param isUser true if the bubble is a user bubble (or should be aligned right).
      */
     public void addBubble(JComponent bubble, boolean isUser) {
-        // No longer setting maximum size here - ChatBubble CSS handles text width.
-        // Images within ChatBubble might have their own max size set internally.
-        // int maxWidth = (int) (getParentWidth() * 0.75); // Max 75% of container width
-        // bubble.setMaximumSize(new Dimension(maxWidth, Short.MAX_VALUE)); // REMOVED
-
-        // Create a horizontal box to manage alignment within the vertical stack
-        Box horizontalBox = Box.createHorizontalBox();
-
-        if (isUser) {
-            horizontalBox.add(Box.createHorizontalGlue()); // Push bubble to the right
-            horizontalBox.add(bubble);
-            // No strut needed as alignment is handled by glue and panel padding
-        } else {
-            horizontalBox.add(bubble);
-            horizontalBox.add(Box.createHorizontalGlue()); // Push bubble to the left
-             // No strut needed
-        }
-
-        verticalBox.add(horizontalBox);
-        verticalBox.add(Box.createVerticalStrut(12)); // Consistent vertical spacing
+        ChatMessage message = bubble instanceof ChatBubble ? ((ChatBubble) bubble).getAssociatedMessage() : null;
+        Entry entry = new Entry(message, isUser);
+        entry.component = bubble;
+        entry.pinned = message == null;
+        entry.height = bubble.getPreferredSize().height;
+        add(bubble);
+        materialized.add(entry);
+        append(entry);
+    }
 
-        bubbles.add(bubble); // Track the bubble component itself
+    /**
+     * Keeps a bubble materialized even when scrolled out of view, e.g. while its message is still being streamed
+     * into it and so cannot be rebuilt from the message yet.
+     */
+    public void setPinned(JComponent bubble, boolean pinned) {
+        for (Entry entry : materialized) {
+            if (entry.component == bubble) {
+                entry.pinned = pinned || entry.message == null;
+                return;
+            }
+        }
+    }
 
+    private void append(Entry entry) {
+        Entry previous = entries.isEmpty() ? null : entries.get(entries.size() - 1);
+        entry.top = previous != null ? previous.top + previous.height + GAP : PADDING;
+        entries.add(entry);
+        totalHeight = entry.top + entry.height + PADDING;
         revalidate();
         repaint();
     }
 
-    /** Gets the width of the parent container, defaulting if not available. */
-    private int getParentWidth() {
-         Container parent = getParent();
-         // The parent is likely the JViewport of the JScrollPane
-         if (parent instanceof JViewport) {
-             Container grandParent = parent.getParent(); // Get the JScrollPane itself
-             if (grandParent != null) parent = grandParent;
-         }
-         // Subtract border/padding estimate
-         int horizontalPadding = 30; // From ChatPanel border
-         JScrollBar verticalScrollBar = null;
-         if(parent instanceof JScrollPane) {
-             verticalScrollBar = ((JScrollPane) parent).getVerticalScrollBar();
-         }
-         int scrollbarWidth = (verticalScrollBar != null && verticalScrollBar.isVisible()) ? verticalScrollBar.getWidth() : 0;
-
-         return (parent != null) ? parent.getWidth() - horizontalPadding - scrollbarWidth : 600; // Default guess
-    }
-
     /**
      * Removes a specific bubble component from the panel.
      *
      * @param component The bubble JComponent to remove.
      */
     public void removeBubble(Component component) {
-        // Find the horizontal box containing the component
-        Component HBoxToRemove = null;
-        Component strutToRemove = null;
-        int componentIndex = -1;
-
-        Component[] hBoxes = verticalBox.getComponents();
-        for (int i = 0; i < hBoxes.length; i++) {
-            if (hBoxes[i] instanceof Box) {
-                Box hBox = (Box) hBoxes[i];
-                for (Component compInHBox : hBox.getComponents()) {
-                    if (compInHBox == component) {
-                        HBoxToRemove = hBox;
-                        componentIndex = i;
-                        break;
-                    }
+        SwingUtilities.invokeLater(() -> {
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (entry.component == component) {
+                    remove(component);
+                    materialized.remove(entry);
+                    entries.remove(i);
+                    shiftFrom(i, -(entry.height + GAP));
+                    break;
                 }
             }
-            if (HBoxToRemove != null) break;
-        }
+            revalidate();
+            repaint();
+        });
+    }
 
-        // Find the strut following the horizontal box
-        if (componentIndex != -1 && componentIndex + 1 < hBoxes.length) {
-             if (hBoxes[componentIndex + 1] instanceof Box.Filler) { // Check if it's a strut
-                 strutToRemove = hBoxes[componentIndex + 1];
-             }
+    /** Clears all bubbles from the panel. Runs immediately on the EDT, so messages added after it are kept. */
+    public void clearBubbles() {
+        Runnable clear = () -> {
+            removeAll();
+            entries.clear();
+            materialized.clear();
+            totalHeight = 2 * PADDING;
+            revalidate();
+            repaint();
+        };
+        if (SwingUtilities.isEventDispatchThread()) {
+            clear.run();
+        } else {
+            SwingUtilities.invokeLater(clear);
         }
+    }
 
-        // Remove the components on the EDT
-        final Component finalHBoxToRemove = HBoxToRemove;
-        final Component finalStrutToRemove = strutToRemove;
+    /** Recalculates layout - typically involves revalidating the container hierarchy. */
+    public void recalcLayout() {
         SwingUtilities.invokeLater(() -> {
-            if (finalStrutToRemove != null) {
-                verticalBox.remove(finalStrutToRemove);
+            revalidate();
+            repaint();
+        });
+    }
+
+    /** The number of bubbles currently materialized as components. */
+    public int getMaterializedCount() {
+        return materialized.size();
+    }
+
+    /** The enclosing viewport, listened to so that scrolling materializes and releases bubbles. */
+    private JViewport viewport() {
+        if (getParent() instanceof JViewport && getParent() != viewport) {
+            viewport = (JViewport) getParent();
+            viewport.addChangeListener(e -> layoutVisible());
+        }
+        return viewport;
+    }
+
+    @Override
+    public void doLayout() {
+        layoutVisible();
+    }
+
+    /**
+     * Materializes and measures the entries within a viewport's height of the visible area, plus pinned entries
+     * and the last one, releases the other bubbles and positions the rest.
+     */
+    private void layoutVisible() {
+        int width = getWidth() - 2 * PADDING;
+        if (width <= 0 || laying) return;
+        laying = true;
+        try {
+            JViewport viewport = viewport();
+            Rectangle view = viewport != null ? viewport.getViewRect() : new Rectangle(0, 0, getWidth(), getHeight());
+            int keepFrom = view.y - view.height;
+            int keepTo = view.y + 2 * view.height;
+            int last = entries.size() - 1;
+            int anchorShift = 0;
+
+            // Tops move as heights are measured, so the range end is checked against the live offsets.
+            for (int i = firstEndingAtOrAfter(keepFrom); i <= last && entries.get(i).top <= keepTo; i++) {
+                anchorShift += measure(i, width, view.y);
             }
-            if (finalHBoxToRemove != null) {
-                verticalBox.remove(finalHBoxToRemove);
+            for (Entry entry : new ArrayList<>(materialized)) {
+                if (entry.pinned) {
+                    anchorShift += measure(indexOf(entry), width, view.y);
+                }
             }
-            bubbles.remove(component); // Untrack the bubble
-            verticalBox.revalidate();
-            verticalBox.repaint();
-            this.revalidate();
-            this.repaint();
-        });
+            if (last >= 0) {
+                anchorShift += measure(last, width, view.y);
+            }
+
+            Entry lastEntry = last >= 0 ? entries.get(last) : null;
+            for (Iterator<Entry> it = materialized.iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                boolean near = entry.top + entry.height >= keepFrom && entry.top <= keepTo;
+                if (near || entry.pinned || entry == lastEntry) {
+                    JComponent component = entry.component;
+                    component.setLocation(entry.isUser ? PADDING + width - component.getWidth() : PADDING, entry.top);
+                } else {
+                    // Released bubbles keep their height; their documents are rebuilt when they come back.
+                    remove(entry.component);
+                    entry.component = null;
+                    it.remove();
+                }
+            }
+
+            int newTotal = lastEntry == null ? 2 * PADDING : lastEntry.top + lastEntry.height + PADDING;
+            if (newTotal != totalHeight) {
+                totalHeight = newTotal;
+                revalidate();
+            }
+            if (anchorShift != 0 && viewport != null) {
+                Point position = viewport.getViewPosition();
+                viewport.setViewPosition(new Point(position.x, Math.max(0, position.y + anchorShift)));
+            }
+        } finally {
+            laying = false;
+        }
+        repaint();
     }
 
-    /** Clears all bubbles from the panel. */
-    public void clearBubbles() {
-         SwingUtilities.invokeLater(() -> {
-             verticalBox.removeAll();
-             bubbles.clear();
-             verticalBox.revalidate();
-             verticalBox.repaint();
-             this.revalidate();
-             this.repaint();
-         });
+    /**
+     * Materializes and measures entry {@code index}, moving the entries below it if its height changed. Returns how
+     * far the view must shift to keep its content still, which is the change when the entry lies above {@code viewTop}.
+     */
+    private int measure(int index, int width, int viewTop) {
+        Entry entry = entries.get(index);
+        if (entry.component == null) {
+            entry.component = new ChatBubble(entry.message, entry.isUser);
+            entry.measuredWidth = -1;
+            add(entry.component);
+            materialized.add(entry);
+        }
+        int height = place(entry, entry.top, width);
+        int delta = height - entry.height;
+        if (delta == 0) {
+            return 0;
+        }
+        boolean above = entry.top + entry.height <= viewTop;
+        entry.height = height;
+        shiftFrom(index + 1, delta);
+        return above ? delta : 0;
     }
 
-    /** Recalculates layout - typically involves revalidating the container hierarchy. */
-    public void recalcLayout() {
-        SwingUtilities.invokeLater(() -> {
-             verticalBox.revalidate();
-             verticalBox.repaint();
-             wrapperPanel.revalidate();
-             wrapperPanel.repaint();
-             this.revalidate();
-             this.repaint();
-         });
+    /** Moves the tops of the entries from {@code index} on by {@code delta}. */
+    private void shiftFrom(int index, int delta) {
+        for (int i = index; i < entries.size(); i++) {
+            entries.get(i).top += delta;
+        }
+    }
+
+    /** The index of {@code entry}, found by its top offset (tops strictly increase down the transcript). */
+    private int indexOf(Entry entry) {
+        int low = 0;
+        int high = entries.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int top = entries.get(mid).top;
+            if (top < entry.top) {
+                low = mid + 1;
+            } else if (top > entry.top) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return entries.indexOf(entry);
+    }
+
+    /** The first entry whose bottom edge is at or below {@code offset}, or the entry count if there is none. */
+    private int firstEndingAtOrAfter(int offset) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Entry entry = entries.get(mid);
+            if (entry.top + entry.height < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Positions the entry's component at {@code y}, returning its height. Components are only measured again when
+     * they are new, have changed (e.g. a streaming bubble), or the available width has changed.
+     */
+    private int place(Entry entry, int y, int width) {
+        JComponent component = entry.component;
+        if (entry.measuredWidth == width && component.isValid()) {
+            component.setLocation(entry.isUser ? PADDING + width - component.getWidth() : PADDING, y);
+            return component.getHeight();
+        }
+        Dimension preferred = component.getPreferredSize();
+        int w = Math.min(preferred.width, width);
+        // Text wraps to the width it is given, so measure again once the width is set.
+        component.setSize(w, preferred.height);
+        component.validate();
+        int h = component.getPreferredSize().height;
+        int x = entry.isUser ? PADDING + width - w : PADDING;
+        component.setBounds(x, y, w, h);
+        component.validate();
+        entry.measuredWidth = width;
+        return h;
+    }
+
+    private static int estimateHeight(ChatMessage message) {
+        if (message.getContent() instanceof ImageContent) {
+            return ESTIMATED_IMAGE_HEIGHT;
+        }
+        int lines = 0;
+        for (String line : message.getContent().toString().split("\n", -1)) {
+            lines += Math.max(1, (line.length() + ESTIMATED_CHARS_PER_LINE - 1) / ESTIMATED_CHARS_PER_LINE);
+        }
+        return lines * ESTIMATED_LINE_HEIGHT + 2 * PADDING;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        int width = viewport() != null ? viewport.getWidth() : 600;
+        return new Dimension(width, totalHeight);
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 18;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
     }
 }
@@ -6,7 +6,8 @@ import io.improt.vai.llm.chat.content.TextContent;
 import io.improt.vai.llm.chat.content.ImageContent;
 import io.improt.vai.llm.providers.impl.IModelProvider;
 import io.improt.vai.util.UICommons;
-import io.improt.vai.util.stream.ISnippetAction;
+import io.improt.vai.util.stream.SnippetStream;
+import io.improt.vai.util.stream.StreamListener;
 
 import javax.swing.*;
 import java.awt.*;
@@ -21,7 +22,8 @@ import javax.swing.border.CompoundBorder;
 import javax.swing.border.EmptyBorder;
 import javax.swing.plaf.basic.BasicScrollBarUI;
 import java.io.File;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The main chat window frame. Supports streaming responses. Modernized UI.
@@ -44,6 +46,7 @@ public class ChatWindow extends JFrame {
     private JScrollPane scrollPane;
     private JTextArea inputArea;
     private volatile boolean isModelRunning = false;
+    private volatile SnippetStream activeStream;
     private Point initialClick;
     private JPanel headerPanel;
 
@@ -154,8 +157,10 @@ public class ChatWindow extends JFrame {
             }
         });
 
-        // ESC to close
-        getRootPane().registerKeyboardAction(e -> dispose(),
+        // ESC stops a streaming response, otherwise closes
+        getRootPane().registerKeyboardAction(e -> {
+                    if (!cancelActiveStream()) dispose();
+                },
                 KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), JComponent.WHEN_IN_FOCUSED_WINDOW);
 
         // Add listener to dynamically adjust input area height
@@ -318,60 +323,99 @@ public class ChatWindow extends JFrame {
         final ChatBubble assistantBubble = new ChatBubble(assistantMessage, false);
         SwingUtilities.invokeLater(() -> {
             chatPanel.addChatBubble(assistantBubble, false);
+            // Its message stays empty until the response finishes, so it cannot be released and rebuilt before then.
+            chatPanel.setPinned(assistantBubble, true);
             scrollToBottom();
         });
 
-        final StringBuilder fullResponseBuilder = new StringBuilder();
-
-        // Action for each received snippet
-        ISnippetAction snippetAction = snippet -> {
-            fullResponseBuilder.append(snippet);
-            SwingUtilities.invokeLater(() -> {
-                assistantBubble.appendText(snippet); // Update bubble content live
-                revalidateScrollPane();
-                scrollToBottom();
-            });
+        // Updates already arrive once per frame; follow each one down right after the bubble renders it.
+        AtomicBoolean followQueued = new AtomicBoolean();
+        Runnable followBottom = () -> {
+            followQueued.set(false);
+            scrollPane.validate();
+            JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
+            verticalBar.setValue(verticalBar.getMaximum());
         };
 
-        // Action on stream completion
-        Runnable onCompleteAction = () -> SwingUtilities.invokeLater(() -> {
-            // Update the *actual* ChatMessage content now that we have the full response
-            ((TextContent) assistantMessage.getContent()).setText(fullResponseBuilder.toString());
-            // Now add the completed message to the handler's history
-            llmHandler.addMessage(assistantMessage);
-
-            // Re-enable input and clean up
-            inputArea.setEnabled(true);
-            inputArea.requestFocusInWindow();
-            isModelRunning = false;
-            revalidateScrollPane();
-            scrollToBottom();
-        });
+        StreamListener listener = new StreamListener() {
+            @Override
+            public void onSnippet(String text) {
+                assistantBubble.appendText(text); // Update bubble content live
+                if (followQueued.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(followBottom);
+                }
+            }
+
+            @Override
+            public void onComplete(String text) {
+                SwingUtilities.invokeLater(() -> finishResponse(assistantBubble, assistantMessage, text));
+            }
+
+            @Override
+            public void onError(Throwable error, String text) {
+                System.err.println("Error during streaming: " + error.getMessage());
+                SwingUtilities.invokeLater(() -> failResponse(assistantBubble, assistantMessage, text, error));
+            }
+
+            @Override
+            public void onCancel(String text) {
+                SwingUtilities.invokeLater(() -> finishResponse(assistantBubble, assistantMessage, text + "\n\n*(stopped)*"));
+            }
+        };
 
         // Start streaming in background
-        Executors.newSingleThreadExecutor().submit(() -> {
+        CompletableFuture.runAsync(() -> {
             try {
-                llmHandler.streamModelResponse(snippetAction, onCompleteAction);
+                activeStream = llmHandler.streamModelResponse(listener);
             } catch (Exception ex) {
                 ex.printStackTrace();
-                SwingUtilities.invokeLater(() -> {
-                    String errorText = "Error during streaming: " + ex.getMessage();
-                    // Update the bubble with the error
-                    assistantBubble.appendText("\n\n**Error:**\n```\n" + errorText + "\n```");
-                    // Update the message content in history as well
-                    ((TextContent) assistantMessage.getContent()).setText(fullResponseBuilder.toString() + "\n\n**Error:**\n```\n" + errorText + "\n```");
-                    llmHandler.addMessage(assistantMessage); // Add error message to history
-
-                    inputArea.setEnabled(true);
-                    inputArea.requestFocusInWindow();
-                    isModelRunning = false;
-                    revalidateScrollPane();
-                    scrollToBottom();
-                });
+                SwingUtilities.invokeLater(() -> failResponse(assistantBubble, assistantMessage, "", ex));
             }
         });
     }
 
+    /** Stores the finished response in the history and hands the input back. Runs on the EDT. */
+    private void finishResponse(ChatBubble assistantBubble, ChatMessage assistantMessage, String text) {
+        activeStream = null;
+        assistantBubble.flushPendingText();
+        chatPanel.setPinned(assistantBubble, false);
+        // Update the *actual* ChatMessage content now that we have the full response
+        ((TextContent) assistantMessage.getContent()).setText(text);
+        // Now add the completed message to the handler's history
+        llmHandler.addMessage(assistantMessage);
+
+        // Re-enable input and clean up
+        inputArea.setEnabled(true);
+        inputArea.requestFocusInWindow();
+        isModelRunning = false;
+        revalidateScrollPane();
+        scrollToBottom();
+    }
+
+    private void failResponse(ChatBubble assistantBubble, ChatMessage assistantMessage, String text, Throwable error) {
+        String errorBlock = "\n\n**Error:**\n```\nError during streaming: " + error.getMessage() + "\n```";
+        // Update the bubble with the error
+        assistantBubble.appendText(errorBlock);
+        finishResponse(assistantBubble, assistantMessage, text + errorBlock);
+    }
+
+    @Override
+    public void dispose() {
+        cancelActiveStream();
+        llmHandler.close();
+        super.dispose();
+    }
+
+    /** Stops the response being streamed, if any. Returns whether there was one. */
+    private boolean cancelActiveStream() {
+        SnippetStream stream = activeStream;
+        if (stream == null || stream.isDone()) {
+            return false;
+        }
+        stream.cancel();
+        return true;
+    }
+
     private void scrollToBottom() {
         SwingUtilities.invokeLater(() -> {
             JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
@@ -402,8 +446,7 @@ public class ChatWindow extends JFrame {
         for (ChatMessage msg : llmHandler.getConversationHistory()) {
             if (msg.getMessageType() == ChatMessageUserType.SYSTEM) continue;
             boolean isUser = msg.getMessageType() == ChatMessageUserType.USER;
-            ChatBubble bubble = new ChatBubble(msg, isUser);
-            chatPanel.addChatBubble(bubble, isUser);
+            chatPanel.addMessage(msg, isUser); // Bubbles are built as they scroll into view
         }
         revalidateScrollPane();
         scrollToBottom();
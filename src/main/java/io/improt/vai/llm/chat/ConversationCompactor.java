@@ -0,0 +1,372 @@
+package io.improt.vai.llm.chat;
+
+import io.improt.vai.llm.chat.content.AudioContent;
+import io.improt.vai.llm.chat.content.ChatMessageUserType;
+import io.improt.vai.llm.chat.content.ImageContent;
+import io.improt.vai.llm.chat.content.TextContent;
+import io.improt.vai.llm.chat.content.impl.IChatContent;
+import io.improt.vai.llm.providers.impl.IModelProvider;
+import io.improt.vai.llm.tokens.PromptBudget;
+import io.improt.vai.llm.tokens.TokenCounter;
+import io.improt.vai.llm.tokens.TokenEncoding;
+import io.improt.vai.util.Constants;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the history sent with each chat turn within a per-model token budget.
+ *
+ * Before anything is dropped, large messages repeated later in the conversation are sent once, and images and
+ * audio from before the last {@value #MEDIA_TURNS} responses are replaced with a placeholder. If the history still
+ * does not fit, the older turns are replaced with a summary written in the background by a cheap summarizer model,
+ * configured as {@code "summarizer"} in {@code ~/.vai/compaction.json} (o4-mini by default); the model being chatted
+ * with only writes it when the summarizer is not registered or its request fails. Summaries are cached against a hash of the messages they cover, so they are reused every turn until the conversation grows
+ * past them, and the next one extends the last rather than starting over. Until a summary is ready, the oldest
+ * turns are dropped instead.
+ */
+public class ConversationCompactor {
+
+    /** History tokens sent per turn, at most; models with smaller windows get what fits beside the response. */
+    private static final int MAX_HISTORY_TOKENS = 48_000;
+    /** A summary is started once the history reaches this share of the budget, so it is ready before it is needed. */
+    private static final double SUMMARIZE_AT = 0.75;
+    /** Messages at the end that are always sent verbatim. */
+    private static final int MIN_RECENT_MESSAGES = 4;
+    private static final int MEDIA_TURNS = 2;
+    /** Rough prompt cost of an image or audio clip. */
+    private static final int MEDIA_TOKENS = 1_000;
+    /** Only messages at least this long are checked for repeats. */
+    private static final int DEDUPE_MIN_CHARS = 2_000;
+    private static final int MAX_SUMMARIES = 4;
+    /** Longer messages are cut to their start and end in the summarizer's input. */
+    private static final int MAX_SUMMARY_INPUT_CHARS = 12_000;
+
+    private static final String DEFAULT_SUMMARIZER = "o4-mini";
+    private static final File CONFIG_FILE = new File(Constants.VAI_HOME_DIR, "compaction.json");
+
+    private static final String SUMMARY_SYSTEM_PROMPT =
+            "You compress the earlier part of a conversation between a user and an AI assistant about their code, "
+                    + "so the conversation can continue without it. Keep every decision, requirement, constraint, "
+                    + "file name, identifier and open question, and the gist of any code that was agreed on. Drop "
+                    + "pleasantries and repetition. Write terse bullet points in the past tense. Reply with the "
+                    + "summary only.";
+
+    private final List<Summary> summaries = new CopyOnWriteArrayList<>();
+    private final IModelProvider summarizer;
+    private volatile CompletableFuture<String> pending;
+
+    /**
+     * @param summarizer The model that writes summaries, or null to have the model being chatted with write them.
+     */
+    public ConversationCompactor(IModelProvider summarizer) {
+        this.summarizer = summarizer;
+    }
+
+    /**
+     * The name of the configured summarizer model, to look up in the {@link io.improt.vai.llm.LLMRegistry}.
+     */
+    public static String configuredSummarizer() {
+        if (!CONFIG_FILE.exists()) {
+            return DEFAULT_SUMMARIZER;
+        }
+        try {
+            JSONObject root = new JSONObject(new String(Files.readAllBytes(CONFIG_FILE.toPath()), StandardCharsets.UTF_8));
+            return root.optString("summarizer", DEFAULT_SUMMARIZER);
+        } catch (Exception e) {
+            System.err.println("[ConversationCompactor] Ignoring unreadable " + CONFIG_FILE + ": " + e.getMessage());
+            return DEFAULT_SUMMARIZER;
+        }
+    }
+
+    /** A summary of the first {@code count} messages of the history. */
+    private static class Summary {
+        final int count;
+        final String prefixHash;
+        final String text;
+
+        Summary(int count, String prefixHash, String text) {
+            this.count = count;
+            this.prefixHash = prefixHash;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The messages to send for a history, and where each message of the history ended up among them.
+     */
+    public static final class Compacted {
+        private final List<ChatMessage> messages;
+        private final int historySize;
+        private final int firstKept;
+        private final int offset;
+
+        Compacted(List<ChatMessage> messages, int historySize, int firstKept, int offset) {
+            this.messages = messages;
+            this.historySize = historySize;
+            this.firstKept = firstKept;
+            this.offset = offset;
+        }
+
+        public List<ChatMessage> getMessages() {
+            return messages;
+        }
+
+        /**
+         * The position among {@link #getMessages()} of the history message at {@code historyIndex}, or -1 if it was
+         * summarized or omitted. Messages are matched by position, since deduplication and media placeholders
+         * replace the objects sent.
+         */
+        public int indexOf(int historyIndex) {
+            return historyIndex >= firstKept && historyIndex < historySize ? historyIndex - firstKept + offset : -1;
+        }
+    }
+
+    /**
+     * Returns the messages to send for {@code history}. The history itself is not modified.
+     *
+     * @param provider The model the history is sent to, which writes the summaries if the summarizer cannot.
+     * @param reservedTokens Tokens the caller adds to the request besides the history.
+     */
+    public Compacted compact(List<ChatMessage> history, IModelProvider provider, int reservedTokens) {
+        TokenEncoding encoding = provider.getTokenEncoding();
+        int budget = Math.max(MIN_RECENT_MESSAGES * 1_000,
+                Math.min(MAX_HISTORY_TOKENS, new PromptBudget(provider).getLimit()) - reservedTokens);
+
+        List<ChatMessage> prepared = dropStaleMedia(dedupe(history));
+        int n = prepared.size();
+        int[] tokens = new int[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            tokens[i] = tokensOf(prepared.get(i), encoding);
+            total += tokens[i];
+        }
+
+        // The turns kept verbatim when older ones are summarized: the most recent half of the budget.
+        int split = n;
+        int recent = 0;
+        while (split > 0 && (n - split < MIN_RECENT_MESSAGES || recent + tokens[split - 1] <= budget / 2)) {
+            recent += tokens[--split];
+        }
+
+        String[] prefixHashes = prefixHashes(history);
+        if (total <= budget) {
+            if (total >= budget * SUMMARIZE_AT) {
+                summarizeAhead(history, prefixHashes, split, provider);
+            }
+            return new Compacted(prepared, n, 0, 0);
+        }
+
+        Summary summary = latestSummary(prefixHashes, n);
+        int start = summary != null ? summary.count : 0;
+        int used = summary != null ? TokenCounter.getInstance().count(summary.text, encoding) : 0;
+        int rest = 0;
+        for (int i = start; i < n; i++) {
+            rest += tokens[i];
+        }
+        if (used + rest >= budget * SUMMARIZE_AT) {
+            summarizeAhead(history, prefixHashes, split, provider);
+        }
+
+        // Without a summary that covers enough, drop the oldest turns after it until the rest fits.
+        int omitted = 0;
+        while (used + rest > budget && n - (start + omitted) > MIN_RECENT_MESSAGES) {
+            rest -= tokens[start + omitted];
+            omitted++;
+        }
+
+        List<ChatMessage> compacted = new ArrayList<>();
+        StringBuilder preamble = new StringBuilder();
+        if (summary != null) {
+            preamble.append("Summary of the earlier part of this conversation:\n").append(summary.text);
+        }
+        if (omitted > 0) {
+            if (preamble.length() > 0) preamble.append("\n\n");
+            preamble.append("[").append(omitted).append(" earlier messages omitted to fit the context budget.]");
+        }
+        if (preamble.length() > 0) {
+            compacted.add(new ChatMessage(ChatMessageUserType.USER, new TextContent(preamble.toString())));
+        }
+        compacted.addAll(prepared.subList(start + omitted, n));
+
+        System.out.println("[ConversationCompactor] Sending " + compacted.size() + " of " + n + " messages ("
+                + (summary != null ? "summary of " + summary.count : "no summary") + ", " + omitted + " omitted), ~"
+                + (used + rest) + " of " + total + " tokens, budget " + budget + ".");
+        return new Compacted(compacted, n, start + omitted, preamble.length() > 0 ? 1 : 0);
+    }
+
+    /**
+     * Replaces all but the last copy of large, repeated text messages with a note.
+     */
+    private static List<ChatMessage> dedupe(List<ChatMessage> history) {
+        List<ChatMessage> result = new ArrayList<>(history);
+        Set<String> later = new HashSet<>();
+        for (int i = result.size() - 1; i >= 0; i--) {
+            ChatMessage message = result.get(i);
+            if (!(message.getContent() instanceof TextContent)) continue;
+            String text = message.getContent().toString();
+            if (text == null || text.length() < DEDUPE_MIN_CHARS) continue;
+            if (!later.add(text)) {
+                result.set(i, new ChatMessage(message.getMessageType(),
+                        new TextContent("[Repeated content omitted; the same text appears later in this conversation.]")));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces images and audio from before the last {@link #MEDIA_TURNS} assistant responses with a placeholder.
+     */
+    private static List<ChatMessage> dropStaleMedia(List<ChatMessage> history) {
+        int cutoff = history.size();
+        int responses = 0;
+        while (cutoff > 0 && responses < MEDIA_TURNS) {
+            if (history.get(--cutoff).getMessageType() == ChatMessageUserType.ASSISTANT) {
+                responses++;
+            }
+        }
+        if (responses < MEDIA_TURNS) {
+            return history;
+        }
+        List<ChatMessage> result = new ArrayList<>(history);
+        for (int i = 0; i < cutoff; i++) {
+            IChatContent content = result.get(i).getContent();
+            if (content instanceof ImageContent || content instanceof AudioContent) {
+                result.set(i, new ChatMessage(result.get(i).getMessageType(), new TextContent(placeholder(content))));
+            }
+        }
+        return result;
+    }
+
+    private static String placeholder(IChatContent content) {
+        if (content instanceof ImageContent) {
+            return "[Earlier image omitted: " + ((ImageContent) content).getImageFile().getName() + "]";
+        }
+        if (content instanceof AudioContent) {
+            return "[Earlier audio omitted: " + ((AudioContent) content).getAudioFile().getName() + "]";
+        }
+        return String.valueOf(content);
+    }
+
+    private static int tokensOf(ChatMessage message, TokenEncoding encoding) {
+        IChatContent content = message.getContent();
+        if (content instanceof ImageContent || content instanceof AudioContent) {
+            return MEDIA_TOKENS;
+        }
+        return TokenCounter.getInstance().count(String.valueOf(content), encoding);
+    }
+
+    /**
+     * The cached summary covering the most messages that are still the start of the history, or null.
+     */
+    private Summary latestSummary(String[] prefixHashes, int limit) {
+        Summary best = null;
+        for (Summary summary : summaries) {
+            if (summary.count <= limit && summary.prefixHash.equals(prefixHashes[summary.count])
+                    && (best == null || summary.count > best.count)) {
+                best = summary;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Starts summarizing the first {@code count} messages in the background, extending the latest cached summary,
+     * unless one is already cached or running.
+     */
+    private void summarizeAhead(List<ChatMessage> history, String[] prefixHashes, int count, IModelProvider provider) {
+        CompletableFuture<String> running = pending;
+        if (count <= 0 || (running != null && !running.isDone())) {
+            return;
+        }
+        Summary base = latestSummary(prefixHashes, count);
+        if (base != null && base.count == count) {
+            return;
+        }
+
+        StringBuilder input = new StringBuilder();
+        int from = 0;
+        if (base != null) {
+            input.append("Summary of the conversation so far:\n").append(base.text).append("\n\nIt continued:\n\n");
+            from = base.count;
+        }
+        for (int i = from; i < count; i++) {
+            ChatMessage message = history.get(i);
+            String text = message.getContent() instanceof TextContent
+                    ? message.getContent().toString() : placeholder(message.getContent());
+            if (text.length() > MAX_SUMMARY_INPUT_CHARS) {
+                int half = MAX_SUMMARY_INPUT_CHARS / 2;
+                text = text.substring(0, half) + "\n[...]\n" + text.substring(text.length() - half);
+            }
+            input.append(message.getMessageType() == ChatMessageUserType.ASSISTANT ? "Assistant" : "User")
+                    .append(":\n").append(text).append("\n\n");
+        }
+
+        String prefixHash = prefixHashes[count];
+        long start = System.currentTimeMillis();
+        CompletableFuture<String> future = summarize(summarizer != null ? summarizer : provider, input.toString());
+        if (summarizer != null && summarizer != provider) {
+            future = future.handle((text, error) -> {
+                if (error == null && text != null && !text.trim().isEmpty()) {
+                    return CompletableFuture.completedFuture(text);
+                }
+                System.err.println("[ConversationCompactor] Summarizer " + summarizer.getModelName() + " failed ("
+                        + (error != null ? error.getMessage() : "empty response") + "); using " + provider.getModelName() + ".");
+                return summarize(provider, input.toString());
+            }).thenCompose(next -> next);
+        }
+        pending = future;
+        future.whenComplete((text, error) -> {
+            if (error != null || text == null || text.trim().isEmpty()) {
+                System.err.println("[ConversationCompactor] Summary of " + count + " messages failed; older messages are "
+                        + "dropped instead: " + (error != null ? error.getMessage() : "empty response"));
+                return;
+            }
+            summaries.add(new Summary(count, prefixHash, text.trim()));
+            while (summaries.size() > MAX_SUMMARIES) {
+                summaries.remove(0);
+            }
+            System.out.println("[ConversationCompactor] Summarized " + count + " messages ("
+                    + input.length() + " -> " + text.length() + " chars) in " + (System.currentTimeMillis() - start) + " ms.");
+        });
+    }
+
+    private static CompletableFuture<String> summarize(IModelProvider writer, String input) {
+        try {
+            return writer.requestAsync(SUMMARY_SYSTEM_PROMPT, input, null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * {@code result[k]} is a hash of the first {@code k} messages, so a summary can tell whether the messages it
+     * covers are still the start of the history.
+     */
+    private static String[] prefixHashes(List<ChatMessage> history) {
+        String[] result = new String[history.size() + 1];
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            result[0] = "";
+            for (int i = 0; i < history.size(); i++) {
+                ChatMessage message = history.get(i);
+                digest.update((message.getMessageType() + "\0" + message.getContent() + "\0").getBytes(StandardCharsets.UTF_8));
+                result[i + 1] = Base64.getEncoder().encodeToString(((MessageDigest) digest.clone()).digest());
+            }
+        } catch (NoSuchAlgorithmException | CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,332 @@
+package io.improt.vai.llm.chat.session;
+
+import io.improt.vai.llm.chat.ChatMessage;
+import io.improt.vai.llm.chat.content.AudioContent;
+import io.improt.vai.llm.chat.content.ChatMessageUserType;
+import io.improt.vai.llm.chat.content.ImageContent;
+import io.improt.vai.llm.chat.content.TextContent;
+import io.improt.vai.llm.chat.content.impl.IChatContent;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One persisted chat conversation.
+ *
+ * Messages are appended as JSON lines to numbered segment files ({@code 000000.jsonl}, ...), a new one every
+ * {@link #SEGMENT_MESSAGES} messages; removing a message appends a record naming its id. Nothing already written is
+ * ever rewritten. Resuming reads segments from the newest back only until {@link #RESUME_MESSAGES} messages are
+ * loaded, so opening a long session costs the same as opening a short one. A removal is always written after the
+ * message it removes, so the loaded segments contain every removal that applies to them.
+ *
+ * Images and audio are copied into {@code attachments/}, named by a hash of their contents, and records refer to
+ * them by that name. The system prompt is kept in the session's index entry rather than a segment, so it is
+ * available however little of the session is loaded.
+ */
+public class ChatSession {
+
+    static final int SEGMENT_MESSAGES = 100;
+    static final int RESUME_MESSAGES = 200;
+
+    private static final String ATTACHMENTS_DIR = "attachments";
+    private static final int TITLE_LENGTH = 80;
+
+    private final ChatSessionStore store;
+    private final ChatSessionStore.SessionInfo info;
+    private final File dir;
+    private final Map<ChatMessage, Integer> ids = new IdentityHashMap<>();
+    private final List<ChatMessage> messages = new ArrayList<>();
+
+    private int nextId;
+    private int segment;
+    private int segmentMessages;
+    private boolean skippedOlder;
+    private boolean closed;
+
+    ChatSession(ChatSessionStore store, ChatSessionStore.SessionInfo info, File dir) {
+        this.store = store;
+        this.info = info;
+        this.dir = dir;
+    }
+
+    public ChatSessionStore.SessionInfo getInfo() {
+        return info;
+    }
+
+    /**
+     * The messages read when the session was opened, oldest first, starting with the system prompt if it has one.
+     */
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Whether older messages exist on disk that were not read when the session was opened.
+     */
+    public boolean hasUnloadedMessages() {
+        return skippedOlder;
+    }
+
+    /**
+     * Persists a message added to the conversation.
+     */
+    public synchronized void append(ChatMessage message) {
+        IChatContent content = message.getContent();
+        if (message.getMessageType() == ChatMessageUserType.SYSTEM) {
+            info.system = String.valueOf(content);
+            store.update(info);
+            return;
+        }
+
+        JSONObject record = new JSONObject();
+        int id = nextId++;
+        record.put("id", id);
+        record.put("role", message.getMessageType().name());
+        record.put("ts", message.getTimestamp().getTime());
+        try {
+            if (content instanceof ImageContent) {
+                record.put("image", storeAttachment(((ImageContent) content).getImageFile()));
+            } else if (content instanceof AudioContent) {
+                record.put("audio", storeAttachment(((AudioContent) content).getAudioFile()));
+            } else {
+                record.put("text", String.valueOf(content));
+            }
+        } catch (IOException e) {
+            System.err.println("[ChatSession] Failed to store attachment for session " + info.getId() + ": " + e.getMessage());
+            record.put("text", String.valueOf(content));
+        }
+        if (!write(record)) {
+            return;
+        }
+        ids.put(message, id);
+
+        info.messageCount++;
+        info.updated = System.currentTimeMillis();
+        boolean indexChanged = false;
+        if (info.title == null && message.getMessageType() == ChatMessageUserType.USER && content instanceof TextContent) {
+            String text = String.valueOf(content).trim();
+            if (!text.isEmpty()) {
+                String firstLine = text.split("\n", 2)[0];
+                info.title = firstLine.length() > TITLE_LENGTH ? firstLine.substring(0, TITLE_LENGTH) + "..." : firstLine;
+                indexChanged = true;
+            }
+        }
+        if (++segmentMessages >= SEGMENT_MESSAGES) {
+            segment++;
+            segmentMessages = 0;
+            indexChanged = true;
+        }
+        if (indexChanged || closed) {
+            store.update(info);
+        }
+    }
+
+    /**
+     * Persists the removal of a message that was appended earlier.
+     */
+    public synchronized void remove(ChatMessage message) {
+        Integer id = ids.remove(message);
+        if (id == null) {
+            return;
+        }
+        JSONObject record = new JSONObject();
+        record.put("remove", id);
+        if (write(record)) {
+            info.messageCount = Math.max(0, info.messageCount - 1);
+            info.updated = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized void setModel(String model) {
+        info.model = model;
+    }
+
+    /**
+     * Writes the session's index entry. Messages appended afterwards (e.g. a response finishing after its window
+     * closed) are still persisted.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        store.closed(info);
+    }
+
+    private boolean write(JSONObject record) {
+        File file = segmentFile(segment);
+        try {
+            Files.createDirectories(dir.toPath());
+            Files.write(file.toPath(), (record.toString() + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            return true;
+        } catch (IOException e) {
+            System.err.println("[ChatSession] Failed to append to " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private File segmentFile(int index) {
+        return new File(dir, String.format("%06d.jsonl", index));
+    }
+
+    /**
+     * Copies {@code file} into the attachments directory unless the same contents are already there, and returns
+     * its name there.
+     */
+    private String storeAttachment(File file) throws IOException {
+        String name = file.getName().toLowerCase();
+        int dot = name.lastIndexOf('.');
+        String stored = hash(file) + (dot >= 0 ? name.substring(dot) : "");
+        File target = new File(new File(dir, ATTACHMENTS_DIR), stored);
+        if (!target.exists()) {
+            Files.createDirectories(target.getParentFile().toPath());
+            Files.copy(file.toPath(), target.toPath());
+        }
+        return stored;
+    }
+
+    private static String hash(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : Arrays.copyOf(digest.digest(), 12)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the newest segments of a session, back to at least {@link #RESUME_MESSAGES} messages.
+     */
+    static ChatSession load(ChatSessionStore store, ChatSessionStore.SessionInfo info, File dir) {
+        long start = System.currentTimeMillis();
+        ChatSession session = new ChatSession(store, info, dir);
+
+        String[] names = dir.list((d, name) -> name.endsWith(".jsonl"));
+        if (names == null) {
+            names = new String[0];
+        }
+        Arrays.sort(names);
+
+        // Newest first until enough live messages are covered; then replayed oldest first.
+        List<List<JSONObject>> segments = new ArrayList<>();
+        int covered = 0;
+        int first = names.length;
+        while (first > 0 && covered < RESUME_MESSAGES) {
+            List<JSONObject> records = readSegment(new File(dir, names[--first]));
+            segments.add(0, records);
+            for (JSONObject record : records) {
+                if (record.has("id")) covered++;
+                else if (record.has("remove")) covered--;
+            }
+        }
+        session.skippedOlder = first > 0;
+
+        Map<Integer, ChatMessage> byId = new LinkedHashMap<>();
+        for (List<JSONObject> records : segments) {
+            for (JSONObject record : records) {
+                if (record.has("remove")) {
+                    byId.remove(record.getInt("remove"));
+                    continue;
+                }
+                int id = record.optInt("id", -1);
+                if (id < 0) continue;
+                session.nextId = Math.max(session.nextId, id + 1);
+                ChatMessage message = session.toMessage(record);
+                if (message != null) {
+                    byId.put(id, message);
+                }
+            }
+        }
+
+        if (info.system != null) {
+            session.messages.add(new ChatMessage(ChatMessageUserType.SYSTEM, new TextContent(info.system)));
+        }
+        for (Map.Entry<Integer, ChatMessage> entry : byId.entrySet()) {
+            session.ids.put(entry.getValue(), entry.getKey());
+            session.messages.add(entry.getValue());
+        }
+        if (names.length > 0) {
+            session.segment = Integer.parseInt(names[names.length - 1].substring(0, names[names.length - 1].indexOf('.')));
+            for (JSONObject record : segments.get(segments.size() - 1)) {
+                if (record.has("id")) session.segmentMessages++;
+            }
+            if (session.segmentMessages >= SEGMENT_MESSAGES) {
+                session.segment++;
+                session.segmentMessages = 0;
+            }
+        }
+
+        System.out.println("[ChatSession] Opened session " + info.getId() + ": " + byId.size() + " messages from "
+                + segments.size() + " of " + names.length + " segments in " + (System.currentTimeMillis() - start) + " ms.");
+        return session;
+    }
+
+    private static List<JSONObject> readSegment(File file) {
+        List<JSONObject> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                try {
+                    records.add(new JSONObject(line));
+                } catch (JSONException e) {
+                    // A line cut short by a crash; everything before it is intact.
+                    System.err.println("[ChatSession] Skipping unreadable record in " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ChatSession] Failed to read " + file + ": " + e.getMessage());
+        }
+        return records;
+    }
+
+    private ChatMessage toMessage(JSONObject record) {
+        ChatMessageUserType role;
+        try {
+            role = ChatMessageUserType.valueOf(record.getString("role"));
+        } catch (IllegalArgumentException | JSONException e) {
+            return null;
+        }
+        IChatContent content;
+        if (record.has("image") || record.has("audio")) {
+            String stored = record.has("image") ? record.getString("image") : record.getString("audio");
+            File file = new File(new File(dir, ATTACHMENTS_DIR), stored);
+            if (!file.isFile()) {
+                content = new TextContent("[Missing attachment: " + stored + "]");
+            } else if (record.has("image")) {
+                content = new ImageContent(file);
+            } else {
+                content = new AudioContent(file);
+            }
+        } else {
+            content = new TextContent(record.optString("text"));
+        }
+        return record.has("ts") ? new ChatMessage(role, content, new Date(record.getLong("ts"))) : new ChatMessage(role, content);
+    }
+}
@@ -0,0 +1,269 @@
+package io.improt.vai.llm.chat.session;
+
+import io.improt.vai.util.Constants;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat sessions on disk, under {@code ~/.vai/chat_sessions}.
+ *
+ * {@code index.json} lists every session with its title, model, timestamps and message count, so sessions can be
+ * listed without opening them. Each session's messages live in its own directory as append-only segments of
+ * {@link ChatSession#SEGMENT_MESSAGES} messages, and attachments are copied next to them once per distinct file
+ * and referenced by name. The index is small and is rewritten (temp file, then rename) only when a session is
+ * created, titled, rolls over to a new segment, or closes.
+ *
+ * Only the newest {@link #MAX_SESSIONS} sessions, and none older than {@link #MAX_AGE_DAYS} days, are kept. Sessions
+ * opened or created through this store and not yet closed are never pruned.
+ */
+public class ChatSessionStore {
+
+    private static final int MAX_SESSIONS = 100;
+    private static final int MAX_AGE_DAYS = 90;
+
+    private static final ChatSessionStore INSTANCE = new ChatSessionStore(new File(Constants.VAI_HOME_DIR, "chat_sessions"));
+
+    private final File root;
+    private final File indexFile;
+    private final Map<String, SessionInfo> sessions = new LinkedHashMap<>();
+    /** Ids of sessions in use, with how many times each is open. */
+    private final Map<String, Integer> openSessions = new HashMap<>();
+    private boolean loaded;
+
+    /**
+     * A session's entry in the index.
+     */
+    public static class SessionInfo {
+        private final String id;
+        private final long created;
+        String title;
+        String model;
+        String system;
+        long updated;
+        int messageCount;
+
+        SessionInfo(String id, long created) {
+            this.id = id;
+            this.created = created;
+            this.updated = created;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title != null ? title : "(untitled)";
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getUpdated() {
+            return updated;
+        }
+
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("created", created);
+            json.put("updated", updated);
+            json.put("messages", messageCount);
+            json.putOpt("title", title);
+            json.putOpt("model", model);
+            json.putOpt("system", system);
+            return json;
+        }
+
+        static SessionInfo fromJson(JSONObject json) {
+            SessionInfo info = new SessionInfo(json.getString("id"), json.optLong("created"));
+            info.updated = json.optLong("updated", info.created);
+            info.messageCount = json.optInt("messages");
+            info.title = json.optString("title", null);
+            info.model = json.optString("model", null);
+            info.system = json.optString("system", null);
+            return info;
+        }
+    }
+
+    ChatSessionStore(File root) {
+        this.root = root;
+        this.indexFile = new File(root, "index.json");
+    }
+
+    public static ChatSessionStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a new, empty session.
+     */
+    public synchronized ChatSession create(String model) {
+        ensureLoaded();
+        SessionInfo info = new SessionInfo(UUID.randomUUID().toString(), System.currentTimeMillis());
+        info.model = model;
+        sessions.put(info.getId(), info);
+        openSessions.merge(info.getId(), 1, Integer::sum);
+        prune();
+        save();
+        return new ChatSession(this, info, directoryOf(info));
+    }
+
+    /**
+     * Opens a session to continue it, reading only its most recent segments.
+     *
+     * @return The session, or null if there is no such session.
+     */
+    public synchronized ChatSession open(String id) {
+        ensureLoaded();
+        SessionInfo info = sessions.get(id);
+        if (info == null) {
+            return null;
+        }
+        openSessions.merge(id, 1, Integer::sum);
+        return ChatSession.load(this, info, directoryOf(info));
+    }
+
+    /**
+     * All sessions, most recently updated first.
+     */
+    public synchronized List<SessionInfo> list() {
+        ensureLoaded();
+        List<SessionInfo> list = new ArrayList<>(sessions.values());
+        list.sort(Comparator.comparingLong(SessionInfo::getUpdated).reversed());
+        return list;
+    }
+
+    public synchronized void delete(String id) {
+        ensureLoaded();
+        SessionInfo info = sessions.remove(id);
+        if (info != null) {
+            deleteDirectory(directoryOf(info));
+            save();
+        }
+    }
+
+    /**
+     * Writes a changed session entry to the index.
+     */
+    synchronized void update(SessionInfo info) {
+        ensureLoaded();
+        if (sessions.containsKey(info.getId())) {
+            save();
+        }
+    }
+
+    /**
+     * Writes a closing session's entry to the index and lets it be pruned again.
+     */
+    synchronized void closed(SessionInfo info) {
+        openSessions.computeIfPresent(info.getId(), (id, count) -> count > 1 ? count - 1 : null);
+        update(info);
+    }
+
+    private File directoryOf(SessionInfo info) {
+        return new File(root, info.getId());
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (indexFile.exists()) {
+            try {
+                JSONArray array = new JSONArray(new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8));
+                for (int i = 0; i < array.length(); i++) {
+                    SessionInfo info = SessionInfo.fromJson(array.getJSONObject(i));
+                    sessions.put(info.getId(), info);
+                }
+            } catch (IOException | JSONException e) {
+                System.err.println("[ChatSessionStore] Failed to read " + indexFile + ": " + e.getMessage());
+            }
+        }
+        if (prune()) {
+            save();
+        }
+    }
+
+    /**
+     * Drops sessions past the retention limits, with their files, except open ones. Returns whether any were dropped.
+     */
+    private boolean prune() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_AGE_DAYS);
+        List<SessionInfo> newestFirst = new ArrayList<>(sessions.values());
+        newestFirst.sort(Comparator.comparingLong(SessionInfo::getUpdated).reversed());
+        boolean pruned = false;
+        for (int i = 0; i < newestFirst.size(); i++) {
+            SessionInfo info = newestFirst.get(i);
+            if (openSessions.containsKey(info.getId())) {
+                continue;
+            }
+            if (i >= MAX_SESSIONS || info.getUpdated() < cutoff) {
+                sessions.remove(info.getId());
+                deleteDirectory(directoryOf(info));
+                pruned = true;
+            }
+        }
+        if (pruned) {
+            System.out.println("[ChatSessionStore] Pruned sessions down to " + sessions.size() + ".");
+        }
+        return pruned;
+    }
+
+    private void save() {
+        JSONArray array = new JSONArray();
+        for (SessionInfo info : sessions.values()) {
+            array.put(info.toJson());
+        }
+        try {
+            Files.createDirectories(root.toPath());
+            Path tmp = new File(root, indexFile.getName() + ".tmp").toPath();
+            Files.write(tmp, array.toString(2).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[ChatSessionStore] Failed to save " + indexFile + ": " + e.getMessage());
+        }
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    deleteDirectory(child);
+                } else if (!child.delete()) {
+                    System.err.println("[ChatSessionStore] Failed to delete " + child);
+                }
+            }
+        }
+        if (dir.exists() && !dir.delete()) {
+            System.err.println("[ChatSessionStore] Failed to delete " + dir);
+        }
+    }
+}
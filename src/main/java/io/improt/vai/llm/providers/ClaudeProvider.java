@@ -1,83 +1,268 @@
 package io.improt.vai.llm.providers;
 
 import com.anthropic.client.AnthropicClient;
-import com.anthropic.client.okhttp.AnthropicOkHttpClient;
 import com.anthropic.core.http.StreamResponse;
+import com.anthropic.models.messages.Base64ImageSource;
+import com.anthropic.models.messages.CacheControlEphemeral;
+import com.anthropic.models.messages.ContentBlockParam;
+import com.anthropic.models.messages.ImageBlockParam;
 import com.anthropic.models.messages.MessageCreateParams;
+import com.anthropic.models.messages.MessageParam;
 import com.anthropic.models.messages.Model;
+import com.anthropic.models.messages.RawContentBlockDelta;
 import com.anthropic.models.messages.RawMessageStreamEvent;
-import com.anthropic.models.messages.RawContentBlockDeltaEvent;
-import com.anthropic.models.messages.TextDelta;
+import com.anthropic.models.messages.StopReason;
+import com.anthropic.models.messages.TextBlockParam;
+import com.anthropic.models.messages.Usage;
 import io.improt.vai.llm.Cost;
 import io.improt.vai.llm.chat.ChatMessage;
+import io.improt.vai.llm.chat.content.ChatMessageUserType;
+import io.improt.vai.llm.chat.content.ImageContent;
+import io.improt.vai.llm.chat.content.TextContent;
+import io.improt.vai.llm.chat.content.impl.IChatContent;
 import io.improt.vai.llm.providers.impl.IModelProvider;
-import io.improt.vai.util.stream.ISnippetAction;
+import io.improt.vai.llm.providers.impl.SegmentedPrompt;
+import io.improt.vai.llm.providers.runtime.PromptCacheStats;
+import io.improt.vai.llm.providers.runtime.ProviderRuntime;
+import io.improt.vai.llm.providers.runtime.ResponseCache;
+import io.improt.vai.util.stream.SnippetStream;
+import io.improt.vai.util.stream.StreamListener;
+import io.improt.vai.llm.tokens.TokenEncoding;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
 
 public class ClaudeProvider implements IModelProvider {
-    private String apiKey;
-    private AnthropicClient client;
+    private static final Model MODEL = Model.CLAUDE_3_7_SONNET_LATEST;
+    private static final long MAX_TOKENS = 64000L;
 
-    private List<String> messages = new ArrayList<>();
+    private String apiKey;
+    private volatile AnthropicClient client;
 
     @Override
     public String request(String prompt, String userRequest, List<File> files) {
-        if (client == null) init();
-        messages.clear();
-
-        MessageCreateParams params = MessageCreateParams.builder()
-                .maxTokens(64000L)
-                .addUserMessage(prompt)
-                .addUserMessage(userRequest)
-                .model(Model.CLAUDE_3_7_SONNET_LATEST)
-                .build();
-//        Message message = client.messages().create(params);
+        return ResponseCache.getInstance().getOrCompute(cacheKey(prompt, userRequest, files),
+                () -> stream(codeRequestParams(Collections.singletonList(cachedBlock(prompt)), userRequest, files), delta -> {}));
+    }
 
-        final boolean[] hadStop = {false};
-        try (StreamResponse<RawMessageStreamEvent> streamResponse = client.messages().createStreaming(params)) {
-            streamResponse.stream().forEach(chunk -> {
-                if (chunk.isContentBlockDelta()) {
-                    RawContentBlockDeltaEvent contentBlockDelta = chunk.asContentBlockDelta();
-                    TextDelta text = contentBlockDelta.delta().asText();
-                    TextDelta validate = text.validate();
-                    String text1 = validate.text();
-                    this.messages.add(text1);
-                } else if (chunk.isStop()) {
-                    System.out.println("No more chunks!");
-                    hadStop[0] = true;
-                }
-            });
-        }
+    @Override
+    public String streamRequest(String prompt, String userRequest, List<File> files, Consumer<String> onChunk) {
+        return cachedStream(cacheKey(prompt, userRequest, files),
+                Collections.singletonList(cachedBlock(prompt)), userRequest, files, onChunk);
+    }
 
-        if (!hadStop[0]) {
-            System.out.println("No stop!?");
+    /**
+     * Marks the end of the prompt's stable prefix as a cache breakpoint, so repeated requests on the same context
+     * read it from Anthropic's prompt cache.
+     */
+    @Override
+    public String streamRequest(SegmentedPrompt prompt, String userRequest, List<File> files, Consumer<String> onChunk) {
+        String prefix = prompt.getCacheablePrefix();
+        String remainder = prompt.getRemainder();
+        List<TextBlockParam> system = new ArrayList<>();
+        system.add(prefix.isEmpty() ? TextBlockParam.builder().text(remainder).build() : cachedBlock(prefix));
+        if (!prefix.isEmpty() && !remainder.isEmpty()) {
+            system.add(TextBlockParam.builder().text(remainder).build());
         }
+        return cachedStream(cacheKey(prompt.render(), userRequest, files), system, userRequest, files, onChunk);
+    }
 
-        List<String> result = this.messages;
-        StringBuilder stringBuilder = new StringBuilder();
-        for (String s : result) {
-            stringBuilder.append(s);
-        }
-        System.out.println(stringBuilder);
-        return stringBuilder.toString();
+    private String cachedStream(String key, List<TextBlockParam> system, String userRequest, List<File> files, Consumer<String> onChunk) {
+        return ResponseCache.getInstance().getOrStream(key, onChunk,
+                () -> stream(codeRequestParams(system, userRequest, files), onChunk));
+    }
+
+    private String cacheKey(String prompt, String userRequest, List<File> files) {
+        return ResponseCache.key(getModelName(), null, Arrays.asList(prompt, userRequest), files);
     }
 
-    public void test(String msg) {
-        this.messages.add(msg);
+    private static TextBlockParam cachedBlock(String text) {
+        return TextBlockParam.builder().text(text).cacheControl(CacheControlEphemeral.builder().build()).build();
     }
 
+    private MessageCreateParams codeRequestParams(List<TextBlockParam> system, String userRequest, List<File> files) {
+        List<ContentBlockParam> content = new ArrayList<>();
+        content.add(ContentBlockParam.ofText(TextBlockParam.builder().text(userRequest).build()));
+        if (files != null) {
+            for (File file : files) {
+                ImageBlockParam image = imageBlock(file);
+                if (image != null) {
+                    content.add(ContentBlockParam.ofImage(image));
+                }
+            }
+        }
+        return MessageCreateParams.builder()
+                .maxTokens(MAX_TOKENS)
+                .systemOfTextBlockParams(system)
+                .addMessage(MessageParam.builder().role(MessageParam.Role.USER).contentOfBlockParams(content).build())
+                .model(MODEL)
+                .build();
+    }
+
+    /**
+     * Maps a chat history onto the Messages API: system messages become the system prompt, and consecutive
+     * messages of the same role are merged into one turn, since turns must alternate.
+     */
+    private MessageCreateParams chatParams(List<ChatMessage> history) {
+        List<TextBlockParam> system = new ArrayList<>();
+        List<MessageParam> turns = new ArrayList<>();
+        MessageParam.Role role = null;
+        List<ContentBlockParam> blocks = new ArrayList<>();
+
+        for (ChatMessage message : history) {
+            if (message.getMessageType() == ChatMessageUserType.SYSTEM) {
+                String text = message.getContent().toString();
+                if (!text.trim().isEmpty()) {
+                    system.add(TextBlockParam.builder().text(text).build());
+                }
+                continue;
+            }
+            MessageParam.Role messageRole = message.getMessageType() == ChatMessageUserType.USER
+                    ? MessageParam.Role.USER : MessageParam.Role.ASSISTANT;
+            if (role != null && !messageRole.equals(role) && !blocks.isEmpty()) {
+                turns.add(MessageParam.builder().role(role).contentOfBlockParams(blocks).build());
+                blocks = new ArrayList<>();
+            }
+            role = messageRole;
+
+            IChatContent content = message.getContent();
+            if (content instanceof TextContent) {
+                String text = content.toString();
+                if (text != null && !text.trim().isEmpty()) {
+                    blocks.add(ContentBlockParam.ofText(TextBlockParam.builder().text(text).build()));
+                }
+            } else if (content instanceof ImageContent && messageRole.equals(MessageParam.Role.USER)) {
+                ImageBlockParam image = imageBlock(((ImageContent) content).getImageFile());
+                if (image != null) {
+                    blocks.add(ContentBlockParam.ofImage(image));
+                }
+            } else {
+                System.out.println("[ClaudeProvider] Skipping unsupported chat content: " + content);
+            }
+        }
+        if (role != null && !blocks.isEmpty()) {
+            turns.add(MessageParam.builder().role(role).contentOfBlockParams(blocks).build());
+        }
+
+        MessageCreateParams.Builder builder = MessageCreateParams.builder()
+                .maxTokens(MAX_TOKENS)
+                .messages(turns)
+                .model(MODEL);
+        if (!system.isEmpty()) {
+            builder.systemOfTextBlockParams(system);
+        }
+        return builder.build();
+    }
 
     @Override
     public String chatRequest(List<ChatMessage> messages) throws Exception {
-        throw new Exception("Unsupported");
+        return stream(chatParams(messages), delta -> {}).getText();
     }
 
     @Override
-    public void streamChatRequest(List<ChatMessage> messages, ISnippetAction streamAction, Runnable onComplete) throws Exception {
-        throw new Exception("Unsupported");
+    public SnippetStream streamChatRequest(List<ChatMessage> messages, StreamListener listener) {
+        MessageCreateParams params = chatParams(messages);
+        SnippetStream snippets = SnippetStream.open(listener);
+        return snippets.attach(ProviderRuntime.getInstance().supplyAsync(() -> stream(params, snippets::offer).getText()));
+    }
+
+    /**
+     * Streams a message on the calling thread, passing each text delta to {@code onDelta} as it arrives. The
+     * response is collected per call, so concurrent requests do not interfere.
+     *
+     * @return The full response text, or null if there was none; finished unless it stopped at the token limit.
+     */
+    private ResponseCache.Completion stream(MessageCreateParams params, Consumer<String> onDelta) {
+        AnthropicClient client = getClient();
+        StringBuilder response = new StringBuilder();
+        long start = System.currentTimeMillis();
+        long firstDeltaAt = -1;
+        long inputTokens = 0;
+        long cacheRead = 0;
+        long outputTokens = 0;
+        String stopReason = null;
+
+        try (StreamResponse<RawMessageStreamEvent> streamResponse = client.messages().createStreaming(params)) {
+            Iterator<RawMessageStreamEvent> events = streamResponse.stream().iterator();
+            while (events.hasNext()) {
+                RawMessageStreamEvent event = events.next();
+                if (event.isStart()) {
+                    Usage usage = event.asStart().message().usage();
+                    cacheRead = usage.cacheReadInputTokens().orElse(0L);
+                    inputTokens = usage.inputTokens() + cacheRead + usage.cacheCreationInputTokens().orElse(0L);
+                    PromptCacheStats.getInstance().record(getModelName(), inputTokens, cacheRead);
+                } else if (event.isContentBlockDelta()) {
+                    RawContentBlockDelta delta = event.asContentBlockDelta().delta();
+                    if (delta.isText()) {
+                        String text = delta.asText().text();
+                        if (!text.isEmpty()) {
+                            if (firstDeltaAt < 0) {
+                                firstDeltaAt = System.currentTimeMillis();
+                            }
+                            response.append(text);
+                            onDelta.accept(text);
+                        }
+                    }
+                } else if (event.isDelta()) {
+                    stopReason = event.asDelta().delta().stopReason().map(StopReason::asString).orElse(stopReason);
+                    outputTokens = event.asDelta().usage().outputTokens();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("[ClaudeProvider] Error during streaming request: " + e.getMessage());
+            throw new RuntimeException("[ClaudeProvider] Unable to complete request: " + e.getMessage(), e);
+        }
+
+        System.out.println("[ClaudeProvider] Stop reason: " + stopReason + "; " + inputTokens + " input tokens (" + cacheRead
+                + " cached), " + outputTokens + " output tokens in " + (System.currentTimeMillis() - start) + " ms"
+                + (firstDeltaAt >= 0 ? " (first text after " + (firstDeltaAt - start) + " ms)." : "."));
+        if ("max_tokens".equals(stopReason)) {
+            System.err.println("[ClaudeProvider] Response was cut off at the " + MAX_TOKENS + " token limit.");
+        }
+        boolean finished = "end_turn".equals(stopReason) || "stop_sequence".equals(stopReason);
+        return new ResponseCache.Completion(response.length() > 0 ? response.toString() : null, finished);
+    }
+
+    private static ImageBlockParam imageBlock(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        String mediaType;
+        if (name.endsWith(".png")) {
+            mediaType = "image/png";
+        } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            mediaType = "image/jpeg";
+        } else if (name.endsWith(".gif")) {
+            mediaType = "image/gif";
+        } else if (name.endsWith(".webp")) {
+            mediaType = "image/webp";
+        } else {
+            System.out.println("[ClaudeProvider] Skipping unsupported file type: " + file.getName());
+            return null;
+        }
+        try {
+            String data = Base64.getEncoder().encodeToString(Files.readAllBytes(file.toPath()));
+            return ImageBlockParam.builder()
+                    .source(Base64ImageSource.builder().data(data).mediaType(Base64ImageSource.MediaType.of(mediaType)).build())
+                    .build();
+        } catch (IOException e) {
+            System.err.println("[ClaudeProvider] Error reading image " + file.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private AnthropicClient getClient() {
+        if (client == null) {
+            init();
+        }
+        return client;
     }
 
     @Override
@@ -94,12 +279,12 @@ public class ClaudeProvider implements IModelProvider {
     public void init() {
         this.apiKey = System.getenv("CLAUDE_API_KEY");
         if (apiKey == null || apiKey.trim().isEmpty()) {
-            throw new RuntimeException("[ClaudeProvider] API key not found in environment variable GOOGLE_API_KEY. Gemini will be disabled.");
+            throw new RuntimeException("[ClaudeProvider] API key not found in environment variable CLAUDE_API_KEY. Claude will be disabled.");
         } else {
-            System.out.println("[ClaudeProvider] Gemini API key found.");
+            System.out.println("[ClaudeProvider] Claude API key found.");
         }
 
-        this.client = AnthropicOkHttpClient.builder().apiKey(apiKey).build();
+        this.client = ProviderRuntime.getInstance().anthropicClient(apiKey, getTimeouts());
     }
 
     @Override
@@ -114,6 +299,16 @@ public class ClaudeProvider implements IModelProvider {
 
     @Override
     public boolean supportsVision() {
-        return false;
+        return true;
+    }
+
+    @Override
+    public int getContextWindow() {
+        return 200_000;
+    }
+
+    @Override
+    public TokenEncoding getTokenEncoding() {
+        return TokenEncoding.CLAUDE;
     }
 }
@@ -7,6 +7,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import io.improt.vai.llm.providers.runtime.ProviderTimeouts;
+import io.improt.vai.llm.tokens.TokenEncoding;
 
 public class DeepSeekProvider extends OpenAIClientBase {
     public DeepSeekProvider() {
@@ -31,6 +33,14 @@ public class DeepSeekProvider extends OpenAIClientBase {
         return defaultUrl;
     }
 
+    /**
+     * A local model can spend minutes loading before it answers, then reasons at length.
+     */
+    @Override
+    public ProviderTimeouts getTimeouts() {
+        return ProviderTimeouts.REASONING;
+    }
+
     @Override
     public Cost getCost() {
         return Cost.FREE;
@@ -40,4 +50,17 @@ public class DeepSeekProvider extends OpenAIClientBase {
     public String getFriendlyName() {
         return "DeepSeek (ollama)";
     }
+
+    /**
+     * The distilled model's native context; ollama cuts longer prompts down silently rather than failing.
+     */
+    @Override
+    public int getContextWindow() {
+        return 32_768;
+    }
+
+    @Override
+    public TokenEncoding getTokenEncoding() {
+        return TokenEncoding.GENERIC;
+    }
 }
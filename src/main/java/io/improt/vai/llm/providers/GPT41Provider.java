@@ -19,4 +19,9 @@ public class GPT41Provider extends OpenAIClientBase implements IModelProvider {
     public boolean supportsVision() {
         return true;
     }
+
+    @Override
+    public int getContextWindow() {
+        return 1_047_576;
+    }
 }
@@ -3,6 +3,7 @@ package io.improt.vai.llm.providers;
 import io.improt.vai.backend.App;
 import io.improt.vai.llm.Cost;
 import io.improt.vai.llm.providers.openai.OpenAIClientBase;
+import io.improt.vai.llm.tokens.TokenEncoding;
 
 public class GeminiProProvider extends OpenAIClientBase {
 
@@ -35,5 +36,13 @@ public class GeminiProProvider extends OpenAIClientBase {
         return true;
     }
 
+    @Override
+    public int getContextWindow() {
+        return 1_048_576;
+    }
 
+    @Override
+    public TokenEncoding getTokenEncoding() {
+        return TokenEncoding.GEMINI;
+    }
 }
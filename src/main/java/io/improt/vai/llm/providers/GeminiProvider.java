@@ -1,155 +1,331 @@
 package io.improt.vai.llm.providers;
 
+import com.openai.models.ReasoningEffort;
+import io.improt.vai.backend.App;
 import io.improt.vai.llm.Cost;
 import io.improt.vai.llm.chat.ChatMessage;
+import io.improt.vai.llm.chat.content.AudioContent;
+import io.improt.vai.llm.chat.content.ChatMessageUserType;
+import io.improt.vai.llm.chat.content.ImageContent;
+import io.improt.vai.llm.chat.content.TextContent;
+import io.improt.vai.llm.chat.content.impl.IChatContent;
 import io.improt.vai.llm.providers.impl.IModelProvider;
-import io.improt.vai.util.stream.ISnippetAction;
+import io.improt.vai.llm.providers.runtime.GeminiClient;
+import io.improt.vai.llm.providers.runtime.PromptCacheStats;
+import io.improt.vai.llm.providers.runtime.ProviderRuntime;
+import io.improt.vai.llm.providers.runtime.ProviderTimeouts;
+import io.improt.vai.llm.providers.runtime.ResponseCache;
+import io.improt.vai.util.stream.SnippetStream;
+import io.improt.vai.util.stream.StreamListener;
+import io.improt.vai.llm.tokens.TokenEncoding;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
-import java.io.*;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
 
+/**
+ * Gemini through its native REST API, called in-process on the shared {@link ProviderRuntime} pool. Unlike the
+ * OpenAI-compatible endpoint {@link GeminiProProvider} uses, it takes audio, video and documents: small files are
+ * sent inline, larger ones go through the Files API.
+ */
 public class GeminiProvider implements IModelProvider {
+    private static final String MODEL = "gemini-2.5-pro";
+    /** Raw bytes sent inline per request; base64 grows them by a third, and requests are capped at 20 MB. */
+    private static final long INLINE_BUDGET_BYTES = 12L * 1024 * 1024;
 
-    private String apiKey;
-    private final String pythonScriptPath; // Path to the python script
+    private static final Map<String, String> MIME_TYPES = new HashMap<>();
 
-    public GeminiProvider() {
-        // Assuming the python script is in a 'python' directory relative to the project root.
-        this.pythonScriptPath = "./python/gemini_client.py";
+    static {
+        MIME_TYPES.put("png", "image/png");
+        MIME_TYPES.put("jpg", "image/jpeg");
+        MIME_TYPES.put("jpeg", "image/jpeg");
+        MIME_TYPES.put("webp", "image/webp");
+        MIME_TYPES.put("heic", "image/heic");
+        MIME_TYPES.put("heif", "image/heif");
+        MIME_TYPES.put("wav", "audio/wav");
+        MIME_TYPES.put("mp3", "audio/mp3");
+        MIME_TYPES.put("aiff", "audio/aiff");
+        MIME_TYPES.put("aac", "audio/aac");
+        MIME_TYPES.put("ogg", "audio/ogg");
+        MIME_TYPES.put("flac", "audio/flac");
+        MIME_TYPES.put("mp4", "video/mp4");
+        MIME_TYPES.put("mpeg", "video/mpeg");
+        MIME_TYPES.put("mov", "video/mov");
+        MIME_TYPES.put("avi", "video/avi");
+        MIME_TYPES.put("webm", "video/webm");
+        MIME_TYPES.put("pdf", "application/pdf");
     }
 
+    private volatile GeminiClient client;
+
     @Override
     public void init() {
-        this.apiKey = System.getenv("GOOGLE_API_KEY");
+        String apiKey = System.getenv("GOOGLE_API_KEY");
         if (apiKey == null || apiKey.trim().isEmpty()) {
             throw new RuntimeException("[GeminiProvider] API key not found in environment variable GOOGLE_API_KEY. Gemini will be disabled.");
         } else {
             System.out.println("[GeminiProvider] Gemini API key found.");
         }
-        File scriptFile = new File(pythonScriptPath);
-        if (!scriptFile.exists()) {
-            throw new RuntimeException("[GeminiProvider] Python script not found at: " + pythonScriptPath);
-        } else {
-            System.out.println("[GeminiProvider] Python script found at: " + pythonScriptPath);
-        }
-
-        initialized = true;
+        this.client = ProviderRuntime.getInstance().geminiClient(null, apiKey, getTimeouts());
     }
 
-    private boolean initialized;
-
     @Override
     public String request(String prompt, String userRequest, List<File> files) {
-        if (!initialized) {
-            init();
-        }
-        // Ensure necessary configuration is present
-        if (apiKey == null || apiKey.trim().isEmpty()) {
-            throw new RuntimeException("[GeminiProvider] Gemini API key is not configured. Cannot make request.");
-        }
-        if (!new File(pythonScriptPath).exists()) {
-            throw new RuntimeException("[GeminiProvider] Python script not found at: " + pythonScriptPath + ". Cannot make request.");
-        }
+        return ResponseCache.getInstance().getOrCompute(cacheKey(prompt, userRequest, files),
+                () -> generate(codeBody(prompt, userRequest, files)));
+    }
 
-        File tempFile = null;
-        File promptTempFile = null;
-        try {
-            // Create temp file listing file paths.
-            tempFile = File.createTempFile("file_paths", ".txt");
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
-                for (File file : files) {
-                    writer.write(file.getAbsolutePath());
-                    writer.newLine();
-                }
-            }
+    @Override
+    public String streamRequest(String prompt, String userRequest, List<File> files, Consumer<String> onChunk) {
+        return ResponseCache.getInstance().getOrStream(cacheKey(prompt, userRequest, files), onChunk,
+                () -> stream(codeBody(prompt, userRequest, files), onChunk));
+    }
 
-            prompt += "\n" + "REQUEST: " + userRequest;
+    private String cacheKey(String prompt, String userRequest, List<File> files) {
+        ReasoningEffort effort = App.getInstance().getConfiguredReasoningEffort();
+        return ResponseCache.key(MODEL, effort != null ? effort.asString() : null, Arrays.asList(prompt, userRequest), files);
+    }
 
-            // Create temp file for prompt text.
-            promptTempFile = File.createTempFile("prompt", ".txt");
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(promptTempFile))) {
-                writer.write(prompt);
+    /**
+     * The prompt goes in as the system instruction, ahead of the request, so repeated requests on the same
+     * context share a prefix for Gemini's implicit caching.
+     */
+    private JSONObject codeBody(String prompt, String userRequest, List<File> files) {
+        JSONArray parts = new JSONArray().put(new JSONObject().put("text", userRequest));
+        long[] inlineBudget = {INLINE_BUDGET_BYTES};
+        if (files != null) {
+            for (File file : files) {
+                JSONObject part = filePart(file, inlineBudget);
+                if (part != null) {
+                    parts.put(part);
+                }
             }
+        }
+        return generationRequest(new JSONArray().put(new JSONObject().put("text", prompt)),
+                new JSONArray().put(new JSONObject().put("role", "user").put("parts", parts)));
+    }
 
-            List<String> commandList = new ArrayList<>();
-            commandList.add("python3");
-            commandList.add(pythonScriptPath);
-            commandList.add("yada");
-            commandList.add(promptTempFile.getAbsolutePath());
-            commandList.add(tempFile.getAbsolutePath());
-
-            ProcessBuilder pb = new ProcessBuilder(commandList);
-            pb.redirectErrorStream(false);
-
-            Process process = pb.start();
+    /**
+     * Maps a chat history onto {@code contents}: system messages become the system instruction, and consecutive
+     * messages of the same role are merged into one turn.
+     */
+    private JSONObject chatBody(List<ChatMessage> history) {
+        JSONArray system = new JSONArray();
+        JSONArray contents = new JSONArray();
+        String role = null;
+        JSONArray parts = new JSONArray();
+        long[] inlineBudget = {INLINE_BUDGET_BYTES};
 
-            BufferedReader stdoutReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            StringBuilder stdoutBuilder = new StringBuilder();
-            String line;
-            while ((line = stdoutReader.readLine()) != null) {
-                stdoutBuilder.append(line).append("\n");
+        for (ChatMessage message : history) {
+            IChatContent content = message.getContent();
+            if (message.getMessageType() == ChatMessageUserType.SYSTEM) {
+                String text = content.toString();
+                if (!text.trim().isEmpty()) {
+                    system.put(new JSONObject().put("text", text));
+                }
+                continue;
             }
-
-            BufferedReader stderrReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-            StringBuilder stderrBuilder = new StringBuilder();
-            while ((line = stderrReader.readLine()) != null) {
-                stderrBuilder.append(line).append("\n");
+            String messageRole = message.getMessageType() == ChatMessageUserType.USER ? "user" : "model";
+            if (role != null && !messageRole.equals(role) && !parts.isEmpty()) {
+                contents.put(new JSONObject().put("role", role).put("parts", parts));
+                parts = new JSONArray();
             }
+            role = messageRole;
 
-            int exitCode = process.waitFor();
-            String stdout = stdoutBuilder.toString();
-            String stderr = stderrBuilder.toString();
-
-            if (exitCode == 0) {
-                return parseResponse(stdout);
+            JSONObject part = null;
+            if (content instanceof TextContent) {
+                String text = content.toString();
+                if (text != null && !text.trim().isEmpty()) {
+                    part = new JSONObject().put("text", text);
+                }
+            } else if (content instanceof ImageContent && "user".equals(messageRole)) {
+                part = filePart(((ImageContent) content).getImageFile(), inlineBudget);
+            } else if (content instanceof AudioContent && "user".equals(messageRole)) {
+                part = filePart(((AudioContent) content).getAudioFile(), inlineBudget);
             } else {
-                String errorMsg = "[GeminiProvider] Python script execution failed with exit code: " + exitCode +
-                        "\nStderr: " + stderr;
-                throw new RuntimeException(errorMsg);
+                System.out.println("[GeminiProvider] Skipping unsupported chat content: " + content);
             }
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("[GeminiProvider] Error executing Python script: " + e.getMessage(), e);
-        } finally {
-            if (tempFile != null) {
-                tempFile.delete();
+            if (part != null) {
+                parts.put(part);
             }
-            if (promptTempFile != null) {
-                promptTempFile.delete();
+        }
+        if (role != null && !parts.isEmpty()) {
+            contents.put(new JSONObject().put("role", role).put("parts", parts));
+        }
+        return generationRequest(system, contents);
+    }
+
+    private JSONObject generationRequest(JSONArray system, JSONArray contents) {
+        JSONObject request = new JSONObject().put("contents", contents);
+        if (!system.isEmpty()) {
+            request.put("systemInstruction", new JSONObject().put("parts", system));
+        }
+        ReasoningEffort effort = App.getInstance().getConfiguredReasoningEffort();
+        if (effort != null) {
+            request.put("generationConfig", new JSONObject()
+                    .put("thinkingConfig", new JSONObject().put("thinkingBudget", thinkingBudget(effort))));
+        }
+        return request;
+    }
+
+    private static int thinkingBudget(ReasoningEffort effort) {
+        if (ReasoningEffort.LOW.equals(effort)) {
+            return 1024;
+        } else if (ReasoningEffort.HIGH.equals(effort)) {
+            return 24576;
+        }
+        return 8192;
+    }
+
+    /**
+     * An inline part while the request's inline budget lasts, otherwise a reference to the file uploaded through
+     * the Files API. Files of unknown type are sent as plain text.
+     */
+    private JSONObject filePart(File file, long[] inlineBudget) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String mimeType = MIME_TYPES.getOrDefault(dot >= 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "", "text/plain");
+        try {
+            if (file.length() <= inlineBudget[0]) {
+                inlineBudget[0] -= file.length();
+                String data = Base64.getEncoder().encodeToString(Files.readAllBytes(file.toPath()));
+                return new JSONObject().put("inlineData", new JSONObject().put("mimeType", mimeType).put("data", data));
             }
+            JSONObject uploaded = getClient().uploadFile(file, mimeType);
+            return new JSONObject().put("fileData", new JSONObject()
+                    .put("mimeType", uploaded.optString("mimeType", mimeType))
+                    .put("fileUri", uploaded.getString("uri")));
+        } catch (IOException e) {
+            System.err.println("[GeminiProvider] Error attaching " + file.getAbsolutePath() + ": " + e.getMessage());
+            return null;
         }
     }
 
     @Override
     public String chatRequest(List<ChatMessage> messages) throws Exception {
-        throw new Exception("Unsupported model for chat.");
+        return generate(chatBody(messages)).getText();
     }
 
     @Override
-    public void streamChatRequest(List<ChatMessage> messages, ISnippetAction streamAction, Runnable onComplete) throws Exception {
-        throw new Exception("Unsupported model for chat.");
+    public SnippetStream streamChatRequest(List<ChatMessage> messages, StreamListener listener) {
+        SnippetStream snippets = SnippetStream.open(listener);
+        return snippets.attach(ProviderRuntime.getInstance().supplyAsync(() -> stream(chatBody(messages), snippets::offer).getText()));
+    }
+
+    /**
+     * Requests a complete response in one {@code generateContent} call, for callers that do not display it as it
+     * arrives.
+     */
+    private ResponseCache.Completion generate(JSONObject request) {
+        return stream(request, null);
+    }
+
+    /**
+     * Streams a response on the calling thread, passing each text delta to {@code onDelta} as it arrives; with no
+     * {@code onDelta} it makes a single blocking call instead. Either way each {@code GenerateContentResponse} is
+     * read the same, and thought summaries are not part of the response.
+     *
+     * @return The full response text, or null if there was none; finished unless it stopped at the token limit
+     * or a safety filter.
+     */
+    private ResponseCache.Completion stream(JSONObject request, Consumer<String> onDelta) {
+        GeminiClient client = getClient();
+        StringBuilder response = new StringBuilder();
+        long start = System.currentTimeMillis();
+        long[] firstDeltaAt = {-1};
+        JSONObject[] usage = {null};
+        String[] finishReason = {null};
+
+        Consumer<JSONObject> onResponse = chunk -> {
+            JSONObject feedback = chunk.optJSONObject("promptFeedback");
+            if (feedback != null && feedback.has("blockReason")) {
+                throw new IllegalStateException("Prompt blocked: " + feedback.getString("blockReason"));
+            }
+            JSONArray candidates = chunk.optJSONArray("candidates");
+            JSONObject candidate = candidates != null ? candidates.optJSONObject(0) : null;
+            if (candidate != null) {
+                finishReason[0] = candidate.optString("finishReason", finishReason[0]);
+                JSONObject content = candidate.optJSONObject("content");
+                JSONArray parts = content != null ? content.optJSONArray("parts") : null;
+                for (int i = 0; parts != null && i < parts.length(); i++) {
+                    JSONObject part = parts.getJSONObject(i);
+                    String text = part.optString("text");
+                    if (!text.isEmpty() && !part.optBoolean("thought")) {
+                        if (firstDeltaAt[0] < 0) {
+                            firstDeltaAt[0] = System.currentTimeMillis();
+                        }
+                        response.append(text);
+                        if (onDelta != null) {
+                            onDelta.accept(text);
+                        }
+                    }
+                }
+            }
+            if (chunk.has("usageMetadata")) {
+                usage[0] = chunk.getJSONObject("usageMetadata");
+            }
+        };
+        try {
+            if (onDelta != null) {
+                client.streamGenerateContent(MODEL, request, onResponse);
+            } else {
+                onResponse.accept(client.generateContent(MODEL, request));
+            }
+        } catch (Exception e) {
+            System.err.println("[GeminiProvider] Error during " + (onDelta != null ? "streaming " : "") + "request: " + e.getMessage());
+            throw new RuntimeException("[GeminiProvider] Unable to complete request: " + e.getMessage(), e);
+        }
 
+        long inputTokens = usage[0] != null ? usage[0].optLong("promptTokenCount") : 0;
+        long cached = usage[0] != null ? usage[0].optLong("cachedContentTokenCount") : 0;
+        if (usage[0] != null) {
+            PromptCacheStats.getInstance().record(MODEL, inputTokens, cached);
+        }
+        System.out.println("[GeminiProvider] Finish reason: " + finishReason[0] + "; " + inputTokens + " input tokens ("
+                + cached + " cached), " + (usage[0] != null ? usage[0].optLong("candidatesTokenCount") : 0) + " output tokens, "
+                + (usage[0] != null ? usage[0].optLong("thoughtsTokenCount") : 0) + " thinking tokens in "
+                + (System.currentTimeMillis() - start) + " ms"
+                + (firstDeltaAt[0] >= 0 ? " (first text after " + (firstDeltaAt[0] - start) + " ms)." : "."));
+        if ("MAX_TOKENS".equals(finishReason[0])) {
+            System.err.println("[GeminiProvider] Response was cut off at the output token limit.");
+        }
+        return new ResponseCache.Completion(response.length() > 0 ? response.toString() : null, "STOP".equals(finishReason[0]));
+    }
+
+    private GeminiClient getClient() {
+        if (client == null) {
+            init();
+        }
+        return client;
     }
 
     @Override
     public String getModelName() {
-        return "Gemini Pro";
+        return MODEL;
+    }
+
+    @Override
+    public String getFriendlyName() {
+        return "Gemini Pro (native)";
     }
 
     @Override
     public Cost getCost() {
-        return Cost.FREE;
+        return Cost.MEDIUM;
     }
 
-    private String parseResponse(String responseBody) {
-        try {
-            return responseBody.trim();
-        } catch (Exception e) {
-            System.err.println("[GeminiProvider] Error parsing Gemini API response: " + e.getMessage());
-            System.err.println("[GeminiProvider] Response body: " + responseBody);
-            e.printStackTrace();
-            throw new RuntimeException("Failed to parse Gemini API response.", e);
-        }
+    @Override
+    public ProviderTimeouts getTimeouts() {
+        return ProviderTimeouts.REASONING;
     }
 
     @Override
@@ -166,4 +342,14 @@ public class GeminiProvider implements IModelProvider {
     public boolean supportsVision() {
         return true;
     }
+
+    @Override
+    public int getContextWindow() {
+        return 1_048_576;
+    }
+
+    @Override
+    public TokenEncoding getTokenEncoding() {
+        return TokenEncoding.GEMINI;
+    }
 }
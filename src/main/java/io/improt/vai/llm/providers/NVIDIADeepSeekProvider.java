@@ -3,6 +3,8 @@ package io.improt.vai.llm.providers;
 import io.improt.vai.backend.App;
 import io.improt.vai.llm.Cost;
 import io.improt.vai.llm.providers.openai.OpenAIClientBase;
+import io.improt.vai.llm.providers.runtime.ProviderTimeouts;
+import io.improt.vai.llm.tokens.TokenEncoding;
 
 public class NVIDIADeepSeekProvider extends OpenAIClientBase {
 
@@ -10,6 +12,14 @@ public class NVIDIADeepSeekProvider extends OpenAIClientBase {
         super("https://integrate.api.nvidia.com/v1", "deepseek-ai/deepseek-r1", App.GetNvidiaKey());
     }
 
+    /**
+     * R1 reasons at length before the answer.
+     */
+    @Override
+    public ProviderTimeouts getTimeouts() {
+        return ProviderTimeouts.REASONING;
+    }
+
     @Override
     public Cost getCost() {
         return Cost.LOW; // free credits.
@@ -20,4 +30,13 @@ public class NVIDIADeepSeekProvider extends OpenAIClientBase {
         return "DeepSeek (NVIDIA)";
     }
 
+    @Override
+    public int getContextWindow() {
+        return 128_000;
+    }
+
+    @Override
+    public TokenEncoding getTokenEncoding() {
+        return TokenEncoding.GENERIC;
+    }
 }
@@ -28,4 +28,9 @@ public class O1Provider extends OpenAIClientBase implements IModelProvider {
     public boolean supportsVision() {
         return true;
     }
+
+    @Override
+    public int getContextWindow() {
+        return 200_000;
+    }
 }
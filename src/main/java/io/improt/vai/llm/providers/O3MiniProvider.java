@@ -24,4 +24,9 @@ public class O3MiniProvider extends OpenAIClientBase implements IModelProvider {
     public Cost getCost() {
         return Cost.MEDIUM;
     }
+
+    @Override
+    public int getContextWindow() {
+        return 200_000;
+    }
 }
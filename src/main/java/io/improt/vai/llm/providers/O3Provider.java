@@ -29,4 +29,9 @@ public class O3Provider extends OpenAIClientBase implements IModelProvider {
     public Cost getCost() {
         return Cost.MEDIUM;
     }
+
+    @Override
+    public int getContextWindow() {
+        return 200_000;
+    }
 }
@@ -30,4 +30,9 @@ public class O4MiniProvider extends OpenAIClientBase implements IModelProvider {
     public Cost getCost() {
         return Cost.MEDIUM;
     }
+
+    @Override
+    public int getContextWindow() {
+        return 200_000;
+    }
 }
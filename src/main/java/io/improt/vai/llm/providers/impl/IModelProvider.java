@@ -2,26 +2,70 @@ package io.improt.vai.llm.providers.impl;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import io.improt.vai.llm.Cost;
 import io.improt.vai.llm.chat.ChatMessage;
-import io.improt.vai.util.stream.ISnippetAction;
+import io.improt.vai.llm.providers.runtime.ProviderRuntime;
+import io.improt.vai.llm.providers.runtime.ProviderTimeouts;
+import io.improt.vai.llm.tokens.TokenEncoding;
+import io.improt.vai.util.stream.SnippetStream;
+import io.improt.vai.util.stream.StreamListener;
 
 public interface IModelProvider {
     // Updated request method signature that accepts a reasoningEffort parameter.
     String request(String prompt, String userRequest, List<File> files);
 
+    /**
+     * Same request as {@link #request}, delivering the response text to {@code onChunk} as it arrives.
+     * Providers without streaming support deliver the whole response as one chunk once it is complete.
+     *
+     * @return The full response text, or null if there was none.
+     */
+    default String streamRequest(String prompt, String userRequest, List<File> files, Consumer<String> onChunk) {
+        String response = request(prompt, userRequest, files);
+        if (response != null && !response.isEmpty()) {
+            onChunk.accept(response);
+        }
+        return response;
+    }
+
+    /**
+     * {@link #streamRequest(String, String, List, Consumer)} for a prompt whose stable prefix is known. Providers
+     * whose prefix caching needs an explicit breakpoint override this; the rest only need the order.
+     */
+    default String streamRequest(SegmentedPrompt prompt, String userRequest, List<File> files, Consumer<String> onChunk) {
+        return streamRequest(prompt.render(), userRequest, files, onChunk);
+    }
+
+    /**
+     * Same request as {@link #request}, without blocking the caller. Cancelling the returned future aborts the
+     * underlying HTTP call. The default runs {@link #request} on the shared {@link ProviderRuntime}; providers
+     * with an async client override it.
+     */
+    default CompletableFuture<String> requestAsync(String prompt, String userRequest, List<File> files) {
+        return ProviderRuntime.getInstance().supplyAsync(() -> request(prompt, userRequest, files));
+    }
+
     String chatRequest(List<ChatMessage> messages) throws Exception;
 
     /**
-     * Performs a streaming chat request.
+     * Async {@link #chatRequest}, with the same cancellation as {@link #requestAsync}.
+     */
+    default CompletableFuture<String> chatRequestAsync(List<ChatMessage> messages) {
+        return ProviderRuntime.getInstance().supplyAsync(() -> chatRequest(messages));
+    }
+
+    /**
+     * Performs a streaming chat request in the background.
      *
      * @param messages The list of messages forming the conversation history.
-     * @param streamAction The action to perform for each received snippet of the response.
-     * @param onComplete A Runnable to execute when the streaming response is fully processed.
-     * @throws Exception If an error occurs during the streaming request.
+     * @param listener Receives the response text batched per frame, then its complete, error or cancel signal.
+     * @return The stream; cancelling it aborts the request.
+     * @throws Exception If the request cannot be started.
      */
-    void streamChatRequest(List<ChatMessage> messages, ISnippetAction streamAction, Runnable onComplete) throws Exception;
+    SnippetStream streamChatRequest(List<ChatMessage> messages, StreamListener listener) throws Exception;
 
     String getModelName();
 
@@ -33,6 +77,27 @@ public interface IModelProvider {
 
     void init();
 
+    /**
+     * Timeouts for this provider's calls on the shared {@link io.improt.vai.llm.providers.runtime.ProviderRuntime}.
+     */
+    default ProviderTimeouts getTimeouts() {
+        return ProviderTimeouts.DEFAULT;
+    }
+
+    /**
+     * Tokens the model accepts per request, prompt and response together.
+     */
+    default int getContextWindow() {
+        return 128_000;
+    }
+
+    /**
+     * The tokenizer family prompts for this model are counted with.
+     */
+    default TokenEncoding getTokenEncoding() {
+        return TokenEncoding.O200K;
+    }
+
     boolean supportsAudio();
     boolean supportsVideo();
     boolean supportsVision();
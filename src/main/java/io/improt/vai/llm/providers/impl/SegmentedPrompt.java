@@ -0,0 +1,98 @@
+package io.improt.vai.llm.providers.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A prompt assembled from ordered segments, each either stable across repeated requests (instructions, the file
+ * tree, file contents) or dynamic (per-request notes). Providers with server-side prefix caching reuse the work
+ * done on an identical prefix, so everything up to the first dynamic segment is the part worth caching: OpenAI
+ * caches such prefixes automatically, and Anthropic is told where it ends with {@code cache_control}.
+ */
+public final class SegmentedPrompt {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("<REPLACEME_WITH_([A-Z_]+)>");
+
+    private final List<String> texts = new ArrayList<>();
+    private final List<Boolean> stable = new ArrayList<>();
+
+    public SegmentedPrompt addStable(String text) {
+        return add(text, true);
+    }
+
+    public SegmentedPrompt addDynamic(String text) {
+        return add(text, false);
+    }
+
+    private SegmentedPrompt add(String text, boolean isStable) {
+        if (text != null && !text.isEmpty()) {
+            texts.add(text);
+            stable.add(isStable);
+        }
+        return this;
+    }
+
+    /**
+     * Fills a template's {@code <REPLACEME_WITH_NAME>} placeholders. Template text and the {@code stableValues} are
+     * stable segments, {@code dynamicValues} dynamic ones; unknown placeholders are left as they are. Templates
+     * should therefore place dynamic placeholders last.
+     */
+    public static SegmentedPrompt fromTemplate(String template, Map<String, String> stableValues, Map<String, String> dynamicValues) {
+        SegmentedPrompt prompt = new SegmentedPrompt();
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        StringBuilder pending = new StringBuilder();
+        int last = 0;
+        while (matcher.find()) {
+            pending.append(template, last, matcher.start());
+            last = matcher.end();
+            String name = matcher.group(1);
+            if (dynamicValues.containsKey(name)) {
+                prompt.addStable(pending.toString());
+                pending.setLength(0);
+                prompt.addDynamic(dynamicValues.get(name));
+            } else if (stableValues.containsKey(name)) {
+                pending.append(stableValues.get(name));
+            } else {
+                pending.append(matcher.group());
+            }
+        }
+        pending.append(template, last, template.length());
+        prompt.addStable(pending.toString());
+        return prompt;
+    }
+
+    public String render() {
+        return String.join("", texts);
+    }
+
+    /**
+     * The stable segments before the first dynamic one.
+     */
+    public String getCacheablePrefix() {
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < texts.size() && stable.get(i); i++) {
+            prefix.append(texts.get(i));
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Everything after {@link #getCacheablePrefix()}.
+     */
+    public String getRemainder() {
+        return render().substring(getCacheablePrefix().length());
+    }
+
+    public List<String> getSegments() {
+        return Collections.unmodifiableList(texts);
+    }
+
+    @Override
+    public String toString() {
+        return render();
+    }
+}
@@ -1,24 +1,32 @@
 package io.improt.vai.llm.providers.openai;
 
 import com.openai.client.OpenAIClient;
-import com.openai.client.okhttp.OpenAIOkHttpClient;
 import com.openai.core.http.StreamResponse;
 import com.openai.models.*;
 import com.openai.models.chat.completions.*;
+import com.openai.models.completions.CompletionUsage;
 import io.improt.vai.backend.App;
 import io.improt.vai.llm.chat.ChatMessage;
 import io.improt.vai.llm.providers.impl.IModelProvider;
 import io.improt.vai.llm.providers.openai.utils.Messages;
-import io.improt.vai.util.stream.ISnippetAction;
-import io.improt.vai.util.stream.SnippetHandler;
+import io.improt.vai.llm.providers.runtime.CallGroup;
+import io.improt.vai.llm.providers.runtime.PromptCacheStats;
+import io.improt.vai.llm.providers.runtime.ProviderRuntime;
+import io.improt.vai.llm.providers.runtime.ProviderTimeouts;
+import io.improt.vai.llm.providers.runtime.ResponseCache;
+import io.improt.vai.util.stream.SnippetStream;
+import io.improt.vai.util.stream.StreamListener;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public abstract class OpenAIClientBase implements IModelProvider {
 
@@ -29,10 +37,6 @@ public abstract class OpenAIClientBase implements IModelProvider {
     private static final Set<String> AUDIO_EXTENSIONS = Set.of("mp3", "wav", "ogg", "flac", "m4a", "aac", "opus");
     private static final Set<String> IMAGE_EXTENSIONS = Set.of("png", "jpg", "jpeg", "gif", "webp");
 
-    // Executor for handling streaming responses without blocking the main thread
-    private static final ExecutorService streamingExecutor = Executors.newCachedThreadPool();
-
-
     public OpenAIClientBase(String baseUrl, String modelName, String apiKey) {
         this.baseUrl = baseUrl;
         this.modelName = modelName;
@@ -50,6 +54,38 @@ public abstract class OpenAIClientBase implements IModelProvider {
 
     @Override
     public String request(String systemMessage, String userRequest, List<File> files) {
+        return ResponseCache.getInstance().getOrCompute(cacheKey(systemMessage, userRequest, files),
+                () -> completionResult(this.createCompletion(buildRequestParams(systemMessage, userRequest, files))));
+    }
+
+    @Override
+    public CompletableFuture<String> requestAsync(String systemMessage, String userRequest, List<File> files) {
+        ResponseCache cache = ResponseCache.getInstance();
+        String key = cacheKey(systemMessage, userRequest, files);
+        String cached = cache.lookup(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return this.asyncCompletion(buildRequestParams(systemMessage, userRequest, files),
+                completion -> cache.store(key, completionResult(completion)));
+    }
+
+    @Override
+    public String streamRequest(String systemMessage, String userRequest, List<File> files, Consumer<String> onChunk) {
+        return ResponseCache.getInstance().getOrStream(cacheKey(systemMessage, userRequest, files), onChunk,
+                () -> this.stream(buildRequestParams(systemMessage, userRequest, files), onChunk));
+    }
+
+    /**
+     * Streamed and blocking requests share entries; the response is the same either way.
+     */
+    private String cacheKey(String systemMessage, String userRequest, List<File> files) {
+        ReasoningEffort effort = this.supportsReasoningEffort() ? App.getInstance().getConfiguredReasoningEffort() : null;
+        return ResponseCache.key(this.getModelName(), effort != null ? effort.asString() : null,
+                Arrays.asList(systemMessage, userRequest), files);
+    }
+
+    private ChatCompletionCreateParams buildRequestParams(String systemMessage, String userRequest, List<File> files) {
         List<ChatCompletionContentPart> parts = new ArrayList<>();
 
         // Always add the text part first
@@ -108,7 +144,7 @@ public abstract class OpenAIClientBase implements IModelProvider {
             paramsBuilder.reasoningEffort(App.getInstance().getConfiguredReasoningEffort());
         }
 
-        return this.blockingCompletion(paramsBuilder.build());
+        return paramsBuilder.build();
     }
 
     @Nullable
@@ -129,13 +165,7 @@ public abstract class OpenAIClientBase implements IModelProvider {
 
     @Override
     public String chatRequest(List<ChatMessage> messages) throws Exception {
-        ChatCompletionCreateParams.Builder builder = Messages
-                .buildChat(this, messages)
-                .model(this.getModelName());
-
-        if (this.supportsReasoningEffort()) {
-            builder.reasoningEffort(App.getInstance().getConfiguredReasoningEffort());
-        }
+        ChatCompletionCreateParams.Builder builder = buildChatParams(messages);
 
         boolean debug = false;
         if (debug) {
@@ -153,116 +183,55 @@ public abstract class OpenAIClientBase implements IModelProvider {
     }
 
     @Override
-    public void streamChatRequest(List<ChatMessage> messages, ISnippetAction streamAction, Runnable onComplete) throws Exception {
-        ChatCompletionCreateParams.Builder builder = Messages.buildChat(this, messages);
+    public CompletableFuture<String> chatRequestAsync(List<ChatMessage> messages) {
+        try {
+            return this.asyncCompletion(buildChatParams(messages).build());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private ChatCompletionCreateParams.Builder buildChatParams(List<ChatMessage> messages) throws Exception {
+        ChatCompletionCreateParams.Builder builder = Messages
+                .buildChat(this, messages)
+                .model(this.getModelName());
 
         if (this.supportsReasoningEffort()) {
             builder.reasoningEffort(App.getInstance().getConfiguredReasoningEffort());
         }
+        return builder;
+    }
 
-        ChatCompletionCreateParams params = builder.model(this.getModelName()).build();
-
-        // Execute streaming in a separate thread
-        streamingExecutor.submit(() -> {
-            SnippetHandler snippetHandler = null;
-            try {
-                // Create SnippetHandler here, passing the provided actions
-                snippetHandler = new SnippetHandler(streamAction, onComplete);
+    @Override
+    public SnippetStream streamChatRequest(List<ChatMessage> messages, StreamListener listener) throws Exception {
+        ChatCompletionCreateParams.Builder builder = Messages.buildChat(this, messages);
 
-                StreamResponse<ChatCompletionChunk> streaming = getOrCreateClient()
-                        .chat()
-                        .completions()
-                        .createStreaming(params);
+        if (this.supportsReasoningEffort()) {
+            builder.reasoningEffort(App.getInstance().getConfiguredReasoningEffort());
+        }
 
+        ChatCompletionCreateParams params = builder.model(this.getModelName()).build();
+        SnippetStream snippets = SnippetStream.open(listener);
+        return snippets.attach(ProviderRuntime.getInstance().supplyAsync(() -> {
+            try (StreamResponse<ChatCompletionChunk> streaming = getOrCreateClient()
+                    .chat()
+                    .completions()
+                    .createStreaming(params)) {
                 Iterator<ChatCompletionChunk> iterator = streaming.stream().iterator();
-
                 while (iterator.hasNext()) {
                     ChatCompletionChunk chunk = iterator.next();
-                    SnippetHandler finalSnippetHandler = snippetHandler;
-                    chunk.choices().forEach(choice ->
-                            choice.delta().content().ifPresent(content -> {
-                                if (content != null && !content.isEmpty()) {
-                                     // Pass snippet to handler, it will process in its worker thread
-                                     finalSnippetHandler.addSnippet(content);
-                                }
-                            })
-                    );
-                    // Check for finish reason to signal completion early if possible
+                    chunk.choices().forEach(choice -> choice.delta().content().ifPresent(snippets::offer));
+                    // Stop at the finish reason rather than waiting for the server to close the stream.
                     if (!chunk.choices().isEmpty() && chunk.choices().get(0).finishReason().isPresent()) {
-                         break; // Exit loop if finish reason is received
+                        break;
                     }
                 }
-                 // Signal completion after processing all chunks
-                 snippetHandler.signalComplete();
-
             } catch (Exception e) {
                 System.err.println("[OpenAIClientBase] Error during streaming execution: " + e.getMessage());
-                e.printStackTrace();
-                 // Ensure completion is signaled even on error, and potentially shutdown handler
-                 if (snippetHandler != null) {
-                     snippetHandler.signalComplete(); // Signal completion on error
-                     // Consider if shutdown is needed or if signalComplete is enough
-                     // snippetHandler.shutdown();
-                 } else if (onComplete != null) {
-                     // If snippetHandler wasn't created, still try to call onComplete
-                     onComplete.run();
-                 }
-                // Rethrow or handle error appropriately
-                // throw new RuntimeException("Streaming failed", e); // Avoid throwing from executor task directly
+                throw e;
             }
-        });
-    }
-
-
-    @Deprecated
-    public void stream(ChatCompletionCreateParams params, ISnippetAction streamReceived, int bufferSize) {
-        // This method seems to have buffering logic that might conflict with SnippetHandler.
-        // Prefer using streamChatRequest which delegates to SnippetHandler for processing.
-        // Keeping it for reference but marking as deprecated.
-        System.err.println("[OpenAIClientBase] WARN: stream() method is deprecated, use streamChatRequest() instead.");
-        try (StreamResponse<ChatCompletionChunk> streaming = getOrCreateClient()
-                .chat()
-                .completions()
-                .createStreaming(params)) {
-
-            Iterator<ChatCompletionChunk> iterator = streaming.stream().iterator();
-            // Using the old testing package SnippetHandler here for compatibility if absolutely needed,
-            // but ideally this method should be removed or updated.
-            SnippetHandler snippetHandler = new SnippetHandler(streamReceived, null);
-
-            var ref = new Object() {
-                String buffer = "";
-                int len = 0;
-            };
-
-            while (iterator.hasNext()) {
-                ChatCompletionChunk chunk = iterator.next();
-                chunk.choices().forEach(choice ->
-                        choice.delta().content().ifPresent(content -> {
-                            ref.buffer += content;
-                            int len = ref.buffer.length();
-                            // Check buffer size and also handle potential empty content strings
-                            if (!content.isEmpty() && len - ref.len >= bufferSize) {
-                                String substr = ref.buffer.substring(ref.len);
-                                ref.len = len;
-                                snippetHandler.addSnippet(substr);
-                            }
-                        })
-                );
-            }
-            // Send any remaining buffered content after the loop finishes
-            if (ref.buffer.length() > ref.len) {
-               snippetHandler.addSnippet(ref.buffer.substring(ref.len));
-            }
-            snippetHandler.shutdown(); // Ensure handler is shutdown
-
-        } catch (Exception e) {
-             // Log the error more informatively
-            System.err.println("[OpenAIClientBase] Error during legacy streaming request: " + e.getMessage());
-            e.printStackTrace();
-            // Optionally rethrow or handle more gracefully
-             throw new RuntimeException("Legacy streaming failed", e);
-        }
+            return null;
+        }));
     }
 
     public ChatCompletionCreateParams systemUserConfig(String systemMessage, String userMessage) {
@@ -289,6 +258,10 @@ public abstract class OpenAIClientBase implements IModelProvider {
     }
 
     public String blockingCompletion(ChatCompletionCreateParams params) {
+        return completionContent(createCompletion(params));
+    }
+
+    private ChatCompletion createCompletion(ChatCompletionCreateParams params) {
         System.out.println("[OpenAIClientBase] Beginning completion for model: " + params.model());
         // System.out.println("[OpenAIClientBase] Request Params: " + params.toString()); // Be cautious logging potentially sensitive data
         long start = System.currentTimeMillis();
@@ -296,35 +269,149 @@ public abstract class OpenAIClientBase implements IModelProvider {
             ChatCompletion completion = this.getOrCreateClient().chat().completions().create(params);
             long end = System.currentTimeMillis();
             System.out.println("[OpenAIClientBase] Completion took " + (end - start) + " ms.");
+            return completion;
+        } catch (Exception e) {
+            // Log the parameters that caused the error (be careful with sensitive data)
+            System.err.println("[OpenAIClientBase] Error during blocking completion for model " + params.model());
+             // System.err.println("[OpenAIClientBase] Failing Params: " + params.toString()); // Be cautious logging potentially sensitive data
+            e.printStackTrace();
+            throw new RuntimeException("[OpenAIClientBase] Unable to complete request: " + e.getMessage(), e);
+        }
+    }
 
-            List<ChatCompletion.Choice> choices = completion.choices();
-            if (choices == null || choices.isEmpty()) {
-                System.err.println("[OpenAIClientBase] No choices returned from API.");
-                // Log usage data if available
-                 completion.usage().ifPresent(usage -> System.out.println("[OpenAIClientBase] Usage: " + usage));
-                return null;
-            }
-            // Log finish reason
-            String finishReason = choices.get(0).finishReason().asString();
-            System.out.println("[OpenAIClientBase] Finish Reason: " + finishReason);
+    /**
+     * The completion on the SDK's async client, so no thread waits on it. Cancelling the returned future aborts the
+     * HTTP call, including any retry the SDK has scheduled.
+     */
+    public CompletableFuture<String> asyncCompletion(ChatCompletionCreateParams params) {
+        return asyncCompletion(params, OpenAIClientBase::completionContent);
+    }
 
-            Optional<String> content = choices.get(0).message().content();
+    private <T> CompletableFuture<T> asyncCompletion(ChatCompletionCreateParams params, Function<ChatCompletion, T> result) {
+        System.out.println("[OpenAIClientBase] Beginning async completion for model: " + params.model());
+        long start = System.currentTimeMillis();
+        OpenAIClient client;
+        try {
+            client = this.getOrCreateClient();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        ProviderRuntime runtime = ProviderRuntime.getInstance();
+        CallGroup group = runtime.openGroup();
+        CompletableFuture<T> content = client.async().chat().completions()
+                .create(params.toBuilder().putAdditionalHeader(ProviderRuntime.CALL_GROUP_HEADER, group.getId()).build())
+                .thenApply(completion -> {
+                    System.out.println("[OpenAIClientBase] Async completion took " + (System.currentTimeMillis() - start) + " ms.");
+                    return result.apply(completion);
+                });
+        return runtime.bind(group, content);
+    }
+
+    /**
+     * The first choice's text, finished if the model stopped by itself rather than at the token limit or a filter.
+     */
+    private static ResponseCache.Completion completionResult(ChatCompletion completion) {
+        String text = completionContent(completion);
+        boolean finished = !completion.choices().isEmpty()
+                && ChatCompletion.Choice.FinishReason.STOP.equals(completion.choices().get(0).finishReason());
+        return new ResponseCache.Completion(text, finished);
+    }
+
+    /**
+     * The first choice's text, or null if there is none. Logs the finish reason and usage.
+     */
+    @Nullable
+    private static String completionContent(ChatCompletion completion) {
+        List<ChatCompletion.Choice> choices = completion.choices();
+        if (choices == null || choices.isEmpty()) {
+            System.err.println("[OpenAIClientBase] No choices returned from API.");
             // Log usage data if available
             completion.usage().ifPresent(usage -> System.out.println("[OpenAIClientBase] Usage: " + usage));
+            return null;
+        }
+        // Log finish reason
+        String finishReason = choices.get(0).finishReason().asString();
+        System.out.println("[OpenAIClientBase] Finish Reason: " + finishReason);
+
+        Optional<String> content = choices.get(0).message().content();
+        // Log usage data if available
+        completion.usage().ifPresent(usage -> {
+            System.out.println("[OpenAIClientBase] Usage: " + usage);
+            recordPromptCache(completion.model(), usage);
+        });
 
-            if (content.isEmpty()) {
-                 System.err.println("[OpenAIClientBase] Choice message content is empty.");
-                 return null;
-            }
+        if (content.isEmpty()) {
+            System.err.println("[OpenAIClientBase] Choice message content is empty.");
+            return null;
+        }
+        return content.get();
+    }
+
+    private static void recordPromptCache(String model, CompletionUsage usage) {
+        long cached = usage.promptTokensDetails().flatMap(CompletionUsage.PromptTokensDetails::cachedTokens).orElse(0L);
+        PromptCacheStats.getInstance().record(model, usage.promptTokens(), cached);
+    }
 
-            return content.get();
+    /**
+     * Streams a completion on the calling thread, passing each content delta to {@code onChunk}.
+     *
+     * @return The concatenated response, or null if the model returned no content.
+     */
+    public String streamingCompletion(ChatCompletionCreateParams params, Consumer<String> onChunk) {
+        return stream(params, onChunk).getText();
+    }
+
+    private ResponseCache.Completion stream(ChatCompletionCreateParams params, Consumer<String> onChunk) {
+        System.out.println("[OpenAIClientBase] Beginning streaming completion for model: " + params.model());
+        long start = System.currentTimeMillis();
+        StringBuilder response = new StringBuilder();
+        String finishReason = null;
+        // OpenAI itself reports usage, including cached prompt tokens, in a final chunk when asked; compatible
+        // servers may reject the option.
+        boolean withUsage = this.baseUrl == null;
+        if (withUsage) {
+            params = params.toBuilder().streamOptions(ChatCompletionStreamOptions.builder().includeUsage(true).build()).build();
+        }
+        try (StreamResponse<ChatCompletionChunk> streaming = this.getOrCreateClient()
+                .chat()
+                .completions()
+                .createStreaming(params)) {
+
+            Iterator<ChatCompletionChunk> iterator = streaming.stream().iterator();
+            long firstChunkAt = -1;
+            while (iterator.hasNext()) {
+                ChatCompletionChunk chunk = iterator.next();
+                if (chunk.usage().isPresent()) {
+                    recordPromptCache(chunk.model(), chunk.usage().get());
+                }
+                for (ChatCompletionChunk.Choice choice : chunk.choices()) {
+                    Optional<String> content = choice.delta().content();
+                    if (content.isPresent() && !content.get().isEmpty()) {
+                        if (firstChunkAt < 0) {
+                            firstChunkAt = System.currentTimeMillis();
+                        }
+                        response.append(content.get());
+                        onChunk.accept(content.get());
+                    }
+                }
+                if (!chunk.choices().isEmpty() && chunk.choices().get(0).finishReason().isPresent()) {
+                    finishReason = chunk.choices().get(0).finishReason().get().asString();
+                    System.out.println("[OpenAIClientBase] Finish Reason: " + finishReason);
+                    if (!withUsage) {
+                        break;
+                    }
+                    // The usage chunk follows the finish reason.
+                }
+            }
+            System.out.println("[OpenAIClientBase] Streaming completion took " + (System.currentTimeMillis() - start) + " ms"
+                    + (firstChunkAt >= 0 ? " (first content after " + (firstChunkAt - start) + " ms)." : "."));
         } catch (Exception e) {
-            // Log the parameters that caused the error (be careful with sensitive data)
-            System.err.println("[OpenAIClientBase] Error during blocking completion for model " + params.model());
-             // System.err.println("[OpenAIClientBase] Failing Params: " + params.toString()); // Be cautious logging potentially sensitive data
+            System.err.println("[OpenAIClientBase] Error during streaming completion for model " + params.model());
             e.printStackTrace();
             throw new RuntimeException("[OpenAIClientBase] Unable to complete request: " + e.getMessage(), e);
         }
+        return new ResponseCache.Completion(response.length() > 0 ? response.toString() : null,
+                ChatCompletionChunk.Choice.FinishReason.STOP.asString().equals(finishReason));
     }
 
     public boolean supportsDeveloperRole() {
@@ -354,63 +441,19 @@ public abstract class OpenAIClientBase implements IModelProvider {
         return false;
     }
 
-    public OpenAIClient getOrCreateClient() throws Exception {
-        // Use baseUrl as key, fallback to "DEFAULT" if null (for official SDK endpoint)
-        String clientKey = this.baseUrl != null ? this.baseUrl : "DEFAULT_OPENAI";
-        OpenAIClient client = OpenAIClientBase.clients.get(clientKey);
-        if (client == null) {
-            synchronized (clients) { // Synchronize client creation
-                 // Double-check locking pattern
-                 client = OpenAIClientBase.clients.get(clientKey);
-                 if (client == null) {
-                    System.out.println("[OpenAIClientBase] Creating new OpenAIClient for key: " + clientKey);
-                    client = this.createClient();
-                    OpenAIClientBase.clients.put(clientKey, client);
-                 }
-            }
-        }
-        return client;
+    /**
+     * Reasoning models get the longer timeouts; their first token can take minutes.
+     */
+    @Override
+    public ProviderTimeouts getTimeouts() {
+        return this.supportsReasoningEffort() ? ProviderTimeouts.REASONING : ProviderTimeouts.DEFAULT;
     }
 
-    private OpenAIClient createClient() throws Exception {
+    public OpenAIClient getOrCreateClient() throws Exception {
         if (this.apiKey == null || this.apiKey.trim().isEmpty()) {
             throw new Exception("API key was not found or is empty, cannot create OpenAI Client.");
         }
-
-        OpenAIOkHttpClient.Builder builder = OpenAIOkHttpClient.builder().apiKey(apiKey.trim());
-        if (this.baseUrl != null) {
-            System.out.println("[OpenAIClientBase] Configuring client with Base URL: " + this.baseUrl);
-            builder.baseUrl(this.baseUrl);
-        } else {
-             System.out.println("[OpenAIClientBase] Configuring client for default OpenAI API URL.");
-        }
-        // Potentially add timeouts, interceptors etc. here if needed
-        // builder.connectTimeout(Duration.ofSeconds(20));
-        // builder.readTimeout(Duration.ofSeconds(120));
-
-        return builder.build();
-    }
-
-    // Use ConcurrentHashMap for thread safety if clients can be accessed concurrently
-    // private static Map<String, OpenAIClient> clients = new ConcurrentHashMap<>();
-    // Using HashMap for now, assuming client creation/access is controlled or infrequent enough
-    // Added synchronization in getOrCreateClient for safety.
-    protected static final Map<String, OpenAIClient> clients = new HashMap<>();
-
-    // Shutdown hook to clean up the executor service
-    static {
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("[OpenAIClientBase] Shutting down streaming executor service...");
-            streamingExecutor.shutdown();
-            try {
-                if (!streamingExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                    streamingExecutor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                streamingExecutor.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
-             System.out.println("[OpenAIClientBase] Streaming executor service shut down.");
-        }));
+        // Clients are shared per base URL, key and timeouts, all on one connection pool.
+        return ProviderRuntime.getInstance().openAIClient(this.baseUrl, this.apiKey.trim(), this.getTimeouts());
     }
 }
@@ -0,0 +1,148 @@
+package io.improt.vai.llm.providers.runtime;
+
+import com.anthropic.backends.Backend;
+import com.anthropic.core.RequestOptions;
+import com.anthropic.core.Timeout;
+import com.anthropic.core.http.Headers;
+import com.anthropic.core.http.HttpClient;
+import com.anthropic.core.http.HttpRequest;
+import com.anthropic.core.http.HttpRequestBody;
+import com.anthropic.core.http.HttpResponse;
+import com.anthropic.errors.AnthropicIoException;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs Anthropic SDK requests on the {@link ProviderRuntime}'s shared pool. The backend supplies the base URL
+ * and authorization, as it does for the SDK's own HTTP client.
+ */
+class AnthropicHttpAdapter implements HttpClient {
+
+    private final ProviderRuntime runtime;
+    private final Backend backend;
+    private final ProviderTimeouts timeouts;
+
+    AnthropicHttpAdapter(ProviderRuntime runtime, Backend backend, ProviderTimeouts timeouts) {
+        this.runtime = runtime;
+        this.backend = backend;
+        this.timeouts = timeouts;
+    }
+
+    @NotNull
+    @Override
+    public HttpResponse execute(@NotNull HttpRequest request, @NotNull RequestOptions requestOptions) {
+        Call call = newCall(request, requestOptions);
+        try {
+            return backend.prepareResponse(toResponse(call.execute()));
+        } catch (IOException e) {
+            throw new AnthropicIoException("Request failed", e);
+        } finally {
+            closeBody(request);
+        }
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<HttpResponse> executeAsync(@NotNull HttpRequest request, @NotNull RequestOptions requestOptions) {
+        CompletableFuture<HttpResponse> future = ProviderRuntime.enqueue(newCall(request, requestOptions),
+                response -> backend.prepareResponse(toResponse(response)),
+                e -> new AnthropicIoException("Request failed", e));
+        future.whenComplete((response, error) -> closeBody(request));
+        return future;
+    }
+
+    @Override
+    public void close() {
+        // The pool belongs to the runtime and outlives any one client.
+    }
+
+    private Call newCall(HttpRequest request, RequestOptions requestOptions) {
+        Timeout timeout = requestOptions.getTimeout();
+        OkHttpClient client = timeout != null
+                ? runtime.client(timeout.connect(), timeout.read(), timeout.write(), timeout.request())
+                : runtime.client(timeouts.getConnect(), timeouts.getRead(), timeouts.getRead(), timeouts.getCall());
+
+        HttpRequest prepared = backend.prepareRequest(request);
+        prepared = backend.authorizeRequest(prepared.toBuilder().url(toUrl(prepared)).build());
+
+        String method = prepared.method().name();
+        HttpRequestBody body = prepared.body();
+        RequestBody requestBody = body != null
+                ? ProviderRuntime.requestBody(body.contentType(), body.contentLength(), body.repeatable(), body::writeTo)
+                : ProviderRuntime.requiresBody(method) ? RequestBody.create(new byte[0]) : null;
+
+        Request.Builder builder = new Request.Builder().url(prepared.url()).method(method, requestBody);
+        Headers headers = prepared.headers();
+        for (String name : headers.names()) {
+            for (String value : headers.values(name)) {
+                builder.addHeader(name, value);
+            }
+        }
+        return runtime.newCall(client, builder.build());
+    }
+
+    private String toUrl(HttpRequest request) {
+        if (request.url() != null) {
+            return request.url();
+        }
+        HttpUrl.Builder url = HttpUrl.get(backend.baseUrl()).newBuilder();
+        for (String segment : request.pathSegments()) {
+            url.addPathSegment(segment);
+        }
+        for (String key : request.queryParams().keys()) {
+            for (String value : request.queryParams().values(key)) {
+                url.addQueryParameter(key, value);
+            }
+        }
+        return url.toString();
+    }
+
+    private HttpResponse toResponse(Response response) {
+        Headers.Builder headers = Headers.builder();
+        for (String name : response.headers().names()) {
+            for (String value : response.headers(name)) {
+                headers.put(name, value);
+            }
+        }
+        Headers responseHeaders = headers.build();
+        InputStream body = ProviderRuntime.openBody(response, timeouts);
+        return new HttpResponse() {
+            @Override
+            public int statusCode() {
+                return response.code();
+            }
+
+            @NotNull
+            @Override
+            public Headers headers() {
+                return responseHeaders;
+            }
+
+            @NotNull
+            @Override
+            public InputStream body() {
+                return body;
+            }
+
+            @Override
+            public void close() {
+                response.close();
+            }
+        };
+    }
+
+    private static void closeBody(HttpRequest request) {
+        if (request.body() != null) {
+            request.body().close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.improt.vai.llm.providers.runtime;
+
+import okhttp3.Call;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The HTTP calls made for one logical request, including SDK retries, so they can be aborted together.
+ *
+ * Calls join a group either through {@link ProviderRuntime#CALL_GROUP_HEADER} on the request (for the SDKs' async
+ * clients, whose retries run on other threads) or by running on a thread inside {@link ProviderRuntime#supplyAsync}.
+ */
+public final class CallGroup {
+
+    private final String id;
+    private final Set<Call> calls = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    CallGroup(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Aborts every call in flight and any the group starts later.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    void add(Call call) {
+        calls.add(call);
+        // A call joining after cancel() would otherwise miss it.
+        if (cancelled) {
+            call.cancel();
+        }
+    }
+}
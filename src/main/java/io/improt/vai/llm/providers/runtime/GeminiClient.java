@@ -0,0 +1,239 @@
+package io.improt.vai.llm.providers.runtime;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Client for the Gemini REST API on the shared pool: {@code generateContent}, its server-sent event stream, and
+ * uploads through the Files API for attachments too large to send inline.
+ *
+ * Uploads are remembered by path, size and modification time until shortly before the server expires them, so
+ * a file attached to several requests is uploaded once.
+ */
+public class GeminiClient {
+
+    public static final String DEFAULT_BASE_URL = "https://generativelanguage.googleapis.com";
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    /** Uploads are reused until this long before their expiry, so a request never references an expired file. */
+    private static final long EXPIRY_MARGIN_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long PROCESSING_POLL_MS = 1000;
+
+    private final ProviderRuntime runtime;
+    private final String baseUrl;
+    private final String apiKey;
+    private final ProviderTimeouts timeouts;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    private static class Upload {
+        final JSONObject file;
+        final long expiresAt;
+
+        Upload(JSONObject file, long expiresAt) {
+            this.file = file;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    GeminiClient(ProviderRuntime runtime, String baseUrl, String apiKey, ProviderTimeouts timeouts) {
+        this.runtime = runtime;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.apiKey = apiKey;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * Generates a complete response.
+     *
+     * @param request A {@code GenerateContentRequest} body.
+     */
+    public JSONObject generateContent(String model, JSONObject request) throws IOException {
+        Request httpRequest = post(baseUrl + "/v1beta/models/" + model + ":generateContent", request);
+        try (Response response = execute(httpRequest)) {
+            return new JSONObject(bodyString(response));
+        }
+    }
+
+    /**
+     * Streams a response on the calling thread, passing each {@code GenerateContentResponse} chunk to
+     * {@code onChunk} as it arrives.
+     */
+    public void streamGenerateContent(String model, JSONObject request, Consumer<JSONObject> onChunk) throws IOException {
+        Request httpRequest = post(baseUrl + "/v1beta/models/" + model + ":streamGenerateContent?alt=sse", request);
+        try (Response response = execute(httpRequest);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     ProviderRuntime.openBody(response, timeouts), StandardCharsets.UTF_8))) {
+            StringBuilder data = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    dispatch(data, onChunk);
+                } else if (line.startsWith("data:")) {
+                    data.append(line.substring(line.startsWith("data: ") ? 6 : 5));
+                }
+            }
+            dispatch(data, onChunk);
+        }
+    }
+
+    private static void dispatch(StringBuilder data, Consumer<JSONObject> onChunk) {
+        if (data.length() > 0) {
+            JSONObject chunk = new JSONObject(data.toString());
+            data.setLength(0);
+            onChunk.accept(chunk);
+        }
+    }
+
+    /**
+     * Uploads {@code file} through the Files API, or returns the earlier upload of the same file, and waits until
+     * the server has finished processing it.
+     *
+     * @return The {@code File} resource; its {@code uri} and {@code mimeType} go into a {@code fileData} part.
+     */
+    public JSONObject uploadFile(File file, String mimeType) throws IOException {
+        String key = file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified();
+        Upload previous = uploads.get(key);
+        if (previous != null && System.currentTimeMillis() < previous.expiresAt - EXPIRY_MARGIN_MS) {
+            return previous.file;
+        }
+
+        long start = System.currentTimeMillis();
+        Request startRequest = new Request.Builder()
+                .url(baseUrl + "/upload/v1beta/files")
+                .header("x-goog-api-key", apiKey)
+                .header("X-Goog-Upload-Protocol", "resumable")
+                .header("X-Goog-Upload-Command", "start")
+                .header("X-Goog-Upload-Header-Content-Length", String.valueOf(file.length()))
+                .header("X-Goog-Upload-Header-Content-Type", mimeType)
+                .post(RequestBody.create(new JSONObject()
+                        .put("file", new JSONObject().put("display_name", file.getName())).toString(), JSON))
+                .build();
+        String uploadUrl;
+        try (Response response = execute(startRequest)) {
+            uploadUrl = response.header("X-Goog-Upload-URL");
+        }
+        if (uploadUrl == null) {
+            throw new IOException("[GeminiClient] Upload of " + file.getName() + " was not given an upload URL.");
+        }
+
+        Request uploadRequest = new Request.Builder()
+                .url(uploadUrl)
+                .header("X-Goog-Upload-Offset", "0")
+                .header("X-Goog-Upload-Command", "upload, finalize")
+                .post(RequestBody.create(file, MediaType.parse(mimeType)))
+                .build();
+        JSONObject uploaded;
+        try (Response response = execute(uploadRequest)) {
+            uploaded = new JSONObject(bodyString(response)).getJSONObject("file");
+        }
+
+        while ("PROCESSING".equals(uploaded.optString("state"))) {
+            try {
+                Thread.sleep(PROCESSING_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("[GeminiClient] Interrupted while " + file.getName() + " was processing.");
+            }
+            Request poll = new Request.Builder()
+                    .url(baseUrl + "/v1beta/" + uploaded.getString("name"))
+                    .header("x-goog-api-key", apiKey)
+                    .get()
+                    .build();
+            try (Response response = execute(poll)) {
+                uploaded = new JSONObject(bodyString(response));
+            }
+        }
+        if (!"ACTIVE".equals(uploaded.optString("state", "ACTIVE"))) {
+            throw new IOException("[GeminiClient] Upload of " + file.getName() + " ended in state " + uploaded.optString("state"));
+        }
+
+        System.out.println("[GeminiClient] Uploaded " + file.getName() + " (" + file.length() / 1024 + " KB) as "
+                + uploaded.optString("name") + " in " + (System.currentTimeMillis() - start) + " ms.");
+        uploads.put(key, new Upload(uploaded, expiry(uploaded)));
+        return uploaded;
+    }
+
+    private static long expiry(JSONObject file) {
+        try {
+            return Instant.parse(file.getString("expirationTime")).toEpochMilli();
+        } catch (Exception e) {
+            // The API keeps files for 48 hours.
+            return System.currentTimeMillis() + TimeUnit.HOURS.toMillis(48);
+        }
+    }
+
+    private Request post(String url, JSONObject body) {
+        return new Request.Builder()
+                .url(url)
+                .header("x-goog-api-key", apiKey)
+                .post(RequestBody.create(body.toString(), JSON))
+                .build();
+    }
+
+    /**
+     * Executes the request in the calling thread's call group, so cancelling an async request aborts it.
+     * Non-2xx responses are closed and thrown.
+     */
+    private Response execute(Request request) throws IOException {
+        OkHttpClient client = runtime.client(timeouts.getConnect(), timeouts.getRead(), timeouts.getRead(), timeouts.getCall());
+        Call call = runtime.newCall(client, request);
+        Response response = call.execute();
+        if (!response.isSuccessful()) {
+            String body;
+            try {
+                body = bodyString(response);
+            } finally {
+                response.close();
+            }
+            throw new GeminiException(response.code(), body);
+        }
+        return response;
+    }
+
+    private static String bodyString(Response response) throws IOException {
+        ResponseBody body = response.body();
+        return body != null ? body.string() : "";
+    }
+
+    /**
+     * An error response from the Gemini API.
+     */
+    public static class GeminiException extends IOException {
+        private final int statusCode;
+
+        GeminiException(int statusCode, String body) {
+            super("[GeminiClient] HTTP " + statusCode + ": " + message(body));
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        private static String message(String body) {
+            try {
+                return new JSONObject(body).getJSONObject("error").getString("message");
+            } catch (Exception e) {
+                return body;
+            }
+        }
+    }
+}
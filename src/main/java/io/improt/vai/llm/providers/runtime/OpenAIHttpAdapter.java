@@ -0,0 +1,142 @@
+package io.improt.vai.llm.providers.runtime;
+
+import com.openai.core.RequestOptions;
+import com.openai.core.Timeout;
+import com.openai.core.http.Headers;
+import com.openai.core.http.HttpClient;
+import com.openai.core.http.HttpRequest;
+import com.openai.core.http.HttpRequestBody;
+import com.openai.core.http.HttpResponse;
+import com.openai.errors.OpenAIIoException;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs OpenAI SDK requests on the {@link ProviderRuntime}'s shared pool.
+ */
+class OpenAIHttpAdapter implements HttpClient {
+
+    private final ProviderRuntime runtime;
+    private final HttpUrl baseUrl;
+    private final ProviderTimeouts timeouts;
+
+    OpenAIHttpAdapter(ProviderRuntime runtime, String baseUrl, ProviderTimeouts timeouts) {
+        this.runtime = runtime;
+        this.baseUrl = HttpUrl.get(baseUrl);
+        this.timeouts = timeouts;
+    }
+
+    @NotNull
+    @Override
+    public HttpResponse execute(@NotNull HttpRequest request, @NotNull RequestOptions requestOptions) {
+        Call call = newCall(request, requestOptions);
+        try {
+            return toResponse(call.execute());
+        } catch (IOException e) {
+            throw new OpenAIIoException("Request failed", e);
+        } finally {
+            closeBody(request);
+        }
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<HttpResponse> executeAsync(@NotNull HttpRequest request, @NotNull RequestOptions requestOptions) {
+        CompletableFuture<HttpResponse> future = ProviderRuntime.enqueue(newCall(request, requestOptions),
+                this::toResponse, e -> new OpenAIIoException("Request failed", e));
+        future.whenComplete((response, error) -> closeBody(request));
+        return future;
+    }
+
+    @Override
+    public void close() {
+        // The pool belongs to the runtime and outlives any one client.
+    }
+
+    private Call newCall(HttpRequest request, RequestOptions requestOptions) {
+        Timeout timeout = requestOptions.getTimeout();
+        OkHttpClient client = timeout != null
+                ? runtime.client(timeout.connect(), timeout.read(), timeout.write(), timeout.request())
+                : runtime.client(timeouts.getConnect(), timeouts.getRead(), timeouts.getRead(), timeouts.getCall());
+
+        String method = request.method().name();
+        HttpRequestBody body = request.body();
+        RequestBody requestBody = body != null
+                ? ProviderRuntime.requestBody(body.contentType(), body.contentLength(), body.repeatable(), body::writeTo)
+                : ProviderRuntime.requiresBody(method) ? RequestBody.create(new byte[0]) : null;
+
+        Request.Builder builder = new Request.Builder().url(toUrl(request)).method(method, requestBody);
+        Headers headers = request.headers();
+        for (String name : headers.names()) {
+            for (String value : headers.values(name)) {
+                builder.addHeader(name, value);
+            }
+        }
+        return runtime.newCall(client, builder.build());
+    }
+
+    private HttpUrl toUrl(HttpRequest request) {
+        if (request.url() != null) {
+            return HttpUrl.get(request.url());
+        }
+        HttpUrl.Builder url = baseUrl.newBuilder();
+        for (String segment : request.pathSegments()) {
+            url.addPathSegment(segment);
+        }
+        for (String key : request.queryParams().keys()) {
+            for (String value : request.queryParams().values(key)) {
+                url.addQueryParameter(key, value);
+            }
+        }
+        return url.build();
+    }
+
+    private HttpResponse toResponse(Response response) {
+        Headers.Builder headers = Headers.builder();
+        for (String name : response.headers().names()) {
+            for (String value : response.headers(name)) {
+                headers.put(name, value);
+            }
+        }
+        Headers responseHeaders = headers.build();
+        InputStream body = ProviderRuntime.openBody(response, timeouts);
+        return new HttpResponse() {
+            @Override
+            public int statusCode() {
+                return response.code();
+            }
+
+            @NotNull
+            @Override
+            public Headers headers() {
+                return responseHeaders;
+            }
+
+            @NotNull
+            @Override
+            public InputStream body() {
+                return body;
+            }
+
+            @Override
+            public void close() {
+                response.close();
+            }
+        };
+    }
+
+    private static void closeBody(HttpRequest request) {
+        if (request.body() != null) {
+            request.body().close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.improt.vai.llm.providers.runtime;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prompt tokens the providers served from their server-side prefix caches, per model, since startup.
+ */
+public class PromptCacheStats {
+
+    private static final PromptCacheStats INSTANCE = new PromptCacheStats();
+
+    private final Map<String, AtomicLong[]> byModel = new ConcurrentHashMap<>();
+
+    public static PromptCacheStats getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records one call's usage and logs it.
+     *
+     * @param promptTokens All input tokens of the call, cached or not.
+     * @param cachedTokens Input tokens read from the provider's cache.
+     */
+    public void record(String model, long promptTokens, long cachedTokens) {
+        AtomicLong[] totals = byModel.computeIfAbsent(model, k -> new AtomicLong[]{new AtomicLong(), new AtomicLong()});
+        totals[0].addAndGet(promptTokens);
+        totals[1].addAndGet(cachedTokens);
+        System.out.println("[PromptCacheStats] " + model + ": " + cachedTokens + " of " + promptTokens
+                + " prompt tokens cached; " + describe(model) + ".");
+    }
+
+    public long getPromptTokens(String model) {
+        AtomicLong[] totals = byModel.get(model);
+        return totals != null ? totals[0].get() : 0;
+    }
+
+    public long getCachedTokens(String model) {
+        AtomicLong[] totals = byModel.get(model);
+        return totals != null ? totals[1].get() : 0;
+    }
+
+    public String describe(String model) {
+        long prompt = getPromptTokens(model);
+        long cached = getCachedTokens(model);
+        return String.format("%d of %d (%.0f%%) this session", cached, prompt, prompt == 0 ? 0.0 : cached * 100.0 / prompt);
+    }
+}
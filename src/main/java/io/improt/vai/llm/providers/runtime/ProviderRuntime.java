@@ -0,0 +1,355 @@
+package io.improt.vai.llm.providers.runtime;
+
+import com.anthropic.backends.AnthropicBackend;
+import com.anthropic.client.AnthropicClient;
+import com.anthropic.client.AnthropicClientImpl;
+import com.openai.client.OpenAIClient;
+import com.openai.client.OpenAIClientImpl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Owns the HTTP machinery every model provider shares: one connection pool and one dispatcher.
+ *
+ * Providers get their SDK clients from here instead of building their own, so concurrent calls to the same host
+ * reuse warm connections (multiplexed over HTTP/2 where the server offers it) rather than each client opening and
+ * tearing down its own pool. Timeouts are per provider; clients differing only in timeouts still share the pool.
+ *
+ * It also backs the providers' async requests: every call belongs to at most one {@link CallGroup}, and cancelling
+ * the future of an async request cancels its group, which aborts the HTTP call rather than abandoning it.
+ */
+public class ProviderRuntime {
+
+    public static final String DEFAULT_OPENAI_BASE_URL = "https://api.openai.com/v1";
+    /** Request header naming the {@link CallGroup} a call belongs to. Consumed here, never sent. */
+    public static final String CALL_GROUP_HEADER = "X-Vai-Call-Group";
+
+    private static final int MAX_IDLE_CONNECTIONS = 32;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS = 64;
+    /** Enough for a full batch of mapping calls to one provider without queueing behind each other. */
+    private static final int MAX_REQUESTS_PER_HOST = 32;
+    /** Keeps idle HTTP/2 connections from being silently dropped by proxies between bursts of calls. */
+    private static final Duration PING_INTERVAL = Duration.ofSeconds(30);
+
+    private static final ProviderRuntime INSTANCE = new ProviderRuntime();
+
+    private final ConnectionPool connectionPool;
+    private final Dispatcher dispatcher;
+    private final OkHttpClient baseClient;
+    private final Map<String, OkHttpClient> clientsByTimeouts = new ConcurrentHashMap<>();
+    private final Map<String, OpenAIClient> openAIClients = new ConcurrentHashMap<>();
+    private final Map<String, AnthropicClient> anthropicClients = new ConcurrentHashMap<>();
+    private final Map<String, GeminiClient> geminiClients = new ConcurrentHashMap<>();
+    private final Map<String, CallGroup> openGroups = new ConcurrentHashMap<>();
+    private final ThreadLocal<CallGroup> currentGroup = new ThreadLocal<>();
+    private final AtomicInteger asyncThreadIds = new AtomicInteger();
+    /** Runs blocking provider calls for providers without an async client. */
+    private final ExecutorService asyncExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "ProviderRuntime-async-" + asyncThreadIds.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private ProviderRuntime() {
+        this.connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
+        this.dispatcher = new Dispatcher();
+        this.dispatcher.setMaxRequests(MAX_REQUESTS);
+        this.dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        this.baseClient = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .pingInterval(PING_INTERVAL)
+                .build();
+    }
+
+    public static ProviderRuntime getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * An OpenAI-compatible client on the shared pool, created once per base URL, key and timeouts.
+     *
+     * @param baseUrl The API base URL, or null for OpenAI itself.
+     */
+    public OpenAIClient openAIClient(String baseUrl, String apiKey, ProviderTimeouts timeouts) {
+        String url = baseUrl != null ? baseUrl : DEFAULT_OPENAI_BASE_URL;
+        return openAIClients.computeIfAbsent(url + '\n' + apiKey + '\n' + timeouts, key -> {
+            System.out.println("[ProviderRuntime] Creating OpenAI client for " + url + " (" + timeouts + ")");
+            return new OpenAIClientImpl(com.openai.core.ClientOptions.builder()
+                    .httpClient(new OpenAIHttpAdapter(this, url, timeouts))
+                    .baseUrl(url)
+                    .apiKey(apiKey)
+                    .timeout(com.openai.core.Timeout.builder()
+                            .connect(timeouts.getConnect())
+                            .read(timeouts.getRead())
+                            .write(timeouts.getRead())
+                            .request(timeouts.getCall())
+                            .build())
+                    .build());
+        });
+    }
+
+    public AnthropicClient anthropicClient(String apiKey, ProviderTimeouts timeouts) {
+        return anthropicClients.computeIfAbsent(apiKey + '\n' + timeouts, key -> {
+            System.out.println("[ProviderRuntime] Creating Anthropic client (" + timeouts + ")");
+            AnthropicBackend backend = AnthropicBackend.builder().apiKey(apiKey).build();
+            return new AnthropicClientImpl(com.anthropic.core.ClientOptions.builder()
+                    .httpClient(new AnthropicHttpAdapter(this, backend, timeouts))
+                    .timeout(com.anthropic.core.Timeout.builder()
+                            .connect(timeouts.getConnect())
+                            .read(timeouts.getRead())
+                            .write(timeouts.getRead())
+                            .request(timeouts.getCall())
+                            .build())
+                    .build());
+        });
+    }
+
+    /**
+     * A Gemini REST client on the shared pool, created once per base URL, key and timeouts.
+     *
+     * @param baseUrl The API base URL, or null for Google's.
+     */
+    public GeminiClient geminiClient(String baseUrl, String apiKey, ProviderTimeouts timeouts) {
+        String url = baseUrl != null ? baseUrl : GeminiClient.DEFAULT_BASE_URL;
+        return geminiClients.computeIfAbsent(url + '\n' + apiKey + '\n' + timeouts, key -> {
+            System.out.println("[ProviderRuntime] Creating Gemini client for " + url + " (" + timeouts + ")");
+            return new GeminiClient(this, url, apiKey, timeouts);
+        });
+    }
+
+    /**
+     * A view of the shared client with the given timeouts. Views share the pool and dispatcher; they are cached
+     * because the SDKs can pass a different timeout per request.
+     */
+    OkHttpClient client(Duration connect, Duration read, Duration write, Duration call) {
+        String key = connect.toMillis() + "/" + read.toMillis() + "/" + write.toMillis() + "/" + call.toMillis();
+        return clientsByTimeouts.computeIfAbsent(key, k -> baseClient.newBuilder()
+                .connectTimeout(connect)
+                .readTimeout(read)
+                .writeTimeout(write)
+                .callTimeout(call)
+                .build());
+    }
+
+    /**
+     * Starts a group for calls made through an SDK's async client; tag its requests with
+     * {@link #CALL_GROUP_HEADER} and pass the resulting future to {@link #bind}.
+     */
+    public CallGroup openGroup() {
+        CallGroup group = new CallGroup(UUID.randomUUID().toString());
+        openGroups.put(group.getId(), group);
+        return group;
+    }
+
+    /**
+     * A future completed from {@code source}. Cancelling it aborts the group's calls; either way the group is closed
+     * once it completes. Cancel this future rather than one derived from it, since cancellation does not travel
+     * back up a chain of dependent futures.
+     */
+    public <T> CompletableFuture<T> bind(CallGroup group, CompletableFuture<T> source) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        source.whenComplete((result, error) -> {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                group.cancel();
+                source.cancel(false);
+            }
+            openGroups.remove(group.getId());
+        });
+        return future;
+    }
+
+    /**
+     * Runs a blocking provider call on a pooled thread. Calls it makes through this runtime join a fresh group, so
+     * cancelling the returned future aborts them (and interrupts the thread) instead of leaving it blocked.
+     * A {@link ResponseCache#bypass()} in force on the calling thread also applies to the task.
+     */
+    public <T> CompletableFuture<T> supplyAsync(Callable<T> task) {
+        CallGroup group = openGroup();
+        boolean bypassCache = ResponseCache.isBypassed();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Future<?> worker = asyncExecutor.submit(() -> {
+            currentGroup.set(group);
+            try (ResponseCache.Bypass ignored = bypassCache ? ResponseCache.bypass() : null) {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                currentGroup.remove();
+            }
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                group.cancel();
+                worker.cancel(true);
+            }
+            openGroups.remove(group.getId());
+        });
+        return future;
+    }
+
+    /**
+     * The group a new call joins: the one named by its header values, else the one the calling thread runs in.
+     */
+    CallGroup groupFor(List<String> headerValues) {
+        if (headerValues != null && !headerValues.isEmpty()) {
+            return openGroups.get(headerValues.get(0));
+        }
+        return currentGroup.get();
+    }
+
+    /**
+     * Creates the call and adds it to the group its request names, or the calling thread's group. Calls stay in
+     * the group until it closes, since a streamed body is still being read after the call returns.
+     */
+    Call newCall(OkHttpClient client, okhttp3.Request request) {
+        CallGroup group = groupFor(request.headers(CALL_GROUP_HEADER));
+        okhttp3.Request outgoing = request.header(CALL_GROUP_HEADER) != null
+                ? request.newBuilder().removeHeader(CALL_GROUP_HEADER).build()
+                : request;
+        Call call = client.newCall(outgoing);
+        if (group != null) {
+            group.add(call);
+        }
+        return call;
+    }
+
+    public int getConnectionCount() {
+        return connectionPool.connectionCount();
+    }
+
+    public int getIdleConnectionCount() {
+        return connectionPool.idleConnectionCount();
+    }
+
+    public int getRunningCallsCount() {
+        return dispatcher.runningCallsCount();
+    }
+
+    public int getQueuedCallsCount() {
+        return dispatcher.queuedCallsCount();
+    }
+
+    public String describe() {
+        return getConnectionCount() + " connections (" + getIdleConnectionCount() + " idle), "
+                + getRunningCallsCount() + " running, " + getQueuedCallsCount() + " queued";
+    }
+
+    interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    static RequestBody requestBody(String contentType, long contentLength, boolean repeatable, BodyWriter writer) {
+        MediaType mediaType = contentType != null ? MediaType.parse(contentType) : null;
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return mediaType;
+            }
+
+            @Override
+            public long contentLength() {
+                return contentLength;
+            }
+
+            @Override
+            public boolean isOneShot() {
+                return !repeatable;
+            }
+
+            @Override
+            public void writeTo(@NotNull BufferedSink sink) throws IOException {
+                writer.writeTo(sink.outputStream());
+            }
+        };
+    }
+
+    static boolean requiresBody(String method) {
+        return method.equals("POST") || method.equals("PUT") || method.equals("PATCH");
+    }
+
+    /**
+     * The response body as a stream. Event streams switch from the read timeout to the stream-idle timeout,
+     * so once tokens are flowing a stalled connection is noticed quickly.
+     */
+    static InputStream openBody(Response response, ProviderTimeouts timeouts) {
+        ResponseBody body = response.body();
+        if (body == null) {
+            return InputStream.nullInputStream();
+        }
+        MediaType type = body.contentType();
+        if (type != null && "text".equals(type.type()) && "event-stream".equals(type.subtype())) {
+            body.source().timeout().timeout(timeouts.getStreamIdle().toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return body.byteStream();
+    }
+
+    /**
+     * Runs the call on the shared dispatcher. Cancelling the returned future cancels the call.
+     */
+    static <T> CompletableFuture<T> enqueue(Call call, Function<Response, T> onResponse,
+                                            Function<IOException, RuntimeException> onFailure) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                future.completeExceptionally(onFailure.apply(e));
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                try {
+                    if (!future.complete(onResponse.apply(response))) {
+                        response.close();
+                    }
+                } catch (RuntimeException e) {
+                    response.close();
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,77 @@
+package io.improt.vai.llm.providers.runtime;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Timeouts a provider's HTTP calls run with.
+ *
+ * {@code read} is the longest wait for the first response bytes, which for reasoning models covers the whole
+ * thinking time. {@code streamIdle} replaces it once a server-sent event stream has started, so a stalled stream
+ * fails quickly even though the first byte was allowed to take minutes. {@code call} bounds the whole exchange.
+ */
+public final class ProviderTimeouts {
+
+    public static final ProviderTimeouts DEFAULT = new ProviderTimeouts(
+            Duration.ofSeconds(10), Duration.ofMinutes(10), Duration.ofSeconds(90), Duration.ofMinutes(15));
+
+    /** Reasoning models can be silent for minutes before the first token, both before and inside a stream. */
+    public static final ProviderTimeouts REASONING = new ProviderTimeouts(
+            Duration.ofSeconds(10), Duration.ofMinutes(20), Duration.ofMinutes(10), Duration.ofMinutes(30));
+
+    private final Duration connect;
+    private final Duration read;
+    private final Duration streamIdle;
+    private final Duration call;
+
+    public ProviderTimeouts(Duration connect, Duration read, Duration streamIdle, Duration call) {
+        this.connect = connect;
+        this.read = read;
+        this.streamIdle = streamIdle;
+        this.call = call;
+    }
+
+    public Duration getConnect() {
+        return connect;
+    }
+
+    public Duration getRead() {
+        return read;
+    }
+
+    public Duration getStreamIdle() {
+        return streamIdle;
+    }
+
+    public Duration getCall() {
+        return call;
+    }
+
+    public ProviderTimeouts withRead(Duration read) {
+        return new ProviderTimeouts(connect, read, streamIdle, call);
+    }
+
+    public ProviderTimeouts withStreamIdle(Duration streamIdle) {
+        return new ProviderTimeouts(connect, read, streamIdle, call);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ProviderTimeouts)) return false;
+        ProviderTimeouts other = (ProviderTimeouts) o;
+        return connect.equals(other.connect) && read.equals(other.read)
+                && streamIdle.equals(other.streamIdle) && call.equals(other.call);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(connect, read, streamIdle, call);
+    }
+
+    @Override
+    public String toString() {
+        return "connect=" + connect.getSeconds() + "s, read=" + read.getSeconds() + "s, streamIdle="
+                + streamIdle.getSeconds() + "s, call=" + call.getSeconds() + "s";
+    }
+}
@@ -0,0 +1,257 @@
+package io.improt.vai.llm.providers.runtime;
+
+import io.improt.vai.util.Constants;
+import io.improt.vai.util.DiskLruCache;
+import io.improt.vai.util.XXHash64;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Disk-backed cache of model responses, in {@code ~/.vai/response_cache}, one file per response.
+ *
+ * Keys fingerprint everything that shapes a response: the model, its reasoning effort, the prompt text (with line
+ * endings and trailing whitespace on each line normalized) and the attached files. Entries expire {@link #TTL_MS}
+ * after they were written; beyond {@link #MAX_ENTRIES} or {@link #MAX_BYTES} the least recently used are evicted (see
+ * {@link DiskLruCache}). Only non-empty responses the model finished are stored; a failed call, or one cut off at a
+ * token limit, is always retried for real.
+ *
+ * A caller wanting a fresh answer runs the request inside {@link #bypass()}; the flag follows the request onto
+ * {@link ProviderRuntime#supplyAsync} workers, and the fresh answer replaces the cached one.
+ */
+public class ResponseCache {
+
+    private static final long TTL_MS = TimeUnit.DAYS.toMillis(7);
+    private static final int MAX_ENTRIES = 2000;
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final ResponseCache INSTANCE = new ResponseCache(new File(Constants.VAI_HOME_DIR, "response_cache"));
+
+    private static final ThreadLocal<Boolean> bypassed = ThreadLocal.withInitial(() -> false);
+
+    private final DiskLruCache entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+
+    /**
+     * A response, and whether the model ended it itself rather than stopping at a token limit or a filter.
+     */
+    public static final class Completion {
+        private final String text;
+        private final boolean finished;
+
+        public Completion(String text, boolean finished) {
+            this.text = text;
+            this.finished = finished;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+
+    /**
+     * Marks requests made on this thread as uncached until closed.
+     */
+    public static final class Bypass implements AutoCloseable {
+        private final boolean previous;
+
+        private Bypass() {
+            previous = bypassed.get();
+            bypassed.set(true);
+        }
+
+        @Override
+        public void close() {
+            bypassed.set(previous);
+        }
+    }
+
+    ResponseCache(File directory) {
+        this(directory, MAX_ENTRIES, MAX_BYTES);
+    }
+
+    ResponseCache(File directory, int maxEntries, long maxBytes) {
+        // An entry unused for the TTL is also past it, so idle expiry clears out what lookups never reach.
+        this.entries = new DiskLruCache(directory, ".json", false, maxEntries, maxBytes, TTL_MS, "ResponseCache");
+    }
+
+    public static ResponseCache getInstance() {
+        return INSTANCE;
+    }
+
+    public static Bypass bypass() {
+        return new Bypass();
+    }
+
+    public static boolean isBypassed() {
+        return bypassed.get();
+    }
+
+    /**
+     * The cache key for a request. {@code reasoningEffort} is null for models without one; {@code files} may be null.
+     * Files count by path, size and modification time rather than content.
+     */
+    public static String key(String model, String reasoningEffort, List<String> texts, List<File> files) {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(model).append('\0').append(reasoningEffort != null ? reasoningEffort : "").append('\0');
+        for (String text : texts) {
+            fingerprint.append(normalize(text)).append('\0');
+        }
+        if (files != null) {
+            for (File file : files) {
+                fingerprint.append("file:").append(file.getAbsolutePath())
+                        .append(':').append(file.length())
+                        .append(':').append(file.lastModified()).append('\0');
+            }
+        }
+        return sha256(fingerprint.toString());
+    }
+
+    /**
+     * The cached response for {@code key}, or the result of {@code request}, which is then cached.
+     */
+    public String getOrCompute(String key, Supplier<Completion> request) {
+        String cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        return store(key, request.get());
+    }
+
+    /**
+     * {@link #getOrCompute} for a streamed request: a hit is passed to {@code onChunk} whole.
+     */
+    public String getOrStream(String key, Consumer<String> onChunk, Supplier<Completion> request) {
+        String cached = lookup(key);
+        if (cached != null) {
+            onChunk.accept(cached);
+            return cached;
+        }
+        return store(key, request.get());
+    }
+
+    /**
+     * Caches {@code completion} if the model finished it, and returns its text either way.
+     */
+    public String store(String key, Completion completion) {
+        if (completion == null) {
+            return null;
+        }
+        if (completion.isFinished()) {
+            put(key, completion.getText());
+        } else {
+            System.out.println("[ResponseCache] Not caching a response that did not finish.");
+        }
+        return completion.getText();
+    }
+
+    /**
+     * The cached response for {@code key}, or null on a miss or while {@link #bypass() bypassed}. A bypassed request
+     * still stores its response, replacing the cached one.
+     */
+    public String lookup(String key) {
+        if (isBypassed()) {
+            bypasses.incrementAndGet();
+            return null;
+        }
+        return get(key);
+    }
+
+    private String get(String key) {
+        byte[] bytes = entries.get(key);
+        if (bytes == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            JSONObject stored = new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+            if (System.currentTimeMillis() - stored.getLong("created") > TTL_MS) {
+                entries.remove(key);
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            System.out.println("[ResponseCache] Hit (" + describe() + ").");
+            return stored.getString("response");
+        } catch (Exception e) {
+            System.err.println("[ResponseCache] Dropping unreadable entry " + key + ": " + e.getMessage());
+            entries.remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, String response) {
+        if (response == null || response.trim().isEmpty()) {
+            return;
+        }
+        JSONObject stored = new JSONObject().put("created", System.currentTimeMillis()).put("response", response);
+        entries.put(key, stored.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getBypasses() {
+        return bypasses.get();
+    }
+
+    /**
+     * Hits over cache lookups since startup; bypassed requests are not lookups.
+     */
+    public double getHitRatio() {
+        long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+
+    public String describe() {
+        return String.format("%d hits, %d misses, %.0f%% hit ratio, %d bypassed; %d entries, %d KB",
+                hits.get(), misses.get(), getHitRatio() * 100, bypasses.get(), entries.size(), entries.getTotalBytes() / 1024);
+    }
+
+    private static String normalize(String text) {
+        if (text == null) return "";
+        String[] lines = text.replace("\r\n", "\n").replace('\r', '\n').split("\n", -1);
+        StringBuilder normalized = new StringBuilder(text.length());
+        for (String line : lines) {
+            int end = line.length();
+            while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+                end--;
+            }
+            normalized.append(line, 0, end).append('\n');
+        }
+        return normalized.toString();
+    }
+
+    private static String sha256(String text) {
+        try {
+            return XXHash64.toHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package io.improt.vai.llm.race;
+
+import io.improt.vai.llm.LLMRegistry;
+import io.improt.vai.llm.providers.impl.IModelProvider;
+import io.improt.vai.util.BerzfadParser;
+import io.improt.vai.util.Constants;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Speculative racing of code requests: the same prompt goes to several providers at once, the first response
+ * with at least one Berzfad block wins, and the other requests are cancelled.
+ *
+ * The selected model always runs; the configured racers from {@code ~/.vai/race.json} join it, best recent
+ * performers first, up to {@code maxRacers} in total. Racers {@link RaceStats} has pruned sit out except on
+ * exploration races.
+ */
+public class ModelRace {
+
+    private static final List<String> DEFAULT_RACERS = Arrays.asList("gpt-4.1", "Gemini Pro", "o4-mini");
+    private static final int DEFAULT_MAX_RACERS = 3;
+
+    private static final ModelRace INSTANCE = new ModelRace(new File(Constants.VAI_HOME_DIR, "race.json"), RaceStats.getInstance());
+
+    private final File configFile;
+    private final RaceStats stats;
+    private boolean enabled;
+    private List<String> racers = new ArrayList<>(DEFAULT_RACERS);
+    private int maxRacers = DEFAULT_MAX_RACERS;
+
+    /**
+     * The outcome of a race. Without a winner, {@link #getResponse()} is the best response that did arrive
+     * (the selected model's, if it answered) so the caller can still try to repair it.
+     */
+    public static class Result {
+        private final String winner;
+        private final String response;
+        private final long latencyMs;
+
+        Result(String winner, String response, long latencyMs) {
+            this.winner = winner;
+            this.response = response;
+            this.latencyMs = latencyMs;
+        }
+
+        public boolean hasWinner() {
+            return winner != null;
+        }
+
+        public String getWinner() {
+            return winner;
+        }
+
+        public String getResponse() {
+            return response;
+        }
+
+        public long getLatencyMs() {
+            return latencyMs;
+        }
+    }
+
+    ModelRace(File configFile, RaceStats stats) {
+        this.configFile = configFile;
+        this.stats = stats;
+        loadConfig();
+    }
+
+    public static ModelRace getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        saveConfig();
+    }
+
+    public synchronized List<String> getRacers() {
+        return new ArrayList<>(racers);
+    }
+
+    /**
+     * The providers to race for a request to {@code selected}: it first, then the configured racers that are
+     * registered and not pruned, ranked by recent win rate and then median win latency.
+     */
+    public List<IModelProvider> selectRacers(IModelProvider selected, LLMRegistry registry) {
+        List<String> configured;
+        int limit;
+        synchronized (this) {
+            configured = new ArrayList<>(racers);
+            limit = maxRacers;
+        }
+        boolean exploring = stats.isExplorationRace();
+        List<IModelProvider> candidates = new ArrayList<>();
+        List<String> pruned = new ArrayList<>();
+        for (String name : configured) {
+            IModelProvider provider = registry.getModel(name);
+            if (provider == null || provider == selected || candidates.contains(provider)) continue;
+            if (!exploring && stats.isPruned(name)) {
+                pruned.add(name);
+                continue;
+            }
+            candidates.add(provider);
+        }
+        candidates.sort(Comparator
+                .comparingDouble((IModelProvider p) -> -stats.getWinRate(p.getFriendlyName()))
+                .thenComparingLong(p -> {
+                    long median = stats.getMedianWinLatency(p.getFriendlyName());
+                    return median >= 0 ? median : Long.MAX_VALUE;
+                }));
+
+        List<IModelProvider> selection = new ArrayList<>();
+        selection.add(selected);
+        for (IModelProvider candidate : candidates) {
+            if (selection.size() >= limit) break;
+            selection.add(candidate);
+        }
+        if (!pruned.isEmpty()) {
+            System.out.println("[ModelRace] Pruned from this race: " + String.join(", ", pruned));
+        }
+        return selection;
+    }
+
+    /**
+     * Sends the request to every racer. The future completes with the first response that parses into at least one
+     * file block, or once every racer has finished without one. Completing it, including cancelling it, cancels
+     * every request still running.
+     */
+    public CompletableFuture<Result> run(List<IModelProvider> racers, String prompt, String userRequest, List<File> files) {
+        CompletableFuture<Result> race = new CompletableFuture<>();
+        RaceState state = new RaceState(race, racers.get(0).getFriendlyName(), racers.size());
+        List<CompletableFuture<String>> entries = new ArrayList<>();
+        long start = System.nanoTime();
+        System.out.println("[ModelRace] Racing " + racers.size() + " models.");
+
+        for (IModelProvider racer : racers) {
+            String name = racer.getFriendlyName();
+            System.out.println("[ModelRace]   " + stats.describe(name));
+            CompletableFuture<String> entry;
+            try {
+                entry = racer.requestAsync(prompt, userRequest, files);
+            } catch (RuntimeException e) {
+                entry = CompletableFuture.failedFuture(e);
+            }
+            entries.add(entry);
+            entry.whenComplete((response, error) ->
+                    state.settle(name, response, error, (System.nanoTime() - start) / 1_000_000));
+        }
+        race.whenComplete((result, error) -> {
+            for (CompletableFuture<String> entry : entries) {
+                entry.cancel(true);
+            }
+        });
+        return race;
+    }
+
+    /**
+     * Decides the race as entries finish, and records each entry's outcome.
+     */
+    private class RaceState {
+        private final CompletableFuture<Result> race;
+        private final String selectedModel;
+        private int pending;
+        private String fallbackModel;
+        private String fallbackResponse;
+        private Throwable firstError;
+
+        RaceState(CompletableFuture<Result> race, String selectedModel, int entries) {
+            this.race = race;
+            this.selectedModel = selectedModel;
+            this.pending = entries;
+        }
+
+        void settle(String model, String response, Throwable error, long elapsedMs) {
+            Result decided = null;
+            boolean last;
+            synchronized (this) {
+                // A race the user cancelled says nothing about the models.
+                boolean abandoned = race.isCancelled();
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof CancellationException || (cause != null && race.isDone())) {
+                    if (!abandoned) stats.record(model, RaceStats.Outcome.LOST, elapsedMs);
+                } else if (cause != null) {
+                    System.err.println("[ModelRace] " + model + " failed after " + elapsedMs + " ms: " + cause.getMessage());
+                    if (!abandoned) stats.record(model, RaceStats.Outcome.FAILED, elapsedMs);
+                    if (firstError == null || model.equals(selectedModel)) firstError = cause;
+                } else if (response != null && !BerzfadParser.parseBlocks(response).isEmpty()) {
+                    if (race.isDone()) {
+                        if (!abandoned) stats.record(model, RaceStats.Outcome.LOST, elapsedMs);
+                    } else {
+                        System.out.println("[ModelRace] " + model + " won in " + elapsedMs + " ms.");
+                        stats.record(model, RaceStats.Outcome.WON, elapsedMs);
+                        decided = new Result(model, response, elapsedMs);
+                    }
+                } else {
+                    System.out.println("[ModelRace] " + model + " answered in " + elapsedMs + " ms without a usable block.");
+                    if (!abandoned) stats.record(model, RaceStats.Outcome.UNPARSABLE, elapsedMs);
+                    if (response != null && (fallbackResponse == null || model.equals(selectedModel))) {
+                        fallbackModel = model;
+                        fallbackResponse = response;
+                    }
+                }
+                last = --pending == 0;
+            }
+
+            if (decided != null) {
+                race.complete(decided);
+            }
+            if (last) {
+                if (race.isDone()) {
+                    // Already won or abandoned.
+                } else if (fallbackResponse != null) {
+                    System.out.println("[ModelRace] No usable response; falling back to " + fallbackModel + "'s.");
+                    race.complete(new Result(null, fallbackResponse, elapsedMs));
+                } else if (firstError != null) {
+                    race.completeExceptionally(firstError);
+                } else {
+                    race.complete(new Result(null, null, elapsedMs));
+                }
+                if (!race.isCancelled()) {
+                    stats.raceFinished();
+                }
+            }
+        }
+    }
+
+    private void loadConfig() {
+        if (!configFile.exists()) return;
+        try {
+            JSONObject root = new JSONObject(new String(Files.readAllBytes(configFile.toPath()), StandardCharsets.UTF_8));
+            enabled = root.optBoolean("enabled", false);
+            maxRacers = Math.max(1, root.optInt("maxRacers", DEFAULT_MAX_RACERS));
+            JSONArray names = root.optJSONArray("racers");
+            if (names != null) {
+                racers = new ArrayList<>();
+                for (int i = 0; i < names.length(); i++) {
+                    racers.add(names.getString(i));
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("[ModelRace] Ignoring unreadable " + configFile + ": " + e.getMessage());
+        }
+    }
+
+    private void saveConfig() {
+        JSONObject root = new JSONObject()
+                .put("enabled", enabled)
+                .put("maxRacers", maxRacers)
+                .put("racers", new JSONArray(racers));
+        try {
+            Files.createDirectories(configFile.getParentFile().toPath());
+            Files.write(configFile.toPath(), root.toString(2).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("[ModelRace] Failed to save " + configFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package io.improt.vai.llm.race;
+
+import io.improt.vai.util.Constants;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-model results of past races, kept in {@code ~/.vai/race_stats.json}.
+ *
+ * Each model keeps a window of its recent outcomes and of the latencies of its wins. A model that has had a fair
+ * number of races in the window but rarely wins is pruned from the race set; every {@link #EXPLORE_EVERY}th race
+ * still includes pruned models, so one that has become faster can earn its place back.
+ */
+public class RaceStats {
+
+    public enum Outcome {
+        WON('W'), LOST('L'), FAILED('F'), UNPARSABLE('U');
+
+        private final char code;
+
+        Outcome(char code) {
+            this.code = code;
+        }
+
+        static Outcome fromCode(char code) {
+            for (Outcome outcome : values()) {
+                if (outcome.code == code) return outcome;
+            }
+            return null;
+        }
+    }
+
+    private static final int OUTCOME_WINDOW = 40;
+    private static final int LATENCY_WINDOW = 20;
+    private static final int MIN_RACES_BEFORE_PRUNING = 8;
+    private static final double MIN_WIN_RATE = 0.1;
+    static final int EXPLORE_EVERY = 10;
+
+    private static final RaceStats INSTANCE = new RaceStats(new File(Constants.VAI_HOME_DIR, "race_stats.json"));
+
+    private final File file;
+    private final Map<String, ModelStats> models = new HashMap<>();
+    private long racesRun;
+    private boolean loaded;
+
+    private static class ModelStats {
+        private long races;
+        private long wins;
+        private final Deque<Outcome> recent = new ArrayDeque<>();
+        private final Deque<Long> winLatencies = new ArrayDeque<>();
+
+        void add(Outcome outcome) {
+            races++;
+            if (outcome == Outcome.WON) wins++;
+            recent.addLast(outcome);
+            while (recent.size() > OUTCOME_WINDOW) recent.removeFirst();
+        }
+
+        double recentWinRate() {
+            if (recent.isEmpty()) return 0;
+            int won = 0;
+            for (Outcome outcome : recent) {
+                if (outcome == Outcome.WON) won++;
+            }
+            return (double) won / recent.size();
+        }
+
+        long medianWinLatency() {
+            if (winLatencies.isEmpty()) return -1;
+            List<Long> sorted = new ArrayList<>(winLatencies);
+            sorted.sort(null);
+            return sorted.get(sorted.size() / 2);
+        }
+    }
+
+    RaceStats(File file) {
+        this.file = file;
+    }
+
+    public static RaceStats getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized void record(String model, Outcome outcome, long latencyMs) {
+        ensureLoaded();
+        ModelStats stats = models.computeIfAbsent(model, k -> new ModelStats());
+        stats.add(outcome);
+        if (outcome == Outcome.WON) {
+            stats.winLatencies.addLast(latencyMs);
+            while (stats.winLatencies.size() > LATENCY_WINDOW) stats.winLatencies.removeFirst();
+        }
+    }
+
+    /**
+     * Counts a finished race; call once all its entries are recorded. Persists the stats.
+     */
+    public synchronized void raceFinished() {
+        ensureLoaded();
+        racesRun++;
+        save();
+    }
+
+    /**
+     * Whether the next race should also include pruned models.
+     */
+    public synchronized boolean isExplorationRace() {
+        ensureLoaded();
+        return racesRun % EXPLORE_EVERY == EXPLORE_EVERY - 1;
+    }
+
+    public synchronized boolean isPruned(String model) {
+        ensureLoaded();
+        ModelStats stats = models.get(model);
+        return stats != null && stats.recent.size() >= MIN_RACES_BEFORE_PRUNING && stats.recentWinRate() < MIN_WIN_RATE;
+    }
+
+    public synchronized double getWinRate(String model) {
+        ensureLoaded();
+        ModelStats stats = models.get(model);
+        return stats != null ? stats.recentWinRate() : 0;
+    }
+
+    /**
+     * Median latency of the model's recent wins in ms, or -1 if it has none.
+     */
+    public synchronized long getMedianWinLatency(String model) {
+        ensureLoaded();
+        ModelStats stats = models.get(model);
+        return stats != null ? stats.medianWinLatency() : -1;
+    }
+
+    public synchronized String describe(String model) {
+        ensureLoaded();
+        ModelStats stats = models.get(model);
+        if (stats == null) return model + ": no races yet";
+        long median = stats.medianWinLatency();
+        return model + ": " + stats.wins + "/" + stats.races + " won, " + Math.round(stats.recentWinRate() * 100)
+                + "% recently" + (median >= 0 ? ", median win " + median + " ms" : "")
+                + (isPruned(model) ? " (pruned)" : "");
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!file.exists()) return;
+        try {
+            JSONObject root = new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            racesRun = root.optLong("racesRun", 0);
+            JSONObject modelsJson = root.optJSONObject("models");
+            if (modelsJson == null) return;
+            for (String model : modelsJson.keySet()) {
+                JSONObject obj = modelsJson.getJSONObject(model);
+                ModelStats stats = new ModelStats();
+                stats.races = obj.optLong("races", 0);
+                stats.wins = obj.optLong("wins", 0);
+                for (char code : obj.optString("recent", "").toCharArray()) {
+                    Outcome outcome = Outcome.fromCode(code);
+                    if (outcome != null) stats.recent.addLast(outcome);
+                }
+                JSONArray latencies = obj.optJSONArray("winLatencies");
+                if (latencies != null) {
+                    for (int i = 0; i < latencies.length(); i++) {
+                        stats.winLatencies.addLast(latencies.getLong(i));
+                    }
+                }
+                models.put(model, stats);
+            }
+        } catch (Exception e) {
+            System.err.println("[RaceStats] Ignoring unreadable " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        JSONObject modelsJson = new JSONObject();
+        for (Map.Entry<String, ModelStats> entry : models.entrySet()) {
+            ModelStats stats = entry.getValue();
+            StringBuilder recent = new StringBuilder();
+            for (Outcome outcome : stats.recent) {
+                recent.append(outcome.code);
+            }
+            modelsJson.put(entry.getKey(), new JSONObject()
+                    .put("races", stats.races)
+                    .put("wins", stats.wins)
+                    .put("recent", recent.toString())
+                    .put("winLatencies", new JSONArray(stats.winLatencies)));
+        }
+        JSONObject root = new JSONObject().put("racesRun", racesRun).put("models", modelsJson);
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Path tmp = new File(file.getParentFile(), file.getName() + ".tmp").toPath();
+            Files.write(tmp, root.toString(2).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[RaceStats] Failed to save " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package io.improt.vai.llm.tokens;
+
+import io.improt.vai.llm.providers.impl.IModelProvider;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A pre-flight estimate of a prompt's size against a model's context window, broken down per prompt section and
+ * per attached file, with room held back for the response.
+ */
+public class PromptBudget {
+
+    /** Response tokens held back from the window, at most. Small windows hold back a quarter instead. */
+    private static final int MAX_OUTPUT_RESERVE = 32_000;
+
+    private final String model;
+    private final TokenEncoding encoding;
+    private final int contextWindow;
+    private final List<Entry> sections = new ArrayList<>();
+    private final List<Entry> files = new ArrayList<>();
+
+    public static final class Entry {
+        private final String label;
+        private final int tokens;
+        private final File file;
+
+        Entry(String label, int tokens, File file) {
+            this.label = label;
+            this.tokens = tokens;
+            this.file = file;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public int getTokens() {
+            return tokens;
+        }
+
+        /**
+         * The file this entry measures, or null for a prompt section.
+         */
+        public File getFile() {
+            return file;
+        }
+    }
+
+    public PromptBudget(IModelProvider provider) {
+        this.model = provider.getFriendlyName();
+        this.encoding = provider.getTokenEncoding();
+        this.contextWindow = provider.getContextWindow();
+    }
+
+    public PromptBudget addSection(String label, String text) {
+        sections.add(new Entry(label, TokenCounter.getInstance().count(text, encoding), null));
+        return this;
+    }
+
+    /**
+     * Adds a file whose content goes into the prompt, plus the text framing it there.
+     */
+    public PromptBudget addFile(String label, File file, String framing) {
+        TokenCounter counter = TokenCounter.getInstance();
+        files.add(new Entry(label, counter.countFile(file, encoding) + counter.count(framing, encoding), file));
+        return this;
+    }
+
+    public List<Entry> getSections() {
+        return Collections.unmodifiableList(sections);
+    }
+
+    /**
+     * The measured files, largest first.
+     */
+    public List<Entry> getFiles() {
+        List<Entry> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparingInt(Entry::getTokens).reversed());
+        return sorted;
+    }
+
+    public int getTotal() {
+        int total = 0;
+        for (Entry entry : sections) {
+            total += entry.tokens;
+        }
+        for (Entry entry : files) {
+            total += entry.tokens;
+        }
+        return total;
+    }
+
+    public int getOutputReserve() {
+        return Math.min(MAX_OUTPUT_RESERVE, contextWindow / 4);
+    }
+
+    /**
+     * Prompt tokens the model accepts once the output reserve is held back.
+     */
+    public int getLimit() {
+        return contextWindow - getOutputReserve();
+    }
+
+    public boolean fits() {
+        return getTotal() <= getLimit();
+    }
+
+    /**
+     * The fewest files, largest first, whose removal brings the prompt within the limit; all files if even that
+     * is not enough.
+     */
+    public List<File> planTrim() {
+        List<File> trimmed = new ArrayList<>();
+        int total = getTotal();
+        for (Entry entry : getFiles()) {
+            if (total <= getLimit()) {
+                break;
+            }
+            trimmed.add(entry.file);
+            total -= entry.tokens;
+        }
+        return trimmed;
+    }
+
+    /**
+     * Tokens saved by dropping {@code trimmed}.
+     */
+    public int tokensOf(List<File> trimmed) {
+        int tokens = 0;
+        for (Entry entry : files) {
+            if (trimmed.contains(entry.file)) {
+                tokens += entry.tokens;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * A table of the breakdown, listing at most {@code maxFiles} of the largest files.
+     */
+    public String describe(int maxFiles) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("~%,d of %,d prompt tokens for %s (%,d window, %,d held back for the response)%n",
+                getTotal(), getLimit(), model, contextWindow, getOutputReserve()));
+        for (Entry entry : sections) {
+            sb.append(String.format("  %,9d  %s%n", entry.tokens, entry.label));
+        }
+        List<Entry> sorted = getFiles();
+        int fileTotal = 0;
+        for (Entry entry : sorted) {
+            fileTotal += entry.tokens;
+        }
+        sb.append(String.format("  %,9d  Files (%d)%n", fileTotal, sorted.size()));
+        for (int i = 0; i < sorted.size() && i < maxFiles; i++) {
+            sb.append(String.format("  %,9d    %s%n", sorted.get(i).tokens, sorted.get(i).label));
+        }
+        if (sorted.size() > maxFiles) {
+            sb.append(String.format("             ... %d more%n", sorted.size() - maxFiles));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package io.improt.vai.llm.tokens;
+
+import io.improt.vai.mapping.FileFingerprintCache;
+import io.improt.vai.util.XXHash64;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Estimates token counts locally, before a prompt is sent.
+ *
+ * Text is split the way the GPT tokenizers pre-tokenize it (words with their leading space, camelCase humps,
+ * digit groups of up to three, punctuation runs, whitespace runs), and each piece is costed by its length: common
+ * words are one token, long identifiers a token per few letters, CJK text a token per character. Without the
+ * vocabularies themselves this is an estimate; it leans high, the safe side for telling whether a prompt fits.
+ *
+ * File counts are cached by XXH64 content hash, and unchanged files are recognised by their fingerprint, so
+ * re-measuring an unchanged workspace reads nothing.
+ */
+public class TokenCounter {
+
+    private static final int MAX_CACHED_FILES = 4096;
+
+    private static final Pattern PIECES = Pattern.compile(
+            "'(?i:[sdmt]|ll|ve|re)"
+                    + "| ?\\p{Lu}*\\p{Ll}+"
+                    + "| ?\\p{Lu}+(?!\\p{Ll})"
+                    + "| ?\\p{L}+"
+                    + "| ?\\p{N}{1,3}"
+                    + "| ?[^\\s\\p{L}\\p{N}]+"
+                    + "|\\s*[\\r\\n]+"
+                    + "|\\s+(?!\\S)"
+                    + "|\\s+");
+
+    private static final TokenCounter INSTANCE = new TokenCounter();
+
+    /** Content hash and encoding to token count, least recently used first. */
+    private final LinkedHashMap<String, Integer> fileCounts = new LinkedHashMap<String, Integer>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_CACHED_FILES;
+        }
+    };
+
+    public static TokenCounter getInstance() {
+        return INSTANCE;
+    }
+
+    public int count(String text, TokenEncoding encoding) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        double tokens = 0;
+        Matcher matcher = PIECES.matcher(text);
+        while (matcher.find()) {
+            tokens += piece(text, matcher.start(), matcher.end(), encoding);
+        }
+        return (int) Math.ceil(tokens * encoding.scale);
+    }
+
+    private static int piece(String text, int start, int end, TokenEncoding encoding) {
+        char first = text.charAt(start);
+        if (Character.isWhitespace(first) && (end - start == 1 || Character.isWhitespace(text.charAt(end - 1)))) {
+            // Newline and indentation runs merge into one token.
+            return 1;
+        }
+        if (first == ' ') {
+            start++;
+        }
+        char c = text.charAt(start);
+        int length = end - start;
+        if (Character.isLetter(c)) {
+            if (c >= 0x2E80) {
+                // CJK and other large scripts: roughly a token per character.
+                return length;
+            }
+            return (length + encoding.wordPieceChars - 1) / encoding.wordPieceChars;
+        }
+        if (Character.isDigit(c)) {
+            return 1;
+        }
+        return (length + 1) / 2;
+    }
+
+    /**
+     * The token count of a file's content, cached by its content hash. The hash comes from
+     * {@link FileFingerprintCache}, so a file whose size, mtime and inode are unchanged is not read at all on a hit.
+     * Unreadable files count as empty.
+     */
+    public int countFile(File file, TokenEncoding encoding) {
+        String hash = FileFingerprintCache.getInstance().hash(file);
+        if (hash.isEmpty()) {
+            return 0;
+        }
+        synchronized (fileCounts) {
+            Integer cached = fileCounts.get(encoding + ":" + hash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            System.err.println("[TokenCounter] Unable to read " + file.getAbsolutePath() + ": " + e.getMessage());
+            return 0;
+        }
+        // The file may have changed since it was fingerprinted; key the count by the bytes actually counted.
+        XXHash64 hasher = new XXHash64();
+        hasher.update(bytes, 0, bytes.length);
+        int count = count(new String(bytes, StandardCharsets.UTF_8), encoding);
+        synchronized (fileCounts) {
+            fileCounts.put(encoding + ":" + hasher.getHexValue(), count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,24 @@
+package io.improt.vai.llm.tokens;
+
+/**
+ * The tokenizer family a model's prompt is counted with. Each family has its own average word-piece length and a
+ * scale for how much more finely it splits than {@link #O200K}.
+ */
+public enum TokenEncoding {
+    /** GPT-4o, GPT-4.1 and the o-series. */
+    O200K(6, 1.0),
+    /** GPT-4 and GPT-3.5. */
+    CL100K(5, 1.0),
+    CLAUDE(5, 1.15),
+    GEMINI(6, 1.05),
+    /** Open-weight models with unknown vocabularies; errs high. */
+    GENERIC(4, 1.1);
+
+    final int wordPieceChars;
+    final double scale;
+
+    TokenEncoding(int wordPieceChars, double scale) {
+        this.wordPieceChars = wordPieceChars;
+        this.scale = scale;
+    }
+}
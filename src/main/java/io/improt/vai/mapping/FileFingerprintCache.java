@@ -0,0 +1,226 @@
+package io.improt.vai.mapping;
+
+import io.improt.vai.util.XXHash64;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of content hashes keyed by (path, size, lastModified, inode).
+ * A file whose attributes match the cached fingerprint is not re-read. Otherwise it is streamed
+ * through a per-thread direct buffer into XXH64.
+ */
+public class FileFingerprintCache {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Files modified this close to the moment they were hashed may have been written again within the
+     * same mtime tick, so their fingerprint is not trusted on the next lookup (same idea as git's "racily clean").
+     */
+    private static final long RACY_WINDOW_MS = 2000;
+
+    private static final FileFingerprintCache INSTANCE = new FileFingerprintCache();
+
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private static final ThreadLocal<XXHash64> HASHER = ThreadLocal.withInitial(XXHash64::new);
+
+    private final Map<String, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+    private final AtomicLong filesHashed = new AtomicLong();
+    private final AtomicLong fastPathHits = new AtomicLong();
+
+    public static FileFingerprintCache getInstance() {
+        return INSTANCE;
+    }
+
+    public static class Fingerprint {
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+        private final long hashedAt;
+        private final String hash;
+
+        public Fingerprint(long size, long lastModified, String fileKey, long hashedAt, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.hashedAt = hashedAt;
+            this.hash = hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getFileKey() {
+            return fileKey;
+        }
+
+        public long getHashedAt() {
+            return hashedAt;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size()
+                    && lastModified == attrs.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, fileKeyOf(attrs))
+                    && hashedAt - lastModified > RACY_WINDOW_MS;
+        }
+
+        public JSONObject toJson() {
+            JSONObject obj = new JSONObject();
+            obj.put("size", size);
+            obj.put("lastModified", lastModified);
+            obj.put("fileKey", fileKey == null ? JSONObject.NULL : fileKey);
+            obj.put("hashedAt", hashedAt);
+            return obj;
+        }
+
+        /**
+         * Rebuilds a fingerprint from {@link #toJson()} output. The hash is stored separately (as the mapping's md5sum).
+         */
+        public static Fingerprint fromJson(JSONObject obj, String hash) {
+            if (obj == null || hash == null || hash.isEmpty()) {
+                return null;
+            }
+            return new Fingerprint(
+                    obj.optLong("size", -1),
+                    obj.optLong("lastModified", -1),
+                    obj.isNull("fileKey") ? null : obj.optString("fileKey", null),
+                    obj.optLong("hashedAt", 0),
+                    hash);
+        }
+    }
+
+    /**
+     * Returns the content hash of the file, reading it only if its size, mtime or inode changed
+     * since it was last hashed. Returns an empty string if the file cannot be read.
+     */
+    public String hash(File file) {
+        try {
+            return hash(file, Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+        } catch (IOException e) {
+            System.err.println("[FileFingerprintCache] Failed to hash " + file.getAbsolutePath() + ": " + e.getMessage());
+            fingerprints.remove(file.getAbsolutePath());
+            return "";
+        }
+    }
+
+    /**
+     * Same as {@link #hash(File)}, for callers (like the workspace scanner) that already hold the file's attributes.
+     */
+    public String hash(File file, BasicFileAttributes attrs) {
+        String key = file.getAbsolutePath();
+        Fingerprint cached = fingerprints.get(key);
+        if (cached != null && cached.matches(attrs)) {
+            fastPathHits.incrementAndGet();
+            return cached.getHash();
+        }
+        filesHashed.incrementAndGet();
+        try {
+            long hashedAt = System.currentTimeMillis();
+            String hash = streamHash(file.toPath());
+            fingerprints.put(key, new Fingerprint(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKeyOf(attrs), hashedAt, hash));
+            return hash;
+        } catch (IOException e) {
+            System.err.println("[FileFingerprintCache] Failed to hash " + key + ": " + e.getMessage());
+            fingerprints.remove(key);
+            return "";
+        }
+    }
+
+    /**
+     * The fingerprint last recorded for this path, or null. Used to persist fingerprints alongside mappings.
+     */
+    public Fingerprint lookup(String absolutePath) {
+        return fingerprints.get(absolutePath);
+    }
+
+    /**
+     * Seeds the cache from persisted data so a fresh session can skip hashing unchanged files.
+     */
+    public void remember(String absolutePath, Fingerprint fingerprint) {
+        if (absolutePath != null && fingerprint != null) {
+            fingerprints.putIfAbsent(absolutePath, fingerprint);
+        }
+    }
+
+    public void forget(String absolutePath) {
+        if (absolutePath != null) {
+            fingerprints.remove(absolutePath);
+        }
+    }
+
+    public long getFilesHashed() {
+        return filesHashed.get();
+    }
+
+    public long getFastPathHits() {
+        return fastPathHits.get();
+    }
+
+    private static String streamHash(Path path) throws IOException {
+        ByteBuffer buffer = READ_BUFFER.get();
+        XXHash64 hasher = HASHER.get();
+        hasher.reset();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                hasher.update(buffer);
+                buffer.clear();
+            }
+        }
+        return hasher.getHexValue();
+    }
+
+    /**
+     * Streaming MD5, only kept to recognise mappings persisted before the switch to XXH64.
+     */
+    public static String legacyMd5(File file) {
+        ByteBuffer buffer = READ_BUFFER.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+            return XXHash64.toHex(md.digest());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            e.printStackTrace();
+        }
+        return "";
+    }
+
+    public static boolean isLegacyMd5(String hash) {
+        return hash != null && hash.length() == 32;
+    }
+
+    private static String fileKeyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? null : key.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package io.improt.vai.mapping;
+
+import io.improt.vai.util.Constants;
+import io.improt.vai.util.DiskLruCache;
+import io.improt.vai.util.XXHash64;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mappings shared by every workspace, addressed by file content rather than path. A copied, moved or vendored
+ * file whose content was already mapped anywhere reuses that mapping instead of costing another LLM call.
+ *
+ * Entries live under {@code ~/.vai/mapping-cache/<xx>/<key>.txt}. The key folds in the prompt/model version, so
+ * changing the mapping prompt naturally misses old entries, which then age out. Eviction is LRU, bounded by total
+ * bytes and entry count; see {@link DiskLruCache}.
+ */
+public class GlobalMappingCache {
+
+    private static final long MAX_TOTAL_BYTES = 256L * 1024 * 1024;
+    private static final int MAX_ENTRIES = 100_000;
+
+    private static final GlobalMappingCache INSTANCE = new GlobalMappingCache(new File(Constants.VAI_HOME_DIR, "mapping-cache"));
+
+    private final DiskLruCache entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    GlobalMappingCache(File cacheDir) {
+        this.entries = new DiskLruCache(cacheDir, ".txt", true, MAX_ENTRIES, MAX_TOTAL_BYTES, 0, "GlobalMappingCache");
+    }
+
+    public static GlobalMappingCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Builds a cache key. The byte length is included next to the 64-bit content hash so that a collision
+     * would also need an identical size before one file could pick up another's mapping.
+     *
+     * @return The key, or null if there is no content hash (the file could not be read), since every unreadable
+     *         file of the same size would otherwise share one entry. {@link #get} and {@link #put} ignore null keys.
+     */
+    public static String keyFor(String contentHash, long sizeBytes, String version) {
+        if (contentHash == null || contentHash.isEmpty()) {
+            return null;
+        }
+        return contentHash + "-" + Long.toHexString(sizeBytes) + "-" + version;
+    }
+
+    /**
+     * Short, stable fingerprint of whatever produces a mapping (model name, system prompt, ...).
+     */
+    public static String versionOf(String... parts) {
+        XXHash64 hasher = new XXHash64();
+        for (String part : parts) {
+            byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+            hasher.update(bytes, 0, bytes.length);
+            hasher.update(new byte[]{0}, 0, 1);
+        }
+        return hasher.getHexValue().substring(0, 8);
+    }
+
+    public String get(String key) {
+        if (key == null) {
+            return null;
+        }
+        byte[] bytes = entries.get(key);
+        if (bytes == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public void put(String key, String mapping) {
+        if (key == null || mapping == null || mapping.isEmpty()) {
+            return;
+        }
+        entries.put(key, mapping.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return entries.getEvictions();
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getTotalBytes() {
+        return entries.getTotalBytes();
+    }
+
+    public String getStatsSummary() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return String.format("%d hits / %d lookups (%.1f%%), %d entries, %d KB, %d evicted",
+                h, total, total == 0 ? 0.0 : 100.0 * h / total, getEntryCount(), getTotalBytes() / 1024, getEvictions());
+    }
+}
@@ -0,0 +1,85 @@
+package io.improt.vai.mapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects small items into batches bounded by a token budget and an item count. A batch is flushed as soon
+ * as the next item would not fit, or after a short linger so a lone small file is not held back.
+ */
+class MappingBatcher<T> {
+
+    interface Sizer<T> {
+        long estimateTokens(T item);
+    }
+
+    private static final ScheduledExecutorService LINGER_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "MappingBatcher-linger");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long tokenBudget;
+    private final int maxItems;
+    private final long lingerMs;
+    private final Sizer<T> sizer;
+    private final Consumer<List<T>> flushAction;
+
+    private List<T> pending = new ArrayList<>();
+    private long pendingTokens;
+    private ScheduledFuture<?> lingerFlush;
+
+    MappingBatcher(long tokenBudget, int maxItems, long lingerMs, Sizer<T> sizer, Consumer<List<T>> flushAction) {
+        this.tokenBudget = tokenBudget;
+        this.maxItems = maxItems;
+        this.lingerMs = lingerMs;
+        this.sizer = sizer;
+        this.flushAction = flushAction;
+    }
+
+    void add(T item) {
+        List<T> full = null;
+        long tokens = sizer.estimateTokens(item);
+        synchronized (this) {
+            if (!pending.isEmpty() && (pendingTokens + tokens > tokenBudget || pending.size() >= maxItems)) {
+                full = takePending();
+            }
+            pending.add(item);
+            pendingTokens += tokens;
+            if (lingerFlush == null) {
+                lingerFlush = LINGER_TIMER.schedule(this::flush, lingerMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            flushAction.accept(full);
+        }
+    }
+
+    void flush() {
+        List<T> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                lingerFlush = null;
+                return;
+            }
+            batch = takePending();
+        }
+        flushAction.accept(batch);
+    }
+
+    private List<T> takePending() {
+        List<T> batch = pending;
+        pending = new ArrayList<>();
+        pendingTokens = 0;
+        if (lingerFlush != null) {
+            lingerFlush.cancel(false);
+            lingerFlush = null;
+        }
+        return batch;
+    }
+}
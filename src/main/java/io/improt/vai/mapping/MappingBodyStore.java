@@ -0,0 +1,249 @@
+package io.improt.vai.mapping;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only storage for mapping bodies, so the mapping index can stay small on heap.
+ *
+ * Bodies are appended as raw UTF-8 to {@code class_mappings.json.bodies.<generation>} and referenced from the
+ * mapping records by generation, offset and length. Reads go through a read-only memory map of the generation file,
+ * remapped when an offset lies past the mapped end. Compacting means rolling to a fresh generation, copying the
+ * live bodies over, journaling the new references and only then deleting the old generations. Bodies are forced
+ * to disk before any record referencing them is journaled.
+ */
+public class MappingBodyStore {
+
+    private static final String BODIES_SUFFIX = ".bodies.";
+
+    private static final Map<String, MappingBodyStore> STORES = new ConcurrentHashMap<>();
+
+    private final File snapshotFile;
+    private final Map<Integer, MappedByteBuffer> mapped = new HashMap<>();
+    private final Map<Integer, Long> knownLengths = new HashMap<>();
+    private int generation;
+    private FileChannel writeChannel;
+
+    public static class BodyRef {
+        private final int generation;
+        private final long offset;
+        private final int length;
+
+        public BodyRef(int generation, long offset, int length) {
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public JSONObject toJson() {
+            JSONObject obj = new JSONObject();
+            obj.put("gen", generation);
+            obj.put("offset", offset);
+            obj.put("length", length);
+            return obj;
+        }
+
+        public static BodyRef fromJson(JSONObject obj) {
+            if (obj == null || !obj.has("offset") || !obj.has("length")) {
+                return null;
+            }
+            return new BodyRef(obj.optInt("gen", 0), obj.getLong("offset"), obj.getInt("length"));
+        }
+    }
+
+    private MappingBodyStore(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        for (int existing : listGenerations().keySet()) {
+            generation = Math.max(generation, existing);
+        }
+    }
+
+    public static MappingBodyStore forSnapshot(File snapshotFile) {
+        return STORES.computeIfAbsent(snapshotFile.getAbsolutePath(), k -> new MappingBodyStore(snapshotFile));
+    }
+
+    /**
+     * Appends a body and forces it to disk, so a journal record written after this never points at a lost body.
+     */
+    public synchronized BodyRef append(String body) {
+        BodyRef ref = appendWithoutSync(body);
+        return ref != null && sync() ? ref : null;
+    }
+
+    /**
+     * Appends without forcing; callers writing many bodies call {@link #sync()} once before journaling any of them.
+     */
+    synchronized BodyRef appendWithoutSync(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (writeChannel == null) {
+                writeChannel = FileChannel.open(generationFile(generation).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            long offset = writeChannel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                writeChannel.write(buffer);
+            }
+            knownLengths.merge(generation, offset + bytes.length, Math::max);
+            return new BodyRef(generation, offset, bytes.length);
+        } catch (IOException e) {
+            System.err.println("[MappingBodyStore] Failed to append to " + generationFile(generation).getAbsolutePath() + ": " + e.getMessage());
+            closeWriterQuietly();
+            return null;
+        }
+    }
+
+    synchronized boolean sync() {
+        if (writeChannel == null) {
+            return true;
+        }
+        try {
+            writeChannel.force(false);
+            return true;
+        } catch (IOException e) {
+            System.err.println("[MappingBodyStore] Failed to sync " + generationFile(generation).getAbsolutePath() + ": " + e.getMessage());
+            closeWriterQuietly();
+            return false;
+        }
+    }
+
+    /**
+     * Whether the body a reference points at is still on disk, without reading it. Generation files only grow
+     * until they are deleted, so a length seen once is remembered.
+     */
+    public synchronized boolean contains(BodyRef ref) {
+        if (ref == null) {
+            return false;
+        }
+        long end = ref.offset + ref.length;
+        Long known = knownLengths.get(ref.generation);
+        if (known != null && known >= end) {
+            return true;
+        }
+        long length = generationFile(ref.generation).length();
+        if (length > 0) {
+            knownLengths.merge(ref.generation, length, Math::max);
+        }
+        return length >= end;
+    }
+
+    public synchronized String read(BodyRef ref) {
+        if (ref == null || ref.length == 0) {
+            return "";
+        }
+        try {
+            MappedByteBuffer buffer = mapped.get(ref.generation);
+            if (buffer == null || buffer.capacity() < ref.offset + ref.length) {
+                try (FileChannel channel = FileChannel.open(generationFile(ref.generation).toPath(), StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                mapped.put(ref.generation, buffer);
+            }
+            if (buffer.capacity() < ref.offset + ref.length) {
+                System.err.println("[MappingBodyStore] Body reference past end of generation " + ref.generation + " for " + snapshotFile.getName());
+                return null;
+            }
+            ByteBuffer slice = buffer.duplicate();
+            slice.position((int) ref.offset);
+            slice.limit((int) ref.offset + ref.length);
+            return StandardCharsets.UTF_8.decode(slice).toString();
+        } catch (IOException e) {
+            System.err.println("[MappingBodyStore] Failed to read body for " + snapshotFile.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Starts a new generation file; later appends go there. Returns the new generation number.
+     */
+    public synchronized int rollGeneration() {
+        closeWriterQuietly();
+        generation++;
+        return generation;
+    }
+
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Total bytes across all generation files, live or not.
+     */
+    public synchronized long getStoredBytes() {
+        long total = 0;
+        for (File file : listGenerations().values()) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    /**
+     * Deletes every generation not in {@code live}, except the one currently written to.
+     * A file that cannot be deleted yet (e.g. still mapped on Windows) is retried on the next call.
+     */
+    public synchronized void deleteGenerationsExcept(Set<Integer> live) {
+        for (Map.Entry<Integer, File> entry : listGenerations().entrySet()) {
+            int gen = entry.getKey();
+            if (gen == generation || live.contains(gen)) {
+                continue;
+            }
+            mapped.remove(gen);
+            knownLengths.remove(gen);
+            if (!entry.getValue().delete()) {
+                System.err.println("[MappingBodyStore] Could not delete old generation " + entry.getValue().getName() + "; will retry later.");
+            }
+        }
+    }
+
+    private File generationFile(int gen) {
+        return new File(snapshotFile.getPath() + BODIES_SUFFIX + gen);
+    }
+
+    private Map<Integer, File> listGenerations() {
+        Map<Integer, File> generations = new HashMap<>();
+        File dir = snapshotFile.getAbsoluteFile().getParentFile();
+        String prefix = snapshotFile.getName() + BODIES_SUFFIX;
+        File[] files = dir != null ? dir.listFiles((d, name) -> name.startsWith(prefix)) : null;
+        if (files == null) {
+            return generations;
+        }
+        for (File file : files) {
+            try {
+                generations.put(Integer.parseInt(file.getName().substring(prefix.length())), file);
+            } catch (NumberFormatException ignored) {
+                // Not one of ours.
+            }
+        }
+        return generations;
+    }
+
+    private void closeWriterQuietly() {
+        if (writeChannel != null) {
+            try {
+                writeChannel.close();
+            } catch (IOException ignored) {
+            }
+            writeChannel = null;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package io.improt.vai.mapping;
+
+import com.anthropic.errors.AnthropicIoException;
+import com.anthropic.errors.AnthropicServiceException;
+import com.openai.errors.OpenAIIoException;
+import com.openai.errors.OpenAIServiceException;
+import io.improt.vai.llm.providers.runtime.GeminiClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide scheduler for mapping LLM calls, shared by every WorkspaceMapper.
+ *
+ * Concurrency is adjusted AIMD-style: it creeps up while calls succeed at normal latency, shrinks a little when
+ * latency climbs, and halves on a 429. Each provider also has a token bucket so a big batch does not blow through
+ * the per-minute budget. Rate-limited and transient failures are retried with jittered exponential backoff
+ * (or the server's Retry-After, if longer). Queued jobs run highest priority first, then smallest file first.
+ */
+public class MappingScheduler {
+
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    /**
+     * A unit of mapping work. {@link #execute()} should throw on LLM/transport errors so the scheduler can decide
+     * whether to retry, and return false if it finished without calling the provider (e.g. a stale job), so the
+     * latency model is not skewed. {@link #onFailed(Exception)} is called once retries are exhausted or the error is fatal.
+     */
+    public interface Job {
+        String getProviderKey();
+
+        long getEstimatedTokens();
+
+        Priority getPriority();
+
+        long getSizeBytes();
+
+        boolean execute() throws Exception;
+
+        void onFailed(Exception e);
+    }
+
+    private static final int MIN_CONCURRENCY = 1;
+    private static final int MAX_CONCURRENCY = 30;
+    private static final int INITIAL_CONCURRENCY = 8;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    private static final long DEFAULT_TOKENS_PER_MINUTE = 200_000;
+    private static final double LATENCY_EWMA_ALPHA = 0.2;
+
+    private static final MappingScheduler INSTANCE = new MappingScheduler();
+
+    private final PriorityBlockingQueue<QueuedJob> queue = new PriorityBlockingQueue<>(64,
+            Comparator.<QueuedJob>comparingInt(q -> q.job.getPriority().ordinal())
+                    .thenComparingLong(q -> q.job.getSizeBytes())
+                    .thenComparingLong(q -> q.sequence));
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger pendingRetries = new AtomicInteger();
+
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService retryTimer;
+    private final Thread dispatcher;
+
+    private final Object limitLock = new Object();
+    private double concurrencyLimit = INITIAL_CONCURRENCY;
+    private int inFlight;
+    private double latencyEwmaMs = -1;
+    private double bestLatencyEwmaMs = Double.MAX_VALUE;
+    private volatile boolean shuttingDown;
+
+    public static MappingScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    private MappingScheduler() {
+        AtomicInteger workerIds = new AtomicInteger();
+        // Core == max with a queue: a slot is released a moment before its thread is free again, so a hand-off
+        // queue could reject the next job. The slots, not the pool, bound how many calls run at once.
+        workers = new ThreadPoolExecutor(MAX_CONCURRENCY, MAX_CONCURRENCY, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "MappingScheduler-worker-" + workerIds.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        workers.allowCoreThreadTimeOut(true);
+        retryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "MappingScheduler-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        dispatcher = new Thread(this::dispatchLoop, "MappingScheduler-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(5, TimeUnit.SECONDS)));
+    }
+
+    public void submit(Job job) {
+        if (shuttingDown) {
+            job.onFailed(new CancellationException("Mapping scheduler is shut down"));
+            return;
+        }
+        queue.offer(new QueuedJob(job, sequence.incrementAndGet()));
+    }
+
+    /**
+     * Overrides the default per-minute token budget for a provider (keyed by model name).
+     */
+    public void setTokensPerMinute(String providerKey, long tokensPerMinute) {
+        bucketFor(providerKey).setTokensPerMinute(tokensPerMinute);
+    }
+
+    public int getConcurrencyLimit() {
+        synchronized (limitLock) {
+            return (int) concurrencyLimit;
+        }
+    }
+
+    public int getQueuedCount() {
+        return queue.size() + pendingRetries.get();
+    }
+
+    /**
+     * Stops accepting work, fails everything still queued, and waits up to {@code timeout} for running calls to finish.
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        if (shuttingDown) return;
+        shuttingDown = true;
+        dispatcher.interrupt();
+        retryTimer.shutdownNow();
+        List<QueuedJob> abandoned = new ArrayList<>();
+        queue.drainTo(abandoned);
+        for (QueuedJob queued : abandoned) {
+            queued.job.onFailed(new CancellationException("Mapping scheduler shut down"));
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(timeout, unit)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatchLoop() {
+        try {
+            while (!shuttingDown) {
+                acquireSlot();
+                QueuedJob queued = null;
+                try {
+                    queued = queue.take();
+                    bucketFor(queued.job.getProviderKey()).acquire(queued.job.getEstimatedTokens());
+                } catch (InterruptedException e) {
+                    releaseSlot();
+                    if (queued != null) {
+                        queued.job.onFailed(new CancellationException("Mapping scheduler shut down"));
+                    }
+                    throw e;
+                }
+                QueuedJob dispatched = queued;
+                try {
+                    workers.execute(() -> runJob(dispatched));
+                } catch (RejectedExecutionException e) {
+                    releaseSlot();
+                    if (shuttingDown) {
+                        dispatched.job.onFailed(new CancellationException("Mapping scheduler shut down"));
+                    } else {
+                        System.err.println("[MappingScheduler] Worker pool rejected a job, requeueing: " + e.getMessage());
+                        queue.offer(dispatched);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runJob(QueuedJob queued) {
+        long start = System.currentTimeMillis();
+        try {
+            if (queued.job.execute()) {
+                onCallSucceeded(System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            handleFailure(queued, e);
+        } finally {
+            releaseSlot();
+        }
+    }
+
+    private void handleFailure(QueuedJob queued, Exception e) {
+        Failure failure = classify(e);
+        if (failure.rateLimited) {
+            onRateLimited(queued.job.getProviderKey(), failure.retryAfterMs);
+        }
+        if (!failure.retryable || queued.attempt >= MAX_ATTEMPTS || shuttingDown) {
+            queued.job.onFailed(e);
+            return;
+        }
+
+        long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (queued.attempt - 1));
+        long delay = Math.max(failure.retryAfterMs, ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+        System.out.println("[MappingScheduler] Attempt " + queued.attempt + " failed (" + e.getMessage() + "), retrying in " + delay + " ms.");
+        QueuedJob retry = new QueuedJob(queued.job, queued.sequence, queued.attempt + 1);
+        pendingRetries.incrementAndGet();
+        try {
+            retryTimer.schedule(() -> {
+                pendingRetries.decrementAndGet();
+                queue.offer(retry);
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (Exception rejected) {
+            pendingRetries.decrementAndGet();
+            queued.job.onFailed(e);
+        }
+    }
+
+    private void acquireSlot() throws InterruptedException {
+        synchronized (limitLock) {
+            while (inFlight >= (int) concurrencyLimit) {
+                limitLock.wait();
+            }
+            inFlight++;
+        }
+    }
+
+    private void releaseSlot() {
+        synchronized (limitLock) {
+            inFlight--;
+            limitLock.notifyAll();
+        }
+    }
+
+    private void onCallSucceeded(long latencyMs) {
+        synchronized (limitLock) {
+            latencyEwmaMs = latencyEwmaMs < 0 ? latencyMs : LATENCY_EWMA_ALPHA * latencyMs + (1 - LATENCY_EWMA_ALPHA) * latencyEwmaMs;
+            bestLatencyEwmaMs = Math.min(bestLatencyEwmaMs, latencyEwmaMs);
+            if (latencyEwmaMs > bestLatencyEwmaMs * 2) {
+                // Provider is queueing us; back off gently before it turns into 429s.
+                concurrencyLimit = Math.max(MIN_CONCURRENCY, concurrencyLimit * 0.9);
+            } else {
+                // Roughly +1 per window of successful calls.
+                concurrencyLimit = Math.min(MAX_CONCURRENCY, concurrencyLimit + 1.0 / concurrencyLimit);
+            }
+            limitLock.notifyAll();
+        }
+    }
+
+    private void onRateLimited(String providerKey, long retryAfterMs) {
+        synchronized (limitLock) {
+            concurrencyLimit = Math.max(MIN_CONCURRENCY, concurrencyLimit / 2);
+        }
+        bucketFor(providerKey).pauseFor(Math.max(retryAfterMs, BASE_BACKOFF_MS));
+        System.out.println("[MappingScheduler] Rate limited by " + providerKey + ", concurrency now " + getConcurrencyLimit());
+    }
+
+    private TokenBucket bucketFor(String providerKey) {
+        return buckets.computeIfAbsent(providerKey == null ? "default" : providerKey, k -> new TokenBucket(DEFAULT_TOKENS_PER_MINUTE));
+    }
+
+    /**
+     * Decides from the HTTP status, whichever provider's exception carries it: 429 is a rate limit, 408 and 5xx are
+     * retried, any other 4xx is permanent. I/O errors without a status are transient.
+     */
+    private static Failure classify(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            int status = statusOf(t);
+            if (status == 429) {
+                return new Failure(true, true, retryAfterOf(t));
+            }
+            if (status > 0) {
+                return new Failure(status == 408 || status >= 500, false, 0);
+            }
+            if (t instanceof OpenAIIoException || t instanceof AnthropicIoException || t instanceof IOException) {
+                return new Failure(true, false, 0);
+            }
+        }
+        return new Failure(false, false, 0);
+    }
+
+    /** The HTTP status of a provider error response, or 0 if {@code t} is not one. */
+    private static int statusOf(Throwable t) {
+        if (t instanceof OpenAIServiceException) {
+            return ((OpenAIServiceException) t).statusCode();
+        }
+        if (t instanceof AnthropicServiceException) {
+            return ((AnthropicServiceException) t).statusCode();
+        }
+        if (t instanceof GeminiClient.GeminiException) {
+            return ((GeminiClient.GeminiException) t).getStatusCode();
+        }
+        return 0;
+    }
+
+    private static long retryAfterOf(Throwable t) {
+        try {
+            List<String> values;
+            if (t instanceof OpenAIServiceException) {
+                values = ((OpenAIServiceException) t).headers().values("retry-after");
+            } else if (t instanceof AnthropicServiceException) {
+                values = ((AnthropicServiceException) t).headers().values("retry-after");
+            } else {
+                return 0;
+            }
+            if (!values.isEmpty()) {
+                return (long) (Double.parseDouble(values.get(0).trim()) * 1000);
+            }
+        } catch (Exception ignored) {
+            // HTTP-date form or missing headers; fall back to our own backoff.
+        }
+        return 0;
+    }
+
+    private static class Failure {
+        final boolean retryable;
+        final boolean rateLimited;
+        final long retryAfterMs;
+
+        Failure(boolean retryable, boolean rateLimited, long retryAfterMs) {
+            this.retryable = retryable;
+            this.rateLimited = rateLimited;
+            this.retryAfterMs = retryAfterMs;
+        }
+    }
+
+    private static class QueuedJob {
+        final Job job;
+        final long sequence;
+        final int attempt;
+
+        QueuedJob(Job job, long sequence) {
+            this(job, sequence, 1);
+        }
+
+        QueuedJob(Job job, long sequence, int attempt) {
+            this.job = job;
+            this.sequence = sequence;
+            this.attempt = attempt;
+        }
+    }
+
+    private static class TokenBucket {
+        private double capacity;
+        private double tokens;
+        private double refillPerMs;
+        private long lastRefill = System.currentTimeMillis();
+        private long pausedUntil;
+
+        TokenBucket(long tokensPerMinute) {
+            setTokensPerMinute(tokensPerMinute);
+            this.tokens = capacity;
+        }
+
+        synchronized void setTokensPerMinute(long tokensPerMinute) {
+            this.capacity = Math.max(1, tokensPerMinute);
+            this.refillPerMs = capacity / 60_000.0;
+            this.tokens = Math.min(tokens, capacity);
+        }
+
+        synchronized void pauseFor(long ms) {
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + ms);
+        }
+
+        void acquire(long requested) throws InterruptedException {
+            while (true) {
+                long waitMs;
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerMs);
+                    lastRefill = now;
+                    // A single oversized request can never fit; let it through on a full bucket.
+                    double needed = Math.min(requested, capacity);
+                    if (now >= pausedUntil && tokens >= needed) {
+                        tokens -= needed;
+                        return;
+                    }
+                    waitMs = Math.max(pausedUntil - now, (long) Math.ceil((needed - tokens) / refillPerMs));
+                }
+                Thread.sleep(Math.max(1, waitMs));
+            }
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package io.improt.vai.mapping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local full-text index over mapping summaries and file identifiers, scored with BM25.
+ *
+ * Postings are positional, so quoted phrases in a query ("token bucket") only match documents containing the
+ * words next to each other. A camelCase identifier is indexed as its parts plus the whole word, which shares the
+ * position of its first part, so the extra term does not shift the words after it and {@code TokenBucket limiter}
+ * matches "token bucket limiter". Identifier terms (path, file name) are indexed once and weighted when scored. The index lives in memory and is saved to {@code class_mappings.index} a few seconds
+ * after the last change. Each document remembers the content hash its mapping was made from, so on startup only
+ * mappings that changed since the last save are re-indexed.
+ */
+public class MappingSearchIndex {
+
+    public static final String INDEX_FILENAME = "class_mappings.index";
+
+    private static final int MAGIC = 0x56414958; // "VAIX"
+    private static final int FORMAT_VERSION = 2;
+    private static final long SAVE_DELAY_SECONDS = 5;
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    /** An identifier term (path, file name) counts this many times towards its frequency, so a name match outranks a passing mention. */
+    private static final int IDENTIFIER_BOOST = 3;
+
+    private static final Pattern PHRASE_PATTERN = Pattern.compile("\"([^\"]+)\"");
+
+    private static final ScheduledExecutorService SAVER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "MappingSearchIndex-saver");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File indexFile;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Doc> docsByPath = new HashMap<>();
+    private final Map<Integer, Doc> docsById = new HashMap<>();
+    /** term -> docId -> ascending positions */
+    private final Map<String, Map<Integer, int[]>> postings = new HashMap<>();
+    private final AtomicBoolean saveQueued = new AtomicBoolean(false);
+    private long totalLength;
+    private int nextDocId;
+
+    private static class Doc {
+        private final int id;
+        private final String path;
+        private final String contentHash;
+        /** Weighted term count, identifier terms counting {@link #IDENTIFIER_BOOST} times. */
+        private final int length;
+        /** Positions below this are identifier terms; the mapping text follows. */
+        private final int identifierEnd;
+        private final Set<String> terms;
+
+        Doc(int id, String path, String contentHash, int length, int identifierEnd, Set<String> terms) {
+            this.id = id;
+            this.path = path;
+            this.contentHash = contentHash;
+            this.length = length;
+            this.identifierEnd = identifierEnd;
+            this.terms = terms;
+        }
+
+        /** Weighted frequency of a term occurring at {@code positions}. */
+        double termFrequency(int[] positions) {
+            int found = Arrays.binarySearch(positions, identifierEnd);
+            int identifierCount = found >= 0 ? found : -found - 1;
+            return identifierCount * (double) IDENTIFIER_BOOST + (positions.length - identifierCount);
+        }
+    }
+
+    /** Receives each term of a text with its position. */
+    private interface TermSink {
+        void accept(String term, int position);
+    }
+
+    /** The terms of a quoted query phrase, each with its offset from the start of the phrase. */
+    private static class Phrase {
+        private final List<String> terms = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+    }
+
+    public static class SearchHit {
+        private final String path;
+        private final double score;
+
+        SearchHit(String path, double score) {
+            this.path = path;
+            this.score = score;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    private MappingSearchIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Loads the index saved at {@code indexFile}, or starts an empty one if it is missing or unreadable.
+     */
+    public static MappingSearchIndex load(File indexFile) {
+        MappingSearchIndex index = new MappingSearchIndex(indexFile);
+        if (indexFile.exists()) {
+            try {
+                index.read();
+            } catch (IOException e) {
+                System.err.println("[MappingSearchIndex] Discarding unreadable index " + indexFile.getAbsolutePath() + ": " + e.getMessage());
+                index.clear();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * True if {@code path} is indexed from the mapping made for {@code contentHash}.
+     */
+    public boolean isCurrent(String path, String contentHash) {
+        lock.readLock().lock();
+        try {
+            Doc doc = docsByPath.get(path);
+            return doc != null && doc.contentHash.equals(contentHash);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void update(String path, String contentHash, String identifiers, String mappingText) {
+        Map<String, List<Integer>> positions = new HashMap<>();
+        int[] counts = new int[2];
+        TermSink identifierSink = (term, position) -> {
+            positions.computeIfAbsent(term, k -> new ArrayList<>()).add(position);
+            counts[0]++;
+        };
+        TermSink textSink = (term, position) -> {
+            positions.computeIfAbsent(term, k -> new ArrayList<>()).add(position);
+            counts[1]++;
+        };
+        // One position is left empty between the identifiers and the text so no phrase spans the two.
+        int identifierEnd = tokenize(identifiers, 0, identifierSink) + 1;
+        tokenize(mappingText, identifierEnd, textSink);
+        int length = counts[0] * IDENTIFIER_BOOST + counts[1];
+
+        lock.writeLock().lock();
+        try {
+            removeLocked(path);
+            Doc doc = new Doc(nextDocId++, path, contentHash == null ? "" : contentHash, length, identifierEnd, new HashSet<>(positions.keySet()));
+            docsByPath.put(path, doc);
+            docsById.put(doc.id, doc);
+            totalLength += doc.length;
+            for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+                List<Integer> list = entry.getValue();
+                int[] array = new int[list.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = list.get(i);
+                }
+                postings.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(doc.id, array);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleSave();
+    }
+
+    public void remove(String path) {
+        boolean removed;
+        lock.writeLock().lock();
+        try {
+            removed = removeLocked(path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (removed) {
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Drops every document whose path is not in {@code paths}.
+     */
+    public void retainOnly(Collection<String> paths) {
+        Set<String> keep = new HashSet<>(paths);
+        boolean removed = false;
+        lock.writeLock().lock();
+        try {
+            for (String path : new ArrayList<>(docsByPath.keySet())) {
+                if (!keep.contains(path)) {
+                    removed |= removeLocked(path);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (removed) {
+            scheduleSave();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docsByPath.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Best {@code limit} matches for {@code query}, highest score first.
+     */
+    public List<SearchHit> search(String query, int limit) {
+        List<SearchHit> hits = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : score(query).entrySet()) {
+            hits.add(new SearchHit(entry.getKey(), entry.getValue()));
+        }
+        hits.sort((a, b) -> Double.compare(b.score, a.score));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * BM25 scores of every matching document, keyed by path. Documents failing a quoted phrase are excluded.
+     */
+    public Map<String, Double> score(String query) {
+        Map<String, Double> scores = new HashMap<>();
+        List<Phrase> phrases = new ArrayList<>();
+        Matcher matcher = PHRASE_PATTERN.matcher(query == null ? "" : query);
+        while (matcher.find()) {
+            Phrase phrase = new Phrase();
+            tokenize(matcher.group(1), 0, (term, position) -> {
+                phrase.terms.add(term);
+                phrase.offsets.add(position);
+            });
+            if (phrase.terms.size() > 1) {
+                phrases.add(phrase);
+            }
+        }
+        Set<String> queryTerms = new LinkedHashSet<>(tokenize(query));
+        if (queryTerms.isEmpty()) {
+            return scores;
+        }
+
+        lock.readLock().lock();
+        try {
+            int documentCount = docsById.size();
+            if (documentCount == 0) {
+                return scores;
+            }
+            double avgLength = Math.max(1.0, (double) totalLength / documentCount);
+            Map<Integer, Double> byId = new HashMap<>();
+            for (String term : queryTerms) {
+                Map<Integer, int[]> termPostings = postings.get(term);
+                if (termPostings == null) continue;
+                double idf = idf(documentCount, termPostings.size());
+                for (Map.Entry<Integer, int[]> posting : termPostings.entrySet()) {
+                    Doc doc = docsById.get(posting.getKey());
+                    double tf = doc.termFrequency(posting.getValue());
+                    double termScore = idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * doc.length / avgLength));
+                    byId.merge(doc.id, termScore, Double::sum);
+                }
+            }
+            for (Map.Entry<Integer, Double> entry : byId.entrySet()) {
+                int docId = entry.getKey();
+                boolean matchesPhrases = true;
+                for (Phrase phrase : phrases) {
+                    if (!containsPhrase(docId, phrase)) {
+                        matchesPhrases = false;
+                        break;
+                    }
+                }
+                if (matchesPhrases) {
+                    scores.put(docsById.get(docId).path, entry.getValue());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return scores;
+    }
+
+    private boolean containsPhrase(int docId, Phrase phrase) {
+        int[][] positions = new int[phrase.terms.size()][];
+        for (int i = 0; i < positions.length; i++) {
+            Map<Integer, int[]> termPostings = postings.get(phrase.terms.get(i));
+            positions[i] = termPostings != null ? termPostings.get(docId) : null;
+            if (positions[i] == null) {
+                return false;
+            }
+        }
+        for (int start : positions[0]) {
+            boolean match = true;
+            for (int i = 1; i < positions.length && match; i++) {
+                match = Arrays.binarySearch(positions[i], start + phrase.offsets.get(i)) >= 0;
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean removeLocked(String path) {
+        Doc doc = docsByPath.remove(path);
+        if (doc == null) {
+            return false;
+        }
+        docsById.remove(doc.id);
+        totalLength -= doc.length;
+        for (String term : doc.terms) {
+            Map<Integer, int[]> termPostings = postings.get(term);
+            if (termPostings != null) {
+                termPostings.remove(doc.id);
+                if (termPostings.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void clear() {
+        docsByPath.clear();
+        docsById.clear();
+        postings.clear();
+        totalLength = 0;
+        nextDocId = 0;
+    }
+
+    private void scheduleSave() {
+        if (saveQueued.compareAndSet(false, true)) {
+            SAVER.schedule(() -> {
+                saveQueued.set(false);
+                save();
+            }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Writes the index to a temp file and renames it into place.
+     */
+    public void save() {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        lock.readLock().lock();
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(docsById.size());
+            for (Doc doc : docsById.values()) {
+                out.writeInt(doc.id);
+                out.writeUTF(doc.path);
+                out.writeUTF(doc.contentHash);
+                out.writeInt(doc.length);
+                out.writeInt(doc.identifierEnd);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Map<Integer, int[]>> term : postings.entrySet()) {
+                out.writeUTF(term.getKey());
+                out.writeInt(term.getValue().size());
+                for (Map.Entry<Integer, int[]> posting : term.getValue().entrySet()) {
+                    out.writeInt(posting.getKey());
+                    int[] positions = posting.getValue();
+                    writeVarInt(out, positions.length);
+                    int previous = 0;
+                    for (int position : positions) {
+                        writeVarInt(out, position - previous);
+                        previous = position;
+                    }
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("[MappingSearchIndex] Failed to write " + tempFile.getAbsolutePath() + ": " + e.getMessage());
+            return;
+        } finally {
+            lock.readLock().unlock();
+        }
+        try {
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[MappingSearchIndex] Failed to install " + indexFile.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("unknown index format");
+            }
+            int docCount = in.readInt();
+            for (int i = 0; i < docCount; i++) {
+                Doc doc = new Doc(in.readInt(), in.readUTF(), in.readUTF(), in.readInt(), in.readInt(), new HashSet<>());
+                docsById.put(doc.id, doc);
+                docsByPath.put(doc.path, doc);
+                totalLength += doc.length;
+                nextDocId = Math.max(nextDocId, doc.id + 1);
+            }
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = in.readUTF();
+                int postingCount = in.readInt();
+                Map<Integer, int[]> termPostings = new HashMap<>(postingCount * 2);
+                for (int j = 0; j < postingCount; j++) {
+                    int docId = in.readInt();
+                    int[] positions = new int[readVarInt(in)];
+                    int previous = 0;
+                    for (int k = 0; k < positions.length; k++) {
+                        previous += readVarInt(in);
+                        positions[k] = previous;
+                    }
+                    Doc doc = docsById.get(docId);
+                    if (doc != null) {
+                        termPostings.put(docId, positions);
+                        doc.terms.add(term);
+                    }
+                }
+                if (!termPostings.isEmpty()) {
+                    postings.put(term, termPostings);
+                }
+            }
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static double idf(int documentCount, int documentFrequency) {
+        return Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    /**
+     * Lowercased terms of two or more characters. Identifiers are split on camelCase, snake_case and
+     * path separators, and the whole identifier is kept as well.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        tokenize(text, 0, (term, position) -> terms.add(term));
+        return terms;
+    }
+
+    /**
+     * Passes the terms of {@code text} to {@code sink}, numbering positions from {@code start}, and returns the
+     * position after the last one. A whole identifier takes the position of its first part.
+     */
+    private static int tokenize(String text, int start, TermSink sink) {
+        int position = start;
+        if (text == null) {
+            return position;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int wordStart = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i > wordStart) {
+                position = addIdentifier(text.substring(wordStart, i), position, sink);
+            }
+        }
+        return position;
+    }
+
+    private static int addIdentifier(String word, int position, TermSink sink) {
+        int first = position;
+        int partStart = 0;
+        int parts = 0;
+        for (int j = 1; j <= word.length(); j++) {
+            boolean boundary = j == word.length()
+                    || (Character.isUpperCase(word.charAt(j)) && Character.isLowerCase(word.charAt(j - 1)))
+                    || (Character.isDigit(word.charAt(j)) != Character.isDigit(word.charAt(j - 1)));
+            if (boundary) {
+                if (addTerm(word.substring(partStart, j), position, sink)) {
+                    position++;
+                }
+                partStart = j;
+                parts++;
+            }
+        }
+        if (parts > 1 && addTerm(word, first, sink) && position == first) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean addTerm(String term, int position, TermSink sink) {
+        if (term.length() < 2) {
+            return false;
+        }
+        sink.accept(term.toLowerCase(Locale.ROOT), position);
+        return true;
+    }
+}
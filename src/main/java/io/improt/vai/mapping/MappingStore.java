@@ -0,0 +1,293 @@
+package io.improt.vai.mapping;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Journaled persistence for class mappings.
+ *
+ * The snapshot is the regular class_mappings.json array. Every change after it is appended as one JSON line
+ * to a sibling journal ({@code class_mappings.json.journal}), so a finished mapping costs one small append instead
+ * of rewriting the whole file. A shared background thread periodically folds the journal back into the snapshot,
+ * writing a temp file and renaming it over the old one so a crash never leaves a half-written snapshot.
+ *
+ * Compaction first rotates the journal to {@code .compacting}. Readers replay snapshot, then {@code .compacting},
+ * then the live journal; records are whole-file states, so replaying twice after a crash is harmless. A
+ * {@code .compacting} file left by a compaction that failed is folded in before the next rotation, never replaced,
+ * and the journal is fsynced before it is rotated.
+ */
+public class MappingStore {
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int COMPACT_AFTER_RECORDS = 500;
+    private static final long COMPACT_AFTER_BYTES = 4L * 1024 * 1024;
+    private static final long PERIODIC_COMPACTION_SECONDS = 60;
+
+    private static final Map<String, MappingStore> STORES = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService COMPACTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "MappingStore-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final File compactingFile;
+    private final Object journalLock = new Object();
+    private final AtomicBoolean compactionQueued = new AtomicBoolean(false);
+
+    private Writer journalWriter;
+    private int recordsSinceCompaction;
+
+    private MappingStore(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = new File(snapshotFile.getPath() + JOURNAL_SUFFIX);
+        this.compactingFile = new File(snapshotFile.getPath() + COMPACTING_SUFFIX);
+
+        // A leftover .compacting file means the last compaction died before finishing; fold it in now.
+        if (compactingFile.exists()) {
+            compactRotated();
+        }
+        if (journalFile.exists() && journalFile.length() > 0) {
+            requestCompaction();
+        }
+        COMPACTOR.scheduleWithFixedDelay(this::compactIfDirty, PERIODIC_COMPACTION_SECONDS, PERIODIC_COMPACTION_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * One store per snapshot file, so every WorkspaceMapper for a workspace appends to the same journal.
+     */
+    public static MappingStore forSnapshot(File snapshotFile) {
+        return STORES.computeIfAbsent(snapshotFile.getAbsolutePath(), k -> new MappingStore(snapshotFile));
+    }
+
+    /**
+     * Reads the current state: snapshot plus any journal entries, keyed by path in snapshot order.
+     */
+    public Map<String, JSONObject> load() {
+        synchronized (journalLock) {
+            flushQuietly();
+            return readRecords(snapshotFile);
+        }
+    }
+
+    public void put(JSONObject record) {
+        append(record);
+    }
+
+    public void remove(String path) {
+        JSONObject record = new JSONObject();
+        record.put("op", "remove");
+        record.put("path", path);
+        append(record);
+    }
+
+    private void append(JSONObject record) {
+        boolean compactNow;
+        synchronized (journalLock) {
+            try {
+                if (journalWriter == null) {
+                    journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+                }
+                journalWriter.write(record.toString());
+                journalWriter.write('\n');
+                journalWriter.flush();
+            } catch (IOException e) {
+                System.err.println("[MappingStore] Failed to append to " + journalFile.getAbsolutePath() + ": " + e.getMessage());
+                closeJournalQuietly();
+                return;
+            }
+            recordsSinceCompaction++;
+            compactNow = recordsSinceCompaction >= COMPACT_AFTER_RECORDS || journalFile.length() >= COMPACT_AFTER_BYTES;
+        }
+        if (compactNow) {
+            requestCompaction();
+        }
+    }
+
+    public void requestCompaction() {
+        if (compactionQueued.compareAndSet(false, true)) {
+            COMPACTOR.execute(() -> {
+                compactionQueued.set(false);
+                compact();
+            });
+        }
+    }
+
+    private void compactIfDirty() {
+        synchronized (journalLock) {
+            if (recordsSinceCompaction == 0 && !(journalFile.exists() && journalFile.length() > 0)) {
+                return;
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Only ever runs on the compactor thread (or the constructor, before the store is published).
+     */
+    private void compact() {
+        // A .compacting file left by a failed compaction holds records that are in neither the snapshot nor the
+        // live journal. Fold it in first, and never rotate over it.
+        if (compactingFile.exists()) {
+            compactRotated();
+            if (compactingFile.exists()) {
+                return;
+            }
+        }
+        synchronized (journalLock) {
+            if (!journalFile.exists() || journalFile.length() == 0) {
+                recordsSinceCompaction = 0;
+                return;
+            }
+            closeJournalQuietly();
+            try {
+                fsync(journalFile);
+                Files.move(journalFile.toPath(), compactingFile.toPath());
+            } catch (IOException e) {
+                System.err.println("[MappingStore] Failed to rotate journal " + journalFile.getAbsolutePath() + ": " + e.getMessage());
+                return;
+            }
+            recordsSinceCompaction = 0;
+        }
+        compactRotated();
+    }
+
+    private void compactRotated() {
+        Map<String, JSONObject> state = new LinkedHashMap<>();
+        readSnapshot(snapshotFile, state);
+        replayJournal(compactingFile, state);
+
+        File tempFile = new File(snapshotFile.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tempFile);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            new JSONArray(state.values()).write(writer, 4, 0);
+            writer.flush();
+            out.getFD().sync();
+        } catch (IOException | JSONException e) {
+            System.err.println("[MappingStore] Failed to write snapshot " + tempFile.getAbsolutePath() + ": " + e.getMessage());
+            return;
+        }
+        try {
+            try {
+                Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (java.nio.file.AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.deleteIfExists(compactingFile.toPath());
+        } catch (IOException e) {
+            System.err.println("[MappingStore] Failed to install snapshot " + snapshotFile.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    private static void fsync(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private void flushQuietly() {
+        if (journalWriter != null) {
+            try {
+                journalWriter.flush();
+            } catch (IOException e) {
+                closeJournalQuietly();
+            }
+        }
+    }
+
+    private void closeJournalQuietly() {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException ignored) {
+            }
+            journalWriter = null;
+        }
+    }
+
+    /**
+     * Reads a snapshot file together with its journals, without needing a store instance.
+     * Works for plain class_mappings.json files that have never had a journal.
+     */
+    public static Map<String, JSONObject> readRecords(File snapshotFile) {
+        Map<String, JSONObject> state = new LinkedHashMap<>();
+        readSnapshot(snapshotFile, state);
+        replayJournal(new File(snapshotFile.getPath() + COMPACTING_SUFFIX), state);
+        replayJournal(new File(snapshotFile.getPath() + JOURNAL_SUFFIX), state);
+        return state;
+    }
+
+    private static void readSnapshot(File snapshotFile, Map<String, JSONObject> state) {
+        if (!snapshotFile.exists() || snapshotFile.length() == 0) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(snapshotFile.toPath(), StandardCharsets.UTF_8)) {
+            JSONArray jsonArray = new JSONArray(new JSONTokener(reader));
+            for (int i = 0; i < jsonArray.length(); i++) {
+                JSONObject obj = jsonArray.optJSONObject(i);
+                if (obj != null && obj.has("path")) {
+                    state.put(obj.getString("path"), obj);
+                }
+            }
+        } catch (IOException | JSONException e) {
+            System.err.println("[MappingStore] Error reading snapshot " + snapshotFile.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    private static void replayJournal(File journal, Map<String, JSONObject> state) {
+        if (!journal.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(journal.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                JSONObject record;
+                try {
+                    record = new JSONObject(line);
+                } catch (JSONException e) {
+                    // Torn tail from a crash mid-append; everything before it is intact.
+                    System.err.println("[MappingStore] Skipping unreadable journal line in " + journal.getName());
+                    continue;
+                }
+                String path = record.optString("path", null);
+                if (path == null) continue;
+                if ("remove".equals(record.optString("op"))) {
+                    state.remove(path);
+                } else {
+                    state.put(path, record);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[MappingStore] Error replaying journal " + journal.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+}
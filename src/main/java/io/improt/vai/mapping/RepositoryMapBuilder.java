@@ -0,0 +1,238 @@
+package io.improt.vai.mapping;
+
+import io.improt.vai.mapping.WorkspaceMapper.ClassMapping;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Assembles the repository map sent to a model under a token budget.
+ *
+ * Files are ranked by BM25 of the query against each mapping's path and text, plus a boost for files in the
+ * workspace's recently-active list. In rank order, each file is emitted with its full mapping if that fits in what
+ * is left of the budget, and otherwise listed by path only; files that fit neither way are summarised as a count.
+ * With precomputed relevance scores, only the mappings that make it in full are loaded from the body store.
+ */
+public class RepositoryMapBuilder {
+
+    public static final long DEFAULT_TOKEN_BUDGET = 60_000;
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    /** Weight of the recency boost relative to the best BM25 score, which is normalised to 1. */
+    private static final double RECENCY_WEIGHT = 0.35;
+    /** Path segments are repeated so that a query term in a file name outweighs a passing mention in a summary. */
+    private static final int PATH_TERM_BOOST = 3;
+    private static final String OTHER_FILES_HEADER = "OTHER FILES (summaries omitted to fit the context budget):\n";
+
+    private final List<ClassMapping> candidates;
+    private final File referenceWorkspace;
+    private String query = "";
+    private long tokenBudget = DEFAULT_TOKEN_BUDGET;
+    private List<String> recentFiles = new ArrayList<>();
+    private Map<String, Double> relevance;
+
+    public RepositoryMapBuilder(List<ClassMapping> candidates, File referenceWorkspace) {
+        this.candidates = candidates;
+        this.referenceWorkspace = referenceWorkspace;
+    }
+
+    public RepositoryMapBuilder withQuery(String query) {
+        this.query = query != null ? query : "";
+        return this;
+    }
+
+    public RepositoryMapBuilder withTokenBudget(long tokenBudget) {
+        this.tokenBudget = tokenBudget;
+        return this;
+    }
+
+    /**
+     * Most recent first, as stored in recentlyActive.json.
+     */
+    public RepositoryMapBuilder withRecentFiles(List<String> recentFiles) {
+        this.recentFiles = recentFiles != null ? recentFiles : new ArrayList<>();
+        return this;
+    }
+
+    /**
+     * Precomputed relevance scores by path (e.g. from {@link MappingSearchIndex#score}), used instead of
+     * scoring the candidates here.
+     */
+    public RepositoryMapBuilder withRelevance(Map<String, Double> relevance) {
+        this.relevance = relevance;
+        return this;
+    }
+
+    public String build() {
+        Path referencePath = referenceWorkspace != null ? Paths.get(referenceWorkspace.getAbsolutePath()) : null;
+        List<Scored> ranked = rank(referencePath);
+
+        StringBuilder full = new StringBuilder();
+        StringBuilder pathsOnly = new StringBuilder();
+        long used = 0;
+        int fullCount = 0;
+        int pathOnlyCount = 0;
+        int omitted = 0;
+        for (Scored entry : ranked) {
+            String displayPath = WorkspaceMapper.displayPathFor(entry.mapping.getPath(), referencePath);
+            String header = "PATH: " + displayPath + "\n";
+            // Each entry is checked against what is left, so one large summary does not demote every smaller one after it.
+            // The bound is checked first so that a body which cannot fit is never read.
+            if (used + estimateTokens(header.length() + entry.mapping.getMappingLengthBound() + 2L) <= tokenBudget) {
+                String text = entry.text();
+                if (!text.isEmpty()) {
+                    String fullEntry = header + text + "\n\n";
+                    full.append(fullEntry);
+                    used += estimateTokens(fullEntry);
+                    fullCount++;
+                    continue;
+                }
+            }
+            String pathEntry = "- " + displayPath + "\n";
+            long pathCost = estimateTokens(pathOnlyCount == 0 ? OTHER_FILES_HEADER + pathEntry : pathEntry);
+            if (used + pathCost <= tokenBudget) {
+                pathsOnly.append(pathEntry);
+                used += pathCost;
+                pathOnlyCount++;
+            } else {
+                omitted++;
+            }
+        }
+
+        if (pathOnlyCount > 0) {
+            full.append(OTHER_FILES_HEADER).append(pathsOnly);
+        }
+        if (omitted > 0) {
+            full.append("... and ").append(omitted).append(" more files not listed.\n");
+        }
+        System.out.println("[RepositoryMapBuilder] " + fullCount + " full, " + pathOnlyCount + " path-only, " + omitted
+                + " omitted; ~" + used + " of " + tokenBudget + " tokens.");
+        return full.toString();
+    }
+
+    private List<Scored> rank(Path referencePath) {
+        List<Scored> docs = new ArrayList<>();
+        for (ClassMapping cm : candidates) {
+            if (!cm.hasMapping()) continue;
+            docs.add(new Scored(cm));
+        }
+
+        if (relevance != null) {
+            applyRelevance(docs, relevance);
+        } else {
+            Set<String> queryTerms = new LinkedHashSet<>(MappingSearchIndex.tokenize(query));
+            if (!queryTerms.isEmpty() && !docs.isEmpty()) {
+                scoreBm25(docs, queryTerms, referencePath);
+            }
+        }
+
+        Map<String, Integer> recencyRank = new HashMap<>();
+        for (int i = 0; i < recentFiles.size(); i++) {
+            recencyRank.putIfAbsent(recentFiles.get(i), i);
+        }
+        for (Scored doc : docs) {
+            Integer rank = recencyRank.get(doc.mapping.getPath());
+            if (rank != null) {
+                doc.score += RECENCY_WEIGHT * (1.0 - (double) rank / recentFiles.size());
+            }
+        }
+
+        docs.sort(Comparator.comparingDouble((Scored d) -> -d.score).thenComparing(d -> d.mapping.getPath()));
+        return docs;
+    }
+
+    private static void applyRelevance(List<Scored> docs, Map<String, Double> relevance) {
+        double best = 0;
+        for (double score : relevance.values()) {
+            best = Math.max(best, score);
+        }
+        for (Scored doc : docs) {
+            Double score = relevance.get(doc.mapping.getPath());
+            doc.score = score != null && best > 0 ? score / best : 0;
+        }
+    }
+
+    /**
+     * Sets each document's score to its BM25 score divided by the best score, so the recency boost has a fixed scale.
+     */
+    private static void scoreBm25(List<Scored> docs, Set<String> queryTerms, Path referencePath) {
+        List<Map<String, Integer>> termFrequencies = new ArrayList<>(docs.size());
+        Map<String, Integer> documentFrequency = new HashMap<>();
+        long totalLength = 0;
+        for (Scored doc : docs) {
+            List<String> terms = MappingSearchIndex.tokenize(doc.text());
+            List<String> pathTerms = MappingSearchIndex.tokenize(WorkspaceMapper.displayPathFor(doc.mapping.getPath(), referencePath));
+            for (int i = 0; i < PATH_TERM_BOOST; i++) {
+                terms.addAll(pathTerms);
+            }
+            Map<String, Integer> tf = new HashMap<>();
+            for (String term : terms) {
+                if (queryTerms.contains(term)) {
+                    tf.merge(term, 1, Integer::sum);
+                }
+            }
+            for (String term : tf.keySet()) {
+                documentFrequency.merge(term, 1, Integer::sum);
+            }
+            termFrequencies.add(tf);
+            doc.length = terms.size();
+            totalLength += terms.size();
+        }
+
+        double avgLength = Math.max(1.0, (double) totalLength / docs.size());
+        double best = 0;
+        for (int i = 0; i < docs.size(); i++) {
+            Scored doc = docs.get(i);
+            double score = 0;
+            for (Map.Entry<String, Integer> entry : termFrequencies.get(i).entrySet()) {
+                double tf = entry.getValue();
+                score += MappingSearchIndex.idf(docs.size(), documentFrequency.get(entry.getKey()))
+                        * tf * (K1 + 1) / (tf + K1 * (1 - B + B * doc.length / avgLength));
+            }
+            doc.score = score;
+            best = Math.max(best, score);
+        }
+        if (best > 0) {
+            for (Scored doc : docs) {
+                doc.score /= best;
+            }
+        }
+    }
+
+    static long estimateTokens(String text) {
+        return estimateTokens(text.length());
+    }
+
+    private static long estimateTokens(long chars) {
+        // ~4 chars per token, the same rough rate the mapping scheduler budgets with.
+        return (chars + 3) / 4;
+    }
+
+    private static class Scored {
+        private final ClassMapping mapping;
+        private String text;
+        private double score;
+        private int length;
+
+        Scored(ClassMapping mapping) {
+            this.mapping = mapping;
+        }
+
+        /** The mapping text, read from the body store on first use. */
+        String text() {
+            if (text == null) {
+                text = mapping.getMapping();
+            }
+            return text;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package io.improt.vai.mapping;
 
 import io.improt.vai.backend.App;
-import io.improt.vai.mapping.WorkspaceMapper; // For hasValidExtension
+import io.improt.vai.util.WorkspaceScanner;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -146,40 +146,22 @@ public class SubWorkspace {
         }
 
         Set<String> uniquePaths = new HashSet<>();
+        WorkspaceScanner scanner = WorkspaceScanner.forMappableFiles();
         for (String dirPath : this.monitoredDirectoryPaths) {
             File dir = new File(dirPath);
             if (!dir.exists() || !dir.isDirectory()) {
                 System.err.println("Monitored directory does not exist or is not a directory: " + dirPath + " for SubWorkspace: " + name);
                 continue;
             }
-            collectFilesRecursively(dir, uniquePaths);
+            for (WorkspaceScanner.ScannedFile scanned : scanner.scan(dir)) {
+                uniquePaths.add(scanned.toFile().getAbsolutePath());
+            }
         }
         collectedPaths.addAll(uniquePaths);
         Collections.sort(collectedPaths); // For consistent ordering
         return collectedPaths;
     }
 
-    private void collectFilesRecursively(File currentFile, Set<String> collectedPaths) {
-        if (currentFile.isFile()) {
-            if (WorkspaceMapper.hasValidExtension(currentFile.getName().toLowerCase())) {
-                collectedPaths.add(currentFile.getAbsolutePath());
-            }
-        } else if (currentFile.isDirectory()) {
-            // Skip common non-code directories, could be configurable
-            String dirName = currentFile.getName().toLowerCase();
-            if (dirName.equals(".git") || dirName.equals(".idea") || dirName.equals(".vscode") || dirName.equals("node_modules") || dirName.equals("target") || dirName.equals("build")) {
-                return;
-            }
-            File[] children = currentFile.listFiles();
-            if (children != null) {
-                for (File child : children) {
-                    collectFilesRecursively(child, collectedPaths);
-                }
-            }
-        }
-    }
-
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -2,31 +2,37 @@ package io.improt.vai.mapping;
 
 import com.openai.models.ReasoningEffort;
 import com.openai.models.chat.completions.ChatCompletionCreateParams;
+import io.improt.vai.backend.App;
 import io.improt.vai.frame.dialogs.MappingProgressDialog;
-import io.improt.vai.llm.providers.O3MiniProvider;
 import io.improt.vai.llm.providers.O4MiniProvider;
 import io.improt.vai.util.FileUtils;
+import io.improt.vai.util.WorkspaceScanner;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.lang.ref.SoftReference;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -34,22 +40,233 @@ public class WorkspaceMapper {
 
     public static final String MAPPINGS_FILENAME = "class_mappings.json";
 
+    private static final String MAPPING_MODEL = "o4-mini";
+
+    private static final String MAPPING_SYSTEM_PROMPT =
+            "Goal: Reduce file contents for overview.\n" +
+            "Take files and reduce their content to a somewhat primitive state, for the purpose of overview by developers looking to quickly find what classes, methods, fields, etc are relevant to complete tasks.\n" +
+            "\n" +
+            "Format (if a standard class):\n" +
+            "<namespace/package>\n" +
+            "class <classname> : <any inheritances>\n" +
+            "    fields: \n" +
+            "        field1: int;\n" +
+            "        field2: string;\n" +
+            "        field3: Object;\n" +
+            "    methods:\n" +
+            "        methodOne(): string; <description of methodOne>\n" +
+            "        methodTwo(obj: Object); <description of methodTwo>\n" +
+            "\n" +
+            "If no fields, don't include fields block. If no methods, don't include methods block.\n" +
+            "Write a full overview of the file as well afterward, explaining the purpose and some details about the file. DO NOT INFER OR GUESS WHAT SOMETHING DOES OR IS. SIMPLY WRITE A BRIEF ABSTRACT OUTLINE OF WHAT YOU BELIEVE THE PURPOSE OF THE CLASS IS.\n\n" +
+            "Developers should have a clear understanding of all fields, methods, and the general purpose aspect by viewing the result you produce.";
+
+    private static final String BATCH_SYSTEM_PROMPT = MAPPING_SYSTEM_PROMPT + "\n\n" +
+            "You will receive several files, each introduced by a line of the form \"=== FILE <n>: <path> ===\".\n" +
+            "Produce one overview per file, in the same order, each wrapped exactly like this:\n" +
+            "=== MAPPING <n> ===\n" +
+            "<overview of file n>\n" +
+            "=== END MAPPING <n> ===\n" +
+            "Never merge files together and never skip a file.";
+
+    /** Changes whenever the model or prompt does, so the shared cache never serves mappings made differently. */
+    private static final String MAPPING_CACHE_VERSION = GlobalMappingCache.versionOf(MAPPING_MODEL, MAPPING_SYSTEM_PROMPT);
+
+    private static final Pattern BATCH_SECTION_PATTERN = Pattern.compile("(?s)=== MAPPING (\\d+) ===\\R(.*?)\\R?=== END MAPPING \\1 ===");
+
+    // Small files share one request; budgets are in estimated tokens (see estimateMappingTokens).
+    private static final long SMALL_FILE_MAX_TOKENS = 3000;
+    private static final long BATCH_TOKEN_BUDGET = 16000;
+    private static final int BATCH_MAX_FILES = 12;
+    private static final long BATCH_LINGER_MS = 250;
+
+    /** Compact the body files once they are at least this large and mostly dead. */
+    private static final long BODY_COMPACTION_MIN_BYTES = 1024 * 1024;
+
+    private static final Map<String, WorkspaceMapper> INSTANCES = new ConcurrentHashMap<>();
+
     private final File currentWorkspace;
     private final Map<String, ClassMapping> mappings;
-    private final ExecutorService mappingExecutor = Executors.newFixedThreadPool(30);
+    private final MappingStore store;
+    private final MappingBodyStore bodies;
+    private final MappingSearchIndex searchIndex;
+    private final List<MappingsChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private WorkspaceWatcher watcher;
+    private volatile boolean autoRemapEnabled;
+    private final MappingBatcher<PendingMapping> batcher = new MappingBatcher<>(
+            BATCH_TOKEN_BUDGET, BATCH_MAX_FILES, BATCH_LINGER_MS, p -> estimateMappingTokens(p.sizeBytes), this::submitBatch);
 
-    public WorkspaceMapper(File workspace) {
+    private WorkspaceMapper(File workspace) {
         this.currentWorkspace = workspace;
-        this.mappings = new HashMap<>();
+        this.mappings = new ConcurrentHashMap<>();
+        File snapshot = workspace != null ? new File(FileUtils.getWorkspaceVaiDir(workspace), MAPPINGS_FILENAME) : null;
+        this.store = snapshot != null ? MappingStore.forSnapshot(snapshot) : null;
+        this.bodies = snapshot != null ? MappingBodyStore.forSnapshot(snapshot) : null;
+        this.searchIndex = snapshot != null
+                ? MappingSearchIndex.load(new File(snapshot.getParentFile(), MappingSearchIndex.INDEX_FILENAME))
+                : null;
         loadMappings();
         cullMappings();
+        compactBodiesIfNeeded();
+        syncSearchIndex();
+    }
+
+    /**
+     * The shared mapper for a workspace. The index is loaded once; later calls (repository queries,
+     * {@code !askrepo}, the mapper panel) reuse it without touching disk.
+     */
+    public static WorkspaceMapper forWorkspace(File workspace) {
+        if (workspace == null) {
+            return new WorkspaceMapper(null);
+        }
+        return INSTANCES.computeIfAbsent(workspace.getAbsolutePath(), k -> {
+            WorkspaceMapper mapper = new WorkspaceMapper(workspace);
+            mapper.startWatching();
+            return mapper;
+        });
+    }
+
+    /**
+     * Drops the shared mapper for a workspace that is no longer open and stops watching it. Mapping jobs already
+     * queued still finish; a later {@link #forWorkspace} loads a fresh mapper.
+     */
+    public static void release(File workspace) {
+        if (workspace == null) return;
+        WorkspaceMapper mapper = INSTANCES.remove(workspace.getAbsolutePath());
+        if (mapper != null) {
+            mapper.stopWatching();
+        }
+    }
+
+    /**
+     * Interface for listeners interested in changes to this workspace's mappings.
+     */
+    public interface MappingsChangeListener {
+        /**
+         * Called after a mapping is added, updated, marked outdated or removed. May be called from any thread.
+         */
+        void onMappingsChanged();
+    }
+
+    public void addMappingsChangeListener(MappingsChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeMappingsChangeListener(MappingsChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    private void notifyMappingsChanged() {
+        for (MappingsChangeListener listener : changeListeners) {
+            listener.onMappingsChanged();
+        }
+    }
+
+    /**
+     * When enabled, tracked files that change on disk are queued for remapping at low priority.
+     * Otherwise they are only marked outdated.
+     */
+    public void setAutoRemapEnabled(boolean enabled) {
+        this.autoRemapEnabled = enabled;
+    }
+
+    public boolean isAutoRemapEnabled() {
+        return autoRemapEnabled;
+    }
+
+    private synchronized void startWatching() {
+        if (currentWorkspace == null || !currentWorkspace.isDirectory()) return;
+        watcher = new WorkspaceWatcher(currentWorkspace, new WorkspaceWatcher.Listener() {
+            @Override
+            public void onChanges(Map<File, WorkspaceWatcher.ChangeKind> changes) {
+                applyWorkspaceChanges(changes);
+            }
+
+            @Override
+            public void onOverflow() {
+                System.out.println("[WorkspaceMapper] Watcher overflowed; rechecking all tracked files.");
+                recheckTrackedFiles();
+            }
+        });
+        watcher.start();
+    }
+
+    private synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+    }
+
+    private void applyWorkspaceChanges(Map<File, WorkspaceWatcher.ChangeKind> changes) {
+        for (Map.Entry<File, WorkspaceWatcher.ChangeKind> change : changes.entrySet()) {
+            File file = change.getKey();
+            String filePath = file.getAbsolutePath();
+            if (change.getValue() == WorkspaceWatcher.ChangeKind.DELETED) {
+                if (mappings.containsKey(filePath)) {
+                    removeFile(filePath);
+                } else {
+                    removeTrackedUnder(filePath);
+                }
+                continue;
+            }
+            ClassMapping cm = mappings.get(filePath);
+            if (cm != null && file.isFile()) {
+                refreshTrackedFile(file, cm);
+            }
+        }
+    }
+
+    /**
+     * Picks up a tracked file's new content hash. Returns true if it changed.
+     */
+    private boolean refreshTrackedFile(File file, ClassMapping cm) {
+        String currentMd5 = computeContentHash(file);
+        if (currentMd5.equals(cm.getMd5sum())) {
+            return false;
+        }
+        synchronized (this) {
+            cm.setMd5sum(currentMd5);
+            persistMapping(cm);
+        }
+        if (autoRemapEnabled) {
+            mapFile(file, null, MappingScheduler.Priority.LOW);
+        }
+        return true;
+    }
+
+    private void recheckTrackedFiles() {
+        for (ClassMapping cm : new ArrayList<>(mappings.values())) {
+            File file = new File(cm.getPath());
+            if (!file.exists()) {
+                removeFile(cm.getPath());
+            } else {
+                refreshTrackedFile(file, cm);
+            }
+        }
+    }
+
+    private void removeTrackedUnder(String directoryPath) {
+        String prefix = directoryPath.endsWith(File.separator) ? directoryPath : directoryPath + File.separator;
+        for (String filePath : new ArrayList<>(mappings.keySet())) {
+            if (filePath.startsWith(prefix)) {
+                removeFile(filePath);
+            }
+        }
     }
 
+    /**
+     * Index entry for one file. Once a mapping has been written to the body store only its reference stays
+     * on heap; the text is read back on demand and held softly, so the GC can drop it under memory pressure.
+     */
     public static class ClassMapping {
         private String path;
         private String md5sum;
-        private String mapping;
+        private volatile String mapping; // Set but not yet in the body store, or a mapping with no store behind it
         private String lastMappingMd5sum;
+        private volatile MappingBodyStore bodies;
+        private volatile MappingBodyStore.BodyRef bodyRef;
+        private SoftReference<String> cachedMapping;
 
         public ClassMapping(String path, String md5sum) {
             this.path = path;
@@ -71,11 +288,79 @@ public class WorkspaceMapper {
         }
 
         public String getMapping() {
-            return mapping;
+            if (mapping != null) {
+                return mapping;
+            }
+            if (bodies == null || bodyRef == null) {
+                return "";
+            }
+            String cached = cachedMapping != null ? cachedMapping.get() : null;
+            if (cached == null) {
+                cached = bodies.read(bodyRef);
+                if (cached == null) {
+                    dropBody();
+                    return "";
+                }
+                cachedMapping = new SoftReference<>(cached);
+            }
+            return cached;
         }
 
         public void setMapping(String mapping) {
             this.mapping = mapping;
+            this.bodyRef = null;
+            this.cachedMapping = null;
+        }
+
+        /**
+         * Whether a non-empty mapping exists, without loading it. A body that is no longer on disk counts as no
+         * mapping, so the file gets mapped again.
+         */
+        public boolean hasMapping() {
+            if (mapping != null) {
+                return !mapping.isEmpty();
+            }
+            MappingBodyStore.BodyRef ref = bodyRef;
+            if (ref == null || ref.getLength() == 0) {
+                return false;
+            }
+            if (bodies != null && !bodies.contains(ref)) {
+                dropBody();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * An upper bound on {@code getMapping().length()}, without loading the body: a stored body's UTF-8 byte
+         * length is never less than its length in chars.
+         */
+        public int getMappingLengthBound() {
+            String current = mapping;
+            if (current != null) {
+                return current.length();
+            }
+            String cached = cachedMapping != null ? cachedMapping.get() : null;
+            if (cached != null) {
+                return cached.length();
+            }
+            MappingBodyStore.BodyRef ref = bodyRef;
+            return ref != null ? ref.getLength() : 0;
+        }
+
+        private void dropBody() {
+            System.err.println("[WorkspaceMapper] Mapping body for '" + path + "' is missing; it will be mapped again.");
+            this.cachedMapping = null;
+            this.bodyRef = null;
+            this.mapping = "";
+        }
+
+        void attachBody(MappingBodyStore bodies, MappingBodyStore.BodyRef ref) {
+            // A record loaded from disk attaches to a fresh entry whose placeholder "" must not be cached as the body.
+            this.cachedMapping = mapping != null && !mapping.isEmpty() ? new SoftReference<>(mapping) : null;
+            this.bodies = bodies;
+            this.bodyRef = ref;
+            this.mapping = null;
         }
 
         public String getLastMappingMd5sum() {
@@ -87,24 +372,16 @@ public class WorkspaceMapper {
         }
 
         public boolean isUpToDate() {
-            return mapping != null && !mapping.isEmpty() && md5sum != null && md5sum.equals(lastMappingMd5sum);
+            return hasMapping() && md5sum != null && md5sum.equals(lastMappingMd5sum);
         }
     }
 
-    public static String computeMD5(File file) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] contentBytes = Files.readAllBytes(file.toPath());
-            byte[] hashBytes = md.digest(contentBytes);
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hashBytes) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException | IOException e) {
-            e.printStackTrace();
-        }
-        return "";
+    /**
+     * Content hash used for the md5sum fields. Unchanged files (same size, mtime and inode) are served
+     * from {@link FileFingerprintCache} without being read.
+     */
+    public static String computeContentHash(File file) {
+        return FileFingerprintCache.getInstance().hash(file);
     }
 
     public void addFile(File file) {
@@ -112,15 +389,15 @@ public class WorkspaceMapper {
             return;
         }
         String filePath = file.getAbsolutePath();
-        String md5 = computeMD5(file);
-        if (mappings.containsKey(filePath)) {
-            ClassMapping cm = mappings.get(filePath);
+        String md5 = computeContentHash(file);
+        ClassMapping cm = mappings.get(filePath);
+        if (cm != null) {
             cm.setMd5sum(md5); // Update MD5, mapFile will decide if re-mapping is needed
         } else {
-            ClassMapping cm = new ClassMapping(filePath, md5);
+            cm = new ClassMapping(filePath, md5);
             mappings.put(filePath, cm);
         }
-        persistMappings(); // Persist immediately as file is now tracked
+        persistMapping(cm); // Persist immediately as file is now tracked
     }
 
     public static boolean hasValidExtension(String fileName) {
@@ -144,11 +421,8 @@ public class WorkspaceMapper {
             return;
         }
 
-        List<File> files = listFilesRecursively(directory);
-        for (File file : files) {
-            if (hasValidExtension(file.getName())) {
-                addFile(file); // addFile now handles persistence and basic tracking
-            }
+        for (WorkspaceScanner.ScannedFile scanned : WorkspaceScanner.forMappableFiles().scan(directory)) {
+            addFile(scanned.toFile()); // addFile now handles persistence and basic tracking
         }
     }
 
@@ -159,7 +433,7 @@ public class WorkspaceMapper {
         String filePath = file.getAbsolutePath();
         if (mappings.containsKey(filePath)) {
             mappings.remove(filePath);
-            persistMappings();
+            persistRemoval(filePath);
         }
     }
 
@@ -167,7 +441,7 @@ public class WorkspaceMapper {
         if (filePath == null) return;
         if (mappings.containsKey(filePath)) {
             mappings.remove(filePath);
-            persistMappings();
+            persistRemoval(filePath);
         }
     }
 
@@ -176,55 +450,156 @@ public class WorkspaceMapper {
             return;
         }
         String dirPath = directory.getAbsolutePath();
-        boolean removed = false;
         Iterator<String> iterator = mappings.keySet().iterator();
         while (iterator.hasNext()) {
             String filePath = iterator.next();
             if (filePath.startsWith(dirPath)) {
                 iterator.remove();
-                removed = true;
+                persistRemoval(filePath);
             }
         }
-        if (removed) {
-            persistMappings();
-        }
     }
 
-    private List<File> listFilesRecursively(File directory) {
-        List<File> fileList = new ArrayList<>();
-        File[] files = directory.listFiles();
-        if (files == null) return fileList;
-        for (File file : files) {
-            if (file.isDirectory()) {
-                String dirName = file.getName();
-                if (dirName.equals(".git") || dirName.equals(".idea") || dirName.equals("node_modules") || dirName.equals("target") || dirName.equals("build") || dirName.equals(".vscode")) {
-                    continue;
-                }
-                fileList.addAll(listFilesRecursively(file));
-            } else if (file.isFile()) {
-                fileList.add(file);
-            }
+    private static JSONObject toRecord(ClassMapping cm) {
+        JSONObject obj = new JSONObject();
+        obj.put("path", cm.getPath());
+        obj.put("md5sum", cm.getMd5sum());
+        if (cm.bodyRef != null) {
+            obj.put("body", cm.bodyRef.toJson());
+        } else {
+            obj.put("mapping", cm.getMapping());
         }
-        return fileList;
+        obj.put("lastMappingMd5sum", cm.getLastMappingMd5sum());
+        FileFingerprintCache.Fingerprint fingerprint = FileFingerprintCache.getInstance().lookup(cm.getPath());
+        if (fingerprint != null && fingerprint.getHash().equals(cm.getMd5sum())) {
+            obj.put("fingerprint", fingerprint.toJson());
+        }
+        return obj;
     }
 
-    private synchronized void persistMappings() {
-        if (currentWorkspace == null) {
+    private void persistMapping(ClassMapping cm) {
+        if (store == null) {
             System.err.println("[WorkspaceMapper] Cannot persist mappings, currentWorkspace is null.");
             return;
         }
-        JSONArray jsonArray = new JSONArray();
+        storeBody(cm);
+        store.put(toRecord(cm));
+        indexMapping(cm);
+        notifyMappingsChanged();
+    }
+
+    private void indexMapping(ClassMapping cm) {
+        if (searchIndex == null || !cm.hasMapping() || searchIndex.isCurrent(cm.getPath(), cm.getLastMappingMd5sum())) {
+            return;
+        }
+        String identifiers = displayPathFor(cm.getPath(), currentWorkspace != null ? currentWorkspace.toPath().toAbsolutePath() : null);
+        searchIndex.update(cm.getPath(), cm.getLastMappingMd5sum(), identifiers, cm.getMapping());
+    }
+
+    /**
+     * Brings the saved index in line with the loaded mappings; only entries whose mapping changed are re-indexed.
+     */
+    private void syncSearchIndex() {
+        if (searchIndex == null) return;
+        List<String> mapped = new ArrayList<>();
         for (ClassMapping cm : mappings.values()) {
-            JSONObject obj = new JSONObject();
-            obj.put("path", cm.getPath());
-            obj.put("md5sum", cm.getMd5sum());
-            obj.put("mapping", cm.getMapping());
-            obj.put("lastMappingMd5sum", cm.getLastMappingMd5sum());
-            jsonArray.put(obj);
+            if (cm.hasMapping()) {
+                mapped.add(cm.getPath());
+                indexMapping(cm);
+            }
+        }
+        searchIndex.retainOnly(mapped);
+    }
+
+    /**
+     * Offline full-text search over this workspace's mappings, best match first.
+     */
+    public List<MappingSearchIndex.SearchHit> search(String query, int limit) {
+        if (searchIndex == null) {
+            return new ArrayList<>();
         }
-        File vaiDir = FileUtils.getWorkspaceVaiDir(currentWorkspace);
-        File mappingFile = new File(vaiDir, MAPPINGS_FILENAME);
-        FileUtils.writeStringToFile(mappingFile, jsonArray.toString(4));
+        return searchIndex.search(query, limit);
+    }
+
+    /**
+     * Moves a freshly set mapping into the body store, leaving only its reference on heap.
+     */
+    private void storeBody(ClassMapping cm) {
+        if (bodies == null || cm.mapping == null || cm.mapping.isEmpty()) {
+            return;
+        }
+        MappingBodyStore.BodyRef ref = bodies.append(cm.mapping);
+        if (ref != null) {
+            cm.attachBody(bodies, ref);
+        }
+    }
+
+    /**
+     * Every remap leaves its old body behind. When most stored bytes are dead, copy the live bodies
+     * into a new generation, journal the new references, and then drop the old files. Liveness is decided by
+     * every record in the store, not just the loaded mappings, so no record is left pointing at a deleted file.
+     */
+    private void compactBodiesIfNeeded() {
+        if (bodies == null) return;
+        long storedBytes = bodies.getStoredBytes();
+        long liveBytes = 0;
+        Set<Integer> liveGenerations = new HashSet<>();
+        Map<String, JSONObject> records = store.load();
+        for (JSONObject record : records.values()) {
+            MappingBodyStore.BodyRef ref = MappingBodyStore.BodyRef.fromJson(record.optJSONObject("body"));
+            if (ref != null) {
+                liveBytes += ref.getLength();
+                liveGenerations.add(ref.getGeneration());
+            }
+        }
+        if (storedBytes < BODY_COMPACTION_MIN_BYTES || liveBytes * 2 > storedBytes) {
+            bodies.deleteGenerationsExcept(liveGenerations);
+            return;
+        }
+        System.out.println("[WorkspaceMapper] Compacting mapping bodies: " + liveBytes / 1024 + " KB live of " + storedBytes / 1024 + " KB.");
+        bodies.rollGeneration();
+        Set<Integer> keep = new HashSet<>();
+        Map<String, MappingBodyStore.BodyRef> moves = new LinkedHashMap<>();
+        for (JSONObject record : records.values()) {
+            MappingBodyStore.BodyRef ref = MappingBodyStore.BodyRef.fromJson(record.optJSONObject("body"));
+            if (ref == null) continue;
+            String body = bodies.read(ref);
+            MappingBodyStore.BodyRef moved = body != null ? bodies.appendWithoutSync(body) : null;
+            if (moved == null) {
+                // Keep the old generation alive rather than lose this body.
+                keep.add(ref.getGeneration());
+                continue;
+            }
+            moves.put(record.getString("path"), moved);
+        }
+        if (!bodies.sync()) {
+            // Nothing has been journaled yet, so every old reference is still the valid one.
+            bodies.deleteGenerationsExcept(liveGenerations);
+            return;
+        }
+        for (Map.Entry<String, MappingBodyStore.BodyRef> move : moves.entrySet()) {
+            ClassMapping cm = mappings.get(move.getKey());
+            if (cm != null) {
+                cm.attachBody(bodies, move.getValue());
+                store.put(toRecord(cm));
+            } else {
+                JSONObject record = records.get(move.getKey());
+                record.put("body", move.getValue().toJson());
+                store.put(record);
+            }
+        }
+        bodies.deleteGenerationsExcept(keep);
+    }
+
+    private void persistRemoval(String filePath) {
+        if (store == null) {
+            System.err.println("[WorkspaceMapper] Cannot persist mappings, currentWorkspace is null.");
+            return;
+        }
+        FileFingerprintCache.getInstance().forget(filePath);
+        store.remove(filePath);
+        searchIndex.remove(filePath);
+        notifyMappingsChanged();
     }
 
     private void loadMappings() {
@@ -232,13 +607,27 @@ public class WorkspaceMapper {
              System.err.println("[WorkspaceMapper] Cannot load mappings, currentWorkspace is null.");
             return;
         }
-        File vaiDir = FileUtils.getWorkspaceVaiDir(this.currentWorkspace);
-        File mappingFile = new File(vaiDir, MAPPINGS_FILENAME);
-        
-        List<ClassMapping> loadedCms = loadClassMappingsFromFile(mappingFile, true);
+        Map<String, JSONObject> records = store.load();
         mappings.clear();
-        for(ClassMapping cm : loadedCms) {
+        for (JSONObject obj : records.values()) {
+            ClassMapping cm = fromRecord(obj, true, MAPPINGS_FILENAME, bodies);
+            if (cm == null) {
+                // The file is gone (or the record is unreadable); drop the record rather than replay it forever.
+                String path = obj.optString("path", null);
+                if (path != null) {
+                    FileFingerprintCache.getInstance().forget(path);
+                    store.remove(path);
+                }
+                continue;
+            }
             mappings.put(cm.getPath(), cm);
+            // Records from before the body store carry their mapping inline; move it out on first load.
+            storeBody(cm);
+            // Rehashed or migrated entries get their fresh hash and fingerprint journaled, so the next load can skip them.
+            JSONObject current = toRecord(cm);
+            if (!current.similar(obj)) {
+                store.put(current);
+            }
         }
     }
 
@@ -248,47 +637,60 @@ public class WorkspaceMapper {
             System.err.println("[WorkspaceMapper] Class mappings file does not exist or is null: " + (classMappingsJsonFile != null ? classMappingsJsonFile.getAbsolutePath() : "null"));
             return loadedMappings;
         }
-        String jsonContent = FileUtils.readFileToString(classMappingsJsonFile);
-        if (jsonContent == null || jsonContent.isEmpty()) {
+        Map<String, JSONObject> records = MappingStore.readRecords(classMappingsJsonFile);
+        MappingBodyStore bodies = MappingBodyStore.forSnapshot(classMappingsJsonFile);
+        if (records.isEmpty()) {
             System.err.println("[WorkspaceMapper] Class mappings file is empty: " + classMappingsJsonFile.getAbsolutePath());
             return loadedMappings;
         }
+        for (JSONObject obj : records.values()) {
+            ClassMapping cm = fromRecord(obj, recomputeMd5IfFileExists, classMappingsJsonFile.getName(), bodies);
+            if (cm != null) {
+                loadedMappings.add(cm);
+            }
+        }
+        return loadedMappings;
+    }
+
+    private static ClassMapping fromRecord(JSONObject obj, boolean recomputeMd5IfFileExists, String sourceName, MappingBodyStore bodies) {
         try {
-            JSONArray jsonArray = new JSONArray(jsonContent);
-            for (int i = 0; i < jsonArray.length(); i++) {
-                JSONObject obj = jsonArray.getJSONObject(i);
-                String path = obj.getString("path");
-                String md5sumInJson = obj.getString("md5sum");
-                String mapping = obj.optString("mapping", "");
-                String lastMappingMd5sum = obj.optString("lastMappingMd5sum", "");
-
-                File fileOnDisk = new File(path);
-                String currentMd5 = md5sumInJson; 
-
-                if (recomputeMd5IfFileExists && fileOnDisk.exists()) {
-                    currentMd5 = computeMD5(fileOnDisk); 
-                } else if (!fileOnDisk.exists() && recomputeMd5IfFileExists) {
-                     System.out.println("[WorkspaceMapper] File path '" + path + "' from mappings ("+classMappingsJsonFile.getName()+") didn't exist. Using MD5 from JSON.");
+            String path = obj.getString("path");
+            String md5sumInJson = obj.getString("md5sum");
+            String mapping = obj.optString("mapping", "");
+            String lastMappingMd5sum = obj.optString("lastMappingMd5sum", "");
+
+            File fileOnDisk = new File(path);
+            String currentMd5 = md5sumInJson; 
+
+            FileFingerprintCache.getInstance().remember(path, FileFingerprintCache.Fingerprint.fromJson(obj.optJSONObject("fingerprint"), md5sumInJson));
+
+            if (recomputeMd5IfFileExists && fileOnDisk.exists()) {
+                currentMd5 = computeContentHash(fileOnDisk); 
+                // Mappings written before the XXH64 switch carry MD5 sums; keep them valid if the file is unchanged.
+                if (FileFingerprintCache.isLegacyMd5(lastMappingMd5sum) && lastMappingMd5sum.equals(FileFingerprintCache.legacyMd5(fileOnDisk))) {
+                    lastMappingMd5sum = currentMd5;
                 }
+            } else if (!fileOnDisk.exists() && recomputeMd5IfFileExists) {
+                 System.out.println("[WorkspaceMapper] File path '" + path + "' from mappings ("+sourceName+") didn't exist. Using MD5 from JSON.");
+            }
 
-                ClassMapping cm = new ClassMapping(path, currentMd5);
+            ClassMapping cm = new ClassMapping(path, currentMd5);
+            MappingBodyStore.BodyRef bodyRef = MappingBodyStore.BodyRef.fromJson(obj.optJSONObject("body"));
+            if (bodyRef != null && bodies != null) {
+                cm.attachBody(bodies, bodyRef);
+            } else {
                 cm.setMapping(mapping);
-                cm.setLastMappingMd5sum(lastMappingMd5sum); 
-                
-                if (!recomputeMd5IfFileExists) {
-                    cm.setMd5sum(md5sumInJson);
-                }
+            }
+            cm.setLastMappingMd5sum(lastMappingMd5sum); 
 
-                if (!recomputeMd5IfFileExists || fileOnDisk.exists()) {
-                    loadedMappings.add(cm);
-                } else {
-                     System.out.println("[WorkspaceMapper] File path '" + path + "' from mappings ("+classMappingsJsonFile.getName()+") didn't exist. Not adding to active map!");
-                }
+            if (!recomputeMd5IfFileExists || fileOnDisk.exists()) {
+                return cm;
             }
+            System.out.println("[WorkspaceMapper] File path '" + path + "' from mappings ("+sourceName+") didn't exist. Not adding to active map!");
         } catch (JSONException e) {
-            System.err.println("[WorkspaceMapper] Error parsing class mappings from " + classMappingsJsonFile.getAbsolutePath() + ": " + e.getMessage());
+            System.err.println("[WorkspaceMapper] Error parsing class mapping from " + sourceName + ": " + e.getMessage());
         }
-        return loadedMappings;
+        return null;
     }
 
 
@@ -296,6 +698,18 @@ public class WorkspaceMapper {
         return getConcatenatedMappingsForClassMappingList(new ArrayList<>(mappings.values()), this.currentWorkspace);
     }
     
+    /**
+     * Repository map for {@code query} that fits {@code tokenBudget}, most relevant files first.
+     */
+    public String buildRepositoryMap(String query, long tokenBudget) {
+        return new RepositoryMapBuilder(new ArrayList<>(mappings.values()), this.currentWorkspace)
+                .withQuery(query)
+                .withRelevance(searchIndex != null ? searchIndex.score(query) : null)
+                .withTokenBudget(tokenBudget)
+                .withRecentFiles(FileUtils.loadRecentlyActiveFiles(this.currentWorkspace))
+                .build();
+    }
+
     public String getConcatenatedMappingsForPaths(List<String> filePaths) {
         List<ClassMapping> selectedCms = new ArrayList<>();
         for (String path : filePaths) {
@@ -312,44 +726,51 @@ public class WorkspaceMapper {
         Path referenceWorkspacePath = (referenceWorkspaceForRelativePaths != null) ? Paths.get(referenceWorkspaceForRelativePaths.getAbsolutePath()) : null;
 
         for (ClassMapping cm : classMappingList) {
-            if (cm.getMapping() == null || cm.getMapping().isEmpty()) continue;
-
-            String displayPath = cm.getPath();
-            if (referenceWorkspacePath != null) {
-                try {
-                    Path filePathObj = Paths.get(cm.getPath());
-                    if (filePathObj.startsWith(referenceWorkspacePath)) {
-                        displayPath = referenceWorkspacePath.relativize(filePathObj).toString();
-                    } else {
-                        displayPath = filePathObj.toAbsolutePath().toString();
-                    }
-                } catch (Exception e) {
-                    displayPath = Paths.get(cm.getPath()).toAbsolutePath().toString();
-                }
-            } else {
-                 displayPath = Paths.get(cm.getPath()).toAbsolutePath().toString();
-            }
+            if (!cm.hasMapping()) continue;
+            String mapping = cm.getMapping();
 
-            sb.append("PATH: ").append(displayPath).append("\n");
-            sb.append(cm.getMapping()).append("\n\n");
+            sb.append("PATH: ").append(displayPathFor(cm.getPath(), referenceWorkspacePath)).append("\n");
+            sb.append(mapping).append("\n\n");
         }
         return sb.toString();
     }
+
+    /**
+     * Path shown to the model: relative to the reference workspace when inside it, absolute otherwise.
+     */
+    static String displayPathFor(String path, Path referenceWorkspacePath) {
+        if (referenceWorkspacePath != null) {
+            try {
+                Path filePathObj = Paths.get(path);
+                if (filePathObj.startsWith(referenceWorkspacePath)) {
+                    return referenceWorkspacePath.relativize(filePathObj).toString();
+                }
+                return filePathObj.toAbsolutePath().toString();
+            } catch (Exception e) {
+                return Paths.get(path).toAbsolutePath().toString();
+            }
+        }
+        return Paths.get(path).toAbsolutePath().toString();
+    }
     
     public void mapFile(File file) {
         mapFile(file, null); // Overload for calls without a listener
     }
 
     public void mapFile(File file, MappingProgressListener progressListener) {
+        mapFile(file, progressListener, priorityFor(file));
+    }
+
+    private void mapFile(File file, MappingProgressListener progressListener, MappingScheduler.Priority priority) {
         if (file == null || !file.exists() || !file.isFile()) {
             return;
         }
         String filePath = file.getAbsolutePath();
-        String currentMd5 = computeMD5(file);
+        String currentMd5 = computeContentHash(file);
         
         ClassMapping cm = mappings.get(filePath);
         if (cm != null) {
-            if (currentMd5.equals(cm.getLastMappingMd5sum()) && cm.getMapping() != null && !cm.getMapping().isEmpty()) {
+            if (currentMd5.equals(cm.getLastMappingMd5sum()) && cm.hasMapping()) {
                  if (progressListener != null) { // If called with listener, still notify completion for this file
                     progressListener.fileMappingCompleted(filePath, true, "Already up-to-date");
                 }
@@ -359,9 +780,27 @@ public class WorkspaceMapper {
         } else {
             cm = new ClassMapping(filePath, currentMd5);
             mappings.put(filePath, cm);
-            persistMappings();
+            persistMapping(cm);
+        }
+
+        String cached = GlobalMappingCache.getInstance().get(cacheKeyFor(currentMd5, file));
+        if (cached != null) {
+            synchronized (this) {
+                cm.setMapping(cached);
+                cm.setLastMappingMd5sum(currentMd5);
+                persistMapping(cm);
+            }
+            System.out.println("[WorkspaceMapper] Reused cached mapping for: " + file.getName());
+            if (progressListener != null) {
+                progressListener.fileMappingCompleted(filePath, true, "Reused cached mapping");
+            }
+            return;
         }
-        generateMapping(file, cm, currentMd5, progressListener);
+        generateMapping(file, cm, currentMd5, progressListener, priority);
+    }
+
+    private static String cacheKeyFor(String contentHash, File file) {
+        return GlobalMappingCache.keyFor(contentHash, file.length(), MAPPING_CACHE_VERSION);
     }
 
     private void cullMappings() {
@@ -378,12 +817,12 @@ public class WorkspaceMapper {
         if (!mappingsToRemove.isEmpty()) {
             for (String s : mappingsToRemove) {
                 mappings.remove(s);
+                persistRemoval(s);
             }
-            persistMappings();
         }
     }
 
-    private void generateMapping(File file, ClassMapping classMapping, String currentMd5ForWorker, MappingProgressListener progressListener) {
+    private void generateMapping(File file, ClassMapping classMapping, String currentMd5ForWorker, MappingProgressListener progressListener, MappingScheduler.Priority priority) {
         ClassMapping currentCmState = mappings.get(file.getAbsolutePath());
         if (currentCmState == null) {
              System.err.println("[WorkspaceMapper] Tried to generate mapping for untracked file: " + file.getAbsolutePath());
@@ -393,63 +832,102 @@ public class WorkspaceMapper {
             return;
         }
         
+        if (estimateMappingTokens(file.length()) <= SMALL_FILE_MAX_TOKENS) {
+            System.out.println("[WorkspaceMapper] Batching mapping generation for: " + file.getName());
+            batcher.add(new PendingMapping(file, currentMd5ForWorker, progressListener, priority));
+            return;
+        }
+
         System.out.println("[WorkspaceMapper] Queuing mapping generation for: " + file.getName());
-        MappingWorker worker = new MappingWorker(file, currentCmState, currentMd5ForWorker, progressListener);
-        mappingExecutor.submit(worker);
+        MappingWorker worker = new MappingWorker(file, currentMd5ForWorker, progressListener, priority);
+        MappingScheduler.getInstance().submit(worker);
     }
     
+    private static MappingScheduler.Priority priorityFor(File file) {
+        App app = App.getInstance();
+        if (app != null && app.getActiveFileManager() != null && app.getActiveFileManager().isFileActive(file)) {
+            return MappingScheduler.Priority.HIGH;
+        }
+        return MappingScheduler.Priority.NORMAL;
+    }
+
+    /**
+     * Maps every outdated file under {@code directory}. The scan runs on a background thread, so this returns at once
+     * when called from the EDT; progress is shown in a dialog that opens once the first outdated file is found.
+     */
     public void mapDirectory(File directory, Window owner) {
         if (directory == null || !directory.exists() || !directory.isDirectory()) {
             return;
         }
-        List<File> filesInDir = listFilesRecursively(directory);
-        List<ClassMapping> mappingsToProcess = new ArrayList<>();
+        Thread scanThread = new Thread(() -> {
+            try {
+                scanAndMapDirectory(directory, owner);
+            } catch (RuntimeException e) {
+                System.err.println("[WorkspaceMapper] Failed to map directory " + directory + ": " + e.getMessage());
+            }
+        }, "WorkspaceMapper-mapDirectory");
+        scanThread.setDaemon(true);
+        scanThread.start();
+    }
 
-        for (File file : filesInDir) {
-            if (hasValidExtension(file.getName())) {
+    private void scanAndMapDirectory(File directory, Window owner) {
+        // Files are hashed and queued while the scan is still walking, so workers start before a large tree is fully listed.
+        MappingProgressDialog dialog = null;
+        try (WorkspaceScanner.ScanIterator files = WorkspaceScanner.forMappableFiles().stream(directory)) {
+            while (files.hasNext()) {
+                WorkspaceScanner.ScannedFile scanned = files.next();
+                File file = scanned.toFile();
                 String filePath = file.getAbsolutePath();
-                String currentMd5 = computeMD5(file);
+                String currentMd5 = FileFingerprintCache.getInstance().hash(file, scanned.getAttributes());
                 ClassMapping cm = mappings.get(filePath);
                 if (cm == null) { // New file or untracked
                     cm = new ClassMapping(filePath, currentMd5);
                     mappings.put(filePath, cm); // Track it
-                    mappingsToProcess.add(cm);
-                } else {
+                    persistMapping(cm);
+                } else if (!currentMd5.equals(cm.getMd5sum())) {
                     cm.setMd5sum(currentMd5); // Update MD5
-                    if (!cm.isUpToDate()) {
-                        mappingsToProcess.add(cm);
+                    persistMapping(cm);
+                }
+                if (cm.isUpToDate()) {
+                    continue;
+                }
+
+                if (dialog == null) {
+                    dialog = openProgressDialog(owner);
+                    if (dialog == null) {
+                        return;
                     }
                 }
+                dialog.addQueuedFile(filePath);
+                // mapFile will call generateMapping which submits the worker with the listener
+                mapFile(file, dialog);
             }
         }
-        persistMappings(); // Persist any newly tracked files
+        System.out.println("[WorkspaceMapper] Global mapping cache: " + GlobalMappingCache.getInstance().getStatsSummary());
 
-        if (!mappingsToProcess.isEmpty()) {
-            MappingProgressDialog dialog = new MappingProgressDialog(owner, new ArrayList<>(mappingsToProcess), currentWorkspace); // Pass copy
-            SwingUtilities.invokeLater(() -> dialog.setVisible(true));
-            
-            AtomicInteger tasksSubmitted = new AtomicInteger(0);
-            for (ClassMapping cmToProcess : mappingsToProcess) {
-                File fileToProcess = new File(cmToProcess.getPath());
-                 // mapFile will call generateMapping which submits the worker with the listener
-                mapFile(fileToProcess, dialog);
-                tasksSubmitted.incrementAndGet();
-            }
-             // Check if all tasks submitted are actually going to run (some might be up-to-date)
-             // The dialog's allFilesProcessed should be called after all workers complete.
-             // We need a way to call dialog.allFilesProcessed() when this specific batch is done.
-             // This can be handled by having the dialog itself count completions against its initial list.
-             // For now, the dialog handles its own lifecycle based on file completions.
-             // Let's add a final notification from here IF no tasks were actually run by mapFile due to being up-to-date
-            if(tasksSubmitted.get() == 0 && dialog != null){ // If all were surprisingly up-to-date
-                 dialog.allFilesProcessed();
-            }
-            // The dialog should get a final allFilesProcessed() call when the batch of mapFile calls here is known to be done.
-            // This is complex with async workers. The dialog needs to manage its own "all done" state.
+        if (dialog == null) {
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(owner,
+                    "All files in the directory are already up-to-date.", "Directory Mapping", JOptionPane.INFORMATION_MESSAGE));
+        }
+    }
 
-        } else {
-            JOptionPane.showMessageDialog(owner, "All files in the directory are already up-to-date.", "Directory Mapping", JOptionPane.INFORMATION_MESSAGE);
+    /**
+     * Creates and shows a progress dialog on the EDT, returning it once it exists, or null if interrupted.
+     */
+    private MappingProgressDialog openProgressDialog(Window owner) {
+        AtomicReference<MappingProgressDialog> created = new AtomicReference<>();
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                MappingProgressDialog dialog = new MappingProgressDialog(owner, new ArrayList<>(), currentWorkspace);
+                created.set(dialog);
+                SwingUtilities.invokeLater(() -> dialog.setVisible(true));
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            System.err.println("[WorkspaceMapper] Failed to open the mapping progress dialog: " + e.getCause());
         }
+        return created.get();
     }
     
     public void mapAllOutdated(Window owner) {
@@ -459,12 +937,16 @@ public class WorkspaceMapper {
                     File f = new File(cm.getPath());
                     if (!f.exists()) { // Cull non-existent files during this check
                         mappings.remove(cm.getPath());
+                        persistRemoval(cm.getPath());
                         System.out.println("Removed mapping for non-existent file during mapAllOutdated scan: " + cm.getPath());
                         return false;
                     }
                     // Recompute MD5 just in case it changed since last load/add
-                    String currentMd5 = computeMD5(f);
-                    cm.setMd5sum(currentMd5);
+                    String currentMd5 = computeContentHash(f);
+                    if (!currentMd5.equals(cm.getMd5sum())) {
+                        cm.setMd5sum(currentMd5);
+                        persistMapping(cm);
+                    }
                     return !cm.isUpToDate();
                 })
                 .collect(Collectors.toList());
@@ -486,109 +968,293 @@ public class WorkspaceMapper {
         } else {
             JOptionPane.showMessageDialog(owner, "All tracked files are already up-to-date.", "Update All Mappings", JOptionPane.INFORMATION_MESSAGE);
         }
-        persistMappings(); // Persist any removals or MD5 updates
     }
     
     public List<ClassMapping> getMappings() {
         return new ArrayList<>(mappings.values());
     }
     
-    private class MappingWorker implements Runnable {
+    /**
+     * Re-checks a queued file right before its LLM call. Reports to the listener and returns false when the
+     * file was untracked, changed since it was queued, or already mapped by another worker.
+     */
+    private boolean stillNeedsMapping(File file, String md5AtQueueTime, MappingProgressListener progressListener) {
+        ClassMapping currentMainMapCm = mappings.get(file.getAbsolutePath());
+        if (currentMainMapCm == null) {
+            System.err.println("[MappingWorker] File " + file.getName() + " no longer tracked. Aborting.");
+            if (progressListener != null) {
+                progressListener.fileMappingCompleted(file.getAbsolutePath(), false, "File no longer tracked");
+            }
+            return false;
+        }
+
+        if (progressListener != null) {
+            progressListener.fileMappingStarted(file.getAbsolutePath());
+        }
+
+        String actualCurrentFileMd5 = computeContentHash(file);
+        if (!md5AtQueueTime.equals(actualCurrentFileMd5) || !md5AtQueueTime.equals(currentMainMapCm.getMd5sum())) {
+             System.out.println("[MappingWorker] File " + file.getName() + " changed. Aborting stale worker.");
+             if (progressListener != null) {
+                progressListener.fileMappingCompleted(file.getAbsolutePath(), false, "File changed, stale worker");
+            }
+             return false;
+        }
+        if(md5AtQueueTime.equals(currentMainMapCm.getLastMappingMd5sum()) && currentMainMapCm.hasMapping()){
+            System.out.println("[MappingWorker] File " + file.getName() + " MD5 " + md5AtQueueTime + " already mapped. Aborting redundant worker.");
+             if (progressListener != null) {
+                progressListener.fileMappingCompleted(file.getAbsolutePath(), true, "Already mapped by another worker");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized void applyMappingResult(File file, String md5AtQueueTime, String llmResponse, MappingProgressListener progressListener) {
+        ClassMapping finalCheckCm = mappings.get(file.getAbsolutePath());
+        if (finalCheckCm != null && finalCheckCm.getMd5sum().equals(md5AtQueueTime)) {
+            finalCheckCm.setMapping(llmResponse);
+            finalCheckCm.setLastMappingMd5sum(md5AtQueueTime);
+            System.out.println("[MappingWorker] Successfully mapped: " + file.getName());
+            persistMapping(finalCheckCm);
+            GlobalMappingCache.getInstance().put(cacheKeyFor(md5AtQueueTime, file), llmResponse);
+            if (progressListener != null) {
+                progressListener.fileMappingCompleted(file.getAbsolutePath(), true, "Successfully mapped");
+            }
+        } else {
+             System.out.println("[MappingWorker] MD5 changed or file untracked before update for: " + file.getName() + ". LLM result discarded.");
+             if (progressListener != null) {
+                progressListener.fileMappingCompleted(file.getAbsolutePath(), false, "MD5 changed or untracked before update");
+            }
+        }
+    }
+
+    private static void reportMappingFailure(File file, MappingProgressListener progressListener, Exception e) {
+        String message = String.valueOf(e.getMessage());
+        System.err.println("[MappingWorker] Error during LLM mapping for " + file.getName() + ": " + message);
+        // e.printStackTrace(); // Keep console less cluttered for dialog testing
+         if (progressListener != null) {
+            progressListener.fileMappingCompleted(file.getAbsolutePath(), false, "LLM Error: " + message.substring(0, Math.min(message.length(), 50)));
+        }
+    }
+
+    private static String requestMapping(String systemPrompt, String userContent) {
+        // Errors propagate to the scheduler, which retries rate limits and transient failures before calling onFailed.
+        // Mappings are already cached by content in GlobalMappingCache, so this skips the ResponseCache.
+        O4MiniProvider miniProvider = MappingProviderHolder.PROVIDER;
+        ChatCompletionCreateParams params = miniProvider.simpleSystemUserRequest(systemPrompt, userContent, ReasoningEffort.LOW);
+        return miniProvider.blockingCompletion(params);
+    }
+
+    /**
+     * One provider for all mapping calls, so concurrent workers share its client and warm connections.
+     * Created on first use, since it reads the API key.
+     */
+    private static class MappingProviderHolder {
+        private static final O4MiniProvider PROVIDER = new O4MiniProvider();
+    }
+
+    private static long estimateMappingTokens(long sizeBytes) {
+        // ~4 chars per token for the file, plus headroom for the summary and low-effort reasoning.
+        return sizeBytes / 4 + 1500;
+    }
+
+    /**
+     * A small file waiting in the batcher.
+     */
+    private static class PendingMapping {
         private final File file;
-        private final ClassMapping classMappingStateAtQueueTime;
         private final String md5AtQueueTime;
         private final MappingProgressListener progressListener;
+        private final MappingScheduler.Priority priority;
+        private final long sizeBytes;
+
+        PendingMapping(File file, String md5AtQueueTime, MappingProgressListener progressListener, MappingScheduler.Priority priority) {
+            this.file = file;
+            this.md5AtQueueTime = md5AtQueueTime;
+            this.progressListener = progressListener;
+            this.priority = priority;
+            this.sizeBytes = file.length();
+        }
+    }
+
+    private void submitBatch(List<PendingMapping> batch) {
+        if (batch.size() == 1) {
+            PendingMapping only = batch.get(0);
+            MappingScheduler.getInstance().submit(new MappingWorker(only.file, only.md5AtQueueTime, only.progressListener, only.priority));
+        } else {
+            System.out.println("[WorkspaceMapper] Queuing batched mapping for " + batch.size() + " small files.");
+            MappingScheduler.getInstance().submit(new BatchMappingWorker(batch));
+        }
+    }
+
+    private class MappingWorker implements MappingScheduler.Job {
+        private final File file;
+        private final String md5AtQueueTime;
+        private final MappingProgressListener progressListener;
+        private final MappingScheduler.Priority priority;
+        private final long sizeBytes;
         
-        public MappingWorker(File file, ClassMapping classMapping, String md5AtQueueTime, MappingProgressListener listener) {
+        public MappingWorker(File file, String md5AtQueueTime, MappingProgressListener listener, MappingScheduler.Priority priority) {
             this.file = file;
-            this.classMappingStateAtQueueTime = classMapping;
             this.md5AtQueueTime = md5AtQueueTime;
             this.progressListener = listener;
+            this.priority = priority;
+            this.sizeBytes = file.length();
+        }
+
+        @Override
+        public String getProviderKey() {
+            return MAPPING_MODEL;
+        }
+
+        @Override
+        public long getEstimatedTokens() {
+            return MAPPING_SYSTEM_PROMPT.length() / 4 + estimateMappingTokens(sizeBytes);
+        }
+
+        @Override
+        public MappingScheduler.Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public long getSizeBytes() {
+            return sizeBytes;
         }
         
         @Override
-        public void run() {
-            ClassMapping currentMainMapCm = mappings.get(file.getAbsolutePath());
-            if (currentMainMapCm == null) {
-                System.err.println("[MappingWorker] File " + file.getName() + " no longer tracked. Aborting.");
-                if (progressListener != null) {
-                    progressListener.fileMappingCompleted(file.getAbsolutePath(), false, "File no longer tracked");
-                }
-                return;
+        public boolean execute() {
+            if (!stillNeedsMapping(file, md5AtQueueTime, progressListener)) {
+                return false;
             }
 
-            if (progressListener != null) {
-                progressListener.fileMappingStarted(file.getAbsolutePath());
-            }
+            System.out.println("[MappingWorker] Starting LLM mapping for: " + file.getName() + " (MD5: " + md5AtQueueTime + ")");
+            String fileContents = FileUtils.readFileToString(file);
+            if (fileContents == null) fileContents = "";
+
+            String llmResponse = requestMapping(MAPPING_SYSTEM_PROMPT, fileContents);
+            applyMappingResult(file, md5AtQueueTime, llmResponse, progressListener);
+            return true;
+        }
 
-            String actualCurrentFileMd5 = computeMD5(file);
-            if (!md5AtQueueTime.equals(actualCurrentFileMd5) || !md5AtQueueTime.equals(currentMainMapCm.getMd5sum())) {
-                 System.out.println("[MappingWorker] File " + file.getName() + " changed. Aborting stale worker.");
-                 if (progressListener != null) {
-                    progressListener.fileMappingCompleted(file.getAbsolutePath(), false, "File changed, stale worker");
+        @Override
+        public void onFailed(Exception e) {
+            reportMappingFailure(file, progressListener, e);
+        }
+    }
+
+    /**
+     * Maps several small files with one LLM request, so the system prompt and per-request overhead are paid once.
+     * Files whose section is missing from the response are re-queued individually.
+     */
+    private class BatchMappingWorker implements MappingScheduler.Job {
+        private final List<PendingMapping> batch;
+        private final MappingScheduler.Priority priority;
+        private final long sizeBytes;
+        private List<PendingMapping> inFlight = new ArrayList<>();
+
+        BatchMappingWorker(List<PendingMapping> batch) {
+            this.batch = batch;
+            MappingScheduler.Priority highest = MappingScheduler.Priority.LOW;
+            long total = 0;
+            for (PendingMapping pending : batch) {
+                if (pending.priority.ordinal() < highest.ordinal()) {
+                    highest = pending.priority;
                 }
-                 return;
+                total += pending.sizeBytes;
             }
-            if(md5AtQueueTime.equals(currentMainMapCm.getLastMappingMd5sum()) && currentMainMapCm.getMapping() != null && !currentMainMapCm.getMapping().isEmpty()){
-                System.out.println("[MappingWorker] File " + file.getName() + " MD5 " + md5AtQueueTime + " already mapped. Aborting redundant worker.");
-                 if (progressListener != null) {
-                    progressListener.fileMappingCompleted(file.getAbsolutePath(), true, "Already mapped by another worker");
+            this.priority = highest;
+            this.sizeBytes = total;
+        }
+
+        @Override
+        public String getProviderKey() {
+            return MAPPING_MODEL;
+        }
+
+        @Override
+        public long getEstimatedTokens() {
+            return BATCH_SYSTEM_PROMPT.length() / 4 + estimateMappingTokens(sizeBytes) + 500L * (batch.size() - 1);
+        }
+
+        @Override
+        public MappingScheduler.Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        @Override
+        public boolean execute() {
+            List<PendingMapping> live = new ArrayList<>();
+            for (PendingMapping pending : batch) {
+                // A retried batch only re-checks the files that were still in flight.
+                if (!inFlight.isEmpty() && !inFlight.contains(pending)) {
+                    continue;
                 }
-                return;
+                if (stillNeedsMapping(pending.file, pending.md5AtQueueTime, pending.progressListener)) {
+                    live.add(pending);
+                }
+            }
+            inFlight = live;
+            if (live.isEmpty()) {
+                return false;
             }
 
-            System.out.println("[MappingWorker] Starting LLM mapping for: " + file.getName() + " (MD5: " + md5AtQueueTime + ")");
-            String fileContents = FileUtils.readFileToString(file);
-            if (fileContents == null) fileContents = "";
-            
-            String prompt =
-                "Goal: Reduce file contents for overview.\n" +
-                "Take files and reduce their content to a somewhat primitive state, for the purpose of overview by developers looking to quickly find what classes, methods, fields, etc are relevant to complete tasks.\n" +
-                "\n" +
-                "Format (if a standard class):\n" +
-                "<namespace/package>\n" +
-                "class <classname> : <any inheritances>\n" +
-                "    fields: \n" +
-                "        field1: int;\n" +
-                "        field2: string;\n" +
-                "        field3: Object;\n" +
-                "    methods:\n" +
-                "        methodOne(): string; <description of methodOne>\n" +
-                "        methodTwo(obj: Object); <description of methodTwo>\n" +
-                "\n" +
-                "If no fields, don't include fields block. If no methods, don't include methods block.\n" +
-                "Write a full overview of the file as well afterward, explaining the purpose and some details about the file. DO NOT INFER OR GUESS WHAT SOMETHING DOES OR IS. SIMPLY WRITE A BRIEF ABSTRACT OUTLINE OF WHAT YOU BELIEVE THE PURPOSE OF THE CLASS IS.\n\n" +
-                "Developers should have a clear understanding of all fields, methods, and the general purpose aspect by viewing the result you produce.";
-            
-            O4MiniProvider miniProvider = new O4MiniProvider();
-            try {
-                ChatCompletionCreateParams simpleParams = miniProvider.simpleSystemUserRequest(prompt, fileContents, ReasoningEffort.LOW);
-                String llmResponse = miniProvider.blockingCompletion(simpleParams);
-
-                synchronized (WorkspaceMapper.this) {
-                    ClassMapping finalCheckCm = mappings.get(file.getAbsolutePath());
-                    if (finalCheckCm != null && finalCheckCm.getMd5sum().equals(md5AtQueueTime)) {
-                        finalCheckCm.setMapping(llmResponse);
-                        finalCheckCm.setLastMappingMd5sum(md5AtQueueTime);
-                        System.out.println("[MappingWorker] Successfully mapped: " + file.getName());
-                        persistMappings();
-                        if (progressListener != null) {
-                            progressListener.fileMappingCompleted(file.getAbsolutePath(), true, "Successfully mapped");
-                        }
-                    } else {
-                         System.out.println("[MappingWorker] MD5 changed or file untracked before update for: " + file.getName() + ". LLM result discarded.");
-                         if (progressListener != null) {
-                            progressListener.fileMappingCompleted(file.getAbsolutePath(), false, "MD5 changed or untracked before update");
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                System.err.println("[MappingWorker] Error during LLM mapping for " + file.getName() + ": " + e.getMessage());
-                // e.printStackTrace(); // Keep console less cluttered for dialog testing
-                 if (progressListener != null) {
-                    progressListener.fileMappingCompleted(file.getAbsolutePath(), false, "LLM Error: " + e.getMessage().substring(0, Math.min(e.getMessage().length(), 50)));
+            StringBuilder userContent = new StringBuilder();
+            for (int i = 0; i < live.size(); i++) {
+                String fileContents = FileUtils.readFileToString(live.get(i).file);
+                userContent.append("=== FILE ").append(i + 1).append(": ").append(relativePathOf(live.get(i).file)).append(" ===\n");
+                userContent.append(fileContents == null ? "" : fileContents).append("\n\n");
+            }
+
+            System.out.println("[MappingWorker] Starting batched LLM mapping for " + live.size() + " files.");
+            String llmResponse = requestMapping(BATCH_SYSTEM_PROMPT, userContent.toString());
+            Map<Integer, String> sections = parseBatchResponse(llmResponse);
+
+            for (int i = 0; i < live.size(); i++) {
+                PendingMapping pending = live.get(i);
+                String section = sections.get(i + 1);
+                if (section != null && !section.trim().isEmpty()) {
+                    applyMappingResult(pending.file, pending.md5AtQueueTime, section.trim(), pending.progressListener);
+                } else {
+                    System.out.println("[MappingWorker] Batch response missing " + pending.file.getName() + ". Re-queuing on its own.");
+                    MappingScheduler.getInstance().submit(new MappingWorker(pending.file, pending.md5AtQueueTime, pending.progressListener, pending.priority));
                 }
             }
+            inFlight = new ArrayList<>();
+            return true;
+        }
+
+        @Override
+        public void onFailed(Exception e) {
+            // Files dropped as stale or redundant have already been reported.
+            for (PendingMapping pending : inFlight.isEmpty() ? batch : inFlight) {
+                reportMappingFailure(pending.file, pending.progressListener, e);
+            }
+        }
+    }
+
+    static Map<Integer, String> parseBatchResponse(String response) {
+        Map<Integer, String> sections = new HashMap<>();
+        if (response == null) {
+            return sections;
+        }
+        Matcher matcher = BATCH_SECTION_PATTERN.matcher(response);
+        while (matcher.find()) {
+            sections.put(Integer.parseInt(matcher.group(1)), matcher.group(2));
+        }
+        return sections;
+    }
+
+    private String relativePathOf(File file) {
+        if (currentWorkspace == null) {
+            return file.getName();
         }
+        return currentWorkspace.toPath().toAbsolutePath().relativize(file.toPath().toAbsolutePath()).toString().replace('\\', '/');
     }
-}
\ No newline at end of file
+}
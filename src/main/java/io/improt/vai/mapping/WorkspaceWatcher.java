@@ -0,0 +1,248 @@
+package io.improt.vai.mapping;
+
+import io.improt.vai.util.WorkspaceScanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Change feed for a workspace tree, built on {@link WatchService}.
+ *
+ * Events are coalesced per path and held until the path has been quiet for {@link #DEBOUNCE_MS}, so an editor's
+ * save-as-rename-and-replace or a build touching a file several times arrives as one change. Directories are
+ * registered recursively (skipping the scanner's excluded directories) and new ones are picked up as they appear.
+ * If the platform drops events, listeners get {@link Listener#onOverflow()} and should fall back to a rescan.
+ */
+public class WorkspaceWatcher {
+
+    public static final long DEBOUNCE_MS = 500;
+
+    public enum ChangeKind { CREATED, MODIFIED, DELETED }
+
+    public interface Listener {
+        /**
+         * Called on the watcher thread with the settled changes, at most once per debounce interval.
+         */
+        void onChanges(Map<File, ChangeKind> changes);
+
+        void onOverflow();
+    }
+
+    private final Path root;
+    private final Listener listener;
+    private final WorkspaceScanner excludes = new WorkspaceScanner();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    /** Pending path -> [kind, quiet-until], in arrival order. Only touched on the watcher thread. */
+    private final Map<Path, Pending> pending = new LinkedHashMap<>();
+    private WatchService watchService;
+    private Thread thread;
+    private volatile boolean running;
+
+    private static class Pending {
+        private ChangeKind kind;
+        private long quietUntil;
+
+        Pending(ChangeKind kind, long quietUntil) {
+            this.kind = kind;
+            this.quietUntil = quietUntil;
+        }
+    }
+
+    public WorkspaceWatcher(File root, Listener listener) {
+        this.root = root.toPath().toAbsolutePath();
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            System.err.println("[WorkspaceWatcher] Cannot watch " + root + ": " + e.getMessage());
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "WorkspaceWatcher-" + root.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        registerTree(root, false);
+        System.out.println("[WorkspaceWatcher] Watching " + watchedDirectories.size() + " directories under " + root);
+        try {
+            while (running) {
+                WatchKey key = pending.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(nextDeadline() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handle(key);
+                }
+                flushSettled();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped.
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path dir = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                pending.clear();
+                listener.onOverflow();
+                continue;
+            }
+            if (dir == null) continue;
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                if (Files.isDirectory(path)) {
+                    if (!excludes.isExcludedDirectoryName(path.getFileName().toString())) {
+                        // Files can land before the new directory is registered; report whatever is already there.
+                        registerTree(path, true);
+                    }
+                    continue;
+                }
+                record(path, ChangeKind.CREATED);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+                if (!Files.isDirectory(path)) {
+                    record(path, ChangeKind.MODIFIED);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                record(path, ChangeKind.DELETED);
+            }
+        }
+        if (!key.reset()) {
+            Path gone = watchedDirectories.remove(key);
+            if (gone != null) {
+                // A deleted directory only reports itself; everything tracked beneath it goes with it.
+                record(gone, ChangeKind.DELETED);
+            }
+        }
+    }
+
+    private void record(Path path, ChangeKind kind) {
+        long quietUntil = System.currentTimeMillis() + DEBOUNCE_MS;
+        Pending existing = pending.remove(path);
+        if (existing == null) {
+            pending.put(path, new Pending(kind, quietUntil));
+            return;
+        }
+        existing.kind = coalesce(existing.kind, kind);
+        existing.quietUntil = quietUntil;
+        pending.put(path, existing); // Move to the end so arrival order reflects the latest event.
+    }
+
+    /**
+     * Net effect of two events on the same path: a file deleted and recreated has just been modified,
+     * and a file created then modified is still new.
+     */
+    private static ChangeKind coalesce(ChangeKind earlier, ChangeKind later) {
+        if (later == ChangeKind.DELETED) return ChangeKind.DELETED;
+        if (earlier == ChangeKind.DELETED) return ChangeKind.MODIFIED;
+        if (earlier == ChangeKind.CREATED) return ChangeKind.CREATED;
+        return later;
+    }
+
+    private long nextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for (Pending p : pending.values()) {
+            deadline = Math.min(deadline, p.quietUntil);
+        }
+        return deadline;
+    }
+
+    private void flushSettled() {
+        long now = System.currentTimeMillis();
+        Map<File, ChangeKind> settled = new LinkedHashMap<>();
+        Iterator<Map.Entry<Path, Pending>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Pending> entry = it.next();
+            if (entry.getValue().quietUntil <= now) {
+                settled.put(entry.getKey().toFile(), entry.getValue().kind);
+                it.remove();
+            }
+        }
+        if (!settled.isEmpty()) {
+            try {
+                listener.onChanges(settled);
+            } catch (RuntimeException e) {
+                System.err.println("[WorkspaceWatcher] Listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void registerTree(Path start, boolean reportExistingFiles) {
+        List<Path> failed = new ArrayList<>();
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(root) && excludes.isExcludedDirectoryName(dir.getFileName().toString())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    try {
+                        WatchKey key = dir.register(watchService,
+                                StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY,
+                                StandardWatchEventKinds.ENTRY_DELETE);
+                        watchedDirectories.put(key, dir);
+                    } catch (IOException e) {
+                        failed.add(dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (reportExistingFiles && attrs.isRegularFile()) {
+                        record(file, ChangeKind.CREATED);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException | ClosedWatchServiceException e) {
+            System.err.println("[WorkspaceWatcher] Failed to register " + start + ": " + e.getMessage());
+        }
+        if (!failed.isEmpty()) {
+            // Usually the inotify watch limit; those directories fall back to manual "update all".
+            System.err.println("[WorkspaceWatcher] Could not watch " + failed.size() + " directories (first: " + failed.get(0) + ").");
+        }
+    }
+}
@@ -5,6 +5,7 @@ import io.improt.vai.frame.dialogs.NonParsedTextDialog;
 import javax.swing.SwingUtilities;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 public class BerzfadParser {
@@ -12,6 +13,8 @@ public class BerzfadParser {
     // Pattern to check if a string contains only whitespace. Matches empty string as well.
     private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s*");
 
+    private static final int NEED_MORE = -2;
+
     /**
      * Parses a string potentially containing Berzfad formatted file blocks.
      * Valid blocks follow the pattern:
@@ -34,137 +37,607 @@ public class BerzfadParser {
      */
     public static List<FileContent> parse(String response) throws Exception {
         List<FileContent> fileContents = new ArrayList<>();
-        StringBuilder leftoverBuffer = new StringBuilder();
-        int index = 0; // Current position in the response string
+        ScanningParser parser = new ScanningParser(fileContents::add);
+        parser.feed(response);
+        parser.finish();
+        return fileContents;
+    }
+
+    /**
+     * The file blocks in a complete response, without reporting leftover text. For checking a response before
+     * committing to it, e.g. when choosing among several; it is still applied through {@link #parse(String)}.
+     */
+    public static List<FileContent> parseBlocks(String response) {
+        List<FileContent> fileContents = new ArrayList<>();
+        Scanner scanner = new Scanner(fileContents::add);
+        scanner.run(response, 0, response.length());
+        scanner.finish();
+        return fileContents;
+    }
 
-        while (index < response.length()) {
+    /**
+     * The search-based scan behind {@link #parse(String)}: each step finds its markers with indexOf/lastIndexOf
+     * from the current position. It can resume on partial text, but undecided text is rescanned on every drain.
+     * It is the reference {@link StreamingParser} is held to.
+     */
+    static class ScanningParser {
+        private final Consumer<FileContent> sink;
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder leftoverBuffer = new StringBuilder();
+        /** The character just before {@code text}; a newline at the start of the response. */
+        private char preceding = '\n';
+        private boolean sawText;
+        private int parsedCount;
+        private boolean finished;
+
+        ScanningParser(Consumer<FileContent> sink) {
+            this.sink = sink;
+        }
+
+        void feed(String chunk) {
+            if (finished) {
+                throw new IllegalStateException("Parser already finished");
+            }
+            if (chunk == null || chunk.isEmpty()) {
+                return;
+            }
+            if (!sawText && !chunk.trim().isEmpty()) {
+                sawText = true;
+            }
+            text.append(chunk);
+            // Every block completes on a newline after its !EOF; rescanning mid-line cannot emit anything.
+            if (chunk.indexOf('\n') != -1) {
+                drain(false);
+            }
+        }
+
+        int finish() throws Exception {
+            if (finished) {
+                return parsedCount;
+            }
+            reportLeftover(settle(), parsedCount, sawText);
+            return parsedCount;
+        }
+
+        /**
+         * Parses the rest of the response without reporting it, and returns the leftover text.
+         */
+        String settle() {
+            if (!finished) {
+                finished = true;
+                drain(true);
+            }
+            return leftoverBuffer.toString();
+        }
+
+        private void drain(boolean complete) {
+            int index = 0;
+            while (index < text.length()) {
+                int next = step(index, complete);
+                if (next == NEED_MORE) {
+                    break;
+                }
+                index = next;
+            }
+            if (index > 0) {
+                preceding = text.charAt(index - 1);
+                text.delete(0, index);
+            }
+        }
+
+        /**
+         * Decides the text at {@code index}: either consumes leading leftover text up to the next candidate block,
+         * or settles the block starting there. Returns the index to continue from, or {@link #NEED_MORE} if the
+         * outcome depends on text not received yet (never when {@code complete}).
+         */
+        private int step(int index, boolean complete) {
             // 1. Find the next potential '[' marker at the beginning of a line
             int startBracket = -1;
             int searchFrom = index;
             while (true) {
-                int potentialBracket = response.indexOf('[', searchFrom);
+                int potentialBracket = text.indexOf("[", searchFrom);
                 if (potentialBracket == -1) {
                     // No more '[' found in the remaining response
-                    startBracket = -1;
                     break;
                 }
                 // Check if it's at the start of the string or preceded by a newline
-                if (potentialBracket == 0 || response.charAt(potentialBracket - 1) == '\n') {
+                char before = potentialBracket == 0 ? preceding : text.charAt(potentialBracket - 1);
+                if (before == '\n') {
                     // Found a potential starting bracket at the beginning of a line
                     startBracket = potentialBracket;
                     break;
-                } else {
-                    // This '[' is not at the start of a line. Skip it and continue searching.
-                    searchFrom = potentialBracket + 1;
                 }
+                // This '[' is not at the start of a line. Skip it and continue searching.
+                searchFrom = potentialBracket + 1;
             }
 
-            // Append any text between the last position (index) and the found valid bracket start
-            if (startBracket != -1 && startBracket > index) {
-                leftoverBuffer.append(response, index, startBracket);
-            } else if (startBracket == -1) {
-                // No more valid file markers found, append the rest of the response to leftover
-                leftoverBuffer.append(response.substring(index));
-                index = response.length(); // Move index to end
-                break; // Exit the main loop
+            if (startBracket == -1) {
+                // No file markers in what we have; it can only be leftover, whatever follows.
+                leftoverBuffer.append(text, index, text.length());
+                return text.length();
+            }
+            if (startBracket > index) {
+                // Append any text between the last position (index) and the found valid bracket start
+                leftoverBuffer.append(text, index, startBracket);
+                return startBracket;
             }
-
-            // We have a potential start bracket at `startBracket`
-            index = startBracket; // Update main index to the start of the potential block
 
             // 2. Find the corresponding closing ']'
-            int endBracket = response.indexOf(']', startBracket + 1);
+            int endBracket = text.indexOf("]", startBracket + 1);
             if (endBracket == -1) {
+                if (!complete) return NEED_MORE;
                 // Found '[' at start of line, but no ']' -> Treat '[' as text and continue searching after it.
-                leftoverBuffer.append(response.charAt(startBracket));
-                index = startBracket + 1;
-                continue; // Continue main loop to search for the next valid '['
+                leftoverBuffer.append(text.charAt(startBracket));
+                return startBracket + 1;
             }
 
             // 3. Validate the sequence immediately following ']': must be exactly "\n```"
             int codeBlockMarkerStart = endBracket + 1;
             String requiredSequence = "\n```";
-            if (codeBlockMarkerStart + requiredSequence.length() > response.length() ||
-                !response.substring(codeBlockMarkerStart, codeBlockMarkerStart + requiredSequence.length()).equals(requiredSequence)) {
+            if (codeBlockMarkerStart + requiredSequence.length() > text.length() && !complete) {
+                return NEED_MORE;
+            }
+            if (codeBlockMarkerStart + requiredSequence.length() > text.length() ||
+                !text.substring(codeBlockMarkerStart, codeBlockMarkerStart + requiredSequence.length()).equals(requiredSequence)) {
                 // Sequence is invalid or goes beyond response length. Treat '[...]' as text and continue search after ']'.
-                leftoverBuffer.append(response, startBracket, endBracket + 1);
-                index = endBracket + 1;
-                continue; // Continue main loop to search for the next valid '['
+                leftoverBuffer.append(text, startBracket, endBracket + 1);
+                return endBracket + 1;
             }
 
             // 4. Valid block header found: [filepath]\n```
             // Extract file path
-            String filePath = response.substring(startBracket + 1, endBracket).trim();
+            String filePath = text.substring(startBracket + 1, endBracket).trim();
             if (filePath.isEmpty()) {
                 // Invalid block: Empty filename. Treat as text.
-                leftoverBuffer.append(response, startBracket, codeBlockMarkerStart + requiredSequence.length());
-                index = codeBlockMarkerStart + requiredSequence.length();
-                continue;
+                leftoverBuffer.append(text, startBracket, codeBlockMarkerStart + requiredSequence.length());
+                return codeBlockMarkerStart + requiredSequence.length();
             }
 
-
             // Find the end of the language identifier line (newline after ```lang)
             int langDeclStart = codeBlockMarkerStart + requiredSequence.length();
-            int langEnd = response.indexOf('\n', langDeclStart);
+            int langEnd = text.indexOf("\n", langDeclStart);
             if (langEnd == -1) {
+                if (!complete) return NEED_MORE;
                 // Malformed block: Missing newline after language declaration. Treat block header as text.
-                leftoverBuffer.append(response, startBracket, langDeclStart);
-                index = langDeclStart;
-                continue;
+                leftoverBuffer.append(text, startBracket, langDeclStart);
+                return langDeclStart;
             }
 
             // Extract language
-            String lang = response.substring(langDeclStart, langEnd).trim();
+            String lang = text.substring(langDeclStart, langEnd).trim();
             // Note: Language can technically be empty according to markdown spec.
 
             // 5. Find the end of the code block using a valid "!EOF" marker
             int codeContentStart = langEnd + 1;
-            int validEofIndex = findValidEof(response, codeContentStart);
+            int validEofIndex = findValidEof(text, codeContentStart, complete);
+            if (validEofIndex == NEED_MORE) {
+                return NEED_MORE;
+            }
 
             if (validEofIndex == -1) {
                 // Block is invalid because mandatory !EOF is missing. Treat header and potential content start as text.
-                leftoverBuffer.append(response, startBracket, codeContentStart);
-                index = codeContentStart;
-                continue; // Look for next potential block
+                leftoverBuffer.append(text, startBracket, codeContentStart);
+                return codeContentStart;
             }
 
             // 6. Find the closing code marker "\n```" which must precede the !EOF marker's line
             // Search backwards from the beginning of the !EOF line
-            int eofLineStart = response.lastIndexOf('\n', validEofIndex - 1) + 1; // Find start of !EOF line (or 0)
-            int closingCodeMarkerIndex = response.lastIndexOf("\n```", eofLineStart - 1); // Search for \n``` before the start of the !EOF line
+            int eofLineStart = text.lastIndexOf("\n", validEofIndex - 1) + 1; // Find start of !EOF line
+            int closingCodeMarkerIndex = text.lastIndexOf("\n```", eofLineStart - 1); // Search for \n``` before the start of the !EOF line
 
             if (closingCodeMarkerIndex == -1 || closingCodeMarkerIndex < langEnd) {
-                 // Malformed block: Closing "\n```" not found between lang line and !EOF line. Treat header as text.
-                 leftoverBuffer.append(response, startBracket, codeContentStart);
-                 index = codeContentStart;
-                 continue;
+                // Malformed block: Closing "\n```" not found between lang line and !EOF line. Treat header as text.
+                leftoverBuffer.append(text, startBracket, codeContentStart);
+                return codeContentStart;
             }
 
             // 7. Validate that only whitespace exists between the closing "\n```" and the start of the "!EOF" line
-            int contentEnd = closingCodeMarkerIndex; // Code content ends *before* the final \n```
             int closingMarkerEnd = closingCodeMarkerIndex + "\n```".length();
-            String betweenCodeAndEofLine = response.substring(closingMarkerEnd, eofLineStart);
+            String betweenCodeAndEofLine = text.substring(closingMarkerEnd, eofLineStart);
             if (!WHITESPACE_PATTERN.matcher(betweenCodeAndEofLine).matches()) {
-                 // Malformed block: Non-whitespace found between closing ``` and the line where !EOF starts. Treat header as text.
-                 leftoverBuffer.append(response, startBracket, codeContentStart);
-                 index = codeContentStart;
-                 continue;
+                // Malformed block: Non-whitespace found between closing ``` and the line where !EOF starts. Treat header as text.
+                leftoverBuffer.append(text, startBracket, codeContentStart);
+                return codeContentStart;
             }
 
-            // 8. Extract code content
-            String codeContent = response.substring(codeContentStart, contentEnd);
+            // 8. Extract code content. The closing fence may share the newline that ends the lang line (an empty file).
+            int contentEnd = Math.max(closingCodeMarkerIndex, codeContentStart);
+            String codeContent = text.substring(codeContentStart, contentEnd);
 
             // Successfully parsed a block
             System.out.println("BerzfadParser: Successfully parsed block for file: " + filePath);
-            FileContent fileContent = new FileContent(filePath, codeContent, lang);
-            fileContents.add(fileContent);
+            parsedCount++;
+            sink.accept(new FileContent(filePath, codeContent, lang));
+
+            // Continue after the full "!EOF" marker
+            return validEofIndex + 4;
+        }
+    }
+
+    /**
+     * Push parser for streamed responses, giving the same blocks and leftover text as {@link #parse(String)}.
+     *
+     * Text is consumed in a single forward pass; no input is rescanned. Each block is handed to the sink as soon as
+     * its {@code !EOF} line is terminated, and only leftover text and the block being read are held in memory.
+     *
+     * Where the search-based parser backtracks, this one keeps a second scanner instead. When a block header has
+     * been read, that block may still fail at its {@code !EOF} (no closing fence, or text between fence and marker).
+     * If it fails, the search-based parser rescans from just after the header. Every header found inside that region
+     * would end at the same marker, so it fails the same way. The second scanner therefore reads the content as
+     * plain text and drops any headers it meets. On failure it takes over from where it is; on success it is
+     * discarded. Apart from that, lookback is limited to the four characters after a ']' that turn out not to start
+     * a fence.
+     */
+    public static class StreamingParser {
+        private final Scanner scanner;
+        private int parsedCount;
+        private boolean sawText;
+        private boolean finished;
+
+        public StreamingParser(Consumer<FileContent> sink) {
+            this.scanner = new Scanner(fileContent -> {
+                parsedCount++;
+                sink.accept(fileContent);
+            });
+        }
+
+        public void feed(CharSequence chunk) {
+            if (finished) {
+                throw new IllegalStateException("Parser already finished");
+            }
+            if (chunk == null) {
+                return;
+            }
+            String text = chunk.toString();
+            for (int i = 0; !sawText && i < text.length(); i++) {
+                sawText = text.charAt(i) > ' ';
+            }
+            scanner.run(text, 0, text.length());
+        }
+
+        /**
+         * Settles the remaining text, reports leftover text and returns the number of blocks emitted overall.
+         *
+         * @throws Exception If the response contained text but nothing could be parsed (neither files nor leftover).
+         */
+        public int finish() throws Exception {
+            if (finished) {
+                return parsedCount;
+            }
+            reportLeftover(settle(), parsedCount, sawText);
+            return parsedCount;
+        }
+
+        /**
+         * Settles the remaining text without reporting it, and returns the leftover text.
+         */
+        String settle() {
+            if (!finished) {
+                finished = true;
+                scanner.finish();
+            }
+            return scanner.leftover.toString();
+        }
+
+        public int getParsedCount() {
+            return parsedCount;
+        }
+    }
+
+    /**
+     * The state machine behind {@link StreamingParser}. A scanner without a sink is the stand-in that reads a
+     * block's content as if the block had failed: it treats every header it completes as failed. All it reads
+     * is then leftover except a header still in progress, so it only keeps that header, not a copy of the text.
+     *
+     * Input is taken in runs rather than single characters: plain text up to the next newline, a path up to ']',
+     * a content line up to its newline. Only the first characters of a content line are looked at one by one,
+     * until it is clear the line is neither a fence nor a marker.
+     */
+    private static final class Scanner {
+        private static final int TEXT = 0;
+        private static final int PATH = 1;
+        private static final int FENCE = 2;
+        private static final int LANG = 3;
+        private static final int CONTENT = 4;
+
+        private static final String FENCE_SEQUENCE = "\n```";
+        private static final String EOF_MARKER = "!EOF";
+
+        private final Consumer<FileContent> sink;
+        /** Null for the stand-in. */
+        private final StringBuilder leftover;
+        private int mode = TEXT;
+        private boolean atLineStart = true;
+
+        // Header of the candidate block, from '[' through the newline ending the lang line.
+        private StringBuilder header = new StringBuilder();
+        private int pathEnd;
+        private int fenceMatched;
+        private int langStart;
+        private String path;
+        private String lang;
+
+        // Content of the candidate block and the state of its current line.
+        private final StringBuilder content = new StringBuilder();
+        private Scanner ifFailed;
+        private int lineStart;
+        private int lineLength;
+        private boolean lineBlank;
+        private boolean lineOpensFence;
+        private boolean lineBlankAfterFence;
+        private int eofMatched;
+        /** Content index of the last line starting with ``` (its '\n' is the closing fence), or -1. */
+        private int fenceLineStart;
+        /** Whether only whitespace follows that fence so far. */
+        private boolean fenceClean;
+
+        Scanner(Consumer<FileContent> sink) {
+            this.sink = sink;
+            this.leftover = sink != null ? new StringBuilder() : null;
+        }
+
+        void run(String text, int from, int to) {
+            int i = from;
+            while (i < to) {
+                i = step(text, i, to);
+            }
+        }
+
+        /**
+         * Consumes at least one character from {@code text[i, to)} and returns the index after what it consumed.
+         */
+        private int step(String text, int i, int to) {
+            char c = text.charAt(i);
+            switch (mode) {
+                case TEXT: {
+                    if (c == '[' && atLineStart) {
+                        header.setLength(0);
+                        header.append(c);
+                        atLineStart = false;
+                        mode = PATH;
+                        return i + 1;
+                    }
+                    // Up to the next newline, no '[' can start a line.
+                    int end = runEnd(text, '\n', i, to, true);
+                    appendLeftover(text, i, end);
+                    atLineStart = text.charAt(end - 1) == '\n';
+                    return end;
+                }
+                case PATH: {
+                    int end = runEnd(text, ']', i, to, true);
+                    header.append(text, i, end);
+                    if (text.charAt(end - 1) == ']') {
+                        pathEnd = header.length() - 1;
+                        fenceMatched = 0;
+                        mode = FENCE;
+                    }
+                    return end;
+                }
+                case FENCE:
+                    acceptFence(c);
+                    return i + 1;
+                case LANG: {
+                    int end = runEnd(text, '\n', i, to, true);
+                    header.append(text, i, end);
+                    if (text.charAt(end - 1) == '\n') {
+                        if (sink == null) {
+                            atLineStart = true;
+                            mode = TEXT;
+                        } else {
+                            lang = header.substring(langStart, header.length() - 1).trim();
+                            startContent();
+                        }
+                    }
+                    return end;
+                }
+                default:
+                    return stepContent(text, i, to);
+            }
+        }
+
+        private void acceptFence(char c) {
+            if (c != FENCE_SEQUENCE.charAt(fenceMatched)) {
+                // '[...]' is text; carry on right after the ']'.
+                String replay = header.substring(pathEnd + 1) + c;
+                appendLeftover(header, 0, pathEnd + 1);
+                atLineStart = false;
+                mode = TEXT;
+                run(replay, 0, replay.length());
+                return;
+            }
+            header.append(c);
+            if (++fenceMatched == FENCE_SEQUENCE.length()) {
+                path = header.substring(1, pathEnd).trim();
+                if (path.isEmpty()) {
+                    appendLeftover(header, 0, header.length());
+                    atLineStart = false;
+                    mode = TEXT;
+                } else {
+                    langStart = header.length();
+                    mode = LANG;
+                }
+            }
+        }
+
+        void finish() {
+            switch (mode) {
+                case TEXT:
+                    break;
+                case CONTENT:
+                    // A marker may end the response without a newline.
+                    if (eofMatched == EOF_MARKER.length() && settle()) {
+                        break;
+                    }
+                    fail();
+                    finish();
+                    break;
+                default:
+                    // An unfinished header, and whatever follows it, is text.
+                    appendLeftover(header, 0, header.length());
+                    mode = TEXT;
+                    break;
+            }
+        }
+
+        private void startContent() {
+            mode = CONTENT;
+            content.setLength(0);
+            fenceLineStart = -1;
+            fenceClean = false;
+            startLine();
+            ifFailed = new Scanner(null);
+        }
+
+        private void startLine() {
+            lineStart = content.length();
+            lineLength = 0;
+            lineBlank = true;
+            lineOpensFence = true;
+            lineBlankAfterFence = true;
+            eofMatched = 0;
+        }
+
+        private int stepContent(String text, int i, int to) {
+            if (text.charAt(i) == '\n') {
+                ifFailed.run(text, i, i + 1);
+                content.append('\n');
+                if (eofMatched == EOF_MARKER.length()) {
+                    if (settle()) {
+                        run(text, i, i + 1);
+                    } else {
+                        fail();
+                    }
+                    return i + 1;
+                }
+                if (lineOpensFence && lineLength >= 3) {
+                    fenceLineStart = lineStart;
+                    fenceClean = lineBlankAfterFence;
+                } else {
+                    fenceClean = fenceClean && lineBlank;
+                }
+                startLine();
+                return i + 1;
+            }
+
+            int end = runEnd(text, '\n', i, to, false);
+            int j = i;
+            while (j < end && lineUndecided()) {
+                acceptLineChar(text.charAt(j++));
+            }
+            lineLength += end - j;
+            content.append(text, i, end);
+            if (ifFailed.mode == TEXT && !(ifFailed.atLineStart && text.charAt(i) == '[')) {
+                // Without a newline in the run, plain text stays plain text.
+                ifFailed.atLineStart = false;
+            } else {
+                ifFailed.run(text, i, end);
+            }
+            return end;
+        }
 
-            // Update index to position after the full "!EOF" marker for the next search iteration
-            index = validEofIndex + 4;
+        /**
+         * Whether the next character of the current line can still change whether it is a fence or a marker line.
+         */
+        private boolean lineUndecided() {
+            return lineBlank || eofMatched >= 0 || (lineOpensFence && (lineLength < 3 || lineBlankAfterFence));
+        }
 
-        } // End while loop scanning through response
+        private void acceptLineChar(char c) {
+            lineLength++;
+            boolean whitespace = isWhitespace(c);
+            lineBlank = lineBlank && whitespace;
+            if (lineLength <= 3) {
+                lineOpensFence = lineOpensFence && c == '`';
+            } else {
+                lineBlankAfterFence = lineBlankAfterFence && whitespace;
+            }
+            // The marker line is optional indentation, then exactly "!EOF".
+            if (eofMatched >= 0) {
+                if (eofMatched == 0 && whitespace) {
+                    // Still indentation.
+                } else if (eofMatched < EOF_MARKER.length() && c == EOF_MARKER.charAt(eofMatched)) {
+                    eofMatched++;
+                } else {
+                    eofMatched = -1;
+                }
+            }
+        }
 
-        // Process the accumulated leftover non-parsed text.
+        /**
+         * Emits the block at its marker if it closed its fence properly; returns false if it did not.
+         */
+        private boolean settle() {
+            if (fenceLineStart < 0 || !fenceClean) {
+                return false;
+            }
+            // The closing fence may share the newline that ends the lang line (an empty file).
+            String codeContent = content.substring(0, Math.max(fenceLineStart - 1, 0));
+            System.out.println("BerzfadParser: Successfully parsed block for file: " + path);
+            sink.accept(new FileContent(path, codeContent, lang));
+            content.setLength(0);
+            ifFailed = null;
+            mode = TEXT;
+            return true;
+        }
+
+        /**
+         * Hands over to the stand-in, which has read the content as text.
+         */
+        private void fail() {
+            Scanner standIn = ifFailed;
+            ifFailed = null;
+            int pending = standIn.mode == TEXT ? 0 : standIn.header.length();
+            leftover.append(header).append(content, 0, content.length() - pending);
+            content.setLength(0);
+            mode = standIn.mode;
+            atLineStart = standIn.atLineStart;
+            header = standIn.header;
+            pathEnd = standIn.pathEnd;
+            fenceMatched = standIn.fenceMatched;
+            langStart = standIn.langStart;
+            path = standIn.path;
+        }
+
+        private void appendLeftover(CharSequence text, int from, int to) {
+            if (leftover != null) {
+                leftover.append(text, from, to);
+            }
+        }
+
+        /**
+         * End of the run starting at {@code from}: just past the next {@code stop} (or at it, if not
+         * {@code inclusive}), or {@code to} if there is none before it.
+         */
+        private static int runEnd(String text, char stop, int from, int to, boolean inclusive) {
+            int at = -1;
+            if (to == text.length()) {
+                at = text.indexOf(stop, from);
+            } else {
+                // indexOf would keep searching past the run.
+                for (int i = from; i < to && at == -1; i++) {
+                    if (text.charAt(i) == stop) {
+                        at = i;
+                    }
+                }
+            }
+            if (at == -1) {
+                return to;
+            }
+            return inclusive ? at + 1 : at;
+        }
+
+        private static boolean isWhitespace(char c) {
+            // The same set as \s in WHITESPACE_PATTERN, less the newline that ends a line.
+            return c == ' ' || c == '\t' || c == '\u000B' || c == '\f' || c == '\r';
+        }
+    }
+
+    /**
+     * Reports the accumulated leftover non-parsed text and checks that the response yielded something.
+     *
+     * @throws Exception If the response contained text but nothing could be parsed (neither files nor leftover).
+     */
+    private static void reportLeftover(CharSequence leftoverBuffer, int parsedCount, boolean sawText) throws Exception {
         String leftover = leftoverBuffer.toString();
         // Remove any diagnostic <think>...</think> blocks
         leftover = leftover.replaceAll("(?s)<think>.*?</think>", "").trim();
@@ -176,12 +649,10 @@ public class BerzfadParser {
         }
 
         // Check if parsing yielded anything meaningful *if* the input response was not empty/whitespace.
-        if (fileContents.isEmpty() && leftover.isEmpty() && !response.trim().isEmpty()) {
+        if (parsedCount == 0 && leftover.isEmpty() && sawText) {
             throw new Exception("Response contained text but no valid Berzfad blocks or leftover text could be parsed.");
         }
-        // If the original response was empty or only whitespace, returning an empty list is expected and correct.
-
-        return fileContents;
+        // If the original response was empty or only whitespace, returning nothing is expected and correct.
     }
 
     /**
@@ -189,35 +660,40 @@ public class BerzfadParser {
      * A valid !EOF marker must be exactly "!EOF" and appear with no non-whitespace
      * characters preceding it on its line (leading tabs and spaces are allowed).
      *
-     * @param text The full text to search within.
+     * @param haystack The text received so far.
      * @param fromIndex The index from which to start searching.
-     * @return The starting index of the valid "!EOF" marker, or -1 if not found.
+     * @param complete Whether {@code text} is the whole response; if not, a marker at its very end is undecided.
+     * @return The starting index of the valid "!EOF" marker, -1 if not found, or {@link #NEED_MORE} if a
+     *         marker may still arrive.
      */
-    private static int findValidEof(String text, int fromIndex) {
+    private static int findValidEof(StringBuilder haystack, int fromIndex, boolean complete) {
         int searchIndex = fromIndex;
         while (true) {
-            int eofIndex = text.indexOf("!EOF", searchIndex);
+            int eofIndex = haystack.indexOf("!EOF", searchIndex);
             if (eofIndex == -1) {
-                return -1; // "!EOF" not found in the remainder of the text
+                return complete ? -1 : NEED_MORE; // "!EOF" not found in the remainder of the text
             }
 
             // Check if "!EOF" is followed by something other than newline or EOF, which would make it invalid.
             // (e.g., "!EOFabc"). Allow !EOF at the very end of the string.
-            if (eofIndex + 4 < text.length() && text.charAt(eofIndex + 4) != '\n') {
-                 // It's part of a larger word, not the marker. Continue search.
-                 searchIndex = eofIndex + 1; // Start search after the '!'
-                 continue;
+            if (eofIndex + 4 < haystack.length() && haystack.charAt(eofIndex + 4) != '\n') {
+                // It's part of a larger word, not the marker. Continue search.
+                searchIndex = eofIndex + 1; // Start search after the '!'
+                continue;
             }
 
-
             // Find the start of the line containing this "!EOF".
-            int lineStart = text.lastIndexOf('\n', eofIndex - 1);
+            int lineStart = haystack.lastIndexOf("\n", eofIndex - 1);
             // Adjust lineStart to be the index *after* the newline, or 0 if it's the first line.
             lineStart = (lineStart == -1) ? 0 : lineStart + 1;
 
             // Check if the prefix on the line (from lineStart up to eofIndex) contains only whitespace.
-            String prefix = text.substring(lineStart, eofIndex);
+            String prefix = haystack.substring(lineStart, eofIndex);
             if (WHITESPACE_PATTERN.matcher(prefix).matches()) {
+                if (eofIndex + 4 == haystack.length() && !complete) {
+                    // Could still turn out to be "!EOFabc".
+                    return NEED_MORE;
+                }
                 // Valid !EOF found: it starts its line (ignoring whitespace) and isn't part of another word.
                 return eofIndex;
             }
@@ -0,0 +1,202 @@
+package io.improt.vai.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A directory of files, one per key, evicted least recently used first once there are more than {@code maxEntries}
+ * or they take more than {@code maxBytes}, and optionally dropped once unused for {@code maxIdleMs}.
+ *
+ * Each hit touches its file's modification time, so the access order survives restarts: the index is rebuilt from
+ * the directory on first use, oldest modification time first. Entries are written to a temp file and moved into
+ * place, so a reader never sees half an entry. Keys must be usable as file names.
+ */
+public class DiskLruCache {
+
+    private final File directory;
+    private final String suffix;
+    private final boolean sharded;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long maxIdleMs;
+    private final String name;
+
+    /** Key to entry, least recently used first. */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+    private long evictions;
+    private boolean loaded;
+
+    private static class Entry {
+        final long bytes;
+        long lastUsed;
+
+        Entry(long bytes, long lastUsed) {
+            this.bytes = bytes;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * @param suffix    File name suffix of every entry, e.g. {@code ".json"}.
+     * @param sharded   Whether entries go in a subdirectory named by the key's first two characters.
+     * @param maxIdleMs How long an entry may go unused before it is dropped, or 0 to keep it until evicted.
+     * @param name      Used in log messages.
+     */
+    public DiskLruCache(File directory, String suffix, boolean sharded, int maxEntries, long maxBytes, long maxIdleMs, String name) {
+        this.directory = directory;
+        this.suffix = suffix;
+        this.sharded = sharded;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxIdleMs = maxIdleMs;
+        this.name = name;
+    }
+
+    /**
+     * The stored bytes for {@code key}, or null if there are none (or they expired or could not be read).
+     */
+    public synchronized byte[] get(String key) {
+        ensureLoaded();
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (isIdle(entry, now)) {
+            remove(key);
+            return null;
+        }
+        File file = fileFor(key);
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            entry.lastUsed = now;
+            file.setLastModified(now);
+            return bytes;
+        } catch (IOException e) {
+            System.err.println("[" + name + "] Dropping unreadable entry " + key + ": " + e.getMessage());
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores {@code bytes} under {@code key}, replacing any earlier entry. Returns whether it was written.
+     */
+    public synchronized boolean put(String key, byte[] bytes) {
+        ensureLoaded();
+        File file = fileFor(key);
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Path tmp = new File(file.getParentFile(), file.getName() + ".tmp").toPath();
+            Files.write(tmp, bytes);
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[" + name + "] Failed to store entry " + key + ": " + e.getMessage());
+            return false;
+        }
+        Entry previous = index.put(key, new Entry(bytes.length, System.currentTimeMillis()));
+        totalBytes += bytes.length - (previous == null ? 0 : previous.bytes);
+        evict();
+        return true;
+    }
+
+    public synchronized void remove(String key) {
+        ensureLoaded();
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.bytes;
+        }
+        deleteFile(key);
+    }
+
+    public synchronized void clear() {
+        ensureLoaded();
+        for (String key : index.keySet().toArray(new String[0])) {
+            remove(key);
+        }
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return index.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        ensureLoaded();
+        return totalBytes;
+    }
+
+    /** Entries evicted for space since startup; expired ones are not counted. */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private boolean isIdle(Entry entry, long now) {
+        return maxIdleMs > 0 && now - entry.lastUsed > maxIdleMs;
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            boolean idle = isIdle(eldest.getValue(), now);
+            if (!idle && index.size() <= maxEntries && totalBytes <= maxBytes) {
+                break;
+            }
+            it.remove();
+            totalBytes -= eldest.getValue().bytes;
+            deleteFile(eldest.getKey());
+            if (!idle) {
+                evictions++;
+            }
+        }
+    }
+
+    private void deleteFile(String key) {
+        try {
+            Files.deleteIfExists(fileFor(key).toPath());
+        } catch (IOException e) {
+            System.err.println("[" + name + "] Failed to delete entry " + key + ": " + e.getMessage());
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!directory.isDirectory()) return;
+        List<File> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(directory.toPath(), sharded ? 2 : 1)) {
+            walk.map(Path::toFile)
+                    .filter(f -> f.isFile() && f.getName().endsWith(suffix))
+                    .forEach(files::add);
+        } catch (IOException e) {
+            System.err.println("[" + name + "] Failed to index " + directory + ": " + e.getMessage());
+            return;
+        }
+        files.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            String fileName = file.getName();
+            index.put(fileName.substring(0, fileName.length() - suffix.length()), new Entry(file.length(), file.lastModified()));
+            totalBytes += file.length();
+        }
+        evict();
+        System.out.println("[" + name + "] Indexed " + index.size() + " entries (" + totalBytes / 1024 + " KB).");
+    }
+
+    private File fileFor(String key) {
+        File parent = sharded ? new File(directory, key.substring(0, Math.min(2, key.length()))) : directory;
+        return new File(parent, key + suffix);
+    }
+}
@@ -0,0 +1,193 @@
+package io.improt.vai.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The .gitignore rules in effect for one directory, chained to the rules of its parents.
+ * Covers the common subset of the format: comments, negation, anchoring, directory-only
+ * patterns, and the *, ?, ** and [...] wildcards.
+ */
+public class GitIgnoreRules {
+
+    public static final String GITIGNORE_FILENAME = ".gitignore";
+
+    private static final GitIgnoreRules EMPTY = new GitIgnoreRules(null, null, Collections.emptyList());
+
+    private final GitIgnoreRules parent;
+    private final Path baseDir;
+    private final List<Rule> rules;
+
+    private GitIgnoreRules(GitIgnoreRules parent, Path baseDir, List<Rule> rules) {
+        this.parent = parent;
+        this.baseDir = baseDir;
+        this.rules = rules;
+    }
+
+    public static GitIgnoreRules empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns the rules for {@code dir}: this chain plus the directory's own .gitignore, if it has one.
+     */
+    public GitIgnoreRules forDirectory(Path dir) {
+        Path gitignore = dir.resolve(GITIGNORE_FILENAME);
+        if (!Files.isRegularFile(gitignore)) {
+            return this;
+        }
+        try {
+            return withPatterns(dir, Files.readAllLines(gitignore, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("[GitIgnoreRules] Failed to read " + gitignore + ": " + e.getMessage());
+            return this;
+        }
+    }
+
+    /**
+     * Adds patterns relative to {@code baseDir}, as if they came from a .gitignore in that directory.
+     */
+    public GitIgnoreRules withPatterns(Path baseDir, List<String> lines) {
+        List<Rule> parsed = new ArrayList<>();
+        for (String line : lines) {
+            Rule rule = Rule.parse(line);
+            if (rule != null) {
+                parsed.add(rule);
+            }
+        }
+        return parsed.isEmpty() ? this : new GitIgnoreRules(this, baseDir, parsed);
+    }
+
+    public boolean isIgnored(Path path, boolean isDirectory) {
+        for (GitIgnoreRules level = this; level != null && level.baseDir != null; level = level.parent) {
+            if (!path.startsWith(level.baseDir)) {
+                continue;
+            }
+            String relative = level.baseDir.relativize(path).toString().replace('\\', '/');
+            // Within one file the last matching rule wins; deeper files override shallower ones.
+            for (int i = level.rules.size() - 1; i >= 0; i--) {
+                Rule rule = level.rules.get(i);
+                if (rule.matches(relative, isDirectory)) {
+                    return !rule.negated;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static class Rule {
+        private final Pattern pattern;
+        private final boolean negated;
+        private final boolean directoryOnly;
+        private final boolean matchBasename;
+
+        private Rule(Pattern pattern, boolean negated, boolean directoryOnly, boolean matchBasename) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.matchBasename = matchBasename;
+        }
+
+        static Rule parse(String line) {
+            String text = stripTrailingSpaces(line);
+            if (text.isEmpty() || text.startsWith("#")) {
+                return null;
+            }
+            boolean negated = false;
+            if (text.startsWith("!")) {
+                negated = true;
+                text = text.substring(1);
+            } else if (text.startsWith("\\!") || text.startsWith("\\#")) {
+                text = text.substring(1);
+            }
+            boolean directoryOnly = text.endsWith("/");
+            if (directoryOnly) {
+                text = text.substring(0, text.length() - 1);
+            }
+            if (text.isEmpty()) {
+                return null;
+            }
+            // A slash anywhere but the end anchors the pattern to the .gitignore's directory.
+            boolean anchored = text.contains("/");
+            if (text.startsWith("/")) {
+                text = text.substring(1);
+            }
+            return new Rule(Pattern.compile(globToRegex(text)), negated, directoryOnly, !anchored);
+        }
+
+        boolean matches(String relativePath, boolean isDirectory) {
+            if (directoryOnly && !isDirectory) {
+                return false;
+            }
+            if (matchBasename) {
+                int slash = relativePath.lastIndexOf('/');
+                return pattern.matcher(slash >= 0 ? relativePath.substring(slash + 1) : relativePath).matches();
+            }
+            return pattern.matcher(relativePath).matches();
+        }
+
+        private static String stripTrailingSpaces(String line) {
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+                end--;
+            }
+            return line.substring(0, end);
+        }
+
+        private static String globToRegex(String glob) {
+            StringBuilder sb = new StringBuilder();
+            int i = 0;
+            while (i < glob.length()) {
+                char c = glob.charAt(i);
+                if (c == '*') {
+                    boolean doubleStar = i + 1 < glob.length() && glob.charAt(i + 1) == '*';
+                    if (doubleStar) {
+                        boolean leadingSegment = i == 0 || glob.charAt(i - 1) == '/';
+                        boolean followedBySlash = i + 2 < glob.length() && glob.charAt(i + 2) == '/';
+                        if (leadingSegment && followedBySlash) {
+                            sb.append("(?:.*/)?");
+                            i += 3;
+                        } else {
+                            sb.append(".*");
+                            i += 2;
+                        }
+                    } else {
+                        sb.append("[^/]*");
+                        i++;
+                    }
+                } else if (c == '?') {
+                    sb.append("[^/]");
+                    i++;
+                } else if (c == '[') {
+                    int close = glob.indexOf(']', i + 1);
+                    if (close < 0) {
+                        sb.append("\\[");
+                        i++;
+                    } else {
+                        String body = glob.substring(i + 1, close);
+                        if (body.startsWith("!")) {
+                            body = "^" + body.substring(1);
+                        }
+                        sb.append('[').append(body.replace("\\", "\\\\")).append(']');
+                        i = close + 1;
+                    }
+                } else if (c == '\\' && i + 1 < glob.length()) {
+                    sb.append(Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+                    i += 2;
+                } else {
+                    sb.append(Pattern.quote(String.valueOf(c)));
+                    i++;
+                }
+            }
+            // A pattern naming a directory also covers everything beneath it.
+            sb.append("(?:/.*)?");
+            return sb.toString();
+        }
+    }
+}
@@ -3,33 +3,63 @@ package io.improt.vai.util;
 import io.improt.vai.backend.App;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * This class manages the message history for the current workspace.
- * The history is stored in a JSON file ("message_history.json") located in the workspace-specific VAI directory.
+ * The history is stored in the workspace-specific VAI directory as "message_history.jsonl", one JSON string per
+ * line, so adding a message appends one line instead of rewriting the file. Only the latest {@value #MAX_MESSAGES}
+ * messages are kept; once the file holds twice that many lines it is rewritten with just those. An older
+ * "message_history.json" array is migrated on first load.
  */
 public class MessageHistoryManager {
+    private static final int MAX_MESSAGES = 500;
+
     private final List<String> history;
     private int currentIndex;
     private final File historyFile;
+    private int linesOnDisk;
 
     public MessageHistoryManager(File workspace) {
         history = new ArrayList<>();
         // Get the workspace-specific VAI directory using FileUtils.
         File vaiDir = FileUtils.getWorkspaceVaiDir(workspace);
-        historyFile = new File(vaiDir, "message_history.json");
-        loadHistory();
+        historyFile = new File(vaiDir, "message_history.jsonl");
+        loadHistory(new File(vaiDir, "message_history.json"));
         // Set current index to the most recent message.
         currentIndex = history.size() - 1;
     }
 
-    private void loadHistory() {
+    private void loadHistory(File legacyFile) {
         if (historyFile.exists()) {
-            String jsonContent = FileUtils.readFileToString(historyFile);
+            try (BufferedReader reader = Files.newBufferedReader(historyFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+                    linesOnDisk++;
+                    try {
+                        history.add(new JSONArray("[" + line + "]").getString(0));
+                    } catch (JSONException e) {
+                        // A line cut short by a crash; the rest of the history is intact.
+                        System.err.println("[MessageHistoryManager] Skipping unreadable line: " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else if (legacyFile.exists()) {
+            String jsonContent = FileUtils.readFileToString(legacyFile);
             if (jsonContent != null && !jsonContent.isEmpty()) {
                 try {
                     JSONArray jsonArray = new JSONArray(jsonContent);
@@ -40,15 +70,40 @@ public class MessageHistoryManager {
                     e.printStackTrace();
                 }
             }
+            trim();
+            rewrite();
+            if (!legacyFile.delete()) {
+                System.out.println("[WARNING] Failed to delete migrated " + legacyFile.getAbsolutePath());
+            }
+            return;
+        }
+        trim();
+        if (linesOnDisk > 2 * MAX_MESSAGES) {
+            rewrite();
         }
     }
 
-    private void saveHistory() {
-        JSONArray jsonArray = new JSONArray();
+    private void trim() {
+        if (history.size() > MAX_MESSAGES) {
+            history.subList(0, history.size() - MAX_MESSAGES).clear();
+        }
+    }
+
+    /** Replaces the file with the messages currently held. */
+    private void rewrite() {
+        StringBuilder sb = new StringBuilder();
         for (String message : history) {
-            jsonArray.put(message);
+            sb.append(JSONObject.quote(message)).append('\n');
+        }
+        try {
+            Files.createDirectories(historyFile.getParentFile().toPath());
+            Path tmp = new File(historyFile.getParentFile(), historyFile.getName() + ".tmp").toPath();
+            Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, historyFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            linesOnDisk = history.size();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        FileUtils.writeStringToFile(historyFile, jsonArray.toString(4));
     }
 
     /**
@@ -56,8 +111,20 @@ public class MessageHistoryManager {
      */
     public void addMessage(String message) {
         history.add(message);
+        trim();
         currentIndex = history.size() - 1;
-        saveHistory();
+        if (linesOnDisk >= 2 * MAX_MESSAGES) {
+            rewrite();
+            return;
+        }
+        try {
+            Files.createDirectories(historyFile.getParentFile().toPath());
+            Files.write(historyFile.toPath(), (JSONObject.quote(message) + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            linesOnDisk++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
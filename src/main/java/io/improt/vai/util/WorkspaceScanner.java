@@ -0,0 +1,300 @@
+package io.improt.vai.util;
+
+import io.improt.vai.mapping.WorkspaceMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Shared directory scanner for the mapper, sub-workspaces and the mapper tree.
+ *
+ * Each directory is listed with a depth-1 {@link Files#walkFileTree} pass, so file attributes come from the
+ * same syscalls as the listing. Subdirectories are forked onto a small shared ForkJoin pool. Results can be
+ * collected with {@link #scan(File)} or consumed while the walk is still running via {@link #stream(File)}.
+ */
+public class WorkspaceScanner {
+
+    public static final Set<String> DEFAULT_EXCLUDED_DIRECTORIES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            ".git", ".idea", ".vscode", ".vai", "node_modules", "target", "build")));
+
+    private static final int STREAM_QUEUE_CAPACITY = 1024;
+    private static final ScannedFile END_OF_SCAN = new ScannedFile(null, null);
+
+    private static final ForkJoinPool SCAN_POOL = new ForkJoinPool(
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())),
+            pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("WorkspaceScanner-" + t.getPoolIndex());
+                t.setDaemon(true);
+                return t;
+            },
+            null, false);
+
+    private final Set<String> excludedDirectoryNames = new HashSet<>(DEFAULT_EXCLUDED_DIRECTORIES);
+    private final List<String> excludePatterns = new ArrayList<>();
+    private boolean respectGitIgnore = true;
+    private Predicate<Path> fileFilter = p -> true;
+
+    public static class ScannedFile {
+        private final Path path;
+        private final BasicFileAttributes attributes;
+
+        ScannedFile(Path path, BasicFileAttributes attributes) {
+            this.path = path;
+            this.attributes = attributes;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public File toFile() {
+            return path.toFile();
+        }
+
+        public BasicFileAttributes getAttributes() {
+            return attributes;
+        }
+    }
+
+    /**
+     * Extra directory names (matched case-insensitively) to skip, on top of {@link #DEFAULT_EXCLUDED_DIRECTORIES}.
+     */
+    public WorkspaceScanner excludeDirectories(Collection<String> names) {
+        for (String name : names) {
+            excludedDirectoryNames.add(name.toLowerCase(Locale.ROOT));
+        }
+        return this;
+    }
+
+    /**
+     * Extra gitignore-style patterns, applied relative to the scan root.
+     */
+    public WorkspaceScanner excludePatterns(Collection<String> patterns) {
+        excludePatterns.addAll(patterns);
+        return this;
+    }
+
+    public WorkspaceScanner respectGitIgnore(boolean respect) {
+        this.respectGitIgnore = respect;
+        return this;
+    }
+
+    public WorkspaceScanner filterFiles(Predicate<Path> filter) {
+        this.fileFilter = filter;
+        return this;
+    }
+
+    /**
+     * Convenience scanner matching the file types {@code WorkspaceMapper} knows how to map.
+     */
+    public static WorkspaceScanner forMappableFiles() {
+        return new WorkspaceScanner().filterFiles(p -> WorkspaceMapper.hasValidExtension(p.getFileName().toString()));
+    }
+
+    public boolean isExcludedDirectoryName(String name) {
+        return excludedDirectoryNames.contains(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Walks the whole tree in parallel and returns every matching file. Order is not defined.
+     */
+    public List<ScannedFile> scan(File root) {
+        List<ScannedFile> results = Collections.synchronizedList(new ArrayList<>());
+        if (root == null || !root.isDirectory()) {
+            return results;
+        }
+        SCAN_POOL.invoke(new DirectoryTask(root.toPath().toAbsolutePath(), rootRules(root), results::add, new AtomicBoolean(false)));
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * Starts a parallel walk and returns an iterator over files as they are found. The queue between the walk
+     * and the consumer is bounded, so a slow consumer throttles the walk. Close the iterator to abandon the walk early.
+     */
+    public ScanIterator stream(File root) {
+        ScanIterator iterator = new ScanIterator();
+        if (root == null || !root.isDirectory()) {
+            iterator.queue.add(END_OF_SCAN);
+            return iterator;
+        }
+        DirectoryTask task = new DirectoryTask(root.toPath().toAbsolutePath(), rootRules(root), iterator::offer, iterator.cancelled);
+        SCAN_POOL.execute(() -> {
+            try {
+                task.invoke();
+            } finally {
+                iterator.finish();
+            }
+        });
+        return iterator;
+    }
+
+    private GitIgnoreRules rootRules(File root) {
+        GitIgnoreRules rules = GitIgnoreRules.empty();
+        if (!excludePatterns.isEmpty()) {
+            rules = rules.withPatterns(root.toPath().toAbsolutePath(), excludePatterns);
+        }
+        return rules;
+    }
+
+    public static class ScanIterator implements Iterator<ScannedFile>, AutoCloseable {
+        private final BlockingQueue<ScannedFile> queue = new ArrayBlockingQueue<>(STREAM_QUEUE_CAPACITY);
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private ScannedFile next;
+        private boolean done;
+
+        private void offer(ScannedFile file) {
+            put(file, false);
+        }
+
+        private void finish() {
+            put(END_OF_SCAN, true);
+        }
+
+        /**
+         * Puts {@code item} on the queue, waiting for the consumer if it is full. Runs on the scan pool, so the wait
+         * goes through {@link ForkJoinPool#managedBlock} and the pool can add a worker rather than stall behind a
+         * slow consumer. A cancelled scan drops items; the end marker is always delivered.
+         */
+        private void put(ScannedFile item, boolean endMarker) {
+            ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+                private boolean released;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    if (!isReleasable()) {
+                        released = queue.offer(item, 100, TimeUnit.MILLISECONDS);
+                    }
+                    return isReleasable();
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    if (released) return true;
+                    if (cancelled.get()) {
+                        if (!endMarker) return released = true;
+                        queue.clear();
+                    }
+                    return released = queue.offer(item);
+                }
+            };
+            try {
+                ForkJoinPool.managedBlock(blocker);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled.set(true);
+                if (endMarker) {
+                    queue.clear();
+                    queue.offer(END_OF_SCAN);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) return true;
+            if (done) return false;
+            try {
+                ScannedFile item = queue.take();
+                if (item == END_OF_SCAN) {
+                    done = true;
+                    return false;
+                }
+                next = item;
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return false;
+            }
+        }
+
+        @Override
+        public ScannedFile next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            ScannedFile item = next;
+            next = null;
+            return item;
+        }
+
+        @Override
+        public void close() {
+            cancelled.set(true);
+            done = true;
+            queue.clear();
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private final Path dir;
+        private final GitIgnoreRules inheritedRules;
+        private final Consumer<ScannedFile> sink;
+        private final AtomicBoolean cancelled;
+
+        DirectoryTask(Path dir, GitIgnoreRules inheritedRules, Consumer<ScannedFile> sink, AtomicBoolean cancelled) {
+            this.dir = dir;
+            this.inheritedRules = inheritedRules;
+            this.sink = sink;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get()) return;
+            GitIgnoreRules rules = respectGitIgnore ? inheritedRules.forDirectory(dir) : inheritedRules;
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            try {
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (cancelled.get()) return FileVisitResult.TERMINATE;
+                        if (attrs.isDirectory()) {
+                            String name = file.getFileName().toString();
+                            if (!isExcludedDirectoryName(name) && !rules.isIgnored(file, true)) {
+                                subdirectories.add(new DirectoryTask(file, rules, sink, cancelled));
+                            }
+                        } else if (attrs.isRegularFile() && fileFilter.test(file) && !rules.isIgnored(file, false)) {
+                            sink.accept(new ScannedFile(file, attrs));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        System.err.println("[WorkspaceScanner] Cannot read " + file + ": " + exc.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("[WorkspaceScanner] Failed to list " + dir + ": " + e.getMessage());
+            }
+            invokeAll(subdirectories);
+        }
+    }
+}
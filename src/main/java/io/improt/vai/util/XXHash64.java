@@ -0,0 +1,157 @@
+package io.improt.vai.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming XXH64 (non-cryptographic, 64-bit). Used for content fingerprints where MD5 was overkill.
+ * Not thread-safe; create one per hash or call {@link #reset()} between uses.
+ */
+public final class XXHash64 {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long seed;
+    private final byte[] mem = new byte[32];
+    private final ByteBuffer memView = ByteBuffer.wrap(mem).order(ByteOrder.LITTLE_ENDIAN);
+    private int memSize;
+    private long totalLength;
+    private long v1, v2, v3, v4;
+
+    public XXHash64() {
+        this(0L);
+    }
+
+    public XXHash64(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    public void reset() {
+        v1 = seed + P1 + P2;
+        v2 = seed + P2;
+        v3 = seed;
+        v4 = seed - P1;
+        memSize = 0;
+        totalLength = 0;
+    }
+
+    /**
+     * Consumes all remaining bytes of the buffer. The buffer's byte order is left untouched.
+     */
+    public void update(ByteBuffer buf) {
+        int len = buf.remaining();
+        totalLength += len;
+
+        if (memSize + len < 32) {
+            buf.get(mem, memSize, len);
+            memSize += len;
+            return;
+        }
+
+        if (memSize > 0) {
+            buf.get(mem, memSize, 32 - memSize);
+            v1 = round(v1, memView.getLong(0));
+            v2 = round(v2, memView.getLong(8));
+            v3 = round(v3, memView.getLong(16));
+            v4 = round(v4, memView.getLong(24));
+            memSize = 0;
+        }
+
+        ByteOrder originalOrder = buf.order();
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.remaining() >= 32) {
+            v1 = round(v1, buf.getLong());
+            v2 = round(v2, buf.getLong());
+            v3 = round(v3, buf.getLong());
+            v4 = round(v4, buf.getLong());
+        }
+        buf.order(originalOrder);
+
+        memSize = buf.remaining();
+        buf.get(mem, 0, memSize);
+    }
+
+    public void update(byte[] bytes, int offset, int length) {
+        update(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    public long getValue() {
+        long h;
+        if (totalLength >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += totalLength;
+
+        int i = 0;
+        while (i + 8 <= memSize) {
+            h ^= round(0, memView.getLong(i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+            i += 8;
+        }
+        if (i + 4 <= memSize) {
+            h ^= (memView.getInt(i) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        while (i < memSize) {
+            h ^= (mem[i] & 0xFFL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+            i++;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    public String getHexValue() {
+        return toHex(getValue());
+    }
+
+    /**
+     * Fixed-width lowercase hex, built from a single char[] rather than a per-byte String.format.
+     */
+    public static String toHex(long value) {
+        char[] out = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            out[i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        return new String(out);
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * P1 + P4;
+    }
+}
@@ -1,5 +0,0 @@
-package io.improt.vai.util.stream;
-
-public interface ISnippetAction {
-    void doAction(String snippet);
-}
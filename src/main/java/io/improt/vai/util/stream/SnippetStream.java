@@ -0,0 +1,227 @@
+package io.improt.vai.util.stream;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One streamed response on its way to a {@link StreamListener}.
+ *
+ * The producer {@link #offer}s text as it arrives; the stream batches it and delivers at most one update per frame,
+ * or sooner once a batch is large. This is the only place streamed text is coalesced; listeners render each update
+ * as it comes. Producers that get far ahead of a slow listener wait in {@link #offer} rather
+ * than queueing without bound. Delivery runs on a small pool shared by all streams, so concurrent streams do not
+ * need a thread each. The stream ends with exactly one of {@link #complete}, {@link #fail} or {@link #cancel}.
+ */
+public final class SnippetStream {
+
+    private static final long FRAME_MS = 16;
+    /** Pending text that is delivered without waiting for the frame. */
+    private static final int BATCH_CHARS = 4096;
+    /** Pending text beyond which producers wait for the listener. */
+    private static final int MAX_PENDING_CHARS = 64 * 1024;
+
+    private static final AtomicInteger threadIds = new AtomicInteger();
+    private static final ScheduledExecutorService DELIVERY = Executors.newScheduledThreadPool(2, r -> {
+        Thread t = new Thread(r, "SnippetStream-" + threadIds.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private enum State { OPEN, COMPLETING, FAILING, DONE, CANCELLED }
+
+    private final StreamListener listener;
+    private final Object lock = new Object();
+    private final StringBuilder pending = new StringBuilder();
+    private final StringBuilder delivered = new StringBuilder();
+    private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+    private State state = State.OPEN;
+    private Throwable error;
+    /** A delivery is scheduled or running; it reschedules itself if more arrives meanwhile. */
+    private boolean delivering;
+    private boolean cancelNotified;
+
+    private SnippetStream(StreamListener listener) {
+        this.listener = listener;
+    }
+
+    public static SnippetStream open(StreamListener listener) {
+        return new SnippetStream(listener);
+    }
+
+    /**
+     * Completes or fails this stream with {@code request}, and cancels {@code request} if this stream is cancelled.
+     *
+     * @return This stream.
+     */
+    public SnippetStream attach(CompletableFuture<?> request) {
+        onCancel(() -> request.cancel(true));
+        request.whenComplete((result, failure) -> {
+            if (failure == null) {
+                complete();
+            } else if (!(failure instanceof CancellationException)) {
+                fail(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds text to the stream, waiting while the listener is far behind. Ignored once the stream has ended.
+     */
+    public void offer(String text) {
+        if (text == null || text.isEmpty()) return;
+        synchronized (lock) {
+            while (state == State.OPEN && pending.length() >= MAX_PENDING_CHARS) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (state != State.OPEN) return;
+            pending.append(text);
+            schedule(pending.length() >= BATCH_CHARS ? 0 : FRAME_MS);
+        }
+    }
+
+    /**
+     * Ends the stream normally once pending text is delivered.
+     */
+    public void complete() {
+        end(State.COMPLETING, null);
+    }
+
+    /**
+     * Ends the stream with {@code failure} once pending text is delivered.
+     */
+    public void fail(Throwable failure) {
+        end(State.FAILING, failure);
+    }
+
+    private void end(State ending, Throwable failure) {
+        synchronized (lock) {
+            if (state != State.OPEN) return;
+            state = ending;
+            error = failure;
+            lock.notifyAll();
+            schedule(0);
+        }
+    }
+
+    /**
+     * Stops delivery, drops pending text and runs the cancel hooks, which abort the request behind the stream.
+     * Does nothing once the stream has ended.
+     */
+    public void cancel() {
+        synchronized (lock) {
+            if (state == State.DONE || state == State.CANCELLED) return;
+            state = State.CANCELLED;
+            pending.setLength(0);
+            lock.notifyAll();
+            schedule(0);
+        }
+        for (Runnable hook : cancelHooks) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                System.err.println("[SnippetStream] Cancel hook failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs {@code hook} when the stream is cancelled, or right away if it already was.
+     */
+    public void onCancel(Runnable hook) {
+        cancelHooks.add(hook);
+        if (isCancelled() && cancelHooks.remove(hook)) {
+            hook.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        synchronized (lock) {
+            return state == State.CANCELLED;
+        }
+    }
+
+    public boolean isDone() {
+        synchronized (lock) {
+            return state == State.DONE || state == State.CANCELLED;
+        }
+    }
+
+    private void schedule(long delayMs) {
+        if (delivering) return;
+        delivering = true;
+        DELIVERY.schedule(this::deliver, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void deliver() {
+        String batch = "";
+        State ending;
+        String text;
+        Throwable failure;
+        synchronized (lock) {
+            ending = state;
+            if (state == State.DONE || (state == State.CANCELLED && cancelNotified)) {
+                delivering = false;
+                return;
+            }
+            if (state == State.CANCELLED) {
+                cancelNotified = true;
+            } else {
+                batch = pending.toString();
+                pending.setLength(0);
+                delivered.append(batch);
+                lock.notifyAll();
+                if (state != State.OPEN) {
+                    state = State.DONE;
+                }
+            }
+            // The whole text is only needed for the terminal call; copying it every frame would be quadratic.
+            text = ending == State.OPEN ? null : delivered.toString();
+            failure = error;
+        }
+
+        if (ending == State.CANCELLED) {
+            notifyListener(() -> listener.onCancel(text));
+        } else {
+            String update = batch;
+            if (!update.isEmpty()) {
+                notifyListener(() -> listener.onSnippet(update));
+            }
+            if (ending == State.COMPLETING) {
+                notifyListener(() -> listener.onComplete(text));
+            } else if (ending == State.FAILING) {
+                notifyListener(() -> listener.onError(failure, text));
+            }
+        }
+
+        synchronized (lock) {
+            delivering = false;
+            if (state == State.OPEN && pending.length() > 0) {
+                schedule(pending.length() >= BATCH_CHARS ? 0 : FRAME_MS);
+            } else if (state == State.COMPLETING || state == State.FAILING || (state == State.CANCELLED && !cancelNotified)) {
+                schedule(0);
+            }
+        }
+    }
+
+    private static void notifyListener(Runnable call) {
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            System.err.println("[SnippetStream] Listener failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package io.improt.vai.util.stream;
+
+/**
+ * Receives a {@link SnippetStream}'s text, batched to about one update per UI frame, then exactly one of the
+ * terminal signals. Calls come from the stream's delivery threads, never two at a time for one stream.
+ */
+public interface StreamListener {
+
+    /**
+     * The text that arrived since the last update.
+     */
+    void onSnippet(String text);
+
+    /**
+     * The stream finished normally; {@code text} is everything it delivered.
+     */
+    default void onComplete(String text) {
+    }
+
+    /**
+     * The request failed after delivering {@code text} so far.
+     */
+    default void onError(Throwable error, String text) {
+    }
+
+    /**
+     * The stream was cancelled; text still pending at that point is dropped.
+     */
+    default void onCancel(String text) {
+    }
+}
@@ -0,0 +1,165 @@
+package io.improt.vai.llm.chat.session;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.improt.vai.llm.chat.ChatMessage;
+import io.improt.vai.llm.chat.content.AudioContent;
+import io.improt.vai.llm.chat.content.ChatMessageUserType;
+import io.improt.vai.llm.chat.content.ImageContent;
+import io.improt.vai.llm.chat.content.TextContent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ChatSessionTest {
+
+    @TempDir
+    Path dir;
+
+    private ChatSessionStore newStore() {
+        return new ChatSessionStore(dir.resolve("sessions").toFile());
+    }
+
+    private static ChatMessage text(ChatMessageUserType role, String text) {
+        return new ChatMessage(role, new TextContent(text));
+    }
+
+    @Test
+    public void messagesRoundTrip() throws Exception {
+        File image = dir.resolve("screenshot.png").toFile();
+        Files.write(image.toPath(), new byte[] {1, 2, 3});
+        File audio = dir.resolve("clip.wav").toFile();
+        Files.write(audio.toPath(), new byte[] {4, 5, 6});
+
+        ChatSessionStore store = newStore();
+        ChatSession session = store.create("model-a");
+        ChatMessage question = new ChatMessage(ChatMessageUserType.USER, new TextContent("How does the cache work?\nDetails"),
+                new Date(1_700_000_000_000L));
+        session.append(text(ChatMessageUserType.SYSTEM, "Be brief."));
+        session.append(question);
+        session.append(new ChatMessage(ChatMessageUserType.USER, new ImageContent(image)));
+        session.append(new ChatMessage(ChatMessageUserType.USER, new AudioContent(audio)));
+        session.append(text(ChatMessageUserType.ASSISTANT, "It stores finished responses."));
+        session.setModel("model-b");
+        session.close();
+
+        ChatSession reopened = newStore().open(session.getInfo().getId());
+        assertNotNull(reopened);
+        List<ChatMessage> messages = reopened.getMessages();
+        assertEquals(5, messages.size());
+        assertEquals(ChatMessageUserType.SYSTEM, messages.get(0).getMessageType());
+        assertEquals("Be brief.", messages.get(0).getContent().toString());
+        assertEquals("How does the cache work?\nDetails", messages.get(1).getContent().toString());
+        assertEquals(question.getTimestamp(), messages.get(1).getTimestamp());
+        assertTrue(messages.get(2).getContent() instanceof ImageContent);
+        assertArrayEquals(new byte[] {1, 2, 3},
+                Files.readAllBytes(((ImageContent) messages.get(2).getContent()).getImageFile().toPath()));
+        assertTrue(messages.get(3).getContent() instanceof AudioContent);
+        assertEquals(ChatMessageUserType.ASSISTANT, messages.get(4).getMessageType());
+        assertFalse(reopened.hasUnloadedMessages());
+
+        ChatSessionStore.SessionInfo info = reopened.getInfo();
+        assertEquals("How does the cache work?", info.getTitle());
+        assertEquals("model-b", info.getModel());
+        assertEquals(4, info.getMessageCount());
+    }
+
+    @Test
+    public void removedMessagesStayRemovedAndIdsContinue() {
+        ChatSessionStore store = newStore();
+        ChatSession session = store.create("m");
+        ChatMessage first = text(ChatMessageUserType.USER, "first");
+        session.append(first);
+        session.append(text(ChatMessageUserType.ASSISTANT, "second"));
+        session.remove(first);
+        session.close();
+
+        ChatSession reopened = newStore().open(session.getInfo().getId());
+        assertEquals(1, reopened.getMessages().size());
+        reopened.append(text(ChatMessageUserType.USER, "third"));
+        reopened.remove(reopened.getMessages().get(0));
+        reopened.close();
+
+        List<ChatMessage> messages = newStore().open(session.getInfo().getId()).getMessages();
+        assertEquals(1, messages.size());
+        assertEquals("third", messages.get(0).getContent().toString());
+    }
+
+    @Test
+    public void resumeReadsOnlyRecentSegments() {
+        ChatSessionStore store = newStore();
+        ChatSession session = store.create("m");
+        int total = ChatSession.RESUME_MESSAGES + 2 * ChatSession.SEGMENT_MESSAGES + 10;
+        for (int i = 0; i < total; i++) {
+            session.append(text(ChatMessageUserType.USER, "message " + i));
+        }
+        session.close();
+
+        ChatSession reopened = newStore().open(session.getInfo().getId());
+        List<ChatMessage> messages = reopened.getMessages();
+        assertTrue(reopened.hasUnloadedMessages());
+        assertTrue(messages.size() >= ChatSession.RESUME_MESSAGES && messages.size() < total);
+        assertEquals("message " + (total - 1), messages.get(messages.size() - 1).getContent().toString());
+        assertEquals("message " + (total - messages.size()), messages.get(0).getContent().toString());
+    }
+
+    @Test
+    public void removalsDoNotCountTowardsResumedMessages() {
+        ChatSessionStore store = newStore();
+        ChatSession session = store.create("m");
+        int total = 3 * ChatSession.SEGMENT_MESSAGES;
+        ChatMessage[] appended = new ChatMessage[total];
+        for (int i = 0; i < total; i++) {
+            appended[i] = text(ChatMessageUserType.USER, "message " + i);
+            session.append(appended[i]);
+        }
+        // Removing the newest segment's messages leaves its records but none of its messages live.
+        for (int i = total - ChatSession.SEGMENT_MESSAGES; i < total; i++) {
+            session.remove(appended[i]);
+        }
+        session.close();
+
+        List<ChatMessage> messages = newStore().open(session.getInfo().getId()).getMessages();
+        assertEquals(total - ChatSession.SEGMENT_MESSAGES, messages.size());
+        assertEquals("message 0", messages.get(0).getContent().toString());
+    }
+
+    @Test
+    public void deleteRemovesSessionFiles() {
+        ChatSessionStore store = newStore();
+        ChatSession session = store.create("m");
+        session.append(text(ChatMessageUserType.USER, "hello"));
+        String id = session.getInfo().getId();
+
+        store.delete(id);
+        assertNull(newStore().open(id));
+        assertFalse(dir.resolve("sessions").resolve(id).toFile().exists());
+    }
+
+    @Test
+    public void openSessionsAreNotPruned() {
+        ChatSessionStore store = newStore();
+        ChatSession old = store.create("m");
+        old.append(text(ChatMessageUserType.USER, "hello"));
+        old.getInfo().updated = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(365);
+        String id = old.getInfo().getId();
+
+        store.create("m");
+        ChatSession second = store.open(id);
+        assertNotNull(second);
+        old.close();
+        store.create("m");
+        assertTrue(store.list().stream().anyMatch(info -> info.getId().equals(id)), "still open through the second handle");
+
+        second.close();
+        store.create("m");
+        assertNull(store.open(id));
+        assertFalse(dir.resolve("sessions").resolve(id).toFile().exists());
+    }
+}
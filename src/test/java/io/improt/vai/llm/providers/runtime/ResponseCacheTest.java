@@ -0,0 +1,148 @@
+package io.improt.vai.llm.providers.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResponseCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void keyIgnoresLineEndingsAndTrailingWhitespace() {
+        String a = ResponseCache.key("m", "low", Arrays.asList("system", "line one\nline two"), null);
+        String b = ResponseCache.key("m", "low", Arrays.asList("system  ", "line one \r\nline two"), null);
+        assertEquals(a, b);
+    }
+
+    @Test
+    public void keyKeepsLeadingWhitespaceAndTrailingLines() {
+        String base = ResponseCache.key("m", "low", Arrays.asList("s", "u"), null);
+        assertNotEquals(base, ResponseCache.key("m", "low", Arrays.asList("s", "  u"), null));
+        assertNotEquals(base, ResponseCache.key("m", "low", Arrays.asList("s", "u\n"), null));
+        assertNotEquals(base, ResponseCache.key("m", "low", Arrays.asList("s", "\nu"), null));
+    }
+
+    @Test
+    public void keyDependsOnModelEffortTextAndFiles() throws Exception {
+        String base = ResponseCache.key("m", "low", Arrays.asList("s", "u"), null);
+        assertNotEquals(base, ResponseCache.key("other", "low", Arrays.asList("s", "u"), null));
+        assertNotEquals(base, ResponseCache.key("m", "high", Arrays.asList("s", "u"), null));
+        assertNotEquals(base, ResponseCache.key("m", null, Arrays.asList("s", "u"), null));
+        assertNotEquals(base, ResponseCache.key("m", "low", Arrays.asList("s", "u2"), null));
+        // The split between texts counts, not just their concatenation.
+        assertNotEquals(base, ResponseCache.key("m", "low", Arrays.asList("su", ""), null));
+
+        File file = dir.resolve("image.png").toFile();
+        assertTrue(file.createNewFile());
+        assertNotEquals(base, ResponseCache.key("m", "low", Arrays.asList("s", "u"), Collections.singletonList(file)));
+    }
+
+    @Test
+    public void onlyFinishedResponsesAreCached() {
+        ResponseCache cache = new ResponseCache(dir.toFile());
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals("cut off", cache.getOrCompute("k", () -> {
+            calls.incrementAndGet();
+            return new ResponseCache.Completion("cut off", false);
+        }));
+        assertEquals("done", cache.getOrCompute("k", () -> {
+            calls.incrementAndGet();
+            return new ResponseCache.Completion("done", true);
+        }));
+        assertEquals("done", cache.getOrCompute("k", () -> {
+            calls.incrementAndGet();
+            return new ResponseCache.Completion("again", true);
+        }));
+        assertEquals(2, calls.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void hitIsStreamedWhole() {
+        ResponseCache cache = new ResponseCache(dir.toFile());
+        cache.put("k", "cached answer");
+        StringBuilder streamed = new StringBuilder();
+        assertEquals("cached answer", cache.getOrStream("k", streamed::append, () -> {
+            throw new AssertionError("should not be called");
+        }));
+        assertEquals("cached answer", streamed.toString());
+    }
+
+    @Test
+    public void bypassSkipsLookupButStoresTheFreshAnswer() {
+        ResponseCache cache = new ResponseCache(dir.toFile());
+        cache.put("k", "old");
+        try (ResponseCache.Bypass ignored = ResponseCache.bypass()) {
+            assertEquals("new", cache.getOrCompute("k", () -> new ResponseCache.Completion("new", true)));
+        }
+        assertEquals("new", cache.lookup("k"));
+    }
+
+    @Test
+    public void expiredEntriesAreMisses() {
+        File directory = dir.toFile();
+        new ResponseCache(directory).put("k", "stale");
+        File entry = new File(directory, "k.json");
+        assertTrue(entry.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8)));
+
+        ResponseCache reopened = new ResponseCache(directory);
+        assertNull(reopened.lookup("k"));
+        assertFalse(entry.exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedFirst() {
+        ResponseCache cache = new ResponseCache(dir.toFile(), 2, Long.MAX_VALUE);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        assertEquals("A", cache.lookup("a"));
+        cache.put("c", "C");
+
+        assertNull(cache.lookup("b"));
+        assertEquals("A", cache.lookup("a"));
+        assertEquals("C", cache.lookup("c"));
+        assertFalse(new File(dir.toFile(), "b.json").exists());
+    }
+
+    @Test
+    public void hitsKeepTheirOrderAcrossRestarts() {
+        File directory = dir.toFile();
+        long now = System.currentTimeMillis();
+        ResponseCache cache = new ResponseCache(directory, 2, Long.MAX_VALUE);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        File a = new File(directory, "a.json");
+        File b = new File(directory, "b.json");
+        assertTrue(a.setLastModified(now - 20_000));
+        assertTrue(b.setLastModified(now - 10_000));
+
+        ResponseCache reopened = new ResponseCache(directory, 2, Long.MAX_VALUE);
+        assertEquals("A", reopened.lookup("a"));
+        assertTrue(a.lastModified() > b.lastModified());
+
+        ResponseCache again = new ResponseCache(directory, 2, Long.MAX_VALUE);
+        again.put("c", "C");
+        assertEquals("A", again.lookup("a"));
+        assertFalse(b.exists());
+    }
+
+    @Test
+    public void sizeLimitEvicts() {
+        ResponseCache cache = new ResponseCache(dir.toFile(), 100, 200);
+        cache.put("a", String.join("", Collections.nCopies(120, "x")));
+        cache.put("b", String.join("", Collections.nCopies(120, "y")));
+        assertNull(cache.lookup("a"));
+        assertNotNull(cache.lookup("b"));
+    }
+}
@@ -0,0 +1,84 @@
+package io.improt.vai.mapping;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+public class MappingSearchIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private MappingSearchIndex newIndex() {
+        return MappingSearchIndex.load(dir.resolve(MappingSearchIndex.INDEX_FILENAME).toFile());
+    }
+
+    @Test
+    public void identifierMatchOutranksPassingMention() {
+        MappingSearchIndex index = newIndex();
+        index.update("src/RateLimiter.java", "h1", "src/RateLimiter.java RateLimiter",
+                "Limits requests per client using a token bucket.");
+        index.update("src/Server.java", "h2", "src/Server.java Server",
+                "Accepts connections and hands each request to the rate limiter before routing it.");
+        index.update("src/Router.java", "h3", "src/Router.java Router", "Matches request paths to handlers.");
+
+        List<MappingSearchIndex.SearchHit> hits = index.search("rate limiter", 10);
+        assertEquals(2, hits.size());
+        assertEquals("src/RateLimiter.java", hits.get(0).getPath());
+        assertEquals("src/Server.java", hits.get(1).getPath());
+    }
+
+    @Test
+    public void phraseRequiresAdjacentWords() {
+        MappingSearchIndex index = newIndex();
+        index.update("a", "h1", "a", "Refills the token bucket every second.");
+        index.update("b", "h2", "b", "Hands out a bucket of work per token received.");
+
+        Map<String, Double> scores = index.score("\"token bucket\"");
+        assertEquals(1, scores.size());
+        assertTrue(scores.containsKey("a"));
+    }
+
+    @Test
+    public void phraseMatchesAcrossCamelCaseParts() {
+        MappingSearchIndex index = newIndex();
+        index.update("a", "h1", "a", "Wraps a TokenBucket limiter around each client.");
+
+        assertTrue(index.score("\"token bucket limiter\"").containsKey("a"));
+        assertTrue(index.score("\"wraps tokenbucket\"").containsKey("a"));
+        assertTrue(index.score("\"TokenBucket limiter\"").containsKey("a"));
+        assertFalse(index.score("\"bucket token\"").containsKey("a"));
+    }
+
+    @Test
+    public void phraseMatchesInsideIdentifiersButNotAcrossIntoText() {
+        MappingSearchIndex index = newIndex();
+        // With identifier terms repeated inline, "limiter rate" used to match across the repeats.
+        index.update("src/RateLimiter.java", "h1", "src/RateLimiter.java", "Java rate limiting helper.");
+
+        assertTrue(index.score("\"rate limiter\"").containsKey("src/RateLimiter.java"));
+        assertFalse(index.score("\"limiter rate\"").containsKey("src/RateLimiter.java"));
+        assertFalse(index.score("\"java java\"").containsKey("src/RateLimiter.java"));
+    }
+
+    @Test
+    public void updateReplacesAndSaveRoundTrips() {
+        MappingSearchIndex index = newIndex();
+        index.update("a", "h1", "a", "Parses the journal format.");
+        index.update("a", "h2", "a", "Writes the snapshot file.");
+        assertTrue(index.score("journal").isEmpty());
+        assertTrue(index.isCurrent("a", "h2"));
+
+        index.save();
+        MappingSearchIndex reloaded = newIndex();
+        assertEquals(1, reloaded.size());
+        assertTrue(reloaded.isCurrent("a", "h2"));
+        assertEquals(index.score("snapshot"), reloaded.score("snapshot"));
+        assertTrue(reloaded.score("\"snapshot file\"").containsKey("a"));
+    }
+}
@@ -0,0 +1,108 @@
+package io.improt.vai.mapping;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+public class MappingStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private static JSONObject record(String path, String summary) {
+        return new JSONObject().put("path", path).put("summary", summary);
+    }
+
+    private static void write(File file, String contents) throws Exception {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void awaitCompaction(File snapshot) throws InterruptedException {
+        File journal = new File(snapshot.getPath() + ".journal");
+        File compacting = new File(snapshot.getPath() + ".compacting");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((journal.exists() && journal.length() > 0 || compacting.exists()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void journalRecordsAreVisibleBeforeCompaction() {
+        File snapshot = dir.resolve("class_mappings.json").toFile();
+        MappingStore store = MappingStore.forSnapshot(snapshot);
+        store.put(record("A.java", "first"));
+        store.put(record("B.java", "second"));
+        store.put(record("A.java", "updated"));
+        store.remove("B.java");
+
+        Map<String, JSONObject> state = store.load();
+        assertEquals(1, state.size());
+        assertEquals("updated", state.get("A.java").getString("summary"));
+    }
+
+    @Test
+    public void compactionFoldsJournalIntoSnapshot() throws Exception {
+        File snapshot = dir.resolve("class_mappings.json").toFile();
+        MappingStore store = MappingStore.forSnapshot(snapshot);
+        store.put(record("A.java", "a"));
+        store.put(record("B.java", "b"));
+        store.requestCompaction();
+        awaitCompaction(snapshot);
+
+        assertTrue(snapshot.exists());
+        assertFalse(new File(snapshot.getPath() + ".journal").length() > 0);
+        Map<String, JSONObject> state = MappingStore.readRecords(snapshot);
+        assertEquals(Arrays.asList("A.java", "B.java"), Arrays.asList(state.keySet().toArray()));
+    }
+
+    @Test
+    public void leftoverCompactingFileIsRecoveredNotOverwritten() throws Exception {
+        File snapshot = dir.resolve("class_mappings.json").toFile();
+        write(snapshot, "[" + record("A.java", "snapshot") + "]");
+        MappingStore store = MappingStore.forSnapshot(snapshot);
+        // A compaction that rotated the journal but failed to write the snapshot, followed by more appends.
+        write(new File(snapshot.getPath() + ".compacting"), record("B.java", "rotated") + "\n");
+        store.put(record("C.java", "live"));
+        store.requestCompaction();
+        awaitCompaction(snapshot);
+
+        Map<String, JSONObject> state = MappingStore.readRecords(snapshot);
+        assertEquals("snapshot", state.get("A.java").getString("summary"));
+        assertEquals("rotated", state.get("B.java").getString("summary"));
+        assertEquals("live", state.get("C.java").getString("summary"));
+        assertFalse(new File(snapshot.getPath() + ".compacting").exists());
+    }
+
+    @Test
+    public void tornJournalTailIsSkipped() throws Exception {
+        File snapshot = dir.resolve("class_mappings.json").toFile();
+        write(new File(snapshot.getPath() + ".journal"), record("A.java", "a") + "\n{\"path\":\"B.ja");
+
+        Map<String, JSONObject> state = MappingStore.readRecords(snapshot);
+        assertEquals(1, state.size());
+        assertTrue(state.containsKey("A.java"));
+    }
+
+    @Test
+    public void removedRecordsDropOutOfTheSnapshot() throws Exception {
+        File snapshot = dir.resolve("class_mappings.json").toFile();
+        MappingStore store = MappingStore.forSnapshot(snapshot);
+        store.put(record("A.java", "a"));
+        store.put(record("B.java", "b"));
+        store.remove("A.java");
+        store.requestCompaction();
+        awaitCompaction(snapshot);
+
+        assertEquals(Arrays.asList("B.java"), Arrays.asList(MappingStore.readRecords(snapshot).keySet().toArray()));
+        assertFalse(new String(Files.readAllBytes(snapshot.toPath()), StandardCharsets.UTF_8).contains("A.java"));
+    }
+}
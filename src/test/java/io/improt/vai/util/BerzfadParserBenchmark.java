@@ -0,0 +1,187 @@
+package io.improt.vai.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link BerzfadParser#parse(String)} with {@link BerzfadParser.StreamingParser} on multi-megabyte responses.
+ *
+ * Run after {@code mvn test-compile} with the test classpath, e.g. from the IDE via {@link #main(String[])}.
+ * {@code blockKb} controls the shape: many ordinary files, or a few very large ones. The streamed variants feed
+ * the response in small chunks, which is where the scanning parser has to rescan the block in progress.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BerzfadParserBenchmark {
+
+    /** Size of the pieces the streaming benchmarks are fed in, about what a completion stream delivers. */
+    private static final int STREAM_CHUNK_CHARS = 64;
+
+    @State(Scope.Benchmark)
+    public static class LargeResponse {
+        @Param({"1", "8"})
+        public int responseMb;
+
+        @Param({"4", "512"})
+        public int blockKb;
+
+        String response;
+        private PrintStream originalOut;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            response = buildResponse(responseMb * 1024 * 1024, blockKb * 1024, new Random(42));
+            originalOut = silenceOutput();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            System.setOut(originalOut);
+        }
+    }
+
+    /**
+     * For the scanning parser fed in chunks, as submitRequest first streamed it. Each drain rescans the block in
+     * progress, so it is kept to sizes that finish in reasonable time.
+     */
+    @State(Scope.Benchmark)
+    public static class SmallResponse {
+        @Param({"1"})
+        public int responseMb;
+
+        @Param({"4", "64"})
+        public int blockKb;
+
+        String response;
+        private PrintStream originalOut;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            response = buildResponse(responseMb * 1024 * 1024, blockKb * 1024, new Random(42));
+            originalOut = silenceOutput();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            System.setOut(originalOut);
+        }
+    }
+
+    @Benchmark
+    public List<BerzfadParser.FileContent> scanParse(LargeResponse state) throws Exception {
+        return BerzfadParser.parse(state.response);
+    }
+
+    @Benchmark
+    public int pushParseWhole(LargeResponse state, Blackhole blackhole) throws Exception {
+        BerzfadParser.StreamingParser parser = new BerzfadParser.StreamingParser(blackhole::consume);
+        parser.feed(state.response);
+        return parser.finish();
+    }
+
+    @Benchmark
+    public int pushParseStreamed(LargeResponse state, Blackhole blackhole) throws Exception {
+        String response = state.response;
+        BerzfadParser.StreamingParser parser = new BerzfadParser.StreamingParser(blackhole::consume);
+        for (int i = 0; i < response.length(); i += STREAM_CHUNK_CHARS) {
+            parser.feed(response.substring(i, Math.min(response.length(), i + STREAM_CHUNK_CHARS)));
+        }
+        return parser.finish();
+    }
+
+    @Benchmark
+    public int scanParseStreamed(SmallResponse state, Blackhole blackhole) throws Exception {
+        String response = state.response;
+        BerzfadParser.ScanningParser parser = new BerzfadParser.ScanningParser(blackhole::consume);
+        for (int i = 0; i < response.length(); i += STREAM_CHUNK_CHARS) {
+            parser.feed(response.substring(i, Math.min(response.length(), i + STREAM_CHUNK_CHARS)));
+        }
+        return parser.finish();
+    }
+
+    @Benchmark
+    public int pushParseStreamedSmall(SmallResponse state, Blackhole blackhole) throws Exception {
+        String response = state.response;
+        BerzfadParser.StreamingParser parser = new BerzfadParser.StreamingParser(blackhole::consume);
+        for (int i = 0; i < response.length(); i += STREAM_CHUNK_CHARS) {
+            parser.feed(response.substring(i, Math.min(response.length(), i + STREAM_CHUNK_CHARS)));
+        }
+        return parser.finish();
+    }
+
+    /**
+     * Both parsers log each block; keeps that out of the measurement. Returns the stream to restore.
+     */
+    private static PrintStream silenceOutput() {
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return original;
+    }
+
+    /**
+     * A response made of Java-like file blocks, separated by blank lines so nothing is left over.
+     */
+    static String buildResponse(int totalChars, int blockChars, Random random) {
+        StringBuilder sb = new StringBuilder(totalChars + blockChars);
+        int file = 0;
+        while (sb.length() < totalChars) {
+            sb.append("[src/main/java/io/example/Generated").append(file++).append(".java]\n```java\n");
+            int end = sb.length() + blockChars;
+            while (sb.length() < end) {
+                int indent = random.nextInt(4) * 4;
+                for (int i = 0; i < indent; i++) {
+                    sb.append(' ');
+                }
+                switch (random.nextInt(5)) {
+                    case 0:
+                        sb.append("int[] values = new int[").append(random.nextInt(100)).append("];\n");
+                        break;
+                    case 1:
+                        sb.append("// Mentions of !EOF and ``` inside a line are content.\n");
+                        break;
+                    case 2:
+                        sb.append("list.add(map.get(\"key").append(random.nextInt(1000)).append("\"));\n");
+                        break;
+                    case 3:
+                        sb.append("}\n");
+                        break;
+                    default:
+                        sb.append("if (value > ").append(random.nextInt(1000)).append(") { return value; }\n");
+                        break;
+                }
+            }
+            sb.append("```\n!EOF\n\n");
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BerzfadParserBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
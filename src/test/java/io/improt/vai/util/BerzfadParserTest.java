@@ -0,0 +1,127 @@
+package io.improt.vai.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class BerzfadParserTest {
+
+    private static final int[] CHUNK_SIZES = {1, 2, 3, 5, 13, 64, Integer.MAX_VALUE};
+
+    private static final List<String> CASES = Arrays.asList(
+            "[src/A.java]\n```java\nclass A {}\n```\n!EOF\n",
+            "Here you go:\n\n[src/A.java]\n```java\nclass A {}\n```\n!EOF\n\nAnd another:\n[src/B.py]\n```python\nprint(1)\n```\n!EOF\nDone.",
+            "[src/A.java]\n```java\n// ``` and !EOF inside a line are content\nString s = \"[x]\";\n```\n!EOF\n",
+            "[README.md]\n```markdown\nText\n```\nMore text\n```\n!EOF\n",
+            "[src/A.java]\n```java\nclass A {}\n```\n  \t!EOF\n",
+            "[src/A.java]\n```java\nclass A {}\n```\n!EOFabc\n[src/B.java]\n```java\nclass B {}\n```\n!EOF\n",
+            "[src/A.java]\n```java\nclass A {}\n```\n!EOF",
+            "[src/A.java]\n```java\nclass A {}\n```\n",
+            "[src/A.java]\n```java\n[src/B.java]\n```java\nclass B {}\n```\nnot a marker\n!EOF\n",
+            "text [src/A.java]\n```java\nclass A {}\n```\n!EOF\n",
+            "[]\n```java\nclass A {}\n```\n!EOF\n",
+            "[src/A.java] trailing\n```java\nclass A {}\n```\n!EOF\n",
+            "[src/A.java]\n```\nno language\n```\n!EOF\n",
+            "[src/A.java]\n```java\n\n\n```\n!EOF\n",
+            "<think>plan</think>\n[src/A.java]\n```java\nclass A {}\n```\n!EOF\n",
+            "[[src/A.java]\n```java\nclass A {}\n```\n!EOF\n",
+            "[src/A.java]\n```java\nclass A {}\n``` \n!EOF\n",
+            "Just an explanation, no files.",
+            "");
+
+    private static final String[] FRAGMENTS = {
+            "[", "]", "\n", "```", "```java\n", "!EOF", "!EOF\n", " ", "\t", "x", "src/A.java", "[src/B.java]\n",
+            "\n```\n", "\n```\n!EOF\n", "text ", "``", "!E", "OF", "[src/C.java]\n```java\nint c;\n```\n!EOF\n"};
+
+    private static final class Result {
+        final List<String> blocks = new ArrayList<>();
+        String leftover;
+    }
+
+    private static String describe(BerzfadParser.FileContent block) {
+        return block.getFileName() + "|" + block.getFileType() + "|" + block.getNewContents();
+    }
+
+    private static Result batch(String response) {
+        Result result = new Result();
+        BerzfadParser.ScanningParser parser = new BerzfadParser.ScanningParser(block -> result.blocks.add(describe(block)));
+        parser.feed(response);
+        result.leftover = parser.settle();
+        return result;
+    }
+
+    private static Result streamed(String response, int chunkSize) {
+        Result result = new Result();
+        BerzfadParser.StreamingParser parser = new BerzfadParser.StreamingParser(block -> result.blocks.add(describe(block)));
+        for (int i = 0; i < response.length(); i += chunkSize) {
+            parser.feed(response.substring(i, (int) Math.min(response.length(), (long) i + chunkSize)));
+        }
+        result.leftover = parser.settle();
+        return result;
+    }
+
+    private static void assertEquivalent(String response) {
+        Result expected = batch(response);
+        for (int chunkSize : CHUNK_SIZES) {
+            Result actual = streamed(response, chunkSize);
+            String context = "chunk size " + chunkSize + " for response: " + response.replace("\n", "\\n");
+            assertEquals(expected.blocks, actual.blocks, context);
+            assertEquals(expected.leftover, actual.leftover, context);
+        }
+    }
+
+    @Test
+    public void parsesWellFormedBlocks() throws Exception {
+        List<BerzfadParser.FileContent> blocks = BerzfadParser.parse(CASES.get(0) + CASES.get(2));
+        assertEquals(2, blocks.size());
+        assertEquals("src/A.java", blocks.get(0).getFileName());
+        assertEquals("java", blocks.get(0).getFileType());
+        assertEquals("class A {}", blocks.get(0).getNewContents().trim());
+        assertTrue(blocks.get(1).getNewContents().contains("!EOF inside a line"));
+    }
+
+    @Test
+    public void streamingMatchesBatchOnEdgeCases() {
+        for (String response : CASES) {
+            assertEquivalent(response);
+        }
+    }
+
+    @Test
+    public void streamingMatchesBatchOnRandomResponses() {
+        Random random = new Random(7);
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder response = new StringBuilder();
+            int fragments = 1 + random.nextInt(30);
+            for (int i = 0; i < fragments; i++) {
+                response.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertEquivalent(response.toString());
+        }
+    }
+
+    @Test
+    public void streamingMatchesBatchOnRandomChunkBoundaries() {
+        Random random = new Random(11);
+        String response = String.join("", CASES);
+        Result expected = batch(response);
+        for (int n = 0; n < 200; n++) {
+            Result actual = new Result();
+            BerzfadParser.StreamingParser parser = new BerzfadParser.StreamingParser(block -> actual.blocks.add(describe(block)));
+            int i = 0;
+            while (i < response.length()) {
+                int end = Math.min(response.length(), i + 1 + random.nextInt(40));
+                parser.feed(response.substring(i, end));
+                i = end;
+            }
+            actual.leftover = parser.settle();
+            assertEquals(expected.blocks, actual.blocks);
+            assertEquals(expected.leftover, actual.leftover);
+        }
+    }
+}